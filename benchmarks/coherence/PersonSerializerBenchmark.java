@@ -0,0 +1,171 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import com.tangosol.io.ByteArrayReadBuffer;
+import com.tangosol.io.ByteArrayWriteBuffer;
+import com.tangosol.io.pof.PofReader;
+import com.tangosol.io.pof.PofSerializer;
+import com.tangosol.io.pof.PofWriter;
+import com.tangosol.io.pof.SimplePofContext;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the POF serialization of {@link Person} values with the
+ * generated {@link PersonSerializer} to a generic serializer that, like
+ * serializers configured without per-class code, finds the fields by
+ * reflection and writes each as a boxed object.
+ * <p>
+ * Each serializer is registered as the Person user type, 9001 as in
+ * pof-config.xml, of its own POF context. The serialize benchmarks write
+ * into a reused buffer, as the cache service does, and the deserialize
+ * benchmarks read a value serialized in setup. The size of a serialized
+ * Person, the same for both serializers, is printed at setup.
+ * <p>
+ * The benchmark needs the JMH jars, and coherence.jar, kvcoherence.jar and
+ * the compiled coherence examples on the classpath. Run it with the
+ * benchmarks target of build.xml, with the coherencelib property set, or,
+ * once compiled and processed by the JMH annotation processor, with:
+ * <pre>
+ * java -cp &lt;classpath&gt; org.openjdk.jmh.Main PersonSerializerBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersonSerializerBenchmark {
+
+    private static final int PERSON_TYPE_ID = 9001;
+
+    @Param({ "generated", "reflection" })
+    public String serializer;
+
+    private SimplePofContext context;
+    private Person person;
+    private ByteArrayWriteBuffer writeBuffer;
+    private ByteArrayReadBuffer readBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        context = new SimplePofContext();
+        context.registerUserType(
+            PERSON_TYPE_ID, Person.class,
+            "generated".equals(serializer) ?
+            new PersonSerializer() :
+            new ReflectionSerializer(Person.class));
+
+        person = new Person();
+        person.setFirstname("Percival");
+        person.setLastname("Lowell");
+        person.setPhone("650-506-7000");
+        person.setAge(36);
+
+        writeBuffer = new ByteArrayWriteBuffer(256);
+        context.serialize(writeBuffer.getBufferOutput(), person);
+        readBuffer = new ByteArrayReadBuffer(writeBuffer.toByteArray());
+        System.out.println("\n" + serializer + ": " +
+                           readBuffer.length() + " bytes per Person");
+    }
+
+    @Benchmark
+    public int serialize() throws IOException {
+        writeBuffer.retain(0, 0);
+        context.serialize(writeBuffer.getBufferOutput(), person);
+        return writeBuffer.length();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return context.deserialize(readBuffer.getBufferInput());
+    }
+
+    /**
+     * A serializer of any class with a no-argument constructor, writing its
+     * instance fields in declaration order, read and written by reflection
+     * as boxed objects.
+     */
+    static class ReflectionSerializer implements PofSerializer<Object> {
+
+        private final Class<?> cls;
+        private final Field[] fields;
+
+        ReflectionSerializer(final Class<?> cls) {
+            this.cls = cls;
+            final List<Field> list = new ArrayList<Field>();
+            for (Field field : cls.getDeclaredFields()) {
+                final int mod = field.getModifiers();
+                if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)) {
+                    field.setAccessible(true);
+                    list.add(field);
+                }
+            }
+            fields = list.toArray(new Field[list.size()]);
+        }
+
+        @Override
+        public void serialize(final PofWriter out, final Object value)
+            throws IOException {
+            try {
+                for (int i = 0; i < fields.length; i++) {
+                    out.writeObject(i, fields[i].get(value));
+                }
+            } catch (IllegalAccessException e) {
+                throw new IOException(e);
+            }
+            out.writeRemainder(null);
+        }
+
+        @Override
+        public Object deserialize(final PofReader in) throws IOException {
+            try {
+                final Object value =
+                    cls.getDeclaredConstructor().newInstance();
+                in.registerIdentity(value);
+                for (int i = 0; i < fields.length; i++) {
+                    final Object fieldValue = in.readObject(i);
+                    if (fieldValue != null ||
+                        !fields[i].getType().isPrimitive()) {
+                        fields[i].set(value, fieldValue);
+                    }
+                }
+                in.readRemainder();
+                return value;
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.kv.table.ArrayValue;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.MapValue;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client-side operations of {@link ComplexFieldExample} on
+ * the record, array and map fields of its complexUsers table: filling them
+ * with putRecord, putArray and putMap, reading them with asRecord, asArray
+ * and asMap, and converting the row to JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ComplexFieldBenchmark {
+
+    private Table table;
+    private Row row;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        table = ExampleTables.complexUsers();
+        row = createRow();
+    }
+
+    @Benchmark
+    public Row createRow() {
+        final Row r = table.createRow();
+        final RecordValue recordValue = r.putRecord("name");
+        recordValue.put("firstName", "Bob");
+        recordValue.put("lastName", "Johnson");
+        final ArrayValue arrayValue = r.putArray("likes");
+        arrayValue.add(new String[] { "sports", "movies" });
+        final MapValue mapValue = r.putMap("optionalInformation");
+        mapValue.put("email", "bob.johnson@email.com");
+        mapValue.put("group", "work");
+        r.put("userID", 1);
+        return r;
+    }
+
+    /* Reading every complex field, as the example does after a get */
+    @Benchmark
+    public int getFields() {
+        final RecordValue record = row.get("name").asRecord();
+        int length = record.get("firstName").asString().get().length() +
+            record.get("lastName").asString().get().length();
+        final ArrayValue array = row.get("likes").asArray();
+        for (int i = 0; i < array.size(); i++) {
+            length += array.get(i).asString().get().length();
+        }
+        final MapValue map = row.get("optionalInformation").asMap();
+        for (FieldValue value : map.getFields().values()) {
+            length += value.asString().get().length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return row.toJsonString(false);
+    }
+}
@@ -0,0 +1,93 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import oracle.kv.impl.api.table.TableBuilder;
+import oracle.kv.table.Table;
+
+/**
+ * The tables of the table examples, built in memory so that the benchmarks
+ * measure the client-side operations on their rows without a store.
+ * <p>
+ * Tables are normally returned by TableAPI.getTable, after being created by
+ * a DDL statement. The benchmarks use the internal TableBuilder instead,
+ * which builds the same table definitions, with the same field types and
+ * primary keys, as the statements of the examples.
+ */
+final class ExampleTables {
+
+    private ExampleTables() {
+    }
+
+    /**
+     * The table of {@link SimpleReadWriteExample}:
+     * <pre>
+     * CREATE TABLE simpleUsers (firstName STRING, lastName STRING,
+     *                           userID INTEGER, age INTEGER,
+     *                           PRIMARY KEY (userID))
+     * </pre>
+     */
+    static Table simpleUsers() {
+        return TableBuilder.createTableBuilder("simpleUsers")
+            .addString("firstName")
+            .addString("lastName")
+            .addInteger("userID")
+            .addInteger("age")
+            .primaryKey("userID")
+            .buildTable();
+    }
+
+    /**
+     * The table of {@link ComplexFieldExample}:
+     * <pre>
+     * CREATE TABLE complexUsers (name RECORD (firstName STRING,
+     *                                         lastName STRING),
+     *                            likes ARRAY(STRING),
+     *                            optionalInformation MAP(STRING),
+     *                            userID INTEGER,
+     *                            PRIMARY KEY (userID))
+     * </pre>
+     */
+    static Table complexUsers() {
+        return TableBuilder.createTableBuilder("complexUsers")
+            .addField("name", TableBuilder.createRecordBuilder("name")
+                      .addString("firstName")
+                      .addString("lastName")
+                      .build())
+            .addField("likes", TableBuilder.createArrayBuilder()
+                      .addString()
+                      .build())
+            .addField("optionalInformation", TableBuilder.createMapBuilder()
+                      .addString()
+                      .build())
+            .addInteger("userID")
+            .primaryKey("userID")
+            .buildTable();
+    }
+
+    /**
+     * The table of {@link UpdateJSON}:
+     * <pre>
+     * CREATE TABLE personContacts (account INTEGER, person JSON,
+     *                              PRIMARY KEY (account))
+     * </pre>
+     */
+    static Table personContacts() {
+        return TableBuilder.createTableBuilder("personContacts")
+            .addInteger("account")
+            .addJson("person", null)
+            .primaryKey("account")
+            .buildTable();
+    }
+}
@@ -0,0 +1,98 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.kv.table.MapValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client-side operations of {@link UpdateJSON} on the JSON
+ * column of its personContacts table: creating a row from a JSON document
+ * of person_contacts.json, navigating the document to the city of the home
+ * address, updating its zip code, and converting the row back to JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonRowBenchmark {
+
+    /* The first document of person_contacts.json */
+    private static final String CONTACT =
+        "{\"account\" : 1," +
+        " \"person\" : {" +
+        "   \"lastName\" : \"Jones\"," +
+        "   \"firstName\" : \"Joe\"," +
+        "   \"address\" : {" +
+        "     \"home\" : {\"street\" : \"15 Elm\", \"city\" : \"Lakeville\"," +
+        "                \"zip\" : \"12345\"}," +
+        "     \"work\" : {\"street\" : \"12 Main\", \"city\" : \"Lakeville\"," +
+        "                \"zip\" : \"12345\"}}," +
+        "   \"phone\" : {\"home\" : \"800-555-1234\"," +
+        "              \"work\" : \"877-123-4567\"}}}";
+
+    private Table table;
+    private Row row;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        table = ExampleTables.personContacts();
+        row = table.createRowFromJson(CONTACT, false);
+    }
+
+    @Benchmark
+    public Row createRowFromJson() {
+        return table.createRowFromJson(CONTACT, false);
+    }
+
+    /* The lookup of updateTableWithoutQuery */
+    @Benchmark
+    public String getHomeCity() {
+        return row.get("person").asMap()
+                  .get("address").asMap()
+                  .get("home").asMap()
+                  .get("city").toString();
+    }
+
+    /* The update of updateZipCode */
+    @Benchmark
+    public MapValue updateZipCode() {
+        final MapValue home = row.get("person").asMap()
+                                 .get("address").asMap()
+                                 .get("home").asMap();
+        return home.put("zip", "02102");
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return row.toJsonString(false);
+    }
+}
@@ -0,0 +1,109 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.util.concurrent.TimeUnit;
+
+import oracle.kv.table.PrimaryKey;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the client-side row operations of
+ * {@link SimpleReadWriteExample}, on its simpleUsers table: creating and
+ * filling a row, building a primary key, reading fields, and converting a
+ * row to JSON.
+ * <p>
+ * Run it, with the other table benchmarks, with the benchmarks target of
+ * build.xml, or, once compiled and processed by the JMH annotation
+ * processor, with:
+ * <pre>
+ * java -cp &lt;classpath&gt; org.openjdk.jmh.Main SimpleRowBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimpleRowBenchmark {
+
+    private Table table;
+    private Row row;
+    private int userID;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        table = ExampleTables.simpleUsers();
+        row = table.createRow();
+        row.put("userID", 1);
+        row.put("firstName", "Alex");
+        row.put("lastName", "Robertson");
+        row.put("age", 10);
+    }
+
+    @Benchmark
+    public Row createRow() {
+        final Row r = table.createRow();
+        r.put("userID", ++userID);
+        r.put("firstName", "Alex");
+        r.put("lastName", "Robertson");
+        r.put("age", 10);
+        return r;
+    }
+
+    @Benchmark
+    public PrimaryKey createPrimaryKey() {
+        final PrimaryKey key = table.createPrimaryKey();
+        key.put("userID", ++userID);
+        return key;
+    }
+
+    @Benchmark
+    public PrimaryKey primaryKeyFromRow() {
+        return row.createPrimaryKey();
+    }
+
+    /* Reading the fields, as after a get */
+    @Benchmark
+    public int getFields() {
+        return row.get("userID").asInteger().get() +
+            row.get("age").asInteger().get() +
+            row.get("firstName").asString().get().length() +
+            row.get("lastName").asString().get().length();
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return row.toJsonString(false);
+    }
+
+    @Benchmark
+    public String toJsonStringPretty() {
+        return row.toJsonString(true);
+    }
+}
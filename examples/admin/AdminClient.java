@@ -0,0 +1,543 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package admin;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HandshakeCompletedEvent;
+import javax.net.ssl.HandshakeCompletedListener;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import oracle.kv.impl.util.JsonUtils;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * A client of the admin web service for applications that issue many
+ * commands, such as deployment automation.
+ * <p>
+ * {@link HttpClientExample} opens a new connection for each command, and on
+ * a secured store logs in again and makes a new TLS handshake for each. An
+ * AdminClient instead:
+ * <ul>
+ * <li>keeps a pool of persistent HTTP/1.1 connections, up to
+ * maxConnections, that are reused by successive commands: a TLS handshake
+ * is only made when a connection is opened;</li>
+ * <li>logs in once and reuses the login token for all the commands,
+ * logging in again only when the service rejects the token;</li>
+ * <li>runs several commands concurrently with {@link #executeAll}, each on
+ * its own pooled connection. Commands are not pipelined on a single
+ * connection: HTTP/1.1 pipelining returns the responses in order, so one
+ * slow command would hold up the others behind it.</li>
+ * </ul>
+ * An AdminClient is thread safe, and should be shared by the threads of an
+ * application and closed when no longer used. The number of calls, their
+ * latency, and the number of connections, TLS handshakes and logins are
+ * returned by {@link #getStatistics}.
+ * <p>
+ * Run the example with the same arguments as HttpClientExample, to issue a
+ * number of show topology commands and print the statistics:
+ * <pre><code>
+ * java -classpath .:../lib/kvclient.jar:../lib/httpclient.jar:&#92;
+ *     ../lib/httpcore.jar:../lib/commons-logging.jar admin.AdminClient \
+ *     -host localhost -port 5001 -root /tmp/kvroot -user admin \
+ *     -password PASSWORD -calls 200 -concurrency 4
+ * </code></pre>
+ */
+public class AdminClient implements Closeable {
+
+    static final String LOGIN_PATH = "/V0/nosql/admin/login";
+    static final String TOPOLOGY_PATH = "/V0/nosql/admin/topology";
+
+    private final String baseUrl;
+    private final String user;
+    private final String password;
+    private final boolean secure;
+
+    private final PoolingHttpClientConnectionManager connManager;
+    private final CloseableHttpClient httpClient;
+    private final ExecutorService executor;
+
+    private volatile String token;
+    private final Object loginLock = new Object();
+
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Runs a number of show topology commands, and prints the result of the
+     * first and the statistics.
+     */
+    public static void main(String args[]) {
+        String hostName = "localhost";
+        int hostPort = 5001;
+        String kvroot = "/tmp/kvroot";
+        String user = "admin";
+        String password = null;
+        int calls = 100;
+        int concurrency = 4;
+
+        final int nArgs = args.length;
+        int argc = 0;
+        while (argc < nArgs) {
+            final String thisArg = args[argc++];
+            if (argc == nArgs) {
+                usage("Unknown or incomplete argument: " + thisArg);
+            }
+            if (thisArg.equals("-host")) {
+                hostName = args[argc++];
+            } else if (thisArg.equals("-port")) {
+                hostPort = Integer.parseInt(args[argc++]);
+            } else if (thisArg.equals("-root")) {
+                kvroot = args[argc++];
+            } else if (thisArg.equals("-user")) {
+                user = args[argc++];
+            } else if (thisArg.equals("-password")) {
+                password = args[argc++];
+            } else if (thisArg.equals("-calls")) {
+                calls = Integer.parseInt(args[argc++]);
+            } else if (thisArg.equals("-concurrency")) {
+                concurrency = Integer.parseInt(args[argc++]);
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+
+        try {
+            final AdminClient client =
+                new AdminClient(hostName, hostPort, kvroot, user, password,
+                                concurrency);
+            try {
+                final ObjectNode node = JsonUtils.createObjectNode();
+                node.put("command", "show");
+                final List<Command> commands = new ArrayList<Command>();
+                for (int i = 0; i < calls; i++) {
+                    commands.add(new Command(TOPOLOGY_PATH, node.toString()));
+                }
+                final List<String> results = client.executeAll(commands);
+                if (!results.isEmpty()) {
+                    System.out.println(results.get(0));
+                }
+                System.out.println(client.getStatistics());
+            } finally {
+                client.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + AdminClient.class.getName());
+        System.out.println("\t-host <host name> (default: localhost)\n" +
+                           "\t-port <port number> (default: 5001)\n" +
+                           "\t-root <root path> (default: /tmp/kvroot)\n" +
+                           "\t-user <user name> (default: admin)\n" +
+                           "\t-password <password> (If not specify, " +
+                           "use http without login)\n" +
+                           "\t-calls <number of commands> (default: 100)\n" +
+                           "\t-concurrency <connections> (default: 4)");
+        System.exit(1);
+    }
+
+    /**
+     * Creates a client of the admin web service at the given host and port.
+     * If password is null, the service is accessed over HTTP without
+     * login; otherwise it is accessed over HTTPS, trusting the certificate
+     * of the client.trust file under kvroot/security, and the user logs in
+     * at the first command.
+     *
+     * @param maxConnections the maximum number of connections kept open,
+     * and of commands run concurrently by executeAll
+     */
+    public AdminClient(final String hostName,
+                       final int hostPort,
+                       final String kvroot,
+                       final String user,
+                       final String password,
+                       final int maxConnections)
+        throws IOException, GeneralSecurityException {
+
+        this.user = user;
+        this.password = password;
+        secure = password != null && !password.isEmpty();
+        baseUrl = (secure ? "https://" : "http://") + hostName + ":" +
+            hostPort;
+
+        final RegistryBuilder<ConnectionSocketFactory> registry =
+            RegistryBuilder.<ConnectionSocketFactory>create()
+            .register("http", new CountingPlainSocketFactory());
+        if (secure) {
+            registry.register("https", new CountingSSLSocketFactory(
+                createSSLContext(kvroot + "/security/client.trust")));
+        }
+        final Registry<ConnectionSocketFactory> factories = registry.build();
+
+        connManager = new PoolingHttpClientConnectionManager(factories);
+        connManager.setMaxTotal(maxConnections);
+        connManager.setDefaultMaxPerRoute(maxConnections);
+        /* Check a connection idle for a while is still open before use */
+        connManager.setValidateAfterInactivity(2000);
+
+        httpClient = HttpClients.custom()
+            .setConnectionManager(connManager)
+            .disableCookieManagement()
+            .disableConnectionState()
+            .build();
+        executor = Executors.newFixedThreadPool(maxConnections);
+    }
+
+    private static SSLContext createSSLContext(final String trustFile)
+        throws IOException, GeneralSecurityException {
+
+        final KeyStore ts = KeyStore.getInstance("JKS");
+        final InputStream is = new FileInputStream(trustFile);
+        try {
+            ts.load(is, null);
+        } finally {
+            is.close();
+        }
+        final TrustManagerFactory tmf =
+            TrustManagerFactory.getInstance("SunX509");
+        tmf.init(ts);
+        final SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(null, tmf.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    /**
+     * Sends a command, a JSON payload, to the given path of the service,
+     * and returns the JSON result.
+     *
+     * @throws IOException if the command could not be sent, or the service
+     * returned an error
+     */
+    public String execute(final String commandPath, final String payload)
+        throws IOException {
+
+        final long start = System.nanoTime();
+        try {
+            String currentToken = secure ? getToken(null) : null;
+            final String[] result = new String[1];
+            int status = post(commandPath, payload, currentToken, result);
+            if (status == HttpStatus.SC_UNAUTHORIZED && secure) {
+                /* The token expired: log in again, once */
+                currentToken = getToken(currentToken);
+                status = post(commandPath, payload, currentToken, result);
+            }
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException("Command " + commandPath +
+                                      " failed with HTTP status " + status +
+                                      ": " + result[0]);
+            }
+            return result[0];
+        } finally {
+            statistics.called(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sends the commands concurrently, each on its own connection, up to
+     * maxConnections at a time, and returns their results in the same
+     * order.
+     *
+     * @throws IOException if a command failed; the other commands are run
+     * nevertheless
+     */
+    public List<String> executeAll(final List<Command> commands)
+        throws IOException, InterruptedException {
+
+        final List<Future<String>> futures =
+            new ArrayList<Future<String>>(commands.size());
+        for (final Command command : commands) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return execute(command.path, command.payload);
+                }
+            }));
+        }
+        final List<String> results = new ArrayList<String>(commands.size());
+        IOException failure = null;
+        for (Future<String> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                results.add(null);
+                if (failure == null) {
+                    failure = (e.getCause() instanceof IOException) ?
+                        (IOException) e.getCause() :
+                        new IOException(e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private int post(final String commandPath,
+                     final String payload,
+                     final String authToken,
+                     final String[] result)
+        throws IOException {
+
+        final HttpPost post = new HttpPost(baseUrl + commandPath);
+        post.setEntity(new StringEntity(payload, ContentType.APPLICATION_JSON));
+        if (authToken != null) {
+            post.setHeader("Authorization", "Bearer " + authToken);
+        }
+        return send(post, result);
+    }
+
+    /*
+     * Sends the request and reads the whole response, which releases the
+     * connection back to the pool for reuse.
+     */
+    private int send(final HttpRequestBase request, final String[] result)
+        throws IOException {
+
+        final CloseableHttpResponse response = httpClient.execute(request);
+        try {
+            result[0] = (response.getEntity() == null) ?
+                "" :
+                EntityUtils.toString(response.getEntity(),
+                                     StandardCharsets.UTF_8);
+            return response.getStatusLine().getStatusCode();
+        } finally {
+            response.close();
+        }
+    }
+
+    /*
+     * Returns the login token, logging in if there is none yet or if the
+     * current one is the rejected token given. Only one thread logs in at a
+     * time; the others wait and use its token.
+     */
+    private String getToken(final String rejected) throws IOException {
+        final String current = token;
+        if (current != null && !current.equals(rejected)) {
+            return current;
+        }
+        synchronized (loginLock) {
+            if (token != null && !token.equals(rejected)) {
+                return token;
+            }
+            final long start = System.nanoTime();
+            final HttpGet login = new HttpGet(baseUrl + LOGIN_PATH);
+            final String encoded = Base64.getEncoder().encodeToString(
+                (user + ":" + password).getBytes(StandardCharsets.UTF_8));
+            login.setHeader("Authorization", "Basic " + encoded);
+            final String[] result = new String[1];
+            final int status = send(login, result);
+            if (status != HttpStatus.SC_OK) {
+                throw new IOException("Login failed with HTTP status " +
+                                      status + ": " + result[0]);
+            }
+            final JsonParser parser = JsonUtils.createJsonParser(
+                new ByteArrayInputStream(
+                    result[0].getBytes(StandardCharsets.UTF_8)));
+            final JsonNode tokenNode =
+                parser.readValueAsTree().get("returnValue").get("token");
+            token = tokenNode.asText();
+            statistics.loggedIn(System.nanoTime() - start);
+            return token;
+        }
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Closes the pooled connections.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        httpClient.close();
+    }
+
+    /**
+     * A command: the path of the service and the JSON payload.
+     */
+    public static class Command {
+
+        final String path;
+        final String payload;
+
+        public Command(final String path, final String payload) {
+            this.path = path;
+            this.payload = payload;
+        }
+    }
+
+    /* Counts the plain connections opened */
+    private class CountingPlainSocketFactory
+        extends PlainConnectionSocketFactory {
+
+        @Override
+        public Socket connectSocket(final int connectTimeout,
+                                    final Socket socket,
+                                    final HttpHost host,
+                                    final InetSocketAddress remoteAddress,
+                                    final InetSocketAddress localAddress,
+                                    final HttpContext context)
+            throws IOException {
+            statistics.connections.incrementAndGet();
+            return super.connectSocket(connectTimeout, socket, host,
+                                       remoteAddress, localAddress, context);
+        }
+    }
+
+    /*
+     * Counts the TLS connections opened and their handshakes. Like
+     * HttpClientExample, trusts any host name for the store certificate.
+     */
+    private class CountingSSLSocketFactory extends SSLConnectionSocketFactory {
+
+        CountingSSLSocketFactory(final SSLContext sslContext) {
+            super(sslContext, NoopHostnameVerifier.INSTANCE);
+        }
+
+        @Override
+        protected void prepareSocket(final SSLSocket socket)
+            throws IOException {
+            statistics.connections.incrementAndGet();
+            socket.addHandshakeCompletedListener(
+                new HandshakeCompletedListener() {
+                    @Override
+                    public void handshakeCompleted(
+                        final HandshakeCompletedEvent event) {
+                        statistics.handshakes.incrementAndGet();
+                    }
+                });
+        }
+    }
+
+    /**
+     * The counts and latencies of the calls of an AdminClient.
+     */
+    public static class Statistics {
+
+        private final AtomicLong connections = new AtomicLong();
+        private final AtomicLong handshakes = new AtomicLong();
+        private final AtomicLong logins = new AtomicLong();
+        private final AtomicLong loginNanos = new AtomicLong();
+        private long nCalls;
+        private long callNanos;
+        private long maxCallNanos;
+
+        synchronized void called(final long nanos) {
+            nCalls++;
+            callNanos += nanos;
+            maxCallNanos = Math.max(maxCallNanos, nanos);
+        }
+
+        void loggedIn(final long nanos) {
+            logins.incrementAndGet();
+            loginNanos.addAndGet(nanos);
+        }
+
+        public synchronized long getCalls() {
+            return nCalls;
+        }
+
+        /** Returns the number of connections opened. */
+        public long getConnections() {
+            return connections.get();
+        }
+
+        /** Returns the number of TLS handshakes made. */
+        public long getHandshakes() {
+            return handshakes.get();
+        }
+
+        public long getLogins() {
+            return logins.get();
+        }
+
+        public double getAverageLoginMillis() {
+            final long n = logins.get();
+            return (n == 0) ? 0 : loginNanos.get() / 1e6 / n;
+        }
+
+        public synchronized double getAverageCallMillis() {
+            return (nCalls == 0) ? 0 : callNanos / 1e6 / nCalls;
+        }
+
+        public synchronized double getMaxCallMillis() {
+            return maxCallNanos / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d calls, latency average %.2f ms max %.2f ms; " +
+                "%d connections opened, %d TLS handshakes, " +
+                "%d logins averaging %.2f ms",
+                getCalls(), getAverageCallMillis(), getMaxCallMillis(),
+                getConnections(), getHandshakes(), getLogins(),
+                getAverageLoginMillis());
+        }
+    }
+}
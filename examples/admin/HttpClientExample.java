@@ -62,6 +62,10 @@ import org.codehaus.jackson.node.ObjectNode;
  * </code></pre>
  * The console output of this example will display the topology information in
  * JSON format.
+ * <p>
+ * This example opens a new connection, and logs in again, for each command.
+ * Applications that issue many commands should use {@link AdminClient},
+ * which reuses pooled connections and the login token.
  */
 public class HttpClientExample {
 
@@ -0,0 +1,318 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package admin;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of the topology of a store, fetched from the admin web service
+ * with an {@link AdminClient}, for applications that make routing or
+ * batching decisions by shard.
+ * <p>
+ * The cache fetches the topology once when it is created, then again in
+ * the background every refresh interval, and when {@link #refreshNow} is
+ * called, for example after an operation failed in a way that suggests the
+ * topology changed. A refresh first reads only the sequence number of the
+ * fetched topology: if it is that of the cached snapshot, the rest of the
+ * result is not parsed. Otherwise a new {@link TopologySnapshot} replaces
+ * the cached one and the listeners are called.
+ * <p>
+ * Snapshots are immutable, so {@link #get} and {@link #getShard} never
+ * block nor make network calls, and a caller that needs a consistent view
+ * across several lookups should get the snapshot once and use it.
+ */
+public class TopologyCache implements Closeable {
+
+    private static final String SHOW_TOPOLOGY = "{\"command\":\"show\"}";
+
+    private final AdminClient client;
+    private final ScheduledExecutorService scheduler;
+    private volatile TopologySnapshot snapshot;
+    private final List<Listener> listeners =
+        new CopyOnWriteArrayList<Listener>();
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+    private final AtomicLong fetches = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Runs the example: creates a cache, prints the topology and the cost
+     * of partition lookups, and with -duration prints the changes seen
+     * until it ends.
+     */
+    public static void main(String args[]) {
+        String hostName = "localhost";
+        int hostPort = 5001;
+        String kvroot = "/tmp/kvroot";
+        String user = "admin";
+        String password = null;
+        long intervalMs = 10000;
+        long durationSecs = 0;
+
+        final int nArgs = args.length;
+        int argc = 0;
+        while (argc < nArgs) {
+            final String thisArg = args[argc++];
+            if (argc == nArgs) {
+                usage("Unknown or incomplete argument: " + thisArg);
+            }
+            if (thisArg.equals("-host")) {
+                hostName = args[argc++];
+            } else if (thisArg.equals("-port")) {
+                hostPort = Integer.parseInt(args[argc++]);
+            } else if (thisArg.equals("-root")) {
+                kvroot = args[argc++];
+            } else if (thisArg.equals("-user")) {
+                user = args[argc++];
+            } else if (thisArg.equals("-password")) {
+                password = args[argc++];
+            } else if (thisArg.equals("-interval")) {
+                intervalMs = Long.parseLong(args[argc++]);
+            } else if (thisArg.equals("-duration")) {
+                durationSecs = Long.parseLong(args[argc++]);
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+
+        try {
+            final AdminClient client =
+                new AdminClient(hostName, hostPort, kvroot, user, password,
+                                1);
+            final TopologyCache cache = new TopologyCache(client, intervalMs);
+            try {
+                final TopologySnapshot topo = cache.get();
+                System.out.println(topo);
+                for (TopologySnapshot.Shard shard : topo.getShards()) {
+                    System.out.println("  " + shard.getId() + ": " +
+                                       shard.getNumPartitions() +
+                                       " partitions");
+                    for (TopologySnapshot.RepNode rn : shard.getRepNodes()) {
+                        System.out.println("    " + rn.getId() + " on " +
+                                           rn.getStorageNode());
+                    }
+                }
+
+                /* The cost of looking up the shard of a partition */
+                if (topo.getNumPartitions() > 0) {
+                    final Random random = new Random();
+                    final int nLookups = 10000000;
+                    int found = 0;
+                    final long start = System.nanoTime();
+                    for (int i = 0; i < nLookups; i++) {
+                        final int p =
+                            1 + random.nextInt(topo.getNumPartitions());
+                        if (cache.getShard(p) != null) {
+                            found++;
+                        }
+                    }
+                    System.out.println(String.format(
+                        "%d partition lookups, %d found, %.1f ns each",
+                        nLookups, found,
+                        (System.nanoTime() - start) / (double) nLookups));
+                }
+
+                if (durationSecs > 0) {
+                    cache.addListener(new Listener() {
+                        @Override
+                        public void topologyChanged(
+                            final TopologySnapshot oldTopology,
+                            final TopologySnapshot newTopology) {
+                            System.out.println("Changed: " + newTopology);
+                        }
+                    });
+                    Thread.sleep(durationSecs * 1000);
+                }
+                System.out.println(cache.getFetches() + " fetches, " +
+                                   cache.getChanges() + " changes, " +
+                                   cache.getFailures() + " failures");
+                System.out.println(client.getStatistics());
+            } finally {
+                cache.close();
+                client.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + TopologyCache.class.getName());
+        System.out.println("\t-host <host name> (default: localhost)\n" +
+                           "\t-port <port number> (default: 5001)\n" +
+                           "\t-root <root path> (default: /tmp/kvroot)\n" +
+                           "\t-user <user name> (default: admin)\n" +
+                           "\t-password <password> (If not specify, " +
+                           "use http without login)\n" +
+                           "\t-interval <refresh milliseconds> " +
+                           "(default: 10000)\n" +
+                           "\t-duration <seconds to watch for changes> " +
+                           "(default: 0)");
+        System.exit(1);
+    }
+
+    /**
+     * Creates a cache, fetching the topology, and refreshing it every
+     * refreshMs milliseconds.
+     *
+     * @throws IOException if the topology could not be fetched
+     */
+    public TopologyCache(final AdminClient client, final long refreshMs)
+        throws IOException {
+        this.client = client;
+        refresh();
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "TopologyCache");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                refreshQuietly();
+            }
+        }, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the current snapshot.
+     */
+    public TopologySnapshot get() {
+        return snapshot;
+    }
+
+    /**
+     * Returns the shard of the given partition in the current snapshot, or
+     * null if the partition is unknown.
+     */
+    public TopologySnapshot.Shard getShard(final int partitionId) {
+        return snapshot.getShard(partitionId);
+    }
+
+    /**
+     * Asks for the topology to be refreshed in the background as soon as
+     * possible. Calls made while a refresh is pending have no effect.
+     */
+    public void refreshNow() {
+        if (refreshPending.compareAndSet(false, true)) {
+            scheduler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refreshPending.set(false);
+                    refreshQuietly();
+                }
+            });
+        }
+    }
+
+    public void addListener(final Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(final Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    public long getChanges() {
+        return changes.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Stops the refreshes. The AdminClient is not closed.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void refreshQuietly() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            /* Keep the current snapshot until the next refresh */
+            failures.incrementAndGet();
+            System.err.println("Topology refresh failed: " + e);
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println("Topology refresh failed: " + e);
+        }
+    }
+
+    /*
+     * Fetches the topology and replaces the snapshot if it changed. Called
+     * by the constructor, then only on the scheduler thread.
+     */
+    private void refresh() throws IOException {
+        final String json =
+            client.execute(AdminClient.TOPOLOGY_PATH, SHOW_TOPOLOGY);
+        fetches.incrementAndGet();
+
+        final TopologySnapshot current = snapshot;
+        if (current != null) {
+            final long seq = TopologySnapshot.peekSequenceNumber(json);
+            if (seq >= 0 && seq == current.getSequenceNumber()) {
+                return;
+            }
+        }
+        final TopologySnapshot updated = TopologySnapshot.parse(json);
+        snapshot = updated;
+        if (current != null) {
+            changes.incrementAndGet();
+            for (Listener listener : listeners) {
+                /* A failing listener is not a failed refresh */
+                try {
+                    listener.topologyChanged(current, updated);
+                } catch (RuntimeException e) {
+                    System.err.println("Topology listener " + listener +
+                                       " failed: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called, on the refresh thread, when the cached topology changes. An
+     * exception thrown by a listener is printed, and does not keep the
+     * other listeners from being called.
+     */
+    public interface Listener {
+        void topologyChanged(TopologySnapshot oldTopology,
+                             TopologySnapshot newTopology);
+    }
+}
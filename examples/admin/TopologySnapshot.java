@@ -0,0 +1,527 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package admin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * An immutable, indexed view of a store topology, parsed from the result
+ * of the show topology command of the admin web service. It is kept
+ * up to date by {@link TopologyCache}.
+ * <p>
+ * The snapshot links each shard to its RepNodes, and each RepNode to its
+ * storage node, and maps partition ids to shards with an array, so that
+ * {@link #getShard(int)} takes constant time.
+ * <p>
+ * The command result is parsed with a streaming JSON parser, reading only
+ * the fields used here and skipping the others, rather than building a
+ * tree of the whole document. If the shards of the result list their
+ * partition ids, in a {@code partitions} array, they are used. Otherwise
+ * each shard is assumed to hold the range of partition ids following those
+ * of the previous shard, as assigned when the topology was first deployed;
+ * this is no longer the case after partitions are redistributed.
+ */
+public class TopologySnapshot {
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String storeName;
+    private final long sequenceNumber;
+    private final Map<String, Shard> shards;
+    private final Map<String, StorageNode> storageNodes;
+    private final Map<String, RepNode> repNodes;
+
+    /* Indexed by partition id; element 0 is unused */
+    private final Shard[] partitionShards;
+
+    private TopologySnapshot(final Builder builder) {
+        storeName = builder.storeName;
+        sequenceNumber = builder.sequenceNumber;
+
+        final Map<String, StorageNode> sns =
+            new LinkedHashMap<String, StorageNode>();
+        for (String[] sn : builder.sns) {
+            sns.put(sn[0], new StorageNode(sn[0], sn[1],
+                                           Integer.parseInt(sn[2]), sn[3]));
+        }
+
+        final Map<String, Shard> shardMap = new LinkedHashMap<String, Shard>();
+        final Map<String, RepNode> rnMap = new LinkedHashMap<String, RepNode>();
+        final List<Shard> shardList = new ArrayList<Shard>();
+        for (ShardData data : builder.shards) {
+            final List<RepNode> rns = new ArrayList<RepNode>();
+            final Shard shard = new Shard(data.id, data.numPartitions,
+                                          Collections.unmodifiableList(rns));
+            for (String[] rn : data.rns) {
+                String snId = rn[1];
+                if (snId == null) {
+                    snId = builder.rnToSn.get(rn[0]);
+                }
+                final StorageNode sn = (snId == null) ? null : sns.get(snId);
+                final RepNode repNode = new RepNode(rn[0], shard, sn);
+                rns.add(repNode);
+                rnMap.put(repNode.id, repNode);
+                if (sn != null) {
+                    sn.rns.add(repNode);
+                }
+            }
+            shardMap.put(shard.id, shard);
+            shardList.add(shard);
+        }
+
+        /* Map partitions to shards */
+        int nPartitions = builder.numPartitions;
+        for (ShardData data : builder.shards) {
+            for (int p : data.partitions) {
+                nPartitions = Math.max(nPartitions, p);
+            }
+        }
+        partitionShards = new Shard[nPartitions + 1];
+        int next = 1;
+        for (int i = 0; i < shardList.size(); i++) {
+            final ShardData data = builder.shards.get(i);
+            final Shard shard = shardList.get(i);
+            if (!data.partitions.isEmpty()) {
+                for (int p : data.partitions) {
+                    partitionShards[p] = shard;
+                }
+            } else {
+                for (int n = 0; n < data.numPartitions &&
+                         next <= nPartitions; n++) {
+                    partitionShards[next++] = shard;
+                }
+            }
+        }
+
+        shards = Collections.unmodifiableMap(shardMap);
+        storageNodes = Collections.unmodifiableMap(sns);
+        repNodes = Collections.unmodifiableMap(rnMap);
+    }
+
+    /**
+     * Parses the JSON result of the show topology command.
+     *
+     * @throws IOException if the result is not valid JSON or holds no
+     * topology
+     */
+    public static TopologySnapshot parse(final String json)
+        throws IOException {
+        final JsonParser parser = jsonFactory.createJsonParser(json);
+        try {
+            final Builder builder = new Builder();
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("returnValue".equals(field) &&
+                    parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                    builder.parseTopology(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (builder.sequenceNumber < 0) {
+                throw new IOException("The result holds no topology");
+            }
+            return new TopologySnapshot(builder);
+        } finally {
+            parser.close();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the topology in a show topology result,
+     * reading it without parsing the rest of the result, or -1 if the result
+     * holds no sequence number before the shards.
+     */
+    public static long peekSequenceNumber(final String json)
+        throws IOException {
+        final JsonParser parser = jsonFactory.createJsonParser(json);
+        try {
+            expect(parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if (!"returnValue".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("sequenceNumber".equals(name)) {
+                        return parser.getLongValue();
+                    }
+                    if ("shards".equals(name)) {
+                        return -1;
+                    }
+                    parser.skipChildren();
+                }
+                return -1;
+            }
+            return -1;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static void expect(final JsonToken token,
+                               final JsonToken expected)
+        throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but found " +
+                                  token);
+        }
+    }
+
+    public String getStoreName() {
+        return storeName;
+    }
+
+    /**
+     * Returns the sequence number of the topology, which increases with
+     * each change.
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public int getNumPartitions() {
+        return partitionShards.length - 1;
+    }
+
+    /**
+     * Returns the shard holding the given partition, or null if the
+     * partition id is unknown.
+     */
+    public Shard getShard(final int partitionId) {
+        return (partitionId > 0 && partitionId < partitionShards.length) ?
+            partitionShards[partitionId] :
+            null;
+    }
+
+    public Shard getShard(final String shardId) {
+        return shards.get(shardId);
+    }
+
+    public Collection<Shard> getShards() {
+        return shards.values();
+    }
+
+    public RepNode getRepNode(final String repNodeId) {
+        return repNodes.get(repNodeId);
+    }
+
+    public StorageNode getStorageNode(final String snId) {
+        return storageNodes.get(snId);
+    }
+
+    public Collection<StorageNode> getStorageNodes() {
+        return storageNodes.values();
+    }
+
+    @Override
+    public String toString() {
+        return "Topology of " + storeName + " seq " + sequenceNumber + ": " +
+            shards.size() + " shards, " + repNodes.size() + " RepNodes, " +
+            storageNodes.size() + " storage nodes, " + getNumPartitions() +
+            " partitions";
+    }
+
+    /**
+     * A shard, or replication group.
+     */
+    public static class Shard {
+
+        private final String id;
+        private final int numPartitions;
+        private final List<RepNode> repNodes;
+
+        Shard(final String id,
+              final int numPartitions,
+              final List<RepNode> repNodes) {
+            this.id = id;
+            this.numPartitions = numPartitions;
+            this.repNodes = repNodes;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public int getNumPartitions() {
+            return numPartitions;
+        }
+
+        public List<RepNode> getRepNodes() {
+            return repNodes;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    /**
+     * A RepNode, a replica of a shard.
+     */
+    public static class RepNode {
+
+        private final String id;
+        private final Shard shard;
+        private final StorageNode storageNode;
+
+        RepNode(final String id,
+                final Shard shard,
+                final StorageNode storageNode) {
+            this.id = id;
+            this.shard = shard;
+            this.storageNode = storageNode;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Shard getShard() {
+            return shard;
+        }
+
+        /**
+         * Returns the storage node hosting the RepNode, or null if the
+         * topology did not say.
+         */
+        public StorageNode getStorageNode() {
+            return storageNode;
+        }
+
+        @Override
+        public String toString() {
+            return id;
+        }
+    }
+
+    /**
+     * A storage node.
+     */
+    public static class StorageNode {
+
+        private final String id;
+        private final String hostname;
+        private final int registryPort;
+        private final String zoneId;
+        final List<RepNode> rns = new ArrayList<RepNode>();
+        private final List<RepNode> repNodes =
+            Collections.unmodifiableList(rns);
+
+        StorageNode(final String id,
+                    final String hostname,
+                    final int registryPort,
+                    final String zoneId) {
+            this.id = id;
+            this.hostname = hostname;
+            this.registryPort = registryPort;
+            this.zoneId = zoneId;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+
+        public int getRegistryPort() {
+            return registryPort;
+        }
+
+        public String getZoneId() {
+            return zoneId;
+        }
+
+        public List<RepNode> getRepNodes() {
+            return repNodes;
+        }
+
+        @Override
+        public String toString() {
+            return id + "(" + hostname + ":" + registryPort + ")";
+        }
+    }
+
+    /* The fields of a shard, as parsed */
+    private static class ShardData {
+        String id;
+        int numPartitions;
+        final List<Integer> partitions = new ArrayList<Integer>();
+        /* RepNode id and storage node id, which may be null */
+        final List<String[]> rns = new ArrayList<String[]>();
+    }
+
+    /*
+     * Collects the fields of the topology from the parser.
+     */
+    private static class Builder {
+
+        String storeName;
+        long sequenceNumber = -1;
+        int numPartitions;
+        /* Storage node id, host name, registry port and zone id */
+        final List<String[]> sns = new ArrayList<String[]>();
+        final List<ShardData> shards = new ArrayList<ShardData>();
+        /* The storage node of RepNodes listed outside their shard */
+        final Map<String, String> rnToSn = new LinkedHashMap<String, String>();
+
+        void parseTopology(final JsonParser parser) throws IOException {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("storeName".equals(field)) {
+                    storeName = parser.getText();
+                } else if ("sequenceNumber".equals(field)) {
+                    sequenceNumber = parser.getLongValue();
+                } else if ("numPartitions".equals(field)) {
+                    numPartitions = parser.getIntValue();
+                } else if ("sns".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        parseStorageNode(parser);
+                    }
+                } else if ("shards".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        shards.add(parseShard(parser));
+                    }
+                } else if ("rns".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        final String[] rn = parseRepNode(parser);
+                        if (rn[0] != null && rn[1] != null) {
+                            rnToSn.put(rn[0], rn[1]);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        private void parseStorageNode(final JsonParser parser)
+            throws IOException {
+            final String[] sn = new String[] { null, null, "0", null };
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("resourceId".equals(field)) {
+                    sn[0] = parser.getText();
+                } else if ("hostname".equals(field)) {
+                    sn[1] = parser.getText();
+                } else if ("registryPort".equals(field)) {
+                    sn[2] = parser.getText();
+                } else if ("zone".equals(field) &&
+                           token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String zoneField = parser.getCurrentName();
+                        parser.nextToken();
+                        if ("zoneId".equals(zoneField)) {
+                            sn[3] = parser.getText();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("rns".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    /* The RepNodes hosted by this storage node */
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        final String[] rn = parseRepNode(parser);
+                        if (rn[0] != null && sn[0] != null) {
+                            rnToSn.put(rn[0], sn[0]);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (sn[0] != null) {
+                sns.add(sn);
+            }
+        }
+
+        private ShardData parseShard(final JsonParser parser)
+            throws IOException {
+            final ShardData shard = new ShardData();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                final JsonToken token = parser.nextToken();
+                if ("resourceId".equals(field)) {
+                    shard.id = parser.getText();
+                } else if ("numPartitions".equals(field)) {
+                    shard.numPartitions = parser.getIntValue();
+                } else if ("partitions".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        /* Either 12 or "p12" */
+                        final String text = parser.getText();
+                        shard.partitions.add(Integer.parseInt(
+                            text.startsWith("p") ? text.substring(1) : text));
+                    }
+                } else if ("rns".equals(field) &&
+                           token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        final String[] rn = parseRepNode(parser);
+                        if (rn[0] != null) {
+                            shard.rns.add(rn);
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (shard.partitions.size() > 0) {
+                shard.numPartitions = shard.partitions.size();
+            }
+            return shard;
+        }
+
+        /* Returns the RepNode id and storage node id of a RepNode object */
+        private String[] parseRepNode(final JsonParser parser)
+            throws IOException {
+            final String[] rn = new String[2];
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("resourceId".equals(field)) {
+                    rn[0] = parser.getText();
+                } else if ("snId".equals(field)) {
+                    rn[1] = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return rn;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+import com.tangosol.net.cache.ReadWriteBackingMap;
+import com.tangosol.run.xml.SimpleElement;
+import com.tangosol.run.xml.XmlElement;
+import com.tangosol.util.BinaryEntry;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.kv.Key;
+import oracle.kv.Operation;
+import oracle.kv.OperationExecutionException;
+import oracle.kv.OperationFactory;
+import oracle.kv.Value;
+import oracle.kv.coherence.NoSQLBinaryStore;
+
+/**
+ * A {@link NoSQLBinaryStore} that writes the entries it is given in bulk as
+ * multi-operation batches, for use with the write-behind mode of Oracle
+ * Coherence, such as the {@code WriteBehindBinaryCache} of cache-config.xml.
+ * <p>
+ * With write-behind, the read-write backing map of the cache does not write
+ * each change to the store as it is made: it queues the changed entries,
+ * keeping only the latest change of each key, and after the configured
+ * {@code write-delay} passes the queued entries to the store with
+ * {@code storeAll} and {@code eraseAll}. NoSQLBinaryStore writes those
+ * entries one at a time. This class instead groups them by the major path
+ * of their Oracle NoSQL Database Key, and writes each group with a single
+ * {@link oracle.kv.KVStore#execute} call of at most maxBatchSize
+ * operations, since the operations of an execute call must share the same
+ * major path. Each group is written atomically, in one round trip.
+ * <p>
+ * The memory held by the write-behind queue is bounded by the size of the
+ * internal cache of the backing map: the queue refers to the entries of the
+ * internal cache, and an entry that is evicted before it is written is
+ * written synchronously first. The {@code write-requeue-threshold} bounds
+ * the number of entries kept for retry after a failed write.
+ * <p>
+ * Durability: with write-behind, a put returns once the change is in the
+ * cache, and its backup copy if the cache has backups, and before it is in
+ * the store. If a cache server fails, the member holding the backup writes
+ * its queued changes. If all the members holding a change leave before its
+ * write-delay passes, the change is lost; so a member that is the last, or
+ * only, holder of its data must call {@link #flush} before it shuts down.
+ * <p>
+ * The store is created from a {@code class-scheme} with the store name, the
+ * helper hosts and the maximum batch size as init-params. The number of
+ * entries written, the batch sizes and the flush latency are kept in a
+ * {@link Statistics} object, returned by {@link #getStatistics}.
+ */
+public class BatchingBinaryStore extends NoSQLBinaryStore {
+
+    private final int maxBatchSize;
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Creates a store writing to the given Oracle NoSQL Database.
+     *
+     * @param storeName the name of the store
+     * @param helperHosts a comma-separated list of host:port pairs
+     * @param maxBatchSize the maximum number of operations written in one
+     * execute call
+     */
+    public BatchingBinaryStore(final String storeName,
+                               final String helperHosts,
+                               final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException(
+                "maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+
+        /* The configuration the kv:binary-cache-store element produces */
+        final XmlElement config = new SimpleElement("kv-config");
+        config.addElement("storeName").setString(storeName);
+        config.addElement("helperHosts").setString(helperHosts);
+        setConfig(config);
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void storeAll(final Set setBinEntries) {
+        writeAll(setBinEntries, false);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void eraseAll(final Set setBinEntries) {
+        writeAll(setBinEntries, true);
+    }
+
+    /*
+     * Writes or deletes the entries, grouped by major path. As required of
+     * storeAll and eraseAll, if a batch fails the entries already written
+     * are removed from the set before the exception is thrown, so Coherence
+     * only requeues the others.
+     */
+    @SuppressWarnings("rawtypes")
+    private void writeAll(final Set entries, final boolean delete) {
+        final long start = System.nanoTime();
+        final OperationFactory factory = kvstore.getOperationFactory();
+
+        final Map<List<String>, List<BinaryEntry>> groups =
+            new LinkedHashMap<List<String>, List<BinaryEntry>>();
+        for (Object o : entries) {
+            final BinaryEntry entry = (BinaryEntry) o;
+            final List<String> majorPath = toKey(entry).getMajorPath();
+            List<BinaryEntry> group = groups.get(majorPath);
+            if (group == null) {
+                group = new ArrayList<BinaryEntry>();
+                groups.put(majorPath, group);
+            }
+            group.add(entry);
+        }
+
+        final List<Operation> ops = new ArrayList<Operation>(maxBatchSize);
+        final List<BinaryEntry> written = new ArrayList<BinaryEntry>();
+        for (List<BinaryEntry> group : groups.values()) {
+            for (int from = 0; from < group.size(); from += maxBatchSize) {
+                final List<BinaryEntry> batch = group.subList(
+                    from, Math.min(group.size(), from + maxBatchSize));
+                ops.clear();
+                for (BinaryEntry entry : batch) {
+                    final Key key = toKey(entry);
+                    ops.add(delete ?
+                            factory.createDelete(key) :
+                            factory.createPut(key, Value.createValue(
+                                entry.getBinaryValue().toByteArray())));
+                }
+                try {
+                    kvstore.execute(ops);
+                } catch (OperationExecutionException e) {
+                    /* Not expected, no operation has abortIfUnsuccessful */
+                    throw failed(entries, written, batch.size(), delete, e);
+                } catch (RuntimeException e) {
+                    throw failed(entries, written, batch.size(), delete, e);
+                }
+                written.addAll(batch);
+                statistics.batchWritten(batch.size());
+            }
+        }
+        statistics.flushed(entries.size(), System.nanoTime() - start);
+    }
+
+    /*
+     * Removes the entries already written from the set, and returns the
+     * exception to throw.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private RuntimeException failed(final Set entries,
+                                    final List<BinaryEntry> written,
+                                    final int failedBatchSize,
+                                    final boolean delete,
+                                    final Exception e) {
+        statistics.failures.incrementAndGet();
+        CacheFactory.log((delete ? "eraseAll" : "storeAll") + " error " + e,
+                         CacheFactory.LOG_ERR);
+        entries.removeAll(written);
+        return new RuntimeException(
+            (delete ? "Erase" : "Store") + " of a batch of " +
+            failedBatchSize + " K/V pairs in NoSQL database failed", e);
+    }
+
+    /*
+     * The Key of an entry, determined as NoSQLBinaryStore does.
+     */
+    private Key toKey(final BinaryEntry<?, ?> entry) {
+        final Object cacheKey = entry.getKey();
+        if (cacheKeyMapper != null) {
+            return cacheKeyMapper.mapCacheKey(cacheKey);
+        }
+        if (cacheKey instanceof Key) {
+            return (Key) cacheKey;
+        }
+        return resolveStringKey(
+            encodeBinaryKey(entry.getBinaryKey().toByteArray()));
+    }
+
+    /**
+     * Writes the changes queued by the write-behind backing map of the
+     * given cache, on this cluster member, to the store. Returns when they
+     * have been written. Does nothing if the cache does not use
+     * write-behind.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void flush(final NamedCache cache) {
+        final ReadWriteBackingMap map = getBackingMap(cache);
+        if (map != null && map.isWriteBehind()) {
+            map.flush();
+        }
+    }
+
+    /**
+     * Returns the BatchingBinaryStore of the given cache on this cluster
+     * member, or null if the cache does not use one.
+     */
+    @SuppressWarnings("rawtypes")
+    public static BatchingBinaryStore getStore(final NamedCache cache) {
+        final ReadWriteBackingMap map = getBackingMap(cache);
+        if (map == null) {
+            return null;
+        }
+        final Object store = map.getCacheStore().getStore();
+        return (store instanceof BatchingBinaryStore) ?
+            (BatchingBinaryStore) store :
+            null;
+    }
+
+    @SuppressWarnings({ "rawtypes", "deprecation" })
+    private static ReadWriteBackingMap getBackingMap(final NamedCache cache) {
+        final Map map = cache.getCacheService().getBackingMapManager()
+            .getContext().getBackingMap(cache.getCacheName());
+        return (map instanceof ReadWriteBackingMap) ?
+            (ReadWriteBackingMap) map :
+            null;
+    }
+
+    /**
+     * Counts of the writes of a BatchingBinaryStore. A flush is a storeAll
+     * or eraseAll call, which writes one or more batches.
+     */
+    public static class Statistics {
+
+        private final AtomicLong flushes = new AtomicLong();
+        private final AtomicLong entries = new AtomicLong();
+        private final AtomicLong batches = new AtomicLong();
+        private final AtomicLong batchedEntries = new AtomicLong();
+        private final AtomicLong maxBatchSize = new AtomicLong();
+        private final AtomicLong totalFlushNanos = new AtomicLong();
+        private final AtomicLong maxFlushNanos = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+
+        void batchWritten(final int size) {
+            batches.incrementAndGet();
+            batchedEntries.addAndGet(size);
+            updateMax(maxBatchSize, size);
+        }
+
+        void flushed(final int nEntries, final long nanos) {
+            flushes.incrementAndGet();
+            entries.addAndGet(nEntries);
+            totalFlushNanos.addAndGet(nanos);
+            updateMax(maxFlushNanos, nanos);
+        }
+
+        private static void updateMax(final AtomicLong max,
+                                      final long value) {
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getFlushes() {
+            return flushes.get();
+        }
+
+        public long getEntries() {
+            return entries.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public double getAverageBatchSize() {
+            final long n = batches.get();
+            return (n == 0) ? 0 : (double) batchedEntries.get() / n;
+        }
+
+        public long getMaxBatchSize() {
+            return maxBatchSize.get();
+        }
+
+        public double getAverageFlushMillis() {
+            final long n = flushes.get();
+            return (n == 0) ? 0 : totalFlushNanos.get() / 1e6 / n;
+        }
+
+        public double getMaxFlushMillis() {
+            return maxFlushNanos.get() / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d flushes of %d entries, batch size average %.1f max %d, " +
+                "flush latency average %.2f ms max %.2f ms, %d failures",
+                getFlushes(), getEntries(), getAverageBatchSize(),
+                getMaxBatchSize(), getAverageFlushMillis(),
+                getMaxFlushMillis(), getFailures());
+        }
+    }
+}
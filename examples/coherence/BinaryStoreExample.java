@@ -226,6 +226,17 @@ public class BinaryStoreExample {
         /* Print object as a JSON string. */
         System.out.println("FINAL VALUE:\n" + person2.toString());
 
+        /*
+         * With a write-behind cache such as WriteBehindBinaryCache, the
+         * update may not be in the store yet; write it before leaving the
+         * cluster, since this program is its only member.
+         */
+        BatchingBinaryStore.flush(cache);
+        final BatchingBinaryStore store = BatchingBinaryStore.getStore(cache);
+        if (store != null) {
+            System.out.println("WRITE-BEHIND: " + store.getStatistics());
+        }
+
         CacheFactory.releaseCache(cache);
     }
 
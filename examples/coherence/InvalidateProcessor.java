@@ -0,0 +1,93 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import com.tangosol.io.pof.PofReader;
+import com.tangosol.io.pof.PofWriter;
+import com.tangosol.io.pof.PortableObject;
+import com.tangosol.net.NamedCache;
+import com.tangosol.util.InvocableMap;
+import com.tangosol.util.processor.AbstractProcessor;
+
+import java.util.Collection;
+
+/**
+ * An entry processor that drops cache entries without touching the Oracle
+ * NoSQL Database, used after a key was written directly to the store,
+ * bypassing the cache, so that the cache does not keep serving the old
+ * value.
+ * <p>
+ * The entry is removed with a synthetic remove, which a read-write backing
+ * map treats as an eviction: the entry is dropped from the backing map but
+ * not erased from the cache store. The removal is seen by the near caches
+ * in front of the cache, which drop their copy as well, so the next read of
+ * the key loads the new value from the store.
+ * <p>
+ * This class is registered as a POF user type in pof-config.xml.
+ */
+public class InvalidateProcessor
+    extends AbstractProcessor<Object, Object, Boolean>
+    implements PortableObject {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The processor instance; it has no state. */
+    public static final InvalidateProcessor INSTANCE =
+        new InvalidateProcessor();
+
+    /**
+     * Used by POF, use {@link #INSTANCE} instead.
+     */
+    public InvalidateProcessor() {
+    }
+
+    /**
+     * Drops the given key from the cache and the near caches in front of
+     * it, so the next read loads it from the store.
+     *
+     * @return whether the key was cached
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static boolean invalidate(final NamedCache cache,
+                                     final Object key) {
+        return (Boolean) cache.invoke(key, INSTANCE);
+    }
+
+    /**
+     * Drops the given keys from the cache and the near caches in front of
+     * it.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static void invalidateAll(final NamedCache cache,
+                                     final Collection<?> keys) {
+        cache.invokeAll(keys, INSTANCE);
+    }
+
+    @Override
+    public Boolean process(final InvocableMap.Entry<Object, Object> entry) {
+        if (!entry.isPresent()) {
+            return Boolean.FALSE;
+        }
+        entry.remove(true /* synthetic */);
+        return Boolean.TRUE;
+    }
+
+    @Override
+    public void readExternal(final PofReader in) {
+    }
+
+    @Override
+    public void writeExternal(final PofWriter out) {
+    }
+}
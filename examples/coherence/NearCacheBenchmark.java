@@ -0,0 +1,282 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import com.tangosol.net.CacheFactory;
+import com.tangosol.net.NamedCache;
+import com.tangosol.net.cache.NearCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import oracle.kv.Key;
+
+/**
+ * A read-heavy benchmark comparing the read latency of caches backed by the
+ * Oracle NoSQL Database, typically {@code BinaryCache}, whose reads go to
+ * the distributed cache and, on a miss there, to the store, and
+ * {@code NearBinaryCache}, the same cache with a size-bounded near cache in
+ * front of it, as configured in cache-config.xml.
+ * <p>
+ * The benchmark writes -keys Person values through each cache, then runs
+ * -ops operations from -threads threads, of which -readPercent percent are
+ * reads and the others updates. Most operations go to a hot set of keys,
+ * as is typical of cached data. Each cache is run twice, and the second run
+ * is reported: the 50th, 99th and 99.9th percentiles of the read latency,
+ * and for near caches their {@link NearCacheStats}.
+ * <p>
+ * Run it like BinaryStoreExample:
+ * <pre>
+ * java -cp classes:KVHOME/lib/kvcoherence.jar:COHERENCE_HOME/lib/coherence.jar &#92;
+ *         -Dtangosol.pof.config=pof-config.xml &#92;
+ *         -Dtangosol.coherence.cacheconfig=cache-config.xml &#92;
+ *         coherence.NearCacheBenchmark -caches BinaryCache,NearBinaryCache
+ * </pre>
+ */
+public class NearCacheBenchmark {
+
+    private String[] cacheNames = { "BinaryCache", "NearBinaryCache" };
+    private int nKeys = 10000;
+    private int nHotKeys = 1000;
+    private int hotPercent = 90;
+    private int readPercent = 95;
+    private int nOps = 200000;
+    private int nThreads = 4;
+
+    private Key[] keys;
+
+    /**
+     * Runs the NearCacheBenchmark command line program.
+     */
+    public static void main(String args[]) {
+        try {
+            NearCacheBenchmark benchmark = new NearCacheBenchmark(args);
+            benchmark.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    NearCacheBenchmark(String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if (thisArg.equals("-caches")) {
+                if (argc < nArgs) {
+                    cacheNames = argv[argc++].split(",");
+                } else {
+                    usage("-caches requires an argument");
+                }
+            } else if (thisArg.equals("-keys")) {
+                if (argc < nArgs) {
+                    nKeys = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-keys requires an argument");
+                }
+            } else if (thisArg.equals("-hotKeys")) {
+                if (argc < nArgs) {
+                    nHotKeys = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-hotKeys requires an argument");
+                }
+            } else if (thisArg.equals("-hotPercent")) {
+                if (argc < nArgs) {
+                    hotPercent = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-hotPercent requires an argument");
+                }
+            } else if (thisArg.equals("-readPercent")) {
+                if (argc < nArgs) {
+                    readPercent = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-readPercent requires an argument");
+                }
+            } else if (thisArg.equals("-ops")) {
+                if (argc < nArgs) {
+                    nOps = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-ops requires an argument");
+                }
+            } else if (thisArg.equals("-threads")) {
+                if (argc < nArgs) {
+                    nThreads = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-threads requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        nHotKeys = Math.min(nHotKeys, nKeys);
+    }
+
+    private void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t-caches <comma separated cache names> " +
+             "(default: BinaryCache,NearBinaryCache)\n" +
+             "\t-keys <number of keys> (default: 10000)\n" +
+             "\t-hotKeys <number of frequently used keys> (default: 1000)\n" +
+             "\t-hotPercent <percent of operations on hot keys> " +
+             "(default: 90)\n" +
+             "\t-readPercent <percent of reads> (default: 95)\n" +
+             "\t-ops <number of operations> (default: 200000)\n" +
+             "\t-threads <number of threads> (default: 4)");
+        System.exit(1);
+    }
+
+    void run() throws InterruptedException {
+        keys = new Key[nKeys];
+        for (int i = 0; i < nKeys; i++) {
+            keys[i] = Key.createKey(
+                Arrays.asList("p", "bench", String.format("%010d", i)));
+        }
+
+        CacheFactory.ensureCluster();
+        for (String cacheName : cacheNames) {
+            final NamedCache<Key, Person> cache =
+                CacheFactory.getCache(cacheName);
+            final NearCacheStats stats = (cache instanceof NearCache) ?
+                new NearCacheStats(cache) :
+                null;
+            load(cache);
+            runOps(cache, stats, true);
+            runOps(cache, stats, false);
+            CacheFactory.releaseCache(cache);
+        }
+        CacheFactory.shutdown();
+    }
+
+    private void load(final NamedCache<Key, Person> cache) {
+        final Map<Key, Person> batch = new HashMap<Key, Person>();
+        for (int i = 0; i < nKeys; i++) {
+            batch.put(keys[i], createPerson(i, 0));
+            if (batch.size() == 1000) {
+                cache.putAll(batch);
+                batch.clear();
+            }
+        }
+        cache.putAll(batch);
+    }
+
+    private void runOps(final NamedCache<Key, Person> cache,
+                        final NearCacheStats stats,
+                        final boolean warmup)
+        throws InterruptedException {
+
+        if (stats != null) {
+            stats.reset();
+        }
+        final Worker[] workers = new Worker[nThreads];
+        final Thread[] threads = new Thread[nThreads];
+        final long start = System.nanoTime();
+        for (int i = 0; i < nThreads; i++) {
+            workers[i] = new Worker(cache, nOps / nThreads, i);
+            threads[i] = new Thread(workers[i], "Worker-" + i);
+            threads[i].start();
+        }
+        int nReads = 0;
+        for (int i = 0; i < nThreads; i++) {
+            threads[i].join();
+            nReads += workers[i].nReads;
+        }
+        final long elapsedNs = System.nanoTime() - start;
+        if (warmup) {
+            return;
+        }
+
+        /* Merge and sort the read latencies of all the workers */
+        final long[] latencies = new long[nReads];
+        int pos = 0;
+        for (Worker worker : workers) {
+            System.arraycopy(worker.readNs, 0, latencies, pos,
+                             worker.nReads);
+            pos += worker.nReads;
+        }
+        Arrays.sort(latencies);
+
+        System.out.println(String.format(
+            "%s: %.0f ops/s, read latency p50 %.1f us, p99 %.1f us, " +
+            "p99.9 %.1f us",
+            cache.getCacheName(), nOps / (elapsedNs / 1e9),
+            percentile(latencies, 50) / 1e3,
+            percentile(latencies, 99) / 1e3,
+            percentile(latencies, 99.9) / 1e3));
+        if (stats != null) {
+            System.out.println(stats);
+        }
+    }
+
+    private static long percentile(final long[] sorted,
+                                   final double percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percent / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static Person createPerson(final int i, final int age) {
+        final Person person = new Person();
+        person.setFirstname("First" + i);
+        person.setLastname("Last" + i);
+        person.setPhone("650-506-7000");
+        person.setAge(age);
+        return person;
+    }
+
+    /*
+     * Runs a share of the operations, recording the latency of the reads.
+     */
+    private class Worker implements Runnable {
+
+        private final NamedCache<Key, Person> cache;
+        private final int nWorkerOps;
+        private final Random random;
+        final long[] readNs;
+        int nReads;
+
+        Worker(final NamedCache<Key, Person> cache,
+               final int nWorkerOps,
+               final int id) {
+            this.cache = cache;
+            this.nWorkerOps = nWorkerOps;
+            random = new Random(id);
+            readNs = new long[nWorkerOps];
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < nWorkerOps; i++) {
+                final int k = (random.nextInt(100) < hotPercent) ?
+                    random.nextInt(nHotKeys) :
+                    random.nextInt(nKeys);
+                if (random.nextInt(100) < readPercent) {
+                    final long start = System.nanoTime();
+                    cache.get(keys[k]);
+                    readNs[nReads++] = System.nanoTime() - start;
+                } else {
+                    cache.put(keys[k], createPerson(k, i));
+                }
+            }
+        }
+    }
+}
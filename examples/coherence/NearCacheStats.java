@@ -0,0 +1,136 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import com.tangosol.net.NamedCache;
+import com.tangosol.net.cache.CacheEvent;
+import com.tangosol.net.cache.CacheStatistics;
+import com.tangosol.net.cache.NearCache;
+import com.tangosol.util.MapEvent;
+import com.tangosol.util.MultiplexingMapListener;
+import com.tangosol.util.ObservableMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reports the effectiveness of a near cache configured in front of a cache
+ * backed by the Oracle NoSQL Database, such as the {@code NearBinaryCache}
+ * of cache-config.xml:
+ * <ul>
+ * <li>the hit ratio of the near cache, the fraction of reads served from
+ * the local front map;</li>
+ * <li>the load latency, the average time of a read that misses the front
+ * map and goes to the distributed cache, and from there, if the entry is not
+ * cached either, to the store;</li>
+ * <li>the number of evictions from the front map, because it reached its
+ * size limit or an entry expired, and of invalidations, entries dropped
+ * because they were changed or removed in the distributed cache.</li>
+ * </ul>
+ * A NearCacheStats must be created when the cache is opened, since the
+ * evictions are counted from then on.
+ */
+public class NearCacheStats {
+
+    private final NearCache<?, ?> nearCache;
+    private final AtomicLong evictions = new AtomicLong();
+
+    /* The invalidation count of the near cache at the last reset */
+    private volatile long invalidationBase;
+
+    /**
+     * Attaches to the given cache.
+     *
+     * @throws IllegalArgumentException if the cache is not a near cache
+     */
+    public NearCacheStats(final NamedCache<?, ?> cache) {
+        if (!(cache instanceof NearCache)) {
+            throw new IllegalArgumentException(
+                "Cache " + cache.getCacheName() + " is not a near cache, " +
+                "check that it is mapped to a near-scheme");
+        }
+        nearCache = (NearCache<?, ?>) cache;
+
+        /*
+         * Entries the front map evicts on its own are removed with
+         * synthetic events; those removed on invalidation are not.
+         */
+        final Object front = nearCache.getFrontMap();
+        if (front instanceof ObservableMap) {
+            ((ObservableMap<?, ?>) front).addMapListener(
+                new MultiplexingMapListener<Object, Object>() {
+                    @Override
+                    protected void onMapEvent(
+                        final MapEvent<Object, Object> event) {
+                        if (event.getId() == MapEvent.ENTRY_DELETED &&
+                            event instanceof CacheEvent &&
+                            ((CacheEvent<?, ?>) event).isSynthetic()) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                });
+        }
+    }
+
+    /**
+     * Returns the fraction of reads served by the front map.
+     */
+    public double getHitRatio() {
+        return nearCache.getCacheStatistics().getHitProbability();
+    }
+
+    /**
+     * Returns the average time of a read that missed the front map, in
+     * milliseconds.
+     */
+    public double getAverageLoadMillis() {
+        return nearCache.getCacheStatistics().getAverageMissMillis();
+    }
+
+    /**
+     * Returns the number of entries evicted from the front map.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the number of entries dropped from the front map because they
+     * were changed in the distributed cache.
+     */
+    public long getInvalidations() {
+        return nearCache.getInvalidationHits() - invalidationBase;
+    }
+
+    /**
+     * Clears the hit, load, eviction and invalidation statistics.
+     */
+    public void reset() {
+        nearCache.getCacheStatistics().resetHitStatistics();
+        evictions.set(0);
+        /* The near cache has no way to reset its invalidation count */
+        invalidationBase = nearCache.getInvalidationHits();
+    }
+
+    @Override
+    public String toString() {
+        final CacheStatistics stats = nearCache.getCacheStatistics();
+        return String.format(
+            "near cache %s: hit ratio %.3f (%d hits, %d misses), " +
+            "average load %.3f ms, %d evictions, %d invalidations",
+            nearCache.getCacheName(), stats.getHitProbability(),
+            stats.getCacheHits(), stats.getCacheMisses(),
+            stats.getAverageMissMillis(), getEvictions(),
+            getInvalidations());
+    }
+}
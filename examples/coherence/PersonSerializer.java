@@ -0,0 +1,46 @@
+/*
+ * Generated by coherence.PofSerializerGenerator from coherence.Person,
+ * regenerate it if the class changes.
+ */
+
+package coherence;
+
+import com.tangosol.io.pof.PofReader;
+import com.tangosol.io.pof.PofSerializer;
+import com.tangosol.io.pof.PofWriter;
+
+import java.io.IOException;
+
+/**
+ * POF serializer of {@link Person}, writing its fields in
+ * declaration order, without reflection or boxing.
+ */
+public class PersonSerializer implements PofSerializer<Person> {
+
+    public static final int FIRSTNAME = 0;
+    public static final int LASTNAME = 1;
+    public static final int PHONE = 2;
+    public static final int AGE = 3;
+
+    @Override
+    public void serialize(PofWriter out, Person value)
+        throws IOException {
+        out.writeString(FIRSTNAME, value.firstname);
+        out.writeString(LASTNAME, value.lastname);
+        out.writeString(PHONE, value.phone);
+        out.writeInt(AGE, value.age);
+        out.writeRemainder(null);
+    }
+
+    @Override
+    public Person deserialize(PofReader in) throws IOException {
+        final Person value = new Person();
+        in.registerIdentity(value);
+        value.firstname = in.readString(FIRSTNAME);
+        value.lastname = in.readString(LASTNAME);
+        value.phone = in.readString(PHONE);
+        value.age = in.readInt(AGE);
+        in.readRemainder();
+        return value;
+    }
+}
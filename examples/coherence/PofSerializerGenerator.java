@@ -0,0 +1,272 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package coherence;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates the source of a POF serializer for a simple value class, such
+ * as {@link Person}, so that cache values can be serialized without
+ * reflection or boxing. {@link PersonSerializer} was generated by this
+ * class.
+ * <p>
+ * The generated serializer writes the instance fields of the class in
+ * declaration order, with POF property indexes starting at 0. Fields of
+ * primitive types are written and read with the primitive methods of
+ * PofWriter and PofReader, such as writeInt and readInt, String fields with
+ * writeString and readString, and other fields with writeObject and
+ * readObject. Public fields are accessed directly, others through their
+ * getter and setter methods. The class must have a public no-argument
+ * constructor.
+ * <p>
+ * The property indexes make up the serialized format: to keep reading
+ * existing data, only add fields at the end of a class, and regenerate its
+ * serializer.
+ * <p>
+ * To generate a serializer, compile the value class and run:
+ * <pre>
+ * java -cp classes coherence.PofSerializerGenerator &#92;
+ *         -class coherence.Person [-file PersonSerializer.java]
+ * </pre>
+ * The source is written to standard output if -file is not given. The
+ * serializer is then registered with the value class in pof-config.xml.
+ */
+public class PofSerializerGenerator {
+
+    private String className;
+    private String fileName;
+
+    /**
+     * Runs the PofSerializerGenerator command line program.
+     */
+    public static void main(String args[]) {
+        try {
+            PofSerializerGenerator generator =
+                new PofSerializerGenerator(args);
+            generator.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    PofSerializerGenerator(String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if (thisArg.equals("-class")) {
+                if (argc < nArgs) {
+                    className = argv[argc++];
+                } else {
+                    usage("-class requires an argument");
+                }
+            } else if (thisArg.equals("-file")) {
+                if (argc < nArgs) {
+                    fileName = argv[argc++];
+                } else {
+                    usage("-file requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        if (className == null) {
+            usage("-class is required");
+        }
+    }
+
+    private void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + getClass().getName());
+        System.out.println("\t-class <value class name>\n" +
+                           "\t[-file <output file>] (default: stdout)");
+        System.exit(1);
+    }
+
+    void run() throws ClassNotFoundException, IOException {
+        final Class<?> cls = Class.forName(className);
+        final Writer out = (fileName == null) ?
+            new PrintWriter(System.out) :
+            new FileWriter(fileName);
+        try {
+            out.write(generate(cls));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the source of the serializer of the given class, named after
+     * the class with the Serializer suffix, in the same package.
+     */
+    static String generate(final Class<?> cls) {
+        final String simpleName = cls.getSimpleName();
+        final String serializerName = simpleName + "Serializer";
+        final List<Field> fields = new ArrayList<Field>();
+        for (Field field : cls.getDeclaredFields()) {
+            final int mod = field.getModifiers();
+            if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)) {
+                fields.add(field);
+            }
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("/*\n")
+          .append(" * Generated by coherence.PofSerializerGenerator from ")
+          .append(cls.getName()).append(",\n")
+          .append(" * regenerate it if the class changes.\n")
+          .append(" */\n\n");
+        if (cls.getPackage() != null) {
+            sb.append("package ").append(cls.getPackage().getName())
+              .append(";\n\n");
+        }
+        sb.append("import com.tangosol.io.pof.PofReader;\n")
+          .append("import com.tangosol.io.pof.PofSerializer;\n")
+          .append("import com.tangosol.io.pof.PofWriter;\n\n")
+          .append("import java.io.IOException;\n\n");
+        sb.append("/**\n")
+          .append(" * POF serializer of {@link ").append(simpleName)
+          .append("}, writing its fields in\n")
+          .append(" * declaration order, without reflection or boxing.\n")
+          .append(" */\n");
+        sb.append("public class ").append(serializerName)
+          .append(" implements PofSerializer<").append(simpleName)
+          .append("> {\n\n");
+
+        for (int i = 0; i < fields.size(); i++) {
+            sb.append("    public static final int ")
+              .append(constantName(fields.get(i).getName()))
+              .append(" = ").append(i).append(";\n");
+        }
+        sb.append("\n");
+
+        sb.append("    @Override\n")
+          .append("    public void serialize(PofWriter out, ")
+          .append(simpleName).append(" value)\n")
+          .append("        throws IOException {\n");
+        for (Field field : fields) {
+            sb.append("        out.").append(writeMethod(field.getType()))
+              .append("(").append(constantName(field.getName()))
+              .append(", ").append(getExpression(cls, field, "value"))
+              .append(");\n");
+        }
+        sb.append("        out.writeRemainder(null);\n")
+          .append("    }\n\n");
+
+        sb.append("    @Override\n")
+          .append("    public ").append(simpleName)
+          .append(" deserialize(PofReader in) throws IOException {\n")
+          .append("        final ").append(simpleName).append(" value = new ")
+          .append(simpleName).append("();\n")
+          .append("        in.registerIdentity(value);\n");
+        for (Field field : fields) {
+            final String read = readExpression(field.getType(),
+                                               constantName(field.getName()));
+            sb.append("        ")
+              .append(setStatement(cls, field, "value", read))
+              .append(";\n");
+        }
+        sb.append("        in.readRemainder();\n")
+          .append("        return value;\n")
+          .append("    }\n")
+          .append("}\n");
+        return sb.toString();
+    }
+
+    /* firstName -> FIRST_NAME */
+    private static String constantName(final String fieldName) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fieldName.length(); i++) {
+            final char c = fieldName.charAt(i);
+            if (Character.isUpperCase(c) && i > 0) {
+                sb.append('_');
+            }
+            sb.append(Character.toUpperCase(c));
+        }
+        return sb.toString();
+    }
+
+    private static String writeMethod(final Class<?> type) {
+        if (type == String.class) {
+            return "writeString";
+        }
+        if (type.isPrimitive()) {
+            return "write" + capitalize(type.getName());
+        }
+        return "writeObject";
+    }
+
+    private static String readExpression(final Class<?> type,
+                                         final String index) {
+        if (type == String.class) {
+            return "in.readString(" + index + ")";
+        }
+        if (type.isPrimitive()) {
+            return "in.read" + capitalize(type.getName()) + "(" + index + ")";
+        }
+        return "(" + type.getCanonicalName() + ") in.readObject(" +
+            index + ")";
+    }
+
+    private static String getExpression(final Class<?> cls,
+                                        final Field field,
+                                        final String var) {
+        if (Modifier.isPublic(field.getModifiers())) {
+            return var + "." + field.getName();
+        }
+        final String prefix = (field.getType() == boolean.class) ?
+            "is" : "get";
+        final String getter = prefix + capitalize(field.getName());
+        checkMethod(cls, getter);
+        return var + "." + getter + "()";
+    }
+
+    private static String setStatement(final Class<?> cls,
+                                       final Field field,
+                                       final String var,
+                                       final String value) {
+        if (Modifier.isPublic(field.getModifiers())) {
+            return var + "." + field.getName() + " = " + value;
+        }
+        final String setter = "set" + capitalize(field.getName());
+        checkMethod(cls, setter, field.getType());
+        return var + "." + setter + "(" + value + ")";
+    }
+
+    private static void checkMethod(final Class<?> cls,
+                                    final String name,
+                                    final Class<?>... params) {
+        try {
+            cls.getMethod(name, params);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException(
+                cls.getName() + " has a non-public field without a public " +
+                name + " method", e);
+        }
+    }
+
+    private static String capitalize(final String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
@@ -0,0 +1,210 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable, growable buffer of UTF-8 encoded output, used by
+ * {@link StreamingFormatter} implementations to write records without
+ * creating intermediate Strings. Records are appended one after the other
+ * and the buffer is written out with {@link #writeTo} when it is large
+ * enough, then cleared and reused; so once it has grown to its working size
+ * formatting a record allocates nothing.
+ * <p>
+ * Not thread safe, each formatting thread uses its own buffer.
+ */
+public final class FormatBuffer {
+
+    private byte[] buf;
+    private int length;
+
+    public FormatBuffer(int initialCapacity) {
+        buf = new byte[Math.max(initialCapacity, 16)];
+    }
+
+    /**
+     * Returns the number of bytes in the buffer.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Discards the content of the buffer past the given length; used to
+     * drop a partially formatted record.
+     */
+    public void setLength(int newLength) {
+        if (newLength < 0 || newLength > length) {
+            throw new IllegalArgumentException("Invalid length: " + newLength);
+        }
+        length = newLength;
+    }
+
+    public void clear() {
+        length = 0;
+    }
+
+    public FormatBuffer append(byte b) {
+        ensureCapacity(1);
+        buf[length++] = b;
+        return this;
+    }
+
+    public FormatBuffer append(char c) {
+        if (c < 0x80) {
+            return append((byte) c);
+        }
+        return append(String.valueOf(c));
+    }
+
+    /**
+     * Appends the UTF-8 encoding of the given characters.
+     */
+    public FormatBuffer append(CharSequence s) {
+        final int n = s.length();
+        /* Enough for the common case of ASCII only */
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                if (length == buf.length) {
+                    ensureCapacity(1);
+                }
+                buf[length++] = (byte) c;
+            } else if (c < 0x800) {
+                ensureCapacity(2);
+                buf[length++] = (byte) (0xc0 | (c >> 6));
+                buf[length++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n &&
+                       Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(4);
+                buf[length++] = (byte) (0xf0 | (cp >> 18));
+                buf[length++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                buf[length++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                buf[length++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                /* Unpaired surrogate, replaced as String.getBytes does */
+                append((byte) '?');
+            } else {
+                ensureCapacity(3);
+                buf[length++] = (byte) (0xe0 | (c >> 12));
+                buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                buf[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Appends the decimal representation of the given value.
+     */
+    public FormatBuffer append(long value) {
+        if (value == Long.MIN_VALUE) {
+            return append(Long.toString(value));
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buf[length++] = '-';
+            value = -value;
+        }
+        int nDigits = 1;
+        for (long v = value / 10; v != 0; v /= 10) {
+            nDigits++;
+        }
+        int pos = length + nDigits;
+        length = pos;
+        do {
+            buf[--pos] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        return this;
+    }
+
+    public FormatBuffer append(byte[] bytes, int off, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, off, buf, length, len);
+        length += len;
+        return this;
+    }
+
+    /**
+     * Appends the UTF-8 encoding of a string held in the modified UTF-8
+     * form written by DataOutput.writeUTF, given without its length prefix.
+     * Modified UTF-8 only differs from UTF-8 in the encoding of the null
+     * character and of supplementary characters, so the bytes are copied as
+     * is unless they contain one of those, which is rare.
+     */
+    public FormatBuffer appendModifiedUtf8(byte[] bytes, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            final int b = bytes[i] & 0xff;
+            if (b == 0xc0 || b == 0xed) {
+                return append(decodeModifiedUtf8(bytes, off, len));
+            }
+        }
+        return append(bytes, off, len);
+    }
+
+    /**
+     * Writes the content of the buffer to the given stream. The buffer is
+     * not cleared.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, length);
+    }
+
+    /**
+     * Returns a copy of the content of the buffer.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, length);
+    }
+
+    /**
+     * Returns the content of the buffer decoded as a String.
+     */
+    @Override
+    public String toString() {
+        return new String(buf, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void ensureCapacity(int extra) {
+        final int required = length + extra;
+        if (required > buf.length) {
+            final byte[] newBuf =
+                new byte[Math.max(required, buf.length * 2)];
+            System.arraycopy(buf, 0, newBuf, 0, length);
+            buf = newBuf;
+        }
+    }
+
+    private static String decodeModifiedUtf8(byte[] bytes, int off, int len) {
+        final byte[] withLength = new byte[len + 2];
+        withLength[0] = (byte) (len >> 8);
+        withLength[1] = (byte) len;
+        System.arraycopy(bytes, off, withLength, 2, len);
+        try {
+            return new DataInputStream(new ByteArrayInputStream(withLength))
+                .readUTF();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid modified UTF-8", e);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import oracle.kv.KeyValueVersion;
+import oracle.kv.impl.api.table.TableBuilder;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+
+/**
+ * Measures the throughput, in MB/s of output, of the two ways MyFormatter
+ * formats records: the String returning methods of the Formatter and
+ * TableFormatter interfaces, whose result is then encoded and written like
+ * the preprocessor does, and the {@link StreamingFormatter} methods, which
+ * write into a reused {@link FormatBuffer} flushed to the output every
+ * 64 KB. Both the key/value records of LoadCookbookData and the rows of
+ * LoadCookbookTable are measured, from records generated in memory, so no
+ * store is needed. The output is discarded unless -file is given.
+ * <p>
+ * The number of bytes allocated per record is reported as well, when the
+ * JVM supports measuring it.
+ * <p>
+ * To run this class, type a command like the following:
+ * <pre><code>
+ *  &gt; java -classpath lib/kvclient.jar:examples &#92;
+ *         externaltables.FormatterBenchmark &#92;
+ *        [-records &lt;n&gt;] [-iterations &lt;n&gt;] [-file &lt;output-file&gt;]
+ * </code></pre>
+ */
+public class FormatterBenchmark {
+
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    private int nRecords = 200000;
+    private int nIterations = 5;
+    private String fileName = null;
+
+    private KeyValueVersion[] records;
+    private Row[] rows;
+
+    public static void main(final String[] args) {
+        try {
+            final FormatterBenchmark benchmark = new FormatterBenchmark(args);
+            benchmark.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private FormatterBenchmark(final String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if ("-records".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nRecords = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-records requires an argument");
+                }
+            } else if ("-iterations".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nIterations = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-iterations requires an argument");
+                }
+            } else if ("-file".equals(thisArg)) {
+                if (argc < nArgs) {
+                    fileName = argv[argc++];
+                } else {
+                    usage("-file requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+    }
+
+    private void usage(final String message) {
+        if (message != null) {
+            System.out.println("\n" + message + "\n");
+        }
+
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t[-records <number of records>] (default: 200000)\n" +
+             "\t[-iterations <number of measured iterations>] " +
+             "(default: 5)\n" +
+             "\t[-file <output file>] (default: output discarded)\n");
+        System.exit(1);
+    }
+
+    private void run() throws IOException {
+        generateRecords();
+
+        /* The first iteration of each is a warmup */
+        for (int i = 0; i <= nIterations; i++) {
+            final boolean warmup = (i == 0);
+            report("kv, String", warmup, runStringKV());
+            report("kv, streaming", warmup, runStreamingKV());
+            report("table, String", warmup, runStringTable());
+            report("table, streaming", warmup, runStreamingTable());
+        }
+    }
+
+    private void generateRecords() {
+        final Random random = new Random(1);
+        final TableBuilder builder =
+            TableBuilder.createTableBuilder("cookbookTable");
+        builder.addString("email");
+        builder.addString("name");
+        builder.addString("gender");
+        builder.addString("address");
+        builder.addString("phone");
+        builder.primaryKey("email");
+        /*
+         * TableBuilder is an internal class, used here only to create the
+         * definition of cookbookTable without a store.
+         */
+        final Table table = builder.buildTable();
+
+        records = new KeyValueVersion[nRecords];
+        rows = new Row[nRecords];
+        for (int i = 0; i < nRecords; i++) {
+            final UserInfo user = new UserInfo("user" + i + "@example.com");
+            user.setName("User Number " + i);
+            user.setGender(random.nextBoolean() ? "F" : "M");
+            user.setAddress(random.nextInt(10000) + " Main Street, " +
+                            "Burlington, MA 0180" + random.nextInt(10));
+            user.setPhone("781-" + (100 + random.nextInt(900)) + "-" +
+                          (1000 + random.nextInt(9000)));
+            records[i] = new KeyValueVersion(user.getStoreKey(),
+                                             user.getStoreValue());
+
+            final Row row = table.createRow();
+            row.put("email", user.getEmail());
+            row.put("name", user.getName());
+            row.put("gender", user.getGender());
+            row.put("address", user.getAddress());
+            row.put("phone", user.getPhone());
+            rows[i] = row;
+        }
+    }
+
+    private Result runStringKV() throws IOException {
+        final MyFormatter formatter = new MyFormatter();
+        final Result result = new Result();
+        final CountingOutputStream out = openOutput();
+        result.start();
+        for (KeyValueVersion kvv : records) {
+            final String s = formatter.toOracleLoaderFormat(kvv, null);
+            if (s != null) {
+                out.write(s.getBytes(StandardCharsets.UTF_8));
+                out.write('\n');
+            }
+        }
+        out.close();
+        result.stop(out.count);
+        return result;
+    }
+
+    private Result runStreamingKV() throws IOException {
+        final MyFormatter formatter = new MyFormatter();
+        final FormatBuffer buffer = new FormatBuffer(FLUSH_SIZE + 1024);
+        final Result result = new Result();
+        final CountingOutputStream out = openOutput();
+        result.start();
+        for (KeyValueVersion kvv : records) {
+            if (formatter.format(kvv, null, buffer)) {
+                buffer.append((byte) '\n');
+                if (buffer.length() >= FLUSH_SIZE) {
+                    buffer.writeTo(out);
+                    buffer.clear();
+                }
+            }
+        }
+        buffer.writeTo(out);
+        out.close();
+        result.stop(out.count);
+        return result;
+    }
+
+    private Result runStringTable() throws IOException {
+        final MyFormatter formatter = new MyFormatter();
+        final Result result = new Result();
+        final CountingOutputStream out = openOutput();
+        result.start();
+        for (Row row : rows) {
+            final String s = formatter.toOracleLoaderFormat(row, null);
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+            out.write('\n');
+        }
+        out.close();
+        result.stop(out.count);
+        return result;
+    }
+
+    private Result runStreamingTable() throws IOException {
+        final MyFormatter formatter = new MyFormatter();
+        final FormatBuffer buffer = new FormatBuffer(FLUSH_SIZE + 1024);
+        final Result result = new Result();
+        final CountingOutputStream out = openOutput();
+        result.start();
+        for (Row row : rows) {
+            formatter.format(row, null, buffer);
+            buffer.append((byte) '\n');
+            if (buffer.length() >= FLUSH_SIZE) {
+                buffer.writeTo(out);
+                buffer.clear();
+            }
+        }
+        buffer.writeTo(out);
+        out.close();
+        result.stop(out.count);
+        return result;
+    }
+
+    private CountingOutputStream openOutput() throws IOException {
+        if (fileName == null) {
+            return new CountingOutputStream(null);
+        }
+        return new CountingOutputStream(
+            new BufferedOutputStream(new FileOutputStream(fileName),
+                                     FLUSH_SIZE));
+    }
+
+    private void report(String name, boolean warmup, Result result) {
+        final double mb = result.bytes / (1024.0 * 1024.0);
+        final double secs = result.elapsedNs / 1e9;
+        final StringBuilder sb = new StringBuilder();
+        sb.append(warmup ? "warmup   " : "measured ");
+        sb.append(String.format("%-17s %8.1f MB/s %7d ns/record",
+                                name + ":", mb / secs,
+                                result.elapsedNs / nRecords));
+        if (result.allocatedBytes >= 0) {
+            sb.append(String.format(" %6d bytes allocated/record",
+                                    result.allocatedBytes / nRecords));
+        }
+        System.out.println(sb);
+    }
+
+    /*
+     * The elapsed time, output size and, if supported, number of bytes
+     * allocated by the current thread during a run.
+     */
+    private static class Result {
+        private static final ThreadMXBean threadBean =
+            ManagementFactory.getThreadMXBean();
+
+        long startNs;
+        long startAllocated;
+        long elapsedNs;
+        long bytes;
+        long allocatedBytes = -1;
+
+        void start() {
+            startAllocated = allocatedBytes();
+            startNs = System.nanoTime();
+        }
+
+        void stop(long outputBytes) {
+            elapsedNs = System.nanoTime() - startNs;
+            bytes = outputBytes;
+            if (startAllocated >= 0) {
+                allocatedBytes = allocatedBytes() - startAllocated;
+            }
+        }
+
+        private static long allocatedBytes() {
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                return ((com.sun.management.ThreadMXBean) threadBean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return -1;
+        }
+    }
+
+    /*
+     * Counts the bytes written, and passes them to the given stream, if
+     * any.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            count++;
+            if (out != null) {
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+            if (out != null) {
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+}
@@ -13,18 +13,39 @@
 
 package externaltables;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import oracle.kv.BulkWriteOptions;
 import oracle.kv.Direction;
+import oracle.kv.EntryStream;
 import oracle.kv.FaultException;
 import oracle.kv.KVStore;
 import oracle.kv.KVStoreConfig;
 import oracle.kv.KVStoreFactory;
 import oracle.kv.Key;
+import oracle.kv.KeyValue;
+import oracle.kv.ParallelScanIterator;
+import oracle.kv.StoreIteratorConfig;
+import oracle.kv.Value;
 
 /**
  * A class used in the External Tables Cookbook example to create sample
  * records in the NoSQL Database.
+ * <p>
+ * By default records are created one at a time with putIfAbsent and deleted
+ * one at a time. When -threads or -batch is given, the bulk mode is used
+ * instead: records are created with the bulk put API, from -threads
+ * concurrent streams, and existing records are found with a parallel key
+ * scan and deleted by -threads threads, each deleting all the records of a
+ * user with a single multiDelete. This is how large data sets should be
+ * created and reset.
  */
 public final class LoadCookbookData {
 
@@ -34,6 +55,13 @@ public final class LoadCookbookData {
 
     private boolean deleteExisting = false;
 
+    private UserInfoCodec.Encoding encoding = UserInfoCodec.Encoding.LEGACY;
+
+    /* Bulk mode settings */
+    private boolean bulk = false;
+    private int nThreads = 1;
+    private int batchSize = 100;
+
     static final String USER_OBJECT_TYPE = "user";
 
     public static void main(final String[] args) {
@@ -103,6 +131,31 @@ public final class LoadCookbookData {
                 }
             } else if ("-delete".equals(thisArg)) {
                 deleteExisting = true;
+            } else if ("-threads".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nThreads = Integer.parseInt(argv[argc++]);
+                    bulk = true;
+                } else {
+                    usage("-threads requires an argument");
+                }
+            } else if ("-batch".equals(thisArg)) {
+                if (argc < nArgs) {
+                    batchSize = Integer.parseInt(argv[argc++]);
+                    bulk = true;
+                } else {
+                    usage("-batch requires an argument");
+                }
+            } else if ("-encoding".equals(thisArg)) {
+                if (argc < nArgs) {
+                    try {
+                        encoding = UserInfoCodec.Encoding.valueOf(
+                            argv[argc++].toUpperCase());
+                    } catch (IllegalArgumentException e) {
+                        usage("Unknown encoding: " + argv[argc - 1]);
+                    }
+                } else {
+                    usage("-encoding requires an argument");
+                }
             } else {
                 usage("Unknown argument: " + thisArg);
             }
@@ -123,16 +176,30 @@ public final class LoadCookbookData {
              "\t-host <host name>\n" +
              "\t-port <port number>\n" +
              "\t-nops <total records to create>\n" +
-             "\t-delete (default: false) [delete all existing data]\n");
+             "\t-delete (default: false) [delete all existing data]\n" +
+             "\t-encoding <legacy | compact | avro> (default: legacy) " +
+             "[format of the values]\n" +
+             "\t-threads <n> (default: 1) [concurrent bulk streams " +
+             "and delete threads]\n" +
+             "\t-batch <n> (default: 100) [records per bulk request " +
+             "and per scan batch]\n");
         System.exit(1);
     }
 
     private void run() {
         if (deleteExisting) {
-            deleteExistingData();
+            if (bulk) {
+                bulkDeleteExistingData();
+            } else {
+                deleteExistingData();
+            }
         }
 
-        doLoad();
+        if (bulk) {
+            doBulkLoad();
+        } else {
+            doLoad();
+        }
     }
 
     private void doLoad() {
@@ -143,6 +210,12 @@ public final class LoadCookbookData {
     }
 
     private void addUser(final long i) {
+        final UserInfo userInfo = createUser(i);
+        store.putIfAbsent(userInfo.getStoreKey(),
+                          userInfo.getStoreValue(encoding));
+    }
+
+    private static UserInfo createUser(final long i) {
         final String email = "user" + i + "@example.com";
 
         final UserInfo userInfo = new UserInfo(email);
@@ -156,8 +229,105 @@ public final class LoadCookbookData {
                          " Number-" + iStr);
         userInfo.setAddress(iStr + " Example St, Example Town, AZ");
         userInfo.setPhone("000.000.0000".replace('0', (char) ('0' + mod)));
+        return userInfo;
+    }
 
-        store.putIfAbsent(userInfo.getStoreKey(), userInfo.getStoreValue());
+    /**
+     * Creates the records with the bulk put API, from nThreads streams each
+     * producing every nThreads-th record. Bulk put sorts the records of the
+     * streams by shard and writes them in batched requests, so the batch
+     * size is turned into a request size using the size of a record.
+     * Existing records are kept, as with putIfAbsent.
+     */
+    private void doBulkLoad() {
+        final BulkWriteOptions options = new BulkWriteOptions();
+        options.setStreamParallelism(nThreads);
+        options.setOverwrite(false);
+        final UserInfo sample = createUser(0);
+        final int recordSize =
+            sample.getStoreKey().toByteArray().length +
+            sample.getStoreValue(encoding).toByteArray().length;
+        options.setMaxRequestSize(
+            (int) Math.min(Integer.MAX_VALUE, (long) batchSize * recordSize));
+
+        final AtomicLong existing = new AtomicLong();
+        final AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+        final List<EntryStream<KeyValue>> streams =
+            new ArrayList<EntryStream<KeyValue>>();
+        for (int i = 0; i < nThreads; i++) {
+            streams.add(new UserStream(i, nThreads, existing, failure));
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            store.put(streams, options);
+        } finally {
+            store.close();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.println((nOps - existing.get()) + " records added, " +
+                           existing.get() + " already existed, in " +
+                           elapsed + " ms");
+    }
+
+    /*
+     * Produces the records first, first + step, first + 2 * step, ... for a
+     * bulk put.
+     */
+    private class UserStream implements EntryStream<KeyValue> {
+
+        private final int first;
+        private final UserInfoCodec codec = new UserInfoCodec(encoding);
+        private final AtomicLong existing;
+        private final AtomicReference<RuntimeException> failure;
+        private final int step;
+        private long next;
+
+        UserStream(final int first,
+                   final int step,
+                   final AtomicLong existing,
+                   final AtomicReference<RuntimeException> failure) {
+            this.first = first;
+            this.step = step;
+            this.existing = existing;
+            this.failure = failure;
+            next = first;
+        }
+
+        @Override
+        public String name() {
+            return "UserStream-" + first;
+        }
+
+        @Override
+        public KeyValue getNext() {
+            if (next >= nOps || failure.get() != null) {
+                return null;
+            }
+            final UserInfo userInfo = createUser(next);
+            next += step;
+            return new KeyValue(userInfo.getStoreKey(),
+                                Value.createValue(codec.encode(userInfo)));
+        }
+
+        @Override
+        public void completed() {
+        }
+
+        @Override
+        public void keyExists(final KeyValue entry) {
+            existing.incrementAndGet();
+        }
+
+        @Override
+        public void catchException(final RuntimeException exception,
+                                   final KeyValue entry) {
+            failure.compareAndSet(null, exception);
+        }
     }
 
     private void deleteExistingData() {
@@ -189,4 +359,96 @@ public final class LoadCookbookData {
 
         System.out.println(cnt + " records deleted");
     }
+
+    /**
+     * Deletes all user records with a parallel key scan, handing batches of
+     * keys to nThreads threads. Each user is deleted with a single
+     * multiDelete of its major key, which removes all its records in one
+     * operation on its shard; so only the first key seen of a user in a
+     * batch is used.
+     */
+    private void bulkDeleteExistingData() {
+        final Key userTypeKey = Key.createKey(USER_OBJECT_TYPE);
+        final StoreIteratorConfig config =
+            new StoreIteratorConfig().setMaxConcurrentRequests(nThreads);
+        final ParallelScanIterator<Key> iter = store.storeKeysIterator
+            (Direction.UNORDERED, batchSize, userTypeKey,
+             null /*subRange*/, null /*depth*/, null /*consistency*/,
+             0 /*timeout*/, null /*timeoutUnit*/, config);
+
+        /*
+         * When the queue is full the scanning thread deletes a batch itself,
+         * which keeps the number of keys held in memory bounded.
+         */
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(2 * nThreads),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicLong cnt = new AtomicLong();
+        final AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+        final long start = System.currentTimeMillis();
+        try {
+            List<Key> batch = new ArrayList<Key>(batchSize);
+            List<String> lastMajorPath = null;
+            while (iter.hasNext() && failure.get() == null) {
+                final List<String> majorPath = iter.next().getMajorPath();
+                if (majorPath.equals(lastMajorPath)) {
+                    continue;
+                }
+                lastMajorPath = majorPath;
+                batch.add(Key.createKey(majorPath));
+                if (batch.size() == batchSize) {
+                    executor.execute(new DeleteTask(batch, cnt, failure));
+                    batch = new ArrayList<Key>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                executor.execute(new DeleteTask(batch, cnt, failure));
+            }
+        } finally {
+            iter.close();
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.println(cnt.get() + " records deleted in " +
+                           elapsed + " ms");
+    }
+
+    /*
+     * Deletes the records under each of a batch of major keys.
+     */
+    private class DeleteTask implements Runnable {
+
+        private final List<Key> majorKeys;
+        private final AtomicLong cnt;
+        private final AtomicReference<RuntimeException> failure;
+
+        DeleteTask(final List<Key> majorKeys,
+                   final AtomicLong cnt,
+                   final AtomicReference<RuntimeException> failure) {
+            this.majorKeys = majorKeys;
+            this.cnt = cnt;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (Key majorKey : majorKeys) {
+                    cnt.addAndGet(store.multiDelete(majorKey, null, null));
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
 }
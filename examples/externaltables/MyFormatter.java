@@ -13,21 +13,16 @@
 
 package externaltables;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInput;
-import java.io.DataInputStream;
-import java.io.IOException;
 import java.util.List;
-import java.util.Vector;
 
 import oracle.kv.KVStore;
 import oracle.kv.Key;
 import oracle.kv.KeyValueVersion;
-import oracle.kv.Value;
 import oracle.kv.exttab.Formatter;
 import oracle.kv.exttab.TableFormatter;
 import oracle.kv.table.FieldValue;
 import oracle.kv.table.Row;
+import oracle.kv.table.Table;
 
 /**
  * A simple Formatter and TableFormatter implementation used by the External
@@ -43,10 +38,37 @@ import oracle.kv.table.Row;
  * or fields (from {@link oracle.kv.exttab.TableFormatter#toOracleLoaderFormat}
  * method) separated by delimiter "|". The return String can be interpreted
  * by the ACCESS PARAMETERS of the External Table definition.
+ * <p>
+ * The class also implements {@link StreamingFormatter}, which produces the
+ * same output directly into a reusable {@link FormatBuffer}. The String
+ * returning methods are built on it. An instance keeps per table state and a
+ * buffer, so it must not be shared by concurrent threads.
  */
-public class MyFormatter implements Formatter, TableFormatter {
+public class MyFormatter
+    implements Formatter, TableFormatter, StreamingFormatter {
+
     private static final String USER_OBJECT_TYPE = "user";
     private static final String INFO_PROPERTY_NAME = "info";
+    private static final byte DELIMITER = '|';
+
+    /* The columns of the table output, in output order. */
+    private static final String[] COLUMNS =
+        { "email", "name", "gender", "address", "phone" };
+
+    /* Buffer used by the String returning methods. */
+    private final FormatBuffer buffer = new FormatBuffer(256);
+
+    /* View of the fields of the UserInfo value being formatted. */
+    private final UserInfoCodec.Fields fields = new UserInfoCodec.Fields();
+
+    /*
+     * The table the column positions were resolved for, and its version;
+     * they are resolved again only when rows of another table or table
+     * version are formatted.
+     */
+    private Table layoutTable;
+    private int layoutVersion;
+    private final int[] columnPos = new int[COLUMNS.length];
 
     /**
      * @hidden
@@ -56,8 +78,37 @@ public class MyFormatter implements Formatter, TableFormatter {
     @Override
     public String toOracleLoaderFormat(final KeyValueVersion kvv,
                                        final KVStore kvStore) {
+        buffer.clear();
+        if (!format(kvv, kvStore, buffer)) {
+            return null;
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Converts Row from TableAPI to a string that will be consumed
+     * by ORA process.
+     */
+    @Override
+    public String toOracleLoaderFormat(final Row row,
+                                       final KVStore kvStore) {
+        buffer.clear();
+        format(row, kvStore, buffer);
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the email from the key, then the fields of the UserInfo
+     * value. The value can be in any of the formats of UserInfoCodec; it is
+     * parsed in place and the bytes of each field are copied to the output
+     * without being decoded. As in earlier versions of this class, a missing
+     * field is output as "null".
+     */
+    @Override
+    public boolean format(final KeyValueVersion kvv,
+                          final KVStore kvStore,
+                          final FormatBuffer out) {
         final Key key = kvv.getKey();
-        final Value value = kvv.getValue();
 
         final List<String> majorPath = key.getMajorPath();
         final List<String> minorPath = key.getMinorPath();
@@ -67,97 +118,88 @@ public class MyFormatter implements Formatter, TableFormatter {
             throw new IllegalArgumentException("Unknown object type: " + key);
         }
 
-        final String email = majorPath.get(1);
-        final String propertyName =
-            (minorPath.size() > 0) ? minorPath.get(0) : null;
-
-        if (INFO_PROPERTY_NAME.equals(propertyName)) {
-            final ByteArrayInputStream bais =
-                new ByteArrayInputStream(value.getValue());
-            final DataInputStream dis = new DataInputStream(bais);
-
-            try {
-
-                final String name = readString(dis);
-                final String gender = readString(dis);
-                final String address = readString(dis);
-                final String phone = readString(dis);
-                final StringBuilder sb = new StringBuilder();
-                sb.append(email).append("|");
-                sb.append(name).append("|");
-                sb.append(gender).append("|");
-                sb.append(address).append("|");
-                sb.append(phone);
-                return sb.toString();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+        if (minorPath.isEmpty() ||
+            !INFO_PROPERTY_NAME.equals(minorPath.get(0))) {
+            return false;
         }
 
-        return null;
+        try {
+            fields.parse(kvv.getValue().getValue());
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e);
+        }
+
+        out.append(majorPath.get(1));
+        for (int i = 0; i < UserInfoCodec.N_FIELDS; i++) {
+            out.append(DELIMITER);
+            if (fields.isNull(i)) {
+                out.append("null");
+            } else {
+                fields.appendTo(i, out);
+            }
+        }
+        return true;
     }
 
-    /**
-     * Converts Row from TableAPI to a string that will be consumed
-     * by ORA process.
-     */
     @Override
-    public String toOracleLoaderFormat(final Row row,
-                                       final KVStore kvStore) {
-        String ret;
+    public boolean format(final Row row,
+                          final KVStore kvStore,
+                          final FormatBuffer out) {
         if (row == null) {
             throw new Error("No matching row found");
         }
 
-        try {
-            final String delimiter = "|";
-            final StringBuilder sb = new StringBuilder();
-            boolean needDelimiter = false;
-            final Vector<String> allCols = new Vector<String>();
-            allCols.add("email");
-            allCols.add("name");
-            allCols.add("gender");
-            allCols.add("address");
-            allCols.add("phone");
-
-            for (String col : allCols) {
-                /* skip first delimiter */
-                if (needDelimiter) {
-                    sb.append(delimiter);
-                } else {
-                    needDelimiter = true;
-                }
-
-                /*
-                 * For simple data type, it will convert to string
-                 * automatically, and for other non-simple data types,
-                 * it will convert to JSON. If the field is null, append
-                 * nothing and Oracle External table will treat it as
-                 * missing value and set it as null.
-                 */
-                final FieldValue v = row.get(col);
-                if (!v.isNull()) {
-                    sb.append(row.get(col));
-                } else {
-                    /* append nothing for null values */
-                }
+        resolveColumns(row);
+
+        for (int i = 0; i < COLUMNS.length; i++) {
+            /* skip first delimiter */
+            if (i > 0) {
+                out.append(DELIMITER);
             }
-            ret = sb.toString();
-        } catch (IllegalArgumentException e) {
-            throw new RuntimeException(e);
-        }
 
-        return ret;
+            /*
+             * For simple data type, it will convert to string
+             * automatically, and for other non-simple data types,
+             * it will convert to JSON. If the field is null, append
+             * nothing and Oracle External table will treat it as
+             * missing value and set it as null.
+             */
+            final FieldValue v = row.get(columnPos[i]);
+            if (v == null || v.isNull()) {
+                /* append nothing for null values */
+                continue;
+            }
+            switch (v.getType()) {
+            case STRING:
+                out.append(v.asString().get());
+                break;
+            case INTEGER:
+                out.append(v.asInteger().get());
+                break;
+            case LONG:
+                out.append(v.asLong().get());
+                break;
+            default:
+                out.append(v.toString());
+                break;
+            }
+        }
+        return true;
     }
 
-
-    private String readString(final DataInput in)
-        throws IOException {
-
-        if (!in.readBoolean()) {
-            return null;
+    private void resolveColumns(final Row row) {
+        final Table table = row.getTable();
+        if (table == layoutTable && row.getTableVersion() == layoutVersion) {
+            return;
         }
-
-        return in.readUTF();
+        try {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                columnPos[i] = row.getDefinition().getFieldPos(COLUMNS[i]);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException(e);
+        }
+        layoutTable = table;
+        layoutVersion = row.getTableVersion();
     }
 }
@@ -0,0 +1,626 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import oracle.kv.Consistency;
+import oracle.kv.Depth;
+import oracle.kv.Direction;
+import oracle.kv.KVSecurityConstants;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.Key;
+import oracle.kv.KeyRange;
+import oracle.kv.KeyValueVersion;
+import oracle.kv.ParallelScanIterator;
+import oracle.kv.StoreIteratorConfig;
+import oracle.kv.exttab.Formatter;
+import oracle.kv.exttab.TableFormatter;
+import oracle.kv.impl.api.KVStoreImpl;
+import oracle.kv.impl.api.parallelscan.ParallelScan;
+import oracle.kv.impl.api.table.TableAPIImpl;
+import oracle.kv.impl.topo.split.SplitBuilder;
+import oracle.kv.impl.topo.split.TopoSplit;
+import oracle.kv.impl.util.ExternalDataSourceUtils;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableIteratorOptions;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * A parallel replacement for the oracle.kv.exttab.Preproc preprocessor,
+ * which the Oracle Database runs, through the nosql_stream script, for each
+ * location file of a NoSQL external table. Like Preproc, it reads the
+ * location file written by the Publish utility, scans the partitions of the
+ * store assigned to that location file, formats each record with the
+ * configured formatter and writes the records to standard output. Each
+ * location file is assigned the same partitions as with Preproc, so a table
+ * declared with N location files is read by N concurrent preprocessors that
+ * together cover the whole store.
+ * <p>
+ * Preproc scans and formats the records of a location file on a single
+ * thread. This class instead divides the partitions of the location file
+ * into a number of disjoint sets, each read by its own stream: a scan thread
+ * that reads batches of records from its partitions, and a pool of formatter
+ * threads, each with its own formatter instance and {@link FormatBuffer},
+ * that format the batches into 64 KB chunks of complete lines. The chunks of
+ * all the streams go through a bounded pipe buffer to the main thread, which
+ * writes them to standard output; so the output rate, and the Oracle
+ * Database reading it, limits how much is buffered. Formatters that
+ * implement {@link StreamingFormatter}, as {@link MyFormatter} does, are
+ * used through it, others through their String returning method.
+ * <p>
+ * The parallelism is set with the following system properties, given in the
+ * nosql_stream script:
+ * <ul>
+ * <li>{@value #STREAMS_PROPERTY}: the number of streams per location file.
+ * By default, one per shard, capped at the number of CPUs.
+ * <li>{@value #FORMAT_THREADS_PROPERTY}: the number of formatter threads
+ * per stream. By default, the number of CPUs divided by the number of
+ * streams, with a minimum of 1.
+ * <li>{@value #PIPE_CHUNKS_PROPERTY}: the number of 64 KB chunks the pipe
+ * buffer holds. By default, 32.
+ * </ul>
+ * Since several preprocessors run at the same time, one per location file,
+ * the number of location files times the number of streams and formatter
+ * threads should not greatly exceed the number of shards and CPUs available.
+ * <p>
+ * For example, to use this class instead of Preproc, change the last line of
+ * the nosql_stream script to:
+ * <pre><code>
+ * java -Dexternaltables.ParallelPreproc.streams=4 &#92;
+ *      externaltables.ParallelPreproc $*
+ * </code></pre>
+ * and add the examples directory, where the class is compiled, to its
+ * CLASSPATH. Records are output in no particular order, as with Preproc.
+ * Unlike Preproc, a formatter class is required for key/value records.
+ */
+public class ParallelPreproc {
+
+    static final String STREAMS_PROPERTY =
+        "externaltables.ParallelPreproc.streams";
+    static final String FORMAT_THREADS_PROPERTY =
+        "externaltables.ParallelPreproc.formatThreads";
+    static final String PIPE_CHUNKS_PROPERTY =
+        "externaltables.ParallelPreproc.pipeChunks";
+
+    /* Names of the configuration components and properties used. */
+    private static final String STREAM_COMPONENT = "nosql_stream";
+    private static final String TABLE_COMPONENT = "nosql_table";
+    private static final String STORE_PARAM = "oracle.kv.kvstore";
+    private static final String HOSTS_PARAM = "oracle.kv.hosts";
+    private static final String BATCH_SIZE_PARAM = "oracle.kv.batchSize";
+    private static final String PARENT_KEY_PARAM = "oracle.kv.parentKey";
+    private static final String SUB_RANGE_PARAM = "oracle.kv.subRange";
+    private static final String DEPTH_PARAM = "oracle.kv.depth";
+    private static final String CONSISTENCY_PARAM = "oracle.kv.consistency";
+    private static final String TIMEOUT_PARAM = "oracle.kv.timeout";
+    private static final String FORMATTER_PARAM = "oracle.kv.formatterClass";
+    private static final String SECURITY_PARAM = "oracle.kv.security";
+    private static final String TABLE_NAME_PARAM = "oracle.kv.tableName";
+    private static final String FILE_NUMBER_PARAM =
+        "oracle.kv.exttab.externalTableFileNumber";
+    private static final String TOTAL_FILES_PARAM =
+        "oracle.kv.exttab.totalExternalTableFiles";
+
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_PIPE_CHUNKS = 32;
+
+    /* Size of the chunks of output the formatter threads produce */
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /* Tells a formatter thread that its stream is done */
+    private static final List<Object> END_OF_STREAM = new ArrayList<Object>();
+
+    /* Tells the output thread that a formatter thread is done */
+    private static final byte[] END_OF_OUTPUT = new byte[0];
+
+    private boolean verbose;
+    private File configFile;
+    private Map<String, String> params;
+    private boolean useTableAPI;
+
+    private KVStoreImpl store;
+    private Table table;
+    private Class<?> formatterClass;
+    private int batchSize;
+    private Consistency consistency;
+    private long timeoutMs;
+    private Key parentKey;
+    private KeyRange subRange;
+    private Depth depth;
+
+    private final AtomicReference<Throwable> failure =
+        new AtomicReference<Throwable>();
+
+    public static void main(final String[] args) {
+        final ParallelPreproc preproc = new ParallelPreproc();
+        try {
+            preproc.parseArgs(args);
+            preproc.run();
+        } catch (Throwable t) {
+            t.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+    private void parseArgs(final String[] args) {
+        for (String arg : args) {
+            if ("-verbose".equals(arg)) {
+                verbose = true;
+            } else if (configFile == null) {
+                configFile = new File(arg);
+            } else {
+                throw new IllegalArgumentException("Unknown arg: " + arg);
+            }
+        }
+        if (configFile == null) {
+            throw new IllegalArgumentException(
+                "usage: " + getClass().getName() +
+                " [-verbose] <location file>");
+        }
+        if (!configFile.exists()) {
+            throw new IllegalArgumentException(
+                "File does not exist: " + configFile);
+        }
+    }
+
+    private void run() throws Exception {
+        loadParams();
+        openStore();
+        try {
+            final List<Set<Integer>> streamPartitions = assignPartitions();
+            if (streamPartitions.isEmpty()) {
+                return;
+            }
+            runStreams(streamPartitions);
+        } finally {
+            store.close();
+        }
+    }
+
+    /*
+     * Reads the properties of the nosql_stream or nosql_table component of
+     * the location file, which has the same format as config.xml.
+     */
+    private void loadParams() throws Exception {
+        final Document doc = DocumentBuilderFactory.newInstance()
+            .newDocumentBuilder().parse(configFile);
+        final Map<String, String> streamParams =
+            getComponent(doc, STREAM_COMPONENT);
+        final Map<String, String> tableParams =
+            getComponent(doc, TABLE_COMPONENT);
+        if (streamParams != null && tableParams != null) {
+            throw new IllegalArgumentException(
+                "You can not specify both " + STREAM_COMPONENT + " and " +
+                TABLE_COMPONENT + " components in configuration file.");
+        }
+        if (streamParams == null && tableParams == null) {
+            throw new IllegalArgumentException(
+                "At least one of " + STREAM_COMPONENT + " and " +
+                TABLE_COMPONENT + " components need to be specified in " +
+                "configuration file.");
+        }
+        useTableAPI = (tableParams != null);
+        params = useTableAPI ? tableParams : streamParams;
+
+        batchSize = getInt(BATCH_SIZE_PARAM, DEFAULT_BATCH_SIZE);
+        consistency = (params.get(CONSISTENCY_PARAM) == null) ?
+            null :
+            ExternalDataSourceUtils.parseConsistency(
+                params.get(CONSISTENCY_PARAM));
+        timeoutMs = (params.get(TIMEOUT_PARAM) == null) ?
+            0 :
+            ExternalDataSourceUtils.parseTimeout(params.get(TIMEOUT_PARAM));
+        if (params.get(PARENT_KEY_PARAM) != null) {
+            parentKey = Key.fromString(params.get(PARENT_KEY_PARAM));
+        }
+        if (params.get(SUB_RANGE_PARAM) != null) {
+            subRange = KeyRange.fromString(params.get(SUB_RANGE_PARAM));
+        }
+        depth = (params.get(DEPTH_PARAM) == null) ?
+            Depth.PARENT_AND_DESCENDANTS :
+            Depth.valueOf(params.get(DEPTH_PARAM));
+
+        final String formatterName = params.get(FORMATTER_PARAM);
+        if (formatterName != null) {
+            formatterClass = Class.forName(formatterName);
+        } else if (!useTableAPI) {
+            throw new IllegalArgumentException(
+                FORMATTER_PARAM + " is required for key/value records");
+        }
+        if (params.get(SECURITY_PARAM) != null) {
+            System.setProperty(KVSecurityConstants.SECURITY_FILE_PROPERTY,
+                               params.get(SECURITY_PARAM));
+        }
+    }
+
+    private static Map<String, String> getComponent(Document doc,
+                                                    String name) {
+        final NodeList components = doc.getElementsByTagName("component");
+        for (int i = 0; i < components.getLength(); i++) {
+            final Element component = (Element) components.item(i);
+            if (!name.equals(component.getAttribute("name"))) {
+                continue;
+            }
+            final Map<String, String> map = new HashMap<String, String>();
+            final NodeList properties =
+                component.getElementsByTagName("property");
+            for (int j = 0; j < properties.getLength(); j++) {
+                final Element property = (Element) properties.item(j);
+                map.put(property.getAttribute("name"),
+                        property.getAttribute("value"));
+            }
+            return map;
+        }
+        return null;
+    }
+
+    private int getInt(String name, int defaultValue) {
+        final String value = params.get(name);
+        return (value == null) ? defaultValue : Integer.parseInt(value);
+    }
+
+    private void openStore() {
+        final String storeName = params.get(STORE_PARAM);
+        final String hosts = params.get(HOSTS_PARAM);
+        if (storeName == null || hosts == null) {
+            throw new IllegalArgumentException(
+                STORE_PARAM + " and " + HOSTS_PARAM + " are required");
+        }
+        store = (KVStoreImpl) KVStoreFactory.getStore(
+            new KVStoreConfig(storeName, hosts.split(",")));
+        if (verbose) {
+            System.err.println("Opened KVStore: " + storeName);
+        }
+
+        if (useTableAPI) {
+            final String tableName = params.get(TABLE_NAME_PARAM);
+            table = store.getTableAPI().getTable(tableName);
+            if (table == null) {
+                throw new IllegalArgumentException(
+                    "Could not locate table: " + tableName);
+            }
+        }
+    }
+
+    /*
+     * Returns the partitions read by each stream. The partitions of the
+     * location file are computed the way Preproc does, then dealt out to
+     * the streams one at a time, taking from each partition set in turn,
+     * so every stream reads from all the shards the location file covers.
+     */
+    private List<Set<Integer>> assignPartitions() {
+        final int totalFiles = getInt(TOTAL_FILES_PARAM, 1);
+        final int fileNumber = getInt(FILE_NUMBER_PARAM, 0);
+        final List<TopoSplit> splits =
+            new SplitBuilder(store.getTopology())
+                .createPartitionSplits(totalFiles, consistency);
+        if (fileNumber >= splits.size()) {
+            if (verbose) {
+                System.err.println("No partitions for location file " +
+                                   fileNumber);
+            }
+            return new ArrayList<Set<Integer>>();
+        }
+        final List<Set<Integer>> partitionSets =
+            splits.get(fileNumber).getPartitionSets();
+
+        final List<Integer> partitions = new ArrayList<Integer>();
+        final List<Iterator<Integer>> iters =
+            new ArrayList<Iterator<Integer>>();
+        for (Set<Integer> set : partitionSets) {
+            iters.add(set.iterator());
+        }
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (Iterator<Integer> iter : iters) {
+                if (iter.hasNext()) {
+                    partitions.add(iter.next());
+                    added = true;
+                }
+            }
+        }
+
+        final int nCpus = Runtime.getRuntime().availableProcessors();
+        final int nShards = store.getTopology().getRepGroupMap().size();
+        int nStreams = Integer.getInteger(STREAMS_PROPERTY,
+                                          Math.min(nShards, nCpus));
+        nStreams = Math.max(1, Math.min(nStreams, partitions.size()));
+
+        final List<Set<Integer>> result = new ArrayList<Set<Integer>>();
+        for (int i = 0; i < nStreams; i++) {
+            result.add(new HashSet<Integer>());
+        }
+        for (int i = 0; i < partitions.size(); i++) {
+            result.get(i % nStreams).add(partitions.get(i));
+        }
+        if (verbose) {
+            System.err.println("Location file " + fileNumber + " of " +
+                               totalFiles + ": " + partitions.size() +
+                               " partitions, " + nStreams + " streams");
+        }
+        return result;
+    }
+
+    private void runStreams(List<Set<Integer>> streamPartitions)
+        throws Exception {
+
+        final int nStreams = streamPartitions.size();
+        final int nCpus = Runtime.getRuntime().availableProcessors();
+        final int nFormatters =
+            Math.max(1, Integer.getInteger(FORMAT_THREADS_PROPERTY,
+                                           nCpus / nStreams));
+        final BlockingQueue<byte[]> pipe = new ArrayBlockingQueue<byte[]>(
+            Integer.getInteger(PIPE_CHUNKS_PROPERTY, DEFAULT_PIPE_CHUNKS));
+
+        final long startMs = System.currentTimeMillis();
+        final List<Thread> threads = new ArrayList<Thread>();
+        final AtomicLong[] counts = new AtomicLong[nStreams];
+        for (int i = 0; i < nStreams; i++) {
+            counts[i] = new AtomicLong();
+            final BlockingQueue<List<Object>> batches =
+                new ArrayBlockingQueue<List<Object>>(2 * nFormatters);
+            threads.add(new Thread(
+                new Scanner(streamPartitions.get(i), batches, nFormatters,
+                            counts[i]),
+                "Scanner-" + i));
+            for (int j = 0; j < nFormatters; j++) {
+                threads.add(new Thread(
+                    new FormatterTask(newFormatter(), batches, pipe),
+                    "Formatter-" + i + "-" + j));
+            }
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /* Write the chunks until every formatter thread is done */
+        final OutputStream out = new FileOutputStream(FileDescriptor.out);
+        int nRunning = nStreams * nFormatters;
+        while (nRunning > 0) {
+            final byte[] chunk = pipe.take();
+            if (chunk == END_OF_OUTPUT) {
+                nRunning--;
+            } else if (failure.get() == null) {
+                out.write(chunk);
+            }
+        }
+        out.flush();
+
+        if (failure.get() != null) {
+            throw new IOException("Preprocessing failed", failure.get());
+        }
+        if (verbose) {
+            final long elapsedMs = System.currentTimeMillis() - startMs;
+            for (int i = 0; i < nStreams; i++) {
+                System.err.println(counts[i].get() + " records for stream " +
+                                   i + " " + streamPartitions.get(i));
+            }
+            System.err.println(nStreams + " streams, " + nFormatters +
+                               " formatter threads per stream, " +
+                               elapsedMs + " ms");
+        }
+    }
+
+    private Object newFormatter() throws Exception {
+        if (formatterClass == null) {
+            return null;
+        }
+        return formatterClass.getDeclaredConstructor().newInstance();
+    }
+
+    /*
+     * Reads the records of the partitions of a stream and queues them in
+     * batches for the formatter threads of the stream.
+     */
+    private class Scanner implements Runnable {
+
+        private final Set<Integer> partitions;
+        private final BlockingQueue<List<Object>> batches;
+        private final int nFormatters;
+        private final AtomicLong count;
+
+        Scanner(Set<Integer> partitions,
+                BlockingQueue<List<Object>> batches,
+                int nFormatters,
+                AtomicLong count) {
+            this.partitions = partitions;
+            this.batches = batches;
+            this.nFormatters = nFormatters;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            ParallelScanIterator<?> iter = null;
+            try {
+                if (useTableAPI) {
+                    iter = ((TableAPIImpl) store.getTableAPI())
+                        .tableIterator(
+                            table.createPrimaryKey(), null,
+                            new TableIteratorOptions(
+                                Direction.UNORDERED, consistency,
+                                timeoutMs, TimeUnit.MILLISECONDS, 0,
+                                batchSize),
+                            partitions);
+                } else {
+                    iter = ParallelScan.createParallelScan(
+                        store, Direction.UNORDERED, batchSize, parentKey,
+                        subRange, depth, consistency, timeoutMs,
+                        TimeUnit.MILLISECONDS, new StoreIteratorConfig(),
+                        partitions);
+                }
+
+                List<Object> batch = new ArrayList<Object>(batchSize);
+                while (iter.hasNext() && failure.get() == null) {
+                    batch.add(iter.next());
+                    if (batch.size() == batchSize) {
+                        batches.put(batch);
+                        count.addAndGet(batch.size());
+                        batch = new ArrayList<Object>(batchSize);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    batches.put(batch);
+                    count.addAndGet(batch.size());
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                try {
+                    for (int i = 0; i < nFormatters; i++) {
+                        batches.put(END_OF_STREAM);
+                    }
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                }
+                /* Stop the scan threads of an iterator not read to the end */
+                if (iter != null) {
+                    iter.close();
+                }
+            }
+        }
+    }
+
+    /*
+     * Formats batches of records into chunks of complete lines and passes
+     * the chunks to the output thread.
+     */
+    private class FormatterTask implements Runnable {
+
+        private final Object formatter;
+        private final BlockingQueue<List<Object>> batches;
+        private final BlockingQueue<byte[]> pipe;
+        private final FormatBuffer buffer = new FormatBuffer(2 * CHUNK_SIZE);
+
+        FormatterTask(Object formatter,
+                      BlockingQueue<List<Object>> batches,
+                      BlockingQueue<byte[]> pipe) {
+            this.formatter = formatter;
+            this.batches = batches;
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final List<Object> batch = batches.take();
+                    if (batch == END_OF_STREAM) {
+                        break;
+                    }
+                    if (failure.get() != null) {
+                        /* keep draining so the scanner does not block */
+                        continue;
+                    }
+                    for (Object record : batch) {
+                        format(record);
+                        if (buffer.length() >= CHUNK_SIZE) {
+                            pipe.put(buffer.toByteArray());
+                            buffer.clear();
+                        }
+                    }
+                }
+                if (buffer.length() > 0) {
+                    pipe.put(buffer.toByteArray());
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            } finally {
+                try {
+                    pipe.put(END_OF_OUTPUT);
+                } catch (InterruptedException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }
+
+        private void format(Object record) {
+            final int start = buffer.length();
+            final boolean formatted;
+            if (formatter instanceof StreamingFormatter) {
+                final StreamingFormatter sf = (StreamingFormatter) formatter;
+                formatted = useTableAPI ?
+                    sf.format((Row) record, store, buffer) :
+                    sf.format((KeyValueVersion) record, store, buffer);
+            } else {
+                final String s;
+                if (!useTableAPI) {
+                    s = ((Formatter) formatter).toOracleLoaderFormat(
+                        (KeyValueVersion) record, store);
+                } else if (formatter != null) {
+                    s = ((TableFormatter) formatter).toOracleLoaderFormat(
+                        (Row) record, store);
+                } else {
+                    s = defaultRowFormat((Row) record);
+                }
+                if (s != null) {
+                    buffer.append(s);
+                }
+                formatted = (s != null);
+            }
+            if (formatted) {
+                buffer.append((byte) '\n');
+            } else {
+                buffer.setLength(start);
+            }
+        }
+    }
+
+    /*
+     * The fields of the row separated by commas, with nothing for null
+     * fields, as Preproc outputs rows when no formatter is configured.
+     */
+    private static String defaultRowFormat(Row row) {
+        final StringBuilder sb = new StringBuilder();
+        boolean first = true;
+        for (String name : row.getFieldNames()) {
+            if (!first) {
+                sb.append(",");
+            }
+            first = false;
+            final FieldValue value = row.get(name);
+            if (value != null && !value.isNull()) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+}
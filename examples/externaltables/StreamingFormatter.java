@@ -0,0 +1,49 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import oracle.kv.KVStore;
+import oracle.kv.KeyValueVersion;
+import oracle.kv.table.Row;
+
+/**
+ * A formatter that writes records in the format read by the ACCESS
+ * PARAMETERS of an External Table directly into a {@link FormatBuffer},
+ * rather than returning a String for each record as
+ * {@link oracle.kv.exttab.Formatter} and
+ * {@link oracle.kv.exttab.TableFormatter} do. This avoids creating several
+ * objects per record, which bounds the speed of large loads.
+ * <p>
+ * The record is appended without a record terminator; the caller appends
+ * it, along with the following records, and writes the buffer out when it
+ * is large enough.
+ */
+public interface StreamingFormatter {
+
+    /**
+     * Appends the given record to the buffer.
+     *
+     * @return false if the record is not to be loaded, in which case
+     * nothing is appended; the equivalent of a Formatter returning null
+     */
+    boolean format(KeyValueVersion kvv, KVStore kvStore, FormatBuffer out);
+
+    /**
+     * Appends the given row to the buffer.
+     *
+     * @return false if the row is not to be loaded, in which case nothing
+     * is appended
+     */
+    boolean format(Row row, KVStore kvStore, FormatBuffer out);
+}
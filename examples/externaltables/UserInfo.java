@@ -13,10 +13,6 @@
 
 package externaltables;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutput;
-import java.io.DataOutputStream;
-import java.io.IOException;
 import java.util.Arrays;
 
 import oracle.kv.Key;
@@ -122,37 +118,28 @@ public class UserInfo {
     }
 
     /**
-     * Serializes user info attributes into the byte array of a Value.
+     * Serializes user info attributes into the byte array of a Value, in the
+     * original format, with no version byte.
      */
     public Value getStoreValue() {
+        return getStoreValue(UserInfoCodec.Encoding.LEGACY);
+    }
 
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final DataOutputStream dos = new DataOutputStream(baos);
-
-        try {
-            writeString(dos, name);
-            writeString(dos, gender);
-            writeString(dos, address);
-            writeString(dos, phone);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-
-        return Value.createValue(baos.toByteArray());
+    /**
+     * Serializes user info attributes into the byte array of a Value, in the
+     * given format.
+     */
+    public Value getStoreValue(final UserInfoCodec.Encoding encoding) {
+        return Value.createValue(new UserInfoCodec(encoding).encode(this));
     }
 
     /**
-     * Utility that writes a UTF string and accomodates null values.
+     * Returns the user stored with the given Key and Value, in any of the
+     * formats of {@link UserInfoCodec}.
      */
-    private void writeString(final DataOutput out, final String val)
-        throws IOException {
-
-        if (val == null) {
-            out.writeBoolean(false);
-            return;
-        }
-        out.writeBoolean(true);
-        out.writeUTF(val);
+    public static UserInfo fromStore(final Key key, final Value value) {
+        return new UserInfoCodec(UserInfoCodec.Encoding.LEGACY)
+            .decode(key.getMajorPath().get(1), value.getValue());
     }
 
     @Override
@@ -0,0 +1,446 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+/**
+ * Encodes and decodes the Value of a {@link UserInfo} record in one of
+ * several binary formats, identified by the first byte of the value, so
+ * records written in different formats can be read side by side:
+ * <ul>
+ * <li>{@link Encoding#LEGACY}: the original format of
+ * {@link UserInfo#getStoreValue()}, with no version byte. Each field is a
+ * boolean, telling whether it is present, followed by the field in the
+ * modified UTF-8 form written by DataOutput.writeUTF, with a 2 byte
+ * length. Its first byte is therefore 0 or 1.
+ * <li>{@link Encoding#COMPACT}: the version byte {@value #COMPACT_V1}, then
+ * for each field its length in UTF-8 bytes plus one as an unsigned varint,
+ * 0 meaning null, followed by its UTF-8 bytes.
+ * <li>{@link Encoding#AVRO}: the version byte {@value #AVRO_V1}, then the
+ * fields in the Avro binary encoding of the {@link #AVRO_SCHEMA} record,
+ * whose fields are unions of null and string.
+ * </ul>
+ * The fields of any of these formats can be accessed in place with a
+ * {@link Fields} view, without decoding them into Strings, which is how
+ * {@link MyFormatter} copies them to its output.
+ * <p>
+ * A codec reuses its buffers from one call to the next, so it must not be
+ * shared by concurrent threads.
+ */
+public final class UserInfoCodec {
+
+    /** The version byte of the first version of the compact format. */
+    public static final int COMPACT_V1 = 0x81;
+
+    /** The version byte of the first version of the Avro format. */
+    public static final int AVRO_V1 = 0xa1;
+
+    /** The number of fields stored in the value. */
+    public static final int N_FIELDS = 4;
+
+    /** Field indexes, in the order they are stored. */
+    public static final int NAME = 0;
+    public static final int GENDER = 1;
+    public static final int ADDRESS = 2;
+    public static final int PHONE = 3;
+
+    /** The Avro schema of the value. */
+    public static final Schema AVRO_SCHEMA = new Schema.Parser().parse(
+        "{\"type\": \"record\", \"name\": \"UserInfo\", " +
+        "\"namespace\": \"externaltables\", \"fields\": [" +
+        "{\"name\": \"name\", \"type\": [\"null\", \"string\"]}, " +
+        "{\"name\": \"gender\", \"type\": [\"null\", \"string\"]}, " +
+        "{\"name\": \"address\", \"type\": [\"null\", \"string\"]}, " +
+        "{\"name\": \"phone\", \"type\": [\"null\", \"string\"]}]}");
+
+    /** The formats a value can be written in. */
+    public enum Encoding {
+        LEGACY, COMPACT, AVRO
+    }
+
+    private final Encoding encoding;
+
+    /* Buffer the compact format is written in */
+    private final FormatBuffer buffer = new FormatBuffer(128);
+
+    /* Avro state, reused from one value to the next */
+    private final GenericDatumWriter<GenericRecord> avroWriter =
+        new GenericDatumWriter<GenericRecord>(AVRO_SCHEMA);
+    private final GenericDatumReader<GenericRecord> avroReader =
+        new GenericDatumReader<GenericRecord>(AVRO_SCHEMA);
+    private final ByteArrayOutputStream avroOut = new ByteArrayOutputStream();
+    private BinaryEncoder avroEncoder;
+    private BinaryDecoder avroDecoder;
+    private GenericRecord avroRecord;
+
+    /**
+     * Creates a codec writing values in the given format. Values in any
+     * format can be read.
+     */
+    public UserInfoCodec(final Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the value of the given user in the format of this codec.
+     */
+    public byte[] encode(final UserInfo user) {
+        switch (encoding) {
+        case LEGACY:
+            return encodeLegacy(user);
+        case COMPACT:
+            return encodeCompact(user);
+        case AVRO:
+            return encodeAvro(user);
+        default:
+            throw new IllegalStateException("Unknown encoding: " + encoding);
+        }
+    }
+
+    private static byte[] encodeLegacy(final UserInfo user) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i = 0; i < N_FIELDS; i++) {
+                final String val = getField(user, i);
+                if (val == null) {
+                    dos.writeBoolean(false);
+                    continue;
+                }
+                dos.writeBoolean(true);
+                dos.writeUTF(val);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    private byte[] encodeCompact(final UserInfo user) {
+        buffer.clear();
+        buffer.append((byte) COMPACT_V1);
+        for (int i = 0; i < N_FIELDS; i++) {
+            final String val = getField(user, i);
+            if (val == null) {
+                buffer.append((byte) 0);
+                continue;
+            }
+            writeVarint(buffer, utf8Length(val) + 1);
+            buffer.append(val);
+        }
+        return buffer.toByteArray();
+    }
+
+    private byte[] encodeAvro(final UserInfo user) {
+        if (avroRecord == null) {
+            avroRecord = new GenericData.Record(AVRO_SCHEMA);
+        }
+        for (int i = 0; i < N_FIELDS; i++) {
+            avroRecord.put(i, getField(user, i));
+        }
+        avroOut.reset();
+        avroOut.write(AVRO_V1);
+        avroEncoder = EncoderFactory.get().binaryEncoder(avroOut, avroEncoder);
+        try {
+            avroWriter.write(avroRecord, avroEncoder);
+            avroEncoder.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return avroOut.toByteArray();
+    }
+
+    /**
+     * Returns the user with the given email and stored value, which can be
+     * in any of the formats.
+     *
+     * @throws IllegalArgumentException if the value is not valid
+     */
+    public UserInfo decode(final String email, final byte[] value) {
+        final UserInfo user = new UserInfo(email);
+        if (value.length > 0 && (value[0] & 0xff) == AVRO_V1) {
+            /* Decoded with the Avro library, for comparison */
+            avroDecoder = DecoderFactory.get().binaryDecoder(
+                value, 1, value.length - 1, avroDecoder);
+            try {
+                avroRecord = avroReader.read(avroRecord, avroDecoder);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Invalid Avro value", e);
+            }
+            for (int i = 0; i < N_FIELDS; i++) {
+                final Object val = avroRecord.get(i);
+                setField(user, i, (val == null) ? null : val.toString());
+            }
+            return user;
+        }
+        final Fields fields = new Fields();
+        fields.parse(value);
+        for (int i = 0; i < N_FIELDS; i++) {
+            setField(user, i, fields.getString(i));
+        }
+        return user;
+    }
+
+    static String getField(final UserInfo user, final int field) {
+        switch (field) {
+        case NAME:
+            return user.getName();
+        case GENDER:
+            return user.getGender();
+        case ADDRESS:
+            return user.getAddress();
+        case PHONE:
+            return user.getPhone();
+        default:
+            throw new IllegalArgumentException("Invalid field: " + field);
+        }
+    }
+
+    private static void setField(final UserInfo user,
+                                 final int field,
+                                 final String val) {
+        switch (field) {
+        case NAME:
+            user.setName(val);
+            break;
+        case GENDER:
+            user.setGender(val);
+            break;
+        case ADDRESS:
+            user.setAddress(val);
+            break;
+        case PHONE:
+            user.setPhone(val);
+            break;
+        default:
+            throw new IllegalArgumentException("Invalid field: " + field);
+        }
+    }
+
+    private static void writeVarint(final FormatBuffer out, int val) {
+        while ((val & ~0x7f) != 0) {
+            out.append((byte) ((val & 0x7f) | 0x80));
+            val >>>= 7;
+        }
+        out.append((byte) val);
+    }
+
+    /*
+     * The number of bytes of the UTF-8 encoding of the string, matching
+     * FormatBuffer.append(CharSequence).
+     */
+    private static int utf8Length(final String s) {
+        final int n = s.length();
+        int len = n;
+        for (int i = 0; i < n; i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                len += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n &&
+                       Character.isLowSurrogate(s.charAt(i + 1))) {
+                /* 4 bytes for the 2 chars */
+                len += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                len += 2;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * A view of the fields of a value, giving access to each field in
+     * place, without copying the value. A view is reused for any number of
+     * values by calling {@link #parse} for each, which only locates the
+     * fields.
+     */
+    public static final class Fields {
+
+        private byte[] bytes;
+        private boolean modifiedUtf8;
+        private final int[] offsets = new int[N_FIELDS];
+
+        /* The length of each field in bytes, -1 if null */
+        private final int[] lengths = new int[N_FIELDS];
+
+        /**
+         * Locates the fields of the given value.
+         *
+         * @throws IllegalArgumentException if the value is not valid
+         */
+        public void parse(final byte[] value) {
+            bytes = value;
+            if (value.length == 0) {
+                throw new IllegalArgumentException("Empty value");
+            }
+            final int version = value[0] & 0xff;
+            if (version == COMPACT_V1) {
+                parseCompact();
+            } else if (version == AVRO_V1) {
+                parseAvro();
+            } else if (version == 0 || version == 1) {
+                parseLegacy();
+            } else {
+                throw new IllegalArgumentException(
+                    "Unknown value format: " + version);
+            }
+        }
+
+        private void parseLegacy() {
+            modifiedUtf8 = true;
+            int pos = 0;
+            for (int i = 0; i < N_FIELDS; i++) {
+                check(pos + 1);
+                if (bytes[pos++] == 0) {
+                    lengths[i] = -1;
+                    continue;
+                }
+                check(pos + 2);
+                final int len =
+                    ((bytes[pos] & 0xff) << 8) | (bytes[pos + 1] & 0xff);
+                pos += 2;
+                pos = setField(i, pos, len);
+            }
+        }
+
+        private void parseCompact() {
+            modifiedUtf8 = false;
+            int pos = 1;
+            for (int i = 0; i < N_FIELDS; i++) {
+                int val = 0;
+                int shift = 0;
+                int b;
+                do {
+                    check(pos + 1);
+                    if (shift > 28) {
+                        throw new IllegalArgumentException("Invalid length");
+                    }
+                    b = bytes[pos++];
+                    val |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                if (val == 0) {
+                    lengths[i] = -1;
+                    continue;
+                }
+                pos = setField(i, pos, val - 1);
+            }
+        }
+
+        /*
+         * In the Avro binary encoding a union is the zig-zag varint index
+         * of the branch, then the value, and a string is its zig-zag varint
+         * length, then its UTF-8 bytes.
+         */
+        private void parseAvro() {
+            modifiedUtf8 = false;
+            int pos = 1;
+            for (int i = 0; i < N_FIELDS; i++) {
+                check(pos + 1);
+                final int branch = bytes[pos++];
+                if (branch == 0) {
+                    lengths[i] = -1;
+                    continue;
+                }
+                if (branch != 2) {
+                    throw new IllegalArgumentException(
+                        "Invalid union branch: " + branch);
+                }
+                long val = 0;
+                int shift = 0;
+                int b;
+                do {
+                    check(pos + 1);
+                    if (shift > 63) {
+                        throw new IllegalArgumentException("Invalid length");
+                    }
+                    b = bytes[pos++];
+                    val |= (long) (b & 0x7f) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                final long len = (val >>> 1) ^ -(val & 1);
+                if (len < 0 || len > Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("Invalid length");
+                }
+                pos = setField(i, pos, (int) len);
+            }
+        }
+
+        private int setField(final int field, final int pos, final int len) {
+            check(pos + len);
+            offsets[field] = pos;
+            lengths[field] = len;
+            return pos + len;
+        }
+
+        private void check(final int end) {
+            if (end > bytes.length) {
+                throw new IllegalArgumentException("Truncated value");
+            }
+        }
+
+        public boolean isNull(final int field) {
+            return lengths[field] < 0;
+        }
+
+        /**
+         * Appends the UTF-8 encoding of the field to the buffer. The field
+         * must not be null.
+         */
+        public void appendTo(final int field, final FormatBuffer out) {
+            if (modifiedUtf8) {
+                out.appendModifiedUtf8(bytes, offsets[field], lengths[field]);
+            } else {
+                out.append(bytes, offsets[field], lengths[field]);
+            }
+        }
+
+        /**
+         * Returns the field decoded as a String, or null if it is null.
+         */
+        public String getString(final int field) {
+            if (isNull(field)) {
+                return null;
+            }
+            if (modifiedUtf8) {
+                final FormatBuffer tmp = new FormatBuffer(lengths[field]);
+                appendTo(field, tmp);
+                return tmp.toString();
+            }
+            return new String(bytes, offsets[field], lengths[field],
+                              StandardCharsets.UTF_8);
+        }
+    }
+}
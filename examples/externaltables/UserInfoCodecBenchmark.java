@@ -0,0 +1,168 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package externaltables;
+
+import java.util.Random;
+
+/**
+ * Compares the formats of {@link UserInfoCodec}: for each, the average size
+ * of a value, and the time per value to encode it, to decode it into a
+ * UserInfo, and to copy its fields to a {@link FormatBuffer} through a
+ * {@link UserInfoCodec.Fields} view, as {@link MyFormatter} does. The users
+ * are generated in memory, so no store is needed.
+ * <p>
+ * To run this class, type a command like the following:
+ * <pre><code>
+ *  &gt; java -classpath lib/kvclient.jar:lib/avro.jar:lib/jackson-core-asl.jar:&#92;
+ *         lib/jackson-mapper-asl.jar:examples &#92;
+ *         externaltables.UserInfoCodecBenchmark &#92;
+ *        [-records &lt;n&gt;] [-iterations &lt;n&gt;]
+ * </code></pre>
+ */
+public class UserInfoCodecBenchmark {
+
+    private int nRecords = 200000;
+    private int nIterations = 5;
+
+    private UserInfo[] users;
+
+    /* Keeps the results alive, so the work is not optimized away */
+    private long sink;
+
+    public static void main(final String[] args) {
+        final UserInfoCodecBenchmark benchmark =
+            new UserInfoCodecBenchmark(args);
+        benchmark.run();
+    }
+
+    private UserInfoCodecBenchmark(final String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if ("-records".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nRecords = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-records requires an argument");
+                }
+            } else if ("-iterations".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nIterations = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-iterations requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+    }
+
+    private void usage(final String message) {
+        if (message != null) {
+            System.out.println("\n" + message + "\n");
+        }
+
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t[-records <number of records>] (default: 200000)\n" +
+             "\t[-iterations <number of measured iterations>] " +
+             "(default: 5)\n");
+        System.exit(1);
+    }
+
+    private void run() {
+        generateUsers();
+
+        /* The first iteration is a warmup */
+        for (int i = 0; i <= nIterations; i++) {
+            final boolean warmup = (i == 0);
+            for (UserInfoCodec.Encoding encoding :
+                     UserInfoCodec.Encoding.values()) {
+                runEncoding(encoding, warmup);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    private void generateUsers() {
+        final Random random = new Random(1);
+        users = new UserInfo[nRecords];
+        for (int i = 0; i < nRecords; i++) {
+            final UserInfo user = new UserInfo("user" + i + "@example.com");
+            user.setName("User Number " + i);
+            user.setGender(random.nextBoolean() ? "F" : "M");
+            user.setAddress(random.nextInt(10000) + " Main Street, " +
+                            "Burlington, MA 0180" + random.nextInt(10));
+            /* Some users have no phone */
+            if (random.nextInt(10) != 0) {
+                user.setPhone("781-" + (100 + random.nextInt(900)) + "-" +
+                              (1000 + random.nextInt(9000)));
+            }
+            users[i] = user;
+        }
+    }
+
+    private void runEncoding(final UserInfoCodec.Encoding encoding,
+                             final boolean warmup) {
+        final UserInfoCodec codec = new UserInfoCodec(encoding);
+        final byte[][] values = new byte[nRecords][];
+
+        long start = System.nanoTime();
+        for (int i = 0; i < nRecords; i++) {
+            values[i] = codec.encode(users[i]);
+        }
+        final long encodeNs = System.nanoTime() - start;
+
+        long bytes = 0;
+        for (byte[] value : values) {
+            bytes += value.length;
+        }
+
+        start = System.nanoTime();
+        for (int i = 0; i < nRecords; i++) {
+            final UserInfo user =
+                codec.decode(users[i].getEmail(), values[i]);
+            sink += user.hashCode();
+        }
+        final long decodeNs = System.nanoTime() - start;
+
+        final UserInfoCodec.Fields fields = new UserInfoCodec.Fields();
+        final FormatBuffer buffer = new FormatBuffer(256);
+        start = System.nanoTime();
+        for (byte[] value : values) {
+            buffer.clear();
+            fields.parse(value);
+            for (int f = 0; f < UserInfoCodec.N_FIELDS; f++) {
+                if (!fields.isNull(f)) {
+                    fields.appendTo(f, buffer);
+                }
+            }
+            sink += buffer.length();
+        }
+        final long viewNs = System.nanoTime() - start;
+
+        System.out.println(String.format(
+            "%s %-7s %6.1f bytes/value, encode %5d ns/op, " +
+            "decode %5d ns/op, field view %5d ns/op",
+            warmup ? "warmup  " : "measured", encoding.toString().toLowerCase(),
+            (double) bytes / nRecords, encodeNs / nRecords,
+            decodeNs / nRecords, viewNs / nRecords));
+    }
+}
@@ -13,6 +13,19 @@
 
 package externaltables.table;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oracle.kv.BulkWriteOptions;
+import oracle.kv.Direction;
+import oracle.kv.EntryStream;
 import oracle.kv.FaultException;
 import oracle.kv.KVStore;
 import oracle.kv.KVStoreConfig;
@@ -23,6 +36,7 @@ import oracle.kv.table.Row;
 import oracle.kv.table.Table;
 import oracle.kv.table.TableAPI;
 import oracle.kv.table.TableIterator;
+import oracle.kv.table.TableIteratorOptions;
 
 import externaltables.UserInfo;
 
@@ -74,6 +88,15 @@ import externaltables.UserInfo;
  * kvlite Utility Command Line Parameter Options</a> and
  * <a href="https://www.oracle.com/pls/topic/lookup?ctx=en/database/other-databases/nosql-database/18.3&amp;id=NSSEC-GUID-6C5875FE-9765-45E6-9EC7-0D6EAEE3F95D">
  * Oracle NoSQL Database Security Guide</a>.
+ * <p>
+ * By default rows are created one at a time with putIfAbsent, and deleted
+ * one at a time. When -threads or -batch is given, the bulk mode is used
+ * instead: rows are created with the bulk put API, from -threads concurrent
+ * streams, and existing rows are found with a parallel key scan and deleted
+ * by -threads threads with multiDelete on their shard key, which deletes
+ * all the rows sharing a shard key in one operation when the shard key is a
+ * prefix of the primary key. The created rows are not displayed in bulk
+ * mode.
  *
  */
 public final class LoadCookbookTable {
@@ -86,6 +109,11 @@ public final class LoadCookbookTable {
 
     private boolean deleteExisting = false;
 
+    /* Bulk mode settings */
+    private boolean bulk = false;
+    private int nThreads = 1;
+    private int batchSize = 100;
+
     static final String TABLE_NAME = "cookbookTable";
     static final String USER_OBJECT_TYPE = "user";
 
@@ -157,6 +185,20 @@ public final class LoadCookbookTable {
                 }
             } else if ("-delete".equals(thisArg)) {
                 deleteExisting = true;
+            } else if ("-threads".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nThreads = Integer.parseInt(argv[argc++]);
+                    bulk = true;
+                } else {
+                    usage("-threads requires an argument");
+                }
+            } else if ("-batch".equals(thisArg)) {
+                if (argc < nArgs) {
+                    batchSize = Integer.parseInt(argv[argc++]);
+                    bulk = true;
+                } else {
+                    usage("-batch requires an argument");
+                }
             } else {
                 usage("Unknown argument: " + thisArg);
             }
@@ -186,16 +228,28 @@ public final class LoadCookbookTable {
              "\t-host <host name>\n" +
              "\t-port <port number>\n" +
              "\t-nops <total records to create>\n" +
-             "\t-delete (default: false) [delete all existing data]\n");
+             "\t-delete (default: false) [delete all existing data]\n" +
+             "\t-threads <n> (default: 1) [concurrent bulk streams " +
+             "and delete threads]\n" +
+             "\t-batch <n> (default: 100) [records per bulk request " +
+             "and per scan batch]\n");
         System.exit(1);
     }
 
     private void run() {
         if (deleteExisting) {
-            deleteExistingData();
+            if (bulk) {
+                bulkDeleteExistingData();
+            } else {
+                deleteExistingData();
+            }
         }
 
-        doLoad();
+        if (bulk) {
+            doBulkLoad();
+        } else {
+            doLoad();
+        }
     }
 
     private void doLoad() {
@@ -208,6 +262,10 @@ public final class LoadCookbookTable {
     }
 
     private void addRow(final long i) {
+        tableAPI.putIfAbsent(createRow(i), null, null);
+    }
+
+    private Row createRow(final long i) {
 
         final String email = "user" + i + "@example.com";
 
@@ -231,7 +289,100 @@ public final class LoadCookbookTable {
         row.put("address", userInfo.getAddress());
         row.put("phone", userInfo.getPhone());
 
-        tableAPI.putIfAbsent(row, null, null);
+        return row;
+    }
+
+    /**
+     * Creates the rows with the bulk put API, from nThreads streams each
+     * producing every nThreads-th row. Bulk put sorts the rows of the
+     * streams by shard and writes them in batched requests, so the batch
+     * size is turned into a request size using the size of a row. Existing
+     * rows are kept, as with putIfAbsent.
+     */
+    private void doBulkLoad() {
+        final BulkWriteOptions options = new BulkWriteOptions();
+        options.setStreamParallelism(nThreads);
+        options.setOverwrite(false);
+        final int rowSize = createRow(0).toJsonString(false).length();
+        options.setMaxRequestSize(
+            (int) Math.min(Integer.MAX_VALUE, (long) batchSize * rowSize));
+
+        final AtomicLong existing = new AtomicLong();
+        final AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+        final List<EntryStream<Row>> streams =
+            new ArrayList<EntryStream<Row>>();
+        for (int i = 0; i < nThreads; i++) {
+            streams.add(new RowStream(i, nThreads, existing, failure));
+        }
+
+        final long start = System.currentTimeMillis();
+        try {
+            tableAPI.put(streams, options);
+        } finally {
+            store.close();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.println((nOps - existing.get()) + " new records added, " +
+                           existing.get() + " already existed, in " +
+                           elapsed + " ms");
+    }
+
+    /*
+     * Produces the rows first, first + step, first + 2 * step, ... for a
+     * bulk put.
+     */
+    private class RowStream implements EntryStream<Row> {
+
+        private final int first;
+        private final int step;
+        private final AtomicLong existing;
+        private final AtomicReference<RuntimeException> failure;
+        private long next;
+
+        RowStream(final int first,
+                  final int step,
+                  final AtomicLong existing,
+                  final AtomicReference<RuntimeException> failure) {
+            this.first = first;
+            this.step = step;
+            this.existing = existing;
+            this.failure = failure;
+            next = first;
+        }
+
+        @Override
+        public String name() {
+            return "RowStream-" + first;
+        }
+
+        @Override
+        public Row getNext() {
+            if (next >= nOps || failure.get() != null) {
+                return null;
+            }
+            final Row row = createRow(next);
+            next += step;
+            return row;
+        }
+
+        @Override
+        public void completed() {
+        }
+
+        @Override
+        public void keyExists(final Row entry) {
+            existing.incrementAndGet();
+        }
+
+        @Override
+        public void catchException(final RuntimeException exception,
+                                   final Row entry) {
+            failure.compareAndSet(null, exception);
+        }
     }
 
     private void deleteExistingData() {
@@ -250,6 +401,111 @@ public final class LoadCookbookTable {
         System.out.println(cnt + " records deleted");
     }
 
+    /**
+     * Deletes all the rows of the table with a parallel key scan, handing
+     * batches of shard keys to nThreads threads, which delete the rows of
+     * each shard key with a single multiDelete. For cookbookTable the shard
+     * key is the whole primary key, so each multiDelete deletes one row;
+     * for tables whose shard key is a prefix of the primary key, each
+     * deletes all the rows of the shard key. The shard keys are only
+     * deduplicated within a batch, so that memory use does not grow with
+     * the number of shard keys: a shard key handed out again in a later
+     * batch finds its rows already deleted, or being deleted.
+     */
+    private void bulkDeleteExistingData() {
+        final List<String> shardKey = table.getShardKey();
+        final boolean fullKey =
+            shardKey.size() == table.getPrimaryKey().size();
+        final TableIterator<PrimaryKey> itr = tableAPI.tableKeysIterator(
+            table.createPrimaryKey(), null,
+            new TableIteratorOptions(Direction.UNORDERED, null, 0, null,
+                                     nThreads, batchSize));
+
+        /*
+         * When the queue is full the scanning thread deletes a batch itself,
+         * which keeps the number of keys held in memory bounded.
+         */
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            nThreads, nThreads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(2 * nThreads),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        final AtomicLong cnt = new AtomicLong();
+        final AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+        /* The shard keys of the current batch */
+        final Set<String> seen = new HashSet<String>();
+        final long start = System.currentTimeMillis();
+        try {
+            List<PrimaryKey> batch = new ArrayList<PrimaryKey>(batchSize);
+            while (itr.hasNext() && failure.get() == null) {
+                final PrimaryKey key = itr.next();
+                if (fullKey) {
+                    batch.add(key);
+                } else {
+                    final PrimaryKey shardPrefix = table.createPrimaryKey();
+                    for (String field : shardKey) {
+                        shardPrefix.put(field, key.get(field));
+                    }
+                    if (!seen.add(shardPrefix.toJsonString(false))) {
+                        continue;
+                    }
+                    batch.add(shardPrefix);
+                }
+                if (batch.size() == batchSize) {
+                    executor.execute(new DeleteTask(batch, cnt, failure));
+                    batch = new ArrayList<PrimaryKey>(batchSize);
+                    seen.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                executor.execute(new DeleteTask(batch, cnt, failure));
+            }
+        } finally {
+            itr.close();
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        final long elapsed = System.currentTimeMillis() - start;
+        System.out.println(cnt.get() + " records deleted in " +
+                           elapsed + " ms");
+    }
+
+    /*
+     * Deletes the rows of each of a batch of shard keys.
+     */
+    private class DeleteTask implements Runnable {
+
+        private final List<PrimaryKey> shardKeys;
+        private final AtomicLong cnt;
+        private final AtomicReference<RuntimeException> failure;
+
+        DeleteTask(final List<PrimaryKey> shardKeys,
+                   final AtomicLong cnt,
+                   final AtomicReference<RuntimeException> failure) {
+            this.shardKeys = shardKeys;
+            this.cnt = cnt;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (PrimaryKey shardKey : shardKeys) {
+                    cnt.addAndGet(tableAPI.multiDelete(shardKey, null, null));
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+
     /*
      * Convenience method for displaying output when debugging.
      */
@@ -0,0 +1,530 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import oracle.kv.hadoop.KVInputSplit;
+import oracle.kv.hadoop.table.TableInputSplit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * An InputFormat that rebalances the splits generated by another
+ * InputFormat, typically oracle.kv.hadoop.KVInputFormat or
+ * oracle.kv.hadoop.table.TableInputFormat, so that every Mapper task reads
+ * a similar share of the store.
+ * <p>
+ * Both of those InputFormats generate one split per shard, and the splits
+ * carry the store partitions to be scanned. The weight of a split is the
+ * total weight of its partitions, given by {@link PartitionWeights}: the
+ * size of the table in each partition, from the table statistics of the
+ * store, or, when there are no statistics, 1 per partition. Given a target
+ * weight, computed from the total weight and the desired number of splits,
+ * splits are planned as follows:
+ * <ul>
+ * <li>a split heavier than 1.5 times the target is subdivided into splits
+ * covering disjoint subsets of its partitions, that is, disjoint ranges of
+ * the hashed key space, each no heavier than the target unless it is a
+ * single partition;</li>
+ * <li>splits lighter than half the target are combined, up to the target
+ * weight, into a {@link CombinedInputSplit} read by a single Mapper. When
+ * locality is enabled only splits with the same preferred location, the
+ * replica node reported by the split, are combined, so that the combined
+ * split can still be scheduled next to its data.</li>
+ * </ul>
+ * Splits whose partitions are not known, for example those of index or
+ * shard based TableInputFormat queries, are kept as they are.
+ * <p>
+ * A split-balance report, listing the weight and locations of each split
+ * before and after planning, is written to standard output when the job is
+ * submitted, so that Mapper skew can be checked.
+ * <p>
+ * The planner is configured with the following job properties:
+ * <ul>
+ * <li><code>hadoop.BalancedInputFormat.enabled</code> - checked by the
+ * example jobs to decide whether to use this InputFormat;</li>
+ * <li><code>hadoop.BalancedInputFormat.numSplits</code> - desired number of
+ * splits, defaults to the number of splits of the underlying
+ * InputFormat;</li>
+ * <li><code>hadoop.BalancedInputFormat.partitionsPerSplit</code> - target
+ * number of partitions of an average size in a split, overrides numSplits
+ * when set;</li>
+ * <li><code>hadoop.BalancedInputFormat.locality</code> - whether to only
+ * combine splits with the same location, defaults to true.</li>
+ * </ul>
+ * Use {@link #setInputFormat} to install it on a job.
+ * <p>
+ * Note that KVInputSplit does not expose its partitions publicly, and
+ * neither split class exposes a way to set them, so those accessors are
+ * called by reflection; when that is not possible the split is treated as
+ * one whose partitions are not known.
+ */
+public class BalancedInputFormat<K, V> extends InputFormat<K, V> {
+
+    private static final String PREFIX =
+        BalancedInputFormat.class.getName() + ".";
+    public static final String ENABLED_PROPERTY = PREFIX + "enabled";
+    public static final String DELEGATE_PROPERTY = PREFIX + "delegate";
+    public static final String NUM_SPLITS_PROPERTY = PREFIX + "numSplits";
+    public static final String PARTITIONS_PER_SPLIT_PROPERTY =
+        PREFIX + "partitionsPerSplit";
+    public static final String LOCALITY_PROPERTY = PREFIX + "locality";
+
+    /* Splits heavier than this multiple of the target are subdivided. */
+    private static final double SUBDIVIDE_FACTOR = 1.5;
+    /* Splits lighter than this fraction of the target are combined. */
+    private static final double COMBINE_FACTOR = 0.5;
+
+    private InputFormat<K, V> delegate;
+
+    /* The weights of the partitions of the splits being planned */
+    private PartitionWeights weights;
+
+    /**
+     * Makes the job read its input through a BalancedInputFormat that
+     * rebalances the splits of the given InputFormat.
+     */
+    @SuppressWarnings("rawtypes")
+    public static void setInputFormat(Job job,
+                                      Class<? extends InputFormat> format) {
+        job.getConfiguration().setClass(DELEGATE_PROPERTY, format,
+                                        InputFormat.class);
+        job.setInputFormatClass(BalancedInputFormat.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    private InputFormat<K, V> getDelegate(Configuration conf) {
+        if (delegate == null) {
+            final Class<?> cls =
+                conf.getClass(DELEGATE_PROPERTY, null, InputFormat.class);
+            if (cls == null) {
+                throw new IllegalStateException(
+                    DELEGATE_PROPERTY + " is not set");
+            }
+            delegate =
+                (InputFormat<K, V>) ReflectionUtils.newInstance(cls, conf);
+        }
+        return delegate;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context)
+        throws IOException, InterruptedException {
+
+        final Configuration conf = context.getConfiguration();
+        final List<InputSplit> original =
+            getDelegate(conf).getSplits(context);
+
+        weights = PartitionWeights.load(original);
+
+        long totalWeight = 0;
+        long totalPartitions = 0;
+        for (InputSplit split : original) {
+            totalWeight += Math.max(0, weightOf(split));
+            final List<Set<Integer>> partitionSets = getPartitionSets(split);
+            if (partitionSets != null) {
+                for (Set<Integer> partitionSet : partitionSets) {
+                    totalPartitions += partitionSet.size();
+                }
+            }
+        }
+        if (totalWeight == 0) {
+            /* nothing is known about the splits, keep them as they are */
+            report(original, original, 0);
+            return original;
+        }
+
+        long target;
+        final long partitionsPerSplit =
+            conf.getLong(PARTITIONS_PER_SPLIT_PROPERTY, 0);
+        if (partitionsPerSplit > 0) {
+            target = Math.max(1, partitionsPerSplit * totalWeight /
+                                 Math.max(1, totalPartitions));
+        } else {
+            final int numSplits =
+                conf.getInt(NUM_SPLITS_PROPERTY, original.size());
+            target = Math.max(1, (totalWeight + numSplits - 1) /
+                                 Math.max(1, numSplits));
+        }
+
+        final List<InputSplit> planned = new ArrayList<InputSplit>();
+        final List<InputSplit> small = new ArrayList<InputSplit>();
+        for (InputSplit split : original) {
+            final long weight = weightOf(split);
+            if (weight < 0) {
+                planned.add(split);
+            } else if (weight > target * SUBDIVIDE_FACTOR) {
+                planned.addAll(subdivide(split, target));
+            } else if (weight < target * COMBINE_FACTOR) {
+                small.add(split);
+            } else {
+                planned.add(split);
+            }
+        }
+        planned.addAll(
+            combine(small, target, conf.getBoolean(LOCALITY_PROPERTY, true)));
+
+        report(original, planned, target);
+        return planned;
+    }
+
+    @Override
+    public RecordReader<K, V> createRecordReader(InputSplit split,
+                                                 TaskAttemptContext context)
+        throws IOException, InterruptedException {
+
+        final InputFormat<K, V> format =
+            getDelegate(context.getConfiguration());
+        if (split instanceof CombinedInputSplit) {
+            return new CombinedRecordReader<K, V>(format);
+        }
+        return format.createRecordReader(split, context);
+    }
+
+    /*
+     * Splits the partitions of a split into chunks of at most the target
+     * weight, each read through a copy of the original split. Partition
+     * sets heavier than the target are themselves divided into ranges of
+     * consecutive partition ids. A partition heavier than the target is a
+     * chunk of its own.
+     */
+    private List<InputSplit> subdivide(InputSplit split, long target)
+        throws IOException {
+
+        final List<InputSplit> result = new ArrayList<InputSplit>();
+        List<Set<Integer>> chunk = new ArrayList<Set<Integer>>();
+        Set<Integer> range = new LinkedHashSet<Integer>();
+        long chunkWeight = 0;
+        for (Set<Integer> partitionSet : getPartitionSets(split)) {
+            for (int partitionId : new TreeSet<Integer>(partitionSet)) {
+                final long weight = weights.weightOf(partitionId);
+                if (chunkWeight + weight > target && chunkWeight > 0) {
+                    if (!range.isEmpty()) {
+                        chunk.add(range);
+                    }
+                    result.add(copyWithPartitions(split, chunk));
+                    chunk = new ArrayList<Set<Integer>>();
+                    range = new LinkedHashSet<Integer>();
+                    chunkWeight = 0;
+                }
+                range.add(partitionId);
+                chunkWeight += weight;
+            }
+            if (!range.isEmpty()) {
+                chunk.add(range);
+                range = new LinkedHashSet<Integer>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            result.add(copyWithPartitions(split, chunk));
+        }
+        return result;
+    }
+
+    /*
+     * Combines small splits into groups of at most the target weight, using
+     * first-fit on the splits sorted by decreasing weight. With locality,
+     * only splits sharing their preferred location are grouped.
+     */
+    private List<InputSplit> combine(List<InputSplit> splits,
+                                            long target,
+                                            boolean locality)
+        throws IOException, InterruptedException {
+
+        final Map<String, List<InputSplit>> byLocation =
+            new LinkedHashMap<String, List<InputSplit>>();
+        for (InputSplit split : splits) {
+            final String[] locations = split.getLocations();
+            final String key = (locality && locations != null &&
+                                locations.length > 0) ? locations[0] : "";
+            List<InputSplit> group = byLocation.get(key);
+            if (group == null) {
+                group = new ArrayList<InputSplit>();
+                byLocation.put(key, group);
+            }
+            group.add(split);
+        }
+
+        final List<InputSplit> result = new ArrayList<InputSplit>();
+        for (List<InputSplit> group : byLocation.values()) {
+            Collections.sort(group, new Comparator<InputSplit>() {
+                @Override
+                public int compare(InputSplit s1, InputSplit s2) {
+                    return Long.compare(weightOf(s2), weightOf(s1));
+                }
+            });
+            final List<List<InputSplit>> bins =
+                new ArrayList<List<InputSplit>>();
+            final List<Long> binWeights = new ArrayList<Long>();
+            for (InputSplit split : group) {
+                final long weight = weightOf(split);
+                int bin = 0;
+                while (bin < bins.size() &&
+                       binWeights.get(bin) + weight > target) {
+                    bin++;
+                }
+                if (bin == bins.size()) {
+                    bins.add(new ArrayList<InputSplit>());
+                    binWeights.add(0L);
+                }
+                bins.get(bin).add(split);
+                binWeights.set(bin, binWeights.get(bin) + weight);
+            }
+            for (int i = 0; i < bins.size(); i++) {
+                final List<InputSplit> bin = bins.get(i);
+                if (bin.size() == 1) {
+                    result.add(bin.get(0));
+                } else {
+                    result.add(new CombinedInputSplit(
+                        bin, commonLocations(bin), binWeights.get(i)));
+                }
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Returns the locations shared by all the given splits, or those of the
+     * first, heaviest, split if they have none in common.
+     */
+    private static String[] commonLocations(List<InputSplit> splits)
+        throws IOException, InterruptedException {
+
+        final Set<String> common = new LinkedHashSet<String>(
+            Arrays.asList(splits.get(0).getLocations()));
+        for (InputSplit split : splits) {
+            common.retainAll(Arrays.asList(split.getLocations()));
+        }
+        if (common.isEmpty()) {
+            return splits.get(0).getLocations();
+        }
+        return common.toArray(new String[common.size()]);
+    }
+
+    /*
+     * Returns the weight of the partitions read by a split, or -1 if they
+     * are not known. Splits of index and shard based queries have no
+     * partition sets.
+     */
+    private long weightOf(InputSplit split) {
+        if (split instanceof CombinedInputSplit) {
+            return ((CombinedInputSplit) split).getLength();
+        }
+        final List<Set<Integer>> partitionSets = getPartitionSets(split);
+        if (partitionSets == null || partitionSets.isEmpty()) {
+            return -1;
+        }
+        return weights.weightOf(partitionSets);
+    }
+
+    /*
+     * Returns the partitions of a split. KVInputSplit only has a package
+     * private accessor, called by reflection.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<Set<Integer>> getPartitionSets(InputSplit split) {
+        if (split instanceof TableInputSplit) {
+            return ((TableInputSplit) split).getPartitionSets();
+        }
+        if (!(split instanceof KVInputSplit)) {
+            return null;
+        }
+        try {
+            final Method getter =
+                split.getClass().getDeclaredMethod("getPartitionSets");
+            getter.setAccessible(true);
+            return (List<Set<Integer>>) getter.invoke(split);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /*
+     * Returns a copy of the split, made through its Writable form, that
+     * reads the given partition sets. The setters of both split classes
+     * are package private, and are called by reflection.
+     */
+    private static InputSplit copyWithPartitions(InputSplit split,
+                                                 List<Set<Integer>> sets)
+        throws IOException {
+
+        final DataOutputBuffer out = new DataOutputBuffer();
+        ((Writable) split).write(out);
+        final DataInputBuffer in = new DataInputBuffer();
+        in.reset(out.getData(), out.getLength());
+        try {
+            final InputSplit copy =
+                split.getClass().getDeclaredConstructor().newInstance();
+            ((Writable) copy).readFields(in);
+            final Method setter = split.getClass().getDeclaredMethod(
+                "setPartitionSets", List.class);
+            setter.setAccessible(true);
+            setter.invoke(copy, sets);
+            return copy;
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot subdivide " + split, e);
+        }
+    }
+
+    private void report(List<InputSplit> original,
+                        List<InputSplit> planned,
+                        long target)
+        throws IOException, InterruptedException {
+
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Split balance report");
+        if (target > 0) {
+            sb.append(", target ").append(weights.getUnit())
+              .append(" per split: ").append(target);
+        }
+        sb.append("\n  before: ").append(summary(original));
+        sb.append("\n  after:  ").append(summary(planned));
+        for (int i = 0; i < planned.size(); i++) {
+            final InputSplit split = planned.get(i);
+            final long weight = weightOf(split);
+            sb.append("\n  split ").append(i)
+              .append(": ").append(weights.getUnit()).append('=')
+              .append(weight < 0 ? "?" : String.valueOf(weight))
+              .append(", locations=")
+              .append(Arrays.toString(split.getLocations()));
+            if (split instanceof CombinedInputSplit) {
+                sb.append(", combined from ")
+                  .append(((CombinedInputSplit) split).getSplits().size())
+                  .append(" splits");
+            }
+        }
+        System.out.println(sb);
+    }
+
+    private String summary(List<InputSplit> splits) {
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        int known = 0;
+        for (InputSplit split : splits) {
+            final long weight = weightOf(split);
+            if (weight < 0) {
+                continue;
+            }
+            known++;
+            total += weight;
+            min = Math.min(min, weight);
+            max = Math.max(max, weight);
+        }
+        if (known == 0) {
+            return splits.size() + " splits, partitions unknown";
+        }
+        final double mean = (double) total / known;
+        return String.format(
+            "%d splits, %s min=%d max=%d mean=%.1f, max/mean=%.2f",
+            splits.size(), weights.getUnit(), min, max, mean, max / mean);
+    }
+
+    /**
+     * Reads the splits of a CombinedInputSplit one after the other, through
+     * record readers of the underlying InputFormat.
+     */
+    private static class CombinedRecordReader<K, V>
+        extends RecordReader<K, V> {
+
+        private final InputFormat<K, V> format;
+        private List<InputSplit> splits;
+        private TaskAttemptContext context;
+        private int index;
+        private RecordReader<K, V> current;
+
+        CombinedRecordReader(InputFormat<K, V> format) {
+            this.format = format;
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext ctx) {
+            splits = ((CombinedInputSplit) split).getSplits();
+            context = ctx;
+            index = 0;
+        }
+
+        @Override
+        public boolean nextKeyValue()
+            throws IOException, InterruptedException {
+
+            while (index < splits.size()) {
+                if (current == null) {
+                    final InputSplit split = splits.get(index);
+                    current = format.createRecordReader(split, context);
+                    current.initialize(split, context);
+                }
+                if (current.nextKeyValue()) {
+                    return true;
+                }
+                current.close();
+                current = null;
+                index++;
+            }
+            return false;
+        }
+
+        @Override
+        public K getCurrentKey() throws IOException, InterruptedException {
+            return current.getCurrentKey();
+        }
+
+        @Override
+        public V getCurrentValue() throws IOException, InterruptedException {
+            return current.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            if (splits.isEmpty()) {
+                return 1.0f;
+            }
+            final float currentProgress =
+                (current == null) ? 0 : current.getProgress();
+            return Math.min(1.0f, (index + currentProgress) / splits.size());
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * An InputSplit that groups several InputSplits of another InputFormat so
+ * that they are processed, one after the other, by a single Mapper task.
+ * Created by {@link BalancedInputFormat} to combine small splits. The
+ * grouped splits must implement Writable, as the splits of KVInputFormat
+ * and TableInputFormat do.
+ */
+public class CombinedInputSplit extends InputSplit implements Writable {
+
+    private final List<InputSplit> splits = new ArrayList<InputSplit>();
+    private String[] locations = new String[0];
+    private long length;
+
+    /* Required by the MapReduce framework to deserialize the split. */
+    public CombinedInputSplit() {
+    }
+
+    CombinedInputSplit(List<InputSplit> splits,
+                       String[] locations,
+                       long length) {
+        this.splits.addAll(splits);
+        this.locations = locations;
+        this.length = length;
+    }
+
+    List<InputSplit> getSplits() {
+        return Collections.unmodifiableList(splits);
+    }
+
+    /**
+     * Returns the weight computed by the BalancedInputFormat, that is, the
+     * total weight of the store partitions covered by the grouped splits.
+     */
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public String[] getLocations() {
+        return locations;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(length);
+        out.writeInt(locations.length);
+        for (String location : locations) {
+            out.writeUTF(location);
+        }
+        out.writeInt(splits.size());
+        for (InputSplit split : splits) {
+            out.writeUTF(split.getClass().getName());
+            ((Writable) split).write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        length = in.readLong();
+        locations = new String[in.readInt()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = in.readUTF();
+        }
+        splits.clear();
+        final int nSplits = in.readInt();
+        for (int i = 0; i < nSplits; i++) {
+            final String className = in.readUTF();
+            final InputSplit split;
+            try {
+                split = (InputSplit) Class.forName(className)
+                                          .getDeclaredConstructor()
+                                          .newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("Cannot create split " + className, e);
+            }
+            ((Writable) split).readFields(in);
+            splits.add(split);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CombinedInputSplit[length=" + length +
+               ", locations=" + Arrays.toString(locations) +
+               ", splits=" + splits.size() + "]";
+    }
+}
@@ -19,8 +19,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.lib.reduce.IntSumReducer;
@@ -45,6 +47,25 @@ import oracle.kv.hadoop.KVInputFormat;
  * The KV Keys passed to the Map function are in the canonical format described
  * in the javadoc for the oracle.kv.Key.toString() method.
  *
+ * By default the map() function parses each key with Key.fromString and
+ * rebuilds the major path with Key.createKey, which allocates several
+ * strings and lists per record. When the job is run with
+ * -Dhadoop.CountMinorKeys.optimized=true, the major path prefix is instead
+ * copied directly from the bytes of the canonical key, and the Reducer is
+ * also used as a combiner so that each Mapper sends one pair per major key
+ * through the shuffle. The record batch size of the KVInputFormat can be set
+ * with -Dhadoop.CountMinorKeys.batchSize=N. When the job completes, the key
+ * and value bytes read from the store and the shuffle bytes per record are
+ * displayed, so the two modes can be compared.
+ *
+ * With -Dhadoop.BalancedInputFormat.enabled=true the splits generated by
+ * KVInputFormat are rebalanced by hadoop.BalancedInputFormat, which prints
+ * a split-balance report when the job is submitted.
+ *
+ * Note that the KVInputFormat record reader always fetches values along with
+ * keys, there is no keys-only scan restricted to the partitions of an input
+ * split, so the value bytes read are the same in both modes.
+ *
  * The KVInputFormat and related classes are located in the lib/kvclient.jar
  * file so this must be included in the Hadoop classpath at runtime.
  *
@@ -79,16 +100,48 @@ import oracle.kv.hadoop.KVInputFormat;
  */
 public class CountMinorKeys extends Configured implements Tool {
 
+    /*
+     * Name of the job configuration property that enables the optimized
+     * mode of this example; for example,
+     *   -Dhadoop.CountMinorKeys.optimized=true
+     */
+    static final String OPTIMIZED_PROPERTY =
+        CountMinorKeys.class.getName() + ".optimized";
+
+    /*
+     * Name of the job configuration property that sets the number of
+     * records fetched per round trip by the KVInputFormat record reader.
+     */
+    static final String BATCH_SIZE_PROPERTY =
+        CountMinorKeys.class.getName() + ".batchSize";
+
+    /* Counters reporting the bytes read from the store by each Mapper. */
+    static enum BytesRead { KEY_BYTES, VALUE_BYTES }
+
     public static class Map
         extends Mapper<Text, Text, Text, IntWritable> {
 
         private Text word = new Text();
         private final static IntWritable one = new IntWritable(1);
 
+        private boolean optimized;
+        private long keyBytes;
+        private long valueBytes;
+
+        @Override
+        protected void setup(Context context) {
+            optimized =
+                context.getConfiguration().getBoolean(OPTIMIZED_PROPERTY,
+                                                      false);
+        }
+
         @Override
         public void map(Text keyArg, Text valueArg, Context context)
             throws IOException, InterruptedException {
 
+            keyBytes += keyArg.getLength();
+            valueBytes += valueArg.getLength();
+
             /*
              * keyArg is in the NoSQL Databse canonical Key format described in
              * the Key.toString() method's javadoc.
@@ -96,11 +149,44 @@ public class CountMinorKeys extends Configured implements Tool {
              * The Output is the NoSQL Database record's Major Key as the
              * Map/Reduce key and 1 as the Map/Reduce value.
              */
-            Key key = Key.fromString(keyArg.toString());
-            /* Convert back to canonical format, but only use the major path. */
-            word.set(Key.createKey(key.getMajorPath()).toString());
+            if (optimized) {
+                word.set(keyArg.getBytes(), 0,
+                         majorPathLength(keyArg.getBytes(),
+                                         keyArg.getLength()));
+            } else {
+                Key key = Key.fromString(keyArg.toString());
+                /*
+                 * Convert back to canonical format, but only use the major
+                 * path.
+                 */
+                word.set(Key.createKey(key.getMajorPath()).toString());
+            }
             context.write(word, one);
         }
+
+        @Override
+        protected void cleanup(Context context) {
+            context.getCounter(BytesRead.KEY_BYTES).increment(keyBytes);
+            context.getCounter(BytesRead.VALUE_BYTES).increment(valueBytes);
+        }
+
+        /**
+         * Returns the length of the major path prefix of a key in canonical
+         * format, that is, the bytes up to the "/-" minor path separator, or
+         * the whole key if it has no minor path. Because the components of a
+         * canonical key are already encoded, a component consisting of a
+         * single "-" can only be the separator, and the prefix is exactly
+         * what Key.createKey(key.getMajorPath()).toString() would return.
+         */
+        static int majorPathLength(byte[] bytes, int length) {
+            for (int i = 0; i + 1 < length; i++) {
+                if (bytes[i] == '/' && bytes[i + 1] == '-' &&
+                    (i + 2 == length || bytes[i + 2] == '/')) {
+                    return i;
+                }
+            }
+            return length;
+        }
     }
 
     public static class Reduce
@@ -119,16 +205,37 @@ public class CountMinorKeys extends Configured implements Tool {
         job.setOutputKeyClass(Text.class);
         job.setOutputValueClass(IntWritable.class);
 
+        final boolean optimized =
+            job.getConfiguration().getBoolean(OPTIMIZED_PROPERTY, false);
+
         job.setMapperClass(Map.class);
+        if (optimized) {
+            /*
+             * Summing is associative, so the Reducer can also be used as
+             * the combiner to pre-aggregate each Mapper's output.
+             */
+            job.setCombinerClass(Reduce.class);
+        }
         job.setReducerClass(Reduce.class);
 
-        job.setInputFormatClass(KVInputFormat.class);
+        if (job.getConfiguration().getBoolean(
+                BalancedInputFormat.ENABLED_PROPERTY, false)) {
+            BalancedInputFormat.setInputFormat(job, KVInputFormat.class);
+        } else {
+            job.setInputFormatClass(KVInputFormat.class);
+        }
         job.setOutputFormatClass(TextOutputFormat.class);
 
         KVInputFormat.setKVStoreName(args[0]);
         KVInputFormat.setKVHelperHosts(new String[] { args[1] });
         FileOutputFormat.setOutputPath(job, new Path(args[2]));
 
+        final int batchSize =
+            job.getConfiguration().getInt(BATCH_SIZE_PROPERTY, 0);
+        if (batchSize > 0) {
+            KVInputFormat.setBatchSize(batchSize);
+        }
+
         /*
          * Load KVLoginFile if specified, otherwise try to load via reading
          * system property of oracle.kv.login.
@@ -138,9 +245,42 @@ public class CountMinorKeys extends Configured implements Tool {
         }
 
         boolean success = job.waitForCompletion(true);
+        if (success) {
+            report(job, optimized);
+        }
         return success ? 0 : 1;
     }
 
+    /*
+     * Displays the bytes read from the store and the bytes sent through the
+     * shuffle per input record, so that runs with and without the optimized
+     * mode can be compared.
+     */
+    private static void report(Job job, boolean optimized)
+        throws IOException {
+
+        final Counters counters = job.getCounters();
+        final long records =
+            counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+        if (records == 0) {
+            return;
+        }
+        final long keyBytes =
+            counters.findCounter(BytesRead.KEY_BYTES).getValue();
+        final long valueBytes =
+            counters.findCounter(BytesRead.VALUE_BYTES).getValue();
+        final long shuffleBytes =
+            counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES)
+                    .getValue();
+        System.out.println(
+            (optimized ? "optimized" : "default") + " mode, " +
+            records + " records:" +
+            "\n  key bytes read per record: " + (keyBytes / records) +
+            "\n  value bytes read per record: " + (valueBytes / records) +
+            "\n  shuffle bytes per record: " +
+            String.format("%.3f", (double) shuffleBytes / records));
+    }
+
     public static void main(String[] args)
         throws Exception {
 
@@ -0,0 +1,186 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import oracle.kv.FaultException;
+import oracle.kv.KVSecurityConstants;
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.hadoop.table.TableInputSplit;
+import oracle.kv.impl.systables.TableStatsPartitionDesc;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableIterator;
+
+import org.apache.hadoop.mapreduce.InputSplit;
+
+/**
+ * The weights of the store partitions read by the splits of a job, used by
+ * {@link BalancedInputFormat} to plan splits of similar sizes.
+ * <p>
+ * For the splits of a TableInputFormat, the weight of a partition is the
+ * size in bytes of the table in that partition, or its number of rows if
+ * sizes are not recorded, as gathered by the store in its
+ * SYS$TableStatsPartition system table. Partitions that have no statistics
+ * weigh nothing. When the statistics cannot be read, because the store
+ * has not gathered them yet or the splits are those of a KVInputFormat,
+ * whose records do not belong to tables, each partition weighs 1, so that
+ * the weight of a split is its number of partitions.
+ */
+class PartitionWeights {
+
+    /* The weight of each partition, or null to count partitions */
+    private final Map<Integer, Long> weights;
+    private final String unit;
+
+    private PartitionWeights(Map<Integer, Long> weights, String unit) {
+        this.weights = weights;
+        this.unit = unit;
+    }
+
+    /**
+     * Returns the weights of the partitions of the given splits, read from
+     * the table statistics of the store of their table when there are any.
+     */
+    static PartitionWeights load(List<InputSplit> splits) {
+        for (InputSplit split : splits) {
+            if (split instanceof TableInputSplit) {
+                final PartitionWeights stats =
+                    loadStatistics((TableInputSplit) split);
+                if (stats != null) {
+                    return stats;
+                }
+                break;
+            }
+        }
+        return new PartitionWeights(null, "partitions");
+    }
+
+    /*
+     * Reads the statistics of the table of the split, or returns null if
+     * there are none.
+     */
+    private static PartitionWeights loadStatistics(TableInputSplit split) {
+        final KVStoreConfig config =
+            new KVStoreConfig(split.getKVStoreName(),
+                              split.getKVHelperHosts());
+        if (split.getSecurityTrust() != null) {
+            final Properties props = new Properties();
+            props.setProperty(KVSecurityConstants.TRANSPORT_PROPERTY,
+                              KVSecurityConstants.SSL_TRANSPORT_NAME);
+            props.setProperty(
+                KVSecurityConstants.SSL_TRUSTSTORE_FILE_PROPERTY,
+                split.getSecurityTrust());
+            config.setSecurityProperties(props);
+        }
+
+        KVStore store = null;
+        try {
+            store = (split.getSecurityCredentials() == null) ?
+                KVStoreFactory.getStore(config) :
+                KVStoreFactory.getStore(config,
+                                        split.getSecurityCredentials(),
+                                        null);
+            final Table statsTable = store.getTableAPI().getTable(
+                TableStatsPartitionDesc.TABLE_NAME);
+            if (statsTable == null) {
+                return null;
+            }
+
+            final Map<Integer, Long> sizes = new HashMap<Integer, Long>();
+            final Map<Integer, Long> counts = new HashMap<Integer, Long>();
+            final TableIterator<Row> iter =
+                store.getTableAPI().tableIterator(
+                    statsTable.createPrimaryKey(), null, null);
+            try {
+                while (iter.hasNext()) {
+                    final Row row = iter.next();
+                    if (!split.getTableName().equalsIgnoreCase(
+                            row.get(TableStatsPartitionDesc.COL_NAME_TABLE_NAME)
+                            .asString().get())) {
+                        continue;
+                    }
+                    final int partitionId = row.get(
+                        TableStatsPartitionDesc.COL_NAME_PARTITION_ID)
+                        .asInteger().get();
+                    final FieldValue size = row.get(
+                        TableStatsPartitionDesc.COL_NAME_TABLE_SIZE);
+                    if (size != null && !size.isNull()) {
+                        sizes.put(partitionId, size.asLong().get());
+                    }
+                    counts.put(partitionId, row.get(
+                        TableStatsPartitionDesc.COL_NAME_COUNT)
+                        .asLong().get());
+                }
+            } finally {
+                iter.close();
+            }
+            if (counts.isEmpty()) {
+                return null;
+            }
+            /* Sizes are only recorded by recent versions of the store */
+            if (sizes.size() == counts.size()) {
+                return new PartitionWeights(sizes, "bytes");
+            }
+            return new PartitionWeights(counts, "rows");
+        } catch (FaultException e) {
+            System.err.println("Table statistics not available, " +
+                               "weighing splits by partitions: " + e);
+            return null;
+        } finally {
+            if (store != null) {
+                store.close();
+            }
+        }
+    }
+
+    /**
+     * Returns the unit of the weights: bytes, rows or partitions.
+     */
+    String getUnit() {
+        return unit;
+    }
+
+    /**
+     * Returns the weight of a partition.
+     */
+    long weightOf(int partitionId) {
+        if (weights == null) {
+            return 1;
+        }
+        final Long weight = weights.get(partitionId);
+        return (weight == null) ? 0 : weight;
+    }
+
+    /**
+     * Returns the total weight of the given partition sets.
+     */
+    long weightOf(List<Set<Integer>> partitionSets) {
+        long weight = 0;
+        for (Set<Integer> partitionSet : partitionSets) {
+            for (int partitionId : partitionSet) {
+                weight += weightOf(partitionId);
+            }
+        }
+        return weight;
+    }
+}
@@ -0,0 +1,405 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop.hive.table;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oracle.kv.Direction;
+import oracle.kv.FaultException;
+import oracle.kv.KVSecurityConstants;
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableAPI;
+import oracle.kv.table.TableIterator;
+import oracle.kv.table.TableIteratorOptions;
+
+/**
+ * Class that exports a table, such as the <code>rmvTable</code> created by
+ * {@link LoadRmvTable}, to local files in the columnar format described in
+ * {@link ColumnarFormat}. Analytical queries that use only a few of the
+ * columns of the table can then read just those columns with
+ * {@link ColumnarFileReader}, instead of reading every row in full through
+ * the Hive storage handler.
+ * <p>
+ * The table is scanned with an unordered table iterator, which reads from
+ * all the shards in parallel. The rows are handed, in batches and through a
+ * bounded queue, to a number of writer threads, each of which encodes and
+ * compresses its rows into its own file, named
+ * <code>&lt;table&gt;-&lt;n&gt;.kvcol</code>. Memory use is bounded by the
+ * queue and the row group size, whatever the size of the table. If the
+ * scan or a writer thread fails, the files are deleted.
+ * <p>
+ * The nested fields are flattened into one column per atomic field; for
+ * <code>rmvTable</code>, for example, the columns include
+ * <code>address.city</code>, <code>vehicleinfo.count</code>,
+ * <code>vehicleinfo.make</code>, <code>phoneinfo.key</code> and
+ * <code>phoneinfo</code>.
+ * <p>
+ * To run this class, type a command like the following:
+ * <pre><code>
+ *  &gt; cd  &lt;KVEXAMPLES&gt;
+ *  &gt; java -classpath lib/kvclient.jar:examples &#92;
+ *         hadoop.hive.table.ColumnarExport &#92;
+ *         -store &lt;storename&gt; -host &lt;hostname&gt; -port &lt;port&gt; &#92;
+ *         -dir &lt;output-directory&gt; [-table &lt;table-name&gt;] &#92;
+ *        [-threads &lt;n&gt;] [-scanRequests &lt;n&gt;] &#92;
+ *        [-rowGroupSize &lt;rows&gt;] [-compression deflate|none] &#92;
+ *        [-security &lt;login-properties-file&gt;]
+ * </code></pre>
+ */
+public final class ColumnarExport {
+
+    /* Number of rows handed to a writer thread at a time */
+    private static final int ROWS_PER_BATCH = 1000;
+
+    /* Interval between progress reports */
+    private static final long REPORT_INTERVAL_MS = 10000;
+
+    /* Tells a writer thread that the scan is done */
+    private static final List<Row> END_OF_SCAN = Collections.emptyList();
+
+    private final KVStore store;
+    private final TableAPI tableAPI;
+    private final Table table;
+
+    private String tableName = "rmvTable";
+    private File dir;
+    private int nThreads = 4;
+    private int scanRequests = 0;
+    private int rowGroupSize = 10000;
+    private boolean compress = true;
+
+    public static void main(final String[] args) {
+        try {
+            final ColumnarExport export = new ColumnarExport(args);
+            export.run();
+        } catch (FaultException e) {
+            e.printStackTrace();
+            System.out.println("Please make sure a store is running.");
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Parses command line args and opens the KVStore.
+     */
+    private ColumnarExport(final String[] argv) {
+
+        String storeName = "";
+        String hostName = "";
+        String hostPort = "";
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        if (nArgs == 0) {
+            usage(null);
+        }
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if ("-store".equals(thisArg)) {
+                if (argc < nArgs) {
+                    storeName = argv[argc++];
+                } else {
+                    usage("-store requires an argument");
+                }
+            } else if ("-host".equals(thisArg)) {
+                if (argc < nArgs) {
+                    hostName = argv[argc++];
+                } else {
+                    usage("-host requires an argument");
+                }
+            } else if ("-port".equals(thisArg)) {
+                if (argc < nArgs) {
+                    hostPort = argv[argc++];
+                } else {
+                    usage("-port requires an argument");
+                }
+            } else if ("-table".equals(thisArg)) {
+                if (argc < nArgs) {
+                    tableName = argv[argc++];
+                } else {
+                    usage("-table requires an argument");
+                }
+            } else if ("-dir".equals(thisArg)) {
+                if (argc < nArgs) {
+                    dir = new File(argv[argc++]);
+                } else {
+                    usage("-dir requires an argument");
+                }
+            } else if ("-threads".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nThreads = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-threads requires an argument");
+                }
+            } else if ("-scanRequests".equals(thisArg)) {
+                if (argc < nArgs) {
+                    scanRequests = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-scanRequests requires an argument");
+                }
+            } else if ("-rowGroupSize".equals(thisArg)) {
+                if (argc < nArgs) {
+                    rowGroupSize = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-rowGroupSize requires an argument");
+                }
+            } else if ("-compression".equals(thisArg)) {
+                if (argc < nArgs) {
+                    final String codec = argv[argc++];
+                    if ("deflate".equals(codec)) {
+                        compress = true;
+                    } else if ("none".equals(codec)) {
+                        compress = false;
+                    } else {
+                        usage("Unknown compression: " + codec);
+                    }
+                } else {
+                    usage("-compression requires an argument");
+                }
+            } else if ("-security".equals(thisArg)) {
+                if (argc < nArgs) {
+                    System.setProperty(
+                        KVSecurityConstants.SECURITY_FILE_PROPERTY,
+                        argv[argc++]);
+                } else {
+                    usage("-security requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+
+        if (dir == null) {
+            usage("-dir is required");
+        }
+        if (nThreads < 1) {
+            usage("-threads must be at least 1");
+        }
+        if (rowGroupSize < 1) {
+            usage("-rowGroupSize must be at least 1");
+        }
+
+        store = KVStoreFactory.getStore
+            (new KVStoreConfig(storeName, hostName + ":" + hostPort));
+
+        tableAPI = store.getTableAPI();
+        table = tableAPI.getTable(tableName);
+        if (table == null) {
+            final String msg =
+                "Store does not contain table [name=" + tableName + "]";
+            throw new RuntimeException(msg);
+        }
+    }
+
+    private void usage(final String message) {
+        if (message != null) {
+            System.out.println("\n" + message + "\n");
+        }
+
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t-store <instance name>\n" +
+             "\t-host <host name>\n" +
+             "\t-port <port number>\n" +
+             "\t-dir <output directory>\n" +
+             "\t[-table <table name>] (default: rmvTable)\n" +
+             "\t[-threads <number of writer threads>] (default: 4)\n" +
+             "\t[-scanRequests <max concurrent scan requests>] " +
+             "(default: chosen by the store)\n" +
+             "\t[-rowGroupSize <rows per row group>] (default: 10000)\n" +
+             "\t[-compression deflate|none] (default: deflate)\n" +
+             "\t[-security <login properties file>]\n");
+        System.exit(1);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+
+        final BlockingQueue<List<Row>> queue =
+            new ArrayBlockingQueue<List<Row>>(2 * nThreads);
+        final AtomicReference<Exception> failure =
+            new AtomicReference<Exception>();
+
+        final File[] files = new File[nThreads];
+        final FileExporter[] exporters = new FileExporter[nThreads];
+        final Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            files[i] = new File(dir, tableName + "-" + i + ".kvcol");
+            exporters[i] = new FileExporter(
+                new ColumnarFileWriter(files[i], table, rowGroupSize,
+                                       compress),
+                queue, failure);
+            threads[i] = new Thread(exporters[i], "ColumnarExport-" + i);
+            threads[i].start();
+        }
+
+        final long startMs = System.currentTimeMillis();
+        long lastReportMs = startMs;
+        long nRows = 0;
+
+        final TableIteratorOptions options =
+            new TableIteratorOptions(Direction.UNORDERED, null, 0, null,
+                                     scanRequests, 0);
+        final TableIterator<Row> itr =
+            tableAPI.tableIterator(table.createPrimaryKey(), null, options);
+        try {
+            List<Row> batch = new ArrayList<Row>(ROWS_PER_BATCH);
+            while (itr.hasNext() && failure.get() == null) {
+                batch.add(itr.next());
+                nRows++;
+                if (batch.size() == ROWS_PER_BATCH) {
+                    handOff(queue, batch, failure);
+                    batch = new ArrayList<Row>(ROWS_PER_BATCH);
+                }
+
+                final long nowMs = System.currentTimeMillis();
+                if (nowMs - lastReportMs >= REPORT_INTERVAL_MS) {
+                    System.out.println(nRows + " rows scanned, " +
+                                       rate(nRows, nowMs - startMs) +
+                                       " rows/sec");
+                    lastReportMs = nowMs;
+                }
+            }
+            if (!batch.isEmpty()) {
+                handOff(queue, batch, failure);
+            }
+        } catch (RuntimeException e) {
+            /* The scan failed: the files written so far are incomplete */
+            failure.compareAndSet(null, e);
+        } finally {
+            itr.close();
+            if (failure.get() != null) {
+                /* The remaining batches will not be written */
+                queue.clear();
+            }
+            for (int i = 0; i < nThreads; i++) {
+                handOff(queue, END_OF_SCAN, failure);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            store.close();
+        }
+
+        if (failure.get() != null) {
+            /* Do not leave files that look like a complete export */
+            for (File file : files) {
+                if (file.exists() && !file.delete()) {
+                    System.err.println("Cannot delete incomplete file " +
+                                       file);
+                }
+            }
+            throw new IOException("Export failed", failure.get());
+        }
+
+        final long elapsedMs = System.currentTimeMillis() - startMs;
+        long nBytes = 0;
+        for (FileExporter exporter : exporters) {
+            nBytes += exporter.writer.getBytesWritten();
+        }
+        System.out.println(nRows + " rows of " + tableName + " exported to " +
+                           nThreads + " files in " + dir + ", " +
+                           exporters[0].writer.getColumnNames().size() +
+                           " columns, " + nBytes + " bytes, in " +
+                           elapsedMs + " ms (" + rate(nRows, elapsedMs) +
+                           " rows/sec)");
+    }
+
+    /*
+     * Queues a batch for the writer threads, giving up if a writer thread
+     * failed, since the others may then not drain the queue. The writer
+     * threads stop on their own after a failure, end of scan marker or not.
+     */
+    private static void handOff(BlockingQueue<List<Row>> queue,
+                                List<Row> batch,
+                                AtomicReference<Exception> failure)
+        throws InterruptedException {
+
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (failure.get() != null) {
+                return;
+            }
+        }
+    }
+
+    private static long rate(long count, long elapsedMs) {
+        return (elapsedMs == 0) ? 0 : (count * 1000) / elapsedMs;
+    }
+
+    /*
+     * Takes batches of rows from the queue and writes them to one file,
+     * until the end of the scan, or until an exporter fails, in which case
+     * the end of scan marker may never be queued.
+     */
+    private static final class FileExporter implements Runnable {
+
+        private final ColumnarFileWriter writer;
+        private final BlockingQueue<List<Row>> queue;
+        private final AtomicReference<Exception> failure;
+
+        FileExporter(ColumnarFileWriter writer,
+                     BlockingQueue<List<Row>> queue,
+                     AtomicReference<Exception> failure) {
+            this.writer = writer;
+            this.queue = queue;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            try {
+                try {
+                    while (true) {
+                        final List<Row> batch =
+                            queue.poll(100, TimeUnit.MILLISECONDS);
+                        if (batch == null) {
+                            if (failure.get() != null) {
+                                break;
+                            }
+                            continue;
+                        }
+                        if (batch == END_OF_SCAN) {
+                            break;
+                        }
+                        for (Row row : batch) {
+                            writer.addRow(row);
+                        }
+                    }
+                } finally {
+                    writer.close();
+                }
+            } catch (Exception e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
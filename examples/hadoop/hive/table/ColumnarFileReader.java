@@ -0,0 +1,398 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop.hive.table;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.BitSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import hadoop.hive.table.ColumnarFormat.ChunkMeta;
+import hadoop.hive.table.ColumnarFormat.ColumnType;
+
+/**
+ * Reads files written by {@link ColumnarFileWriter}. Only the footer is read
+ * when the file is opened; the chunks of a column are read, one row group at
+ * a time, when they are asked for, so a query that uses a few columns reads
+ * only a small part of the file.
+ * <p>
+ * The main method is a small command line tool that prints the columns and
+ * statistics of a file, and optionally scans some of its columns, counting
+ * the values equal to a given value and skipping the row groups whose
+ * min/max statistics exclude it. For example:
+ * <pre><code>
+ *  &gt; java -classpath lib/kvclient.jar:examples &#92;
+ *         hadoop.hive.table.ColumnarFileReader &#92;
+ *         -file export/rmvTable-0.kvcol &#92;
+ *         -columns address.state,vehicleinfo.make -match address.state=MA
+ * </code></pre>
+ */
+public final class ColumnarFileReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final String[] names;
+    private final ColumnType[] types;
+    private final long[] rowGroupRows;
+    private final ChunkMeta[][] rowGroups;
+    private final Inflater inflater = new Inflater();
+
+    private long bytesRead;
+
+    public ColumnarFileReader(File path) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        try {
+            final int tailLength = 8 + ColumnarFormat.MAGIC.length;
+            if (file.length() < ColumnarFormat.MAGIC.length + tailLength) {
+                throw new IOException("File too short: " + path);
+            }
+            file.seek(0);
+            ColumnarFormat.readMagic(file);
+            file.seek(file.length() - tailLength);
+            final long footerOffset = file.readLong();
+            ColumnarFormat.readMagic(file);
+
+            file.seek(footerOffset);
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(
+                    Channels.newInputStream(file.getChannel())));
+            names = new String[in.readInt()];
+            types = new ColumnType[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = in.readUTF();
+                types[i] = ColumnType.values()[in.readByte()];
+            }
+            rowGroupRows = new long[in.readInt()];
+            rowGroups = new ChunkMeta[rowGroupRows.length][];
+            for (int i = 0; i < rowGroups.length; i++) {
+                rowGroupRows[i] = in.readLong();
+                rowGroups[i] = new ChunkMeta[names.length];
+                for (int j = 0; j < names.length; j++) {
+                    rowGroups[i][j] = ChunkMeta.read(in, types[j]);
+                }
+            }
+            bytesRead = file.length() - footerOffset;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    public int getColumnCount() {
+        return names.length;
+    }
+
+    public String getColumnName(int column) {
+        return names[column];
+    }
+
+    ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * Returns the index of the named column, or -1 if there is no such
+     * column.
+     */
+    public int getColumnIndex(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int getRowGroupCount() {
+        return rowGroups.length;
+    }
+
+    public long getRowCount(int rowGroup) {
+        return rowGroupRows[rowGroup];
+    }
+
+    public int getValueCount(int rowGroup, int column) {
+        return rowGroups[rowGroup][column].valueCount;
+    }
+
+    public long getStoredLength(int rowGroup, int column) {
+        return rowGroups[rowGroup][column].storedLength;
+    }
+
+    /**
+     * Returns the smallest non null value of a column in a row group, or
+     * null if the column has no statistics or only null values.
+     */
+    public Object getMin(int rowGroup, int column) {
+        return rowGroups[rowGroup][column].min;
+    }
+
+    /**
+     * Returns the largest non null value of a column in a row group, or
+     * null if the column has no statistics or only null values.
+     */
+    public Object getMax(int rowGroup, int column) {
+        return rowGroups[rowGroup][column].max;
+    }
+
+    /**
+     * Returns the number of bytes read from the file so far, including the
+     * footer.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Reads the values of a column in a row group. Null values are returned
+     * as null. The values of a repeated column, the elements of an array or
+     * map, are returned one after the other; the matching ".count" column
+     * tells how many belong to each row.
+     */
+    public Object[] readColumn(int rowGroup, int column) throws IOException {
+        final ChunkMeta meta = rowGroups[rowGroup][column];
+        final byte[] stored = new byte[meta.storedLength];
+        file.seek(meta.offset);
+        file.readFully(stored);
+        bytesRead += stored.length;
+
+        byte[] raw = stored;
+        if (meta.codec == ColumnarFormat.CODEC_DEFLATE) {
+            raw = new byte[meta.rawLength];
+            inflater.reset();
+            inflater.setInput(stored);
+            try {
+                if (inflater.inflate(raw) != raw.length) {
+                    throw new IOException("Truncated chunk of column " +
+                                          names[column]);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt chunk of column " +
+                                      names[column], e);
+            }
+        } else if (meta.codec != ColumnarFormat.CODEC_NONE) {
+            throw new IOException("Unknown codec: " + meta.codec);
+        }
+
+        final DataInputStream in =
+            new DataInputStream(new ByteArrayInputStream(raw));
+        final Object[] values = new Object[in.readInt()];
+        final byte[] nullBitmap = new byte[in.readInt()];
+        in.readFully(nullBitmap);
+        final BitSet nulls = BitSet.valueOf(nullBitmap);
+        for (int i = 0; i < values.length; i++) {
+            if (!nulls.get(i)) {
+                values[i] = ColumnarFormat.readValue(in, types[column]);
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        file.close();
+    }
+
+    public static void main(String[] args) {
+        String fileName = null;
+        String columnList = null;
+        String match = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if ("-file".equals(args[i]) && i + 1 < args.length) {
+                fileName = args[++i];
+            } else if ("-columns".equals(args[i]) && i + 1 < args.length) {
+                columnList = args[++i];
+            } else if ("-match".equals(args[i]) && i + 1 < args.length) {
+                match = args[++i];
+            } else {
+                usage("Unknown argument: " + args[i]);
+            }
+        }
+        if (fileName == null) {
+            usage("-file is required");
+        }
+
+        try {
+            final ColumnarFileReader reader =
+                new ColumnarFileReader(new File(fileName));
+            try {
+                reader.printSummary();
+                if (columnList != null) {
+                    reader.scan(columnList.split(","), match);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void usage(String message) {
+        if (message != null) {
+            System.out.println("\n" + message + "\n");
+        }
+        System.out.println("usage: " + ColumnarFileReader.class.getName());
+        System.out.println
+            ("\t-file <columnar export file>\n" +
+             "\t[-columns <column>[,<column>]...] [scan these columns]\n" +
+             "\t[-match <column>=<value>] [count rows where column=value]\n");
+        System.exit(1);
+    }
+
+    private void printSummary() {
+        long nRows = 0;
+        for (long rows : rowGroupRows) {
+            nRows += rows;
+        }
+        System.out.println(nRows + " rows in " + rowGroups.length +
+                           " row groups, " + getFileLength() + " bytes");
+        System.out.println("column\ttype\tstored bytes\tmin\tmax");
+        for (int j = 0; j < names.length; j++) {
+            long stored = 0;
+            Object min = null;
+            Object max = null;
+            for (int i = 0; i < rowGroups.length; i++) {
+                final ChunkMeta meta = rowGroups[i][j];
+                stored += meta.storedLength;
+                if (meta.min == null) {
+                    continue;
+                }
+                if (min == null ||
+                    ColumnarFormat.compare(types[j], meta.min, min) < 0) {
+                    min = meta.min;
+                }
+                if (max == null ||
+                    ColumnarFormat.compare(types[j], meta.max, max) > 0) {
+                    max = meta.max;
+                }
+            }
+            System.out.println(names[j] + "\t" + types[j] + "\t" + stored +
+                               "\t" + min + "\t" + max);
+        }
+    }
+
+    private long getFileLength() {
+        try {
+            return file.length();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /*
+     * Reads the given columns of every row group, and counts the values of
+     * the match column equal to the match value, if one is given.
+     */
+    private void scan(String[] columnNames, String match) throws IOException {
+        final int[] columns = new int[columnNames.length];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = getColumnIndex(columnNames[i]);
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException(
+                    "No such column: " + columnNames[i]);
+            }
+        }
+
+        int matchColumn = -1;
+        Object matchValue = null;
+        if (match != null) {
+            final int eq = match.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException(
+                    "Match must be <column>=<value>: " + match);
+            }
+            matchColumn = getColumnIndex(match.substring(0, eq));
+            if (matchColumn < 0 || !types[matchColumn].hasStats()) {
+                throw new IllegalArgumentException(
+                    "No such column, or column cannot be matched: " + match);
+            }
+            matchValue = parseValue(types[matchColumn],
+                                    match.substring(eq + 1));
+        }
+
+        final long startBytes = bytesRead;
+        final long startNs = System.nanoTime();
+        long nValues = 0;
+        long nMatches = 0;
+        int skipped = 0;
+        for (int i = 0; i < rowGroups.length; i++) {
+            if (matchColumn >= 0 &&
+                !mayContain(i, matchColumn, matchValue)) {
+                skipped++;
+                continue;
+            }
+            for (int column : columns) {
+                nValues += readColumn(i, column).length;
+            }
+            if (matchColumn >= 0) {
+                for (Object value : readColumn(i, matchColumn)) {
+                    if (matchValue.equals(value)) {
+                        nMatches++;
+                    }
+                }
+            }
+        }
+        final long elapsedMs = (System.nanoTime() - startNs) / 1000000;
+
+        System.out.println("\nscanned " + nValues + " values of " +
+                           columns.length + " columns in " + elapsedMs +
+                           " ms, read " + (bytesRead - startBytes) +
+                           " of " + getFileLength() + " bytes");
+        if (matchColumn >= 0) {
+            System.out.println(nMatches + " values match " + match + ", " +
+                               skipped + " of " + rowGroups.length +
+                               " row groups skipped using statistics");
+        }
+    }
+
+    private boolean mayContain(int rowGroup, int column, Object value) {
+        final ChunkMeta meta = rowGroups[rowGroup][column];
+        if (meta.min == null) {
+            return meta.valueCount > meta.nullCount;
+        }
+        return ColumnarFormat.compare(types[column], value, meta.min) >= 0 &&
+               ColumnarFormat.compare(types[column], value, meta.max) <= 0;
+    }
+
+    private static Object parseValue(ColumnType type, String value) {
+        switch (type) {
+        case BOOLEAN:
+            return Boolean.valueOf(value);
+        case INTEGER:
+            return Integer.valueOf(value);
+        case LONG:
+            return Long.valueOf(value);
+        case FLOAT:
+            return Float.valueOf(value);
+        case DOUBLE:
+            return Double.valueOf(value);
+        case STRING:
+            return value;
+        default:
+            throw new IllegalArgumentException("Cannot match type " + type);
+        }
+    }
+}
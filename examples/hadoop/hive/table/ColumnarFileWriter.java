@@ -0,0 +1,499 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop.hive.table;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import hadoop.hive.table.ColumnarFormat.ChunkMeta;
+import hadoop.hive.table.ColumnarFormat.ColumnType;
+
+import oracle.kv.table.ArrayDef;
+import oracle.kv.table.ArrayValue;
+import oracle.kv.table.FieldDef;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.MapDef;
+import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+
+/**
+ * Writes the rows of a table to a local file in the columnar format
+ * described in {@link ColumnarFormat}. The values of each column are
+ * buffered in memory until the configured number of rows has been added,
+ * then written as a row group, so memory use is bounded by the row group
+ * size. Not thread safe; {@link ColumnarExport} uses one writer, and file,
+ * per thread.
+ */
+public final class ColumnarFileWriter implements Closeable {
+
+    private final DataOutputStream out;
+    private final int rowGroupSize;
+    private final Deflater deflater;
+
+    /* The flattened columns, in file order */
+    private final List<ColumnBuffer> columns = new ArrayList<ColumnBuffer>();
+
+    /* Extracts the column values from a row */
+    private final RecordNode root;
+
+    /* The footer entries of the row groups written so far */
+    private final List<ChunkMeta[]> rowGroups = new ArrayList<ChunkMeta[]>();
+    private final List<Long> rowGroupRows = new ArrayList<Long>();
+
+    /* Buffers reused to build and compress each column chunk */
+    private final ByteArrayOutputStream chunkBytes =
+        new ByteArrayOutputStream();
+    private final DataOutputStream chunkOut = new DataOutputStream(chunkBytes);
+    private byte[] compressBuf = new byte[64 * 1024];
+
+    private long position;
+    private int rowsInGroup;
+    private long nRows;
+
+    /**
+     * Creates a writer for the rows of the given table.
+     *
+     * @param file the file to create
+     * @param table the table the rows belong to
+     * @param rowGroupSize number of rows per row group
+     * @param compress whether to compress the column chunks with Deflate; a
+     * chunk is stored uncompressed if compression does not make it smaller
+     */
+    public ColumnarFileWriter(File file,
+                              Table table,
+                              int rowGroupSize,
+                              boolean compress)
+        throws IOException {
+
+        if (rowGroupSize < 1) {
+            throw new IllegalArgumentException(
+                "Row group size must be at least 1: " + rowGroupSize);
+        }
+        this.rowGroupSize = rowGroupSize;
+        deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+        final List<String> names = table.getFields();
+        final FieldNode[] children = new FieldNode[names.size()];
+        for (int i = 0; i < children.length; i++) {
+            children[i] = createNode(names.get(i),
+                                     table.getField(names.get(i)));
+        }
+        root = new RecordNode(names.toArray(new String[0]), children);
+
+        out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(file), 256 * 1024));
+        ColumnarFormat.writeMagic(out);
+        position = ColumnarFormat.MAGIC.length;
+    }
+
+    /**
+     * Returns the names of the flattened columns, in file order.
+     */
+    public List<String> getColumnNames() {
+        final List<String> names = new ArrayList<String>(columns.size());
+        for (ColumnBuffer column : columns) {
+            names.add(column.name);
+        }
+        return names;
+    }
+
+    public long getRowCount() {
+        return nRows;
+    }
+
+    /**
+     * Returns the number of bytes written to the file so far.
+     */
+    public long getBytesWritten() {
+        return position;
+    }
+
+    /**
+     * Adds a row, writing a row group when enough rows have been added.
+     */
+    public void addRow(Row row) throws IOException {
+        root.add(row);
+        nRows++;
+        if (++rowsInGroup == rowGroupSize) {
+            writeRowGroup();
+        }
+    }
+
+    /**
+     * Writes the last row group and the footer, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsInGroup > 0) {
+                writeRowGroup();
+            }
+            writeFooter();
+        } finally {
+            out.close();
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    private void writeRowGroup() throws IOException {
+        final ChunkMeta[] chunks = new ChunkMeta[columns.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = writeChunk(columns.get(i));
+        }
+        rowGroups.add(chunks);
+        rowGroupRows.add((long) rowsInGroup);
+        rowsInGroup = 0;
+    }
+
+    private ChunkMeta writeChunk(ColumnBuffer column) throws IOException {
+
+        chunkBytes.reset();
+        chunkOut.writeInt(column.valueCount);
+        final byte[] nullBitmap = column.nulls.toByteArray();
+        chunkOut.writeInt(nullBitmap.length);
+        chunkOut.write(nullBitmap);
+        column.values.writeTo(chunkOut);
+        chunkOut.flush();
+
+        final ChunkMeta meta = new ChunkMeta();
+        meta.offset = position;
+        meta.rawLength = chunkBytes.size();
+        meta.valueCount = column.valueCount;
+        meta.nullCount = column.nullCount;
+        meta.min = column.min;
+        meta.max = column.max;
+
+        meta.codec = ColumnarFormat.CODEC_NONE;
+        int compressedLength = -1;
+        if (deflater != null) {
+            compressedLength = deflate(chunkBytes.toByteArray());
+            if (compressedLength < meta.rawLength) {
+                meta.codec = ColumnarFormat.CODEC_DEFLATE;
+            }
+        }
+
+        if (meta.codec == ColumnarFormat.CODEC_DEFLATE) {
+            out.write(compressBuf, 0, compressedLength);
+            meta.storedLength = compressedLength;
+        } else {
+            chunkBytes.writeTo(out);
+            meta.storedLength = meta.rawLength;
+        }
+        position += meta.storedLength;
+
+        column.reset();
+        return meta;
+    }
+
+    /*
+     * Compresses the given bytes into compressBuf, growing it as needed,
+     * and returns the compressed length.
+     */
+    private int deflate(byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressBuf.length) {
+                final byte[] newBuf = new byte[compressBuf.length * 2];
+                System.arraycopy(compressBuf, 0, newBuf, 0, length);
+                compressBuf = newBuf;
+            }
+            length += deflater.deflate(compressBuf, length,
+                                       compressBuf.length - length);
+        }
+        return length;
+    }
+
+    private void writeFooter() throws IOException {
+        final long footerOffset = position;
+
+        /* Built in chunkBytes first, to account for its length */
+        chunkBytes.reset();
+        final DataOutputStream footer = chunkOut;
+
+        footer.writeInt(columns.size());
+        for (ColumnBuffer column : columns) {
+            footer.writeUTF(column.name);
+            footer.writeByte(column.type.ordinal());
+        }
+
+        footer.writeInt(rowGroups.size());
+        for (int i = 0; i < rowGroups.size(); i++) {
+            footer.writeLong(rowGroupRows.get(i));
+            final ChunkMeta[] chunks = rowGroups.get(i);
+            for (int j = 0; j < chunks.length; j++) {
+                chunks[j].write(footer, columns.get(j).type);
+            }
+        }
+
+        footer.writeLong(footerOffset);
+        ColumnarFormat.writeMagic(footer);
+        footer.flush();
+
+        chunkBytes.writeTo(out);
+        position += chunkBytes.size();
+    }
+
+    /*
+     * Creates the node that flattens the given field into one or more
+     * columns, adding the columns to the column list.
+     */
+    private FieldNode createNode(String path, FieldDef def) {
+        switch (def.getType()) {
+        case RECORD:
+            final RecordDef recordDef = def.asRecord();
+            final List<String> names = recordDef.getFieldNames();
+            final FieldNode[] children = new FieldNode[names.size()];
+            for (int i = 0; i < children.length; i++) {
+                children[i] = createNode(path + "." + names.get(i),
+                                         recordDef.getFieldDef(i));
+            }
+            return new RecordNode(names.toArray(new String[0]), children);
+        case ARRAY:
+            final ArrayDef arrayDef = def.asArray();
+            final ColumnBuffer arrayCount =
+                addColumn(path + ColumnarFormat.COUNT_SUFFIX,
+                          ColumnType.INTEGER);
+            return new ArrayNode(arrayCount,
+                                 createNode(path, arrayDef.getElement()));
+        case MAP:
+            final MapDef mapDef = def.asMap();
+            final ColumnBuffer mapCount =
+                addColumn(path + ColumnarFormat.COUNT_SUFFIX,
+                          ColumnType.INTEGER);
+            final ColumnBuffer keys =
+                addColumn(path + ColumnarFormat.KEY_SUFFIX,
+                          ColumnType.STRING);
+            return new MapNode(mapCount, keys,
+                               createNode(path, mapDef.getElement()));
+        case BOOLEAN:
+            return new AtomicNode(addColumn(path, ColumnType.BOOLEAN));
+        case INTEGER:
+            return new AtomicNode(addColumn(path, ColumnType.INTEGER));
+        case LONG:
+            return new AtomicNode(addColumn(path, ColumnType.LONG));
+        case FLOAT:
+            return new AtomicNode(addColumn(path, ColumnType.FLOAT));
+        case DOUBLE:
+            return new AtomicNode(addColumn(path, ColumnType.DOUBLE));
+        case STRING:
+        case ENUM:
+            return new AtomicNode(addColumn(path, ColumnType.STRING));
+        case BINARY:
+        case FIXED_BINARY:
+            return new AtomicNode(addColumn(path, ColumnType.BINARY));
+        default:
+            throw new IllegalArgumentException(
+                "Field " + path + " has unsupported type " + def.getType());
+        }
+    }
+
+    private ColumnBuffer addColumn(String name, ColumnType type) {
+        final ColumnBuffer column = new ColumnBuffer(name, type);
+        columns.add(column);
+        return column;
+    }
+
+    /*
+     * The buffered values and statistics of a column for the current row
+     * group.
+     */
+    private static final class ColumnBuffer {
+        final String name;
+        final ColumnType type;
+        final ByteArrayOutputStream values = new ByteArrayOutputStream();
+        final DataOutputStream valuesOut = new DataOutputStream(values);
+        final BitSet nulls = new BitSet();
+        int valueCount;
+        int nullCount;
+        Object min;
+        Object max;
+
+        ColumnBuffer(String name, ColumnType type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        void add(Object value) throws IOException {
+            if (value == null) {
+                nulls.set(valueCount);
+                nullCount++;
+            } else {
+                ColumnarFormat.writeValue(valuesOut, type, value);
+                if (type.hasStats()) {
+                    if (min == null ||
+                        ColumnarFormat.compare(type, value, min) < 0) {
+                        min = value;
+                    }
+                    if (max == null ||
+                        ColumnarFormat.compare(type, value, max) > 0) {
+                        max = value;
+                    }
+                }
+            }
+            valueCount++;
+        }
+
+        void reset() {
+            values.reset();
+            nulls.clear();
+            valueCount = 0;
+            nullCount = 0;
+            min = null;
+            max = null;
+        }
+    }
+
+    /* Extracts the values of a field into its column or columns. */
+    private abstract static class FieldNode {
+
+        /* value is null if the field is missing */
+        abstract void add(FieldValue value) throws IOException;
+
+        static boolean isNull(FieldValue value) {
+            return value == null || value.isNull();
+        }
+    }
+
+    private static final class AtomicNode extends FieldNode {
+        private final ColumnBuffer column;
+
+        AtomicNode(ColumnBuffer column) {
+            this.column = column;
+        }
+
+        @Override
+        void add(FieldValue value) throws IOException {
+            if (isNull(value)) {
+                column.add(null);
+                return;
+            }
+            switch (value.getType()) {
+            case BOOLEAN:
+                column.add(value.asBoolean().get());
+                break;
+            case INTEGER:
+                column.add(value.asInteger().get());
+                break;
+            case LONG:
+                column.add(value.asLong().get());
+                break;
+            case FLOAT:
+                column.add(value.asFloat().get());
+                break;
+            case DOUBLE:
+                column.add(value.asDouble().get());
+                break;
+            case STRING:
+                column.add(value.asString().get());
+                break;
+            case ENUM:
+                column.add(value.asEnum().get());
+                break;
+            case BINARY:
+                column.add(value.asBinary().get());
+                break;
+            case FIXED_BINARY:
+                column.add(value.asFixedBinary().get());
+                break;
+            default:
+                throw new IllegalStateException(
+                    "Unexpected value type: " + value.getType());
+            }
+        }
+    }
+
+    private static final class RecordNode extends FieldNode {
+        private final String[] names;
+        private final FieldNode[] children;
+
+        RecordNode(String[] names, FieldNode[] children) {
+            this.names = names;
+            this.children = children;
+        }
+
+        @Override
+        void add(FieldValue value) throws IOException {
+            final RecordValue record = isNull(value) ? null : value.asRecord();
+            for (int i = 0; i < children.length; i++) {
+                children[i].add(record == null ? null : record.get(names[i]));
+            }
+        }
+    }
+
+    private static final class ArrayNode extends FieldNode {
+        private final ColumnBuffer count;
+        private final FieldNode element;
+
+        ArrayNode(ColumnBuffer count, FieldNode element) {
+            this.count = count;
+            this.element = element;
+        }
+
+        @Override
+        void add(FieldValue value) throws IOException {
+            if (isNull(value)) {
+                count.add(null);
+                return;
+            }
+            final ArrayValue array = value.asArray();
+            count.add(array.size());
+            for (int i = 0; i < array.size(); i++) {
+                element.add(array.get(i));
+            }
+        }
+    }
+
+    private static final class MapNode extends FieldNode {
+        private final ColumnBuffer count;
+        private final ColumnBuffer keys;
+        private final FieldNode element;
+
+        MapNode(ColumnBuffer count, ColumnBuffer keys, FieldNode element) {
+            this.count = count;
+            this.keys = keys;
+            this.element = element;
+        }
+
+        @Override
+        void add(FieldValue value) throws IOException {
+            if (isNull(value)) {
+                count.add(null);
+                return;
+            }
+            final Map<String, FieldValue> fields = value.asMap().getFields();
+            count.add(fields.size());
+            for (Map.Entry<String, FieldValue> entry : fields.entrySet()) {
+                keys.add(entry.getKey());
+                element.add(entry.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package hadoop.hive.table;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Constants and helpers shared by {@link ColumnarFileWriter} and
+ * {@link ColumnarFileReader}, which write and read the simple columnar file
+ * format produced by {@link ColumnarExport}.
+ * <p>
+ * A file has the following layout:
+ * <pre>
+ *   MAGIC
+ *   row group 0: column chunk 0, column chunk 1, ...
+ *   row group 1: column chunk 0, column chunk 1, ...
+ *   ...
+ *   footer
+ *   footer offset (long)
+ *   MAGIC
+ * </pre>
+ * The footer holds the name and type of each column, and for each row group
+ * its number of rows and, for each column chunk, its offset, stored and raw
+ * lengths, compression codec, value and null counts, and min/max statistics.
+ * Each column chunk is compressed on its own, so a reader only reads and
+ * decompresses the chunks of the columns it needs, and can skip a row group
+ * entirely based on the statistics.
+ * <p>
+ * The uncompressed content of a chunk is the value count (int), the length
+ * (int) and bytes of a bitmap of the null values, then the non null values
+ * written with DataOutput; except for STRING and BINARY values, written as
+ * a length (int) followed by the UTF-8 or raw bytes.
+ * <p>
+ * Nested fields are flattened into one column per atomic field, named with
+ * the path of the field, like "address.city". The elements of an ARRAY or
+ * MAP are stored one after the other in the columns of the element, and an
+ * extra INTEGER column, named like "vehicleinfo.count", holds the number of
+ * elements of each array or map; which is how a reader rebuilds them. The
+ * keys of a MAP are stored in a STRING column named like "phoneinfo.key".
+ */
+final class ColumnarFormat {
+
+    static final byte[] MAGIC =
+        "KVCOL1".getBytes(StandardCharsets.US_ASCII);
+
+    static final String COUNT_SUFFIX = ".count";
+    static final String KEY_SUFFIX = ".key";
+
+    /* Compression codecs of the column chunks. */
+    static final byte CODEC_NONE = 0;
+    static final byte CODEC_DEFLATE = 1;
+
+    /* Physical types of the columns. */
+    enum ColumnType {
+        BOOLEAN, INTEGER, LONG, FLOAT, DOUBLE, STRING, BINARY;
+
+        /**
+         * Returns whether min/max statistics are kept for the type.
+         */
+        boolean hasStats() {
+            return this != BINARY;
+        }
+    }
+
+    /**
+     * The footer entry of a column chunk.
+     */
+    static final class ChunkMeta {
+        byte codec;
+        long offset;
+        int storedLength;
+        int rawLength;
+        int valueCount;
+        int nullCount;
+        /* null when the type has no statistics or all values are null */
+        Object min;
+        Object max;
+
+        void write(DataOutput out, ColumnType type) throws IOException {
+            out.writeByte(codec);
+            out.writeLong(offset);
+            out.writeInt(storedLength);
+            out.writeInt(rawLength);
+            out.writeInt(valueCount);
+            out.writeInt(nullCount);
+            out.writeBoolean(min != null);
+            if (min != null) {
+                writeValue(out, type, min);
+                writeValue(out, type, max);
+            }
+        }
+
+        static ChunkMeta read(DataInput in, ColumnType type)
+            throws IOException {
+
+            final ChunkMeta meta = new ChunkMeta();
+            meta.codec = in.readByte();
+            meta.offset = in.readLong();
+            meta.storedLength = in.readInt();
+            meta.rawLength = in.readInt();
+            meta.valueCount = in.readInt();
+            meta.nullCount = in.readInt();
+            if (in.readBoolean()) {
+                meta.min = readValue(in, type);
+                meta.max = readValue(in, type);
+            }
+            return meta;
+        }
+    }
+
+    private ColumnarFormat() {
+    }
+
+    static void writeMagic(DataOutput out) throws IOException {
+        out.write(MAGIC);
+    }
+
+    static void readMagic(DataInput in) throws IOException {
+        final byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a columnar export file");
+        }
+    }
+
+    /**
+     * Writes a non null value of the given type.
+     */
+    static void writeValue(DataOutput out, ColumnType type, Object value)
+        throws IOException {
+
+        switch (type) {
+        case BOOLEAN:
+            out.writeBoolean((Boolean) value);
+            break;
+        case INTEGER:
+            out.writeInt((Integer) value);
+            break;
+        case LONG:
+            out.writeLong((Long) value);
+            break;
+        case FLOAT:
+            out.writeFloat((Float) value);
+            break;
+        case DOUBLE:
+            out.writeDouble((Double) value);
+            break;
+        case STRING:
+            writeBytes(out, ((String) value).getBytes(StandardCharsets.UTF_8));
+            break;
+        case BINARY:
+            writeBytes(out, (byte[]) value);
+            break;
+        default:
+            throw new IllegalStateException("Unexpected type: " + type);
+        }
+    }
+
+    /**
+     * Reads a non null value of the given type.
+     */
+    static Object readValue(DataInput in, ColumnType type)
+        throws IOException {
+
+        switch (type) {
+        case BOOLEAN:
+            return in.readBoolean();
+        case INTEGER:
+            return in.readInt();
+        case LONG:
+            return in.readLong();
+        case FLOAT:
+            return in.readFloat();
+        case DOUBLE:
+            return in.readDouble();
+        case STRING:
+            return new String(readBytes(in), StandardCharsets.UTF_8);
+        case BINARY:
+            return readBytes(in);
+        default:
+            throw new IllegalStateException("Unexpected type: " + type);
+        }
+    }
+
+    /**
+     * Compares two non null values of the given type, which must have
+     * statistics.
+     */
+    @SuppressWarnings("unchecked")
+    static int compare(ColumnType type, Object v1, Object v2) {
+        if (!type.hasStats()) {
+            throw new IllegalArgumentException("No ordering for " + type);
+        }
+        return ((Comparable<Object>) v1).compareTo(v2);
+    }
+
+    private static void writeBytes(DataOutput out, byte[] bytes)
+        throws IOException {
+
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
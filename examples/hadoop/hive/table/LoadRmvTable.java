@@ -14,6 +14,11 @@
 package hadoop.hive.table;
 
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import oracle.kv.FaultException;
 import oracle.kv.KVSecurityConstants;
@@ -30,6 +35,10 @@ import oracle.kv.table.Row;
 import oracle.kv.table.Table;
 import oracle.kv.table.TableAPI;
 import oracle.kv.table.TableIterator;
+import oracle.kv.table.TableOpExecutionException;
+import oracle.kv.table.TableOperation;
+import oracle.kv.table.TableOperationFactory;
+import oracle.kv.table.TableOperationResult;
 
 /**
  * Class that creates an example table in a given NoSQL Database store and
@@ -45,6 +54,7 @@ import oracle.kv.table.TableIterator;
  *                    :examples hadoop.hive.table.LoadRmvTable &#92;
  *         -store &lt;storename&gt; -host &lt;hostname&gt; -port &lt;port&gt; &#92;
  *         -nops &lt;number-of-rows-to-generate&gt; &#92;
+ *        [-threads &lt;n&gt;] [-batch &lt;rows-per-batch&gt;] &#92;
  *        [-security &lt;login-properties-file&gt;] [-delete]
  * </code></pre>
  * where the additonal JAR files (oraclepki.jar, osdt_cert.jar, and
@@ -70,6 +80,20 @@ import oracle.kv.table.TableIterator;
  * Oracle NoSQL Database Security Guide</a>.
  *
  * <p>
+ * By default the rows are generated and written one at a time on a single
+ * thread, and all the rows of the table are displayed at the end; which is
+ * only practical for small tables. When either <code>-threads</code> or
+ * <code>-batch</code> is specified, the class runs in parallel load mode,
+ * meant for loading very large tables: each of the given number of threads
+ * generates rows with its own fast pseudo-random generator, rows are
+ * generated in groups sharing the same zipcode, which is the shard key of
+ * the table, and each group is written as a single multi-row operation with
+ * {@link TableAPI#execute}. Each thread reuses the same rows, nested values
+ * and buffers for every group, so memory use does not depend on the number
+ * of rows loaded. Progress and throughput are reported periodically, and the
+ * rows are not displayed.
+ *
+ * <p>
  * <br>
  * This class demonstrates the use of Oracle NoSQL Table DDL
  * (<em>Data Definition Langue</em>) to create a table named
@@ -112,8 +136,22 @@ public final class LoadRmvTable {
 
     private boolean deleteExisting = false;
 
+    /* Parallel load mode settings, see doParallelLoad. */
+    private boolean parallelLoad = false;
+    private int nThreads = 1;
+    private int batchSize = 1;
+
     private static final String TABLE_NAME = "rmvTable";
 
+    /* Interval between progress reports in parallel load mode. */
+    private static final long REPORT_INTERVAL_MS = 10000;
+
+    /*
+     * Number of times a batch is retried in parallel load mode when some of
+     * its rows already exist, each time with a new ssn for those rows.
+     */
+    private static final int MAX_DUPLICATE_RETRIES = 10;
+
     /*
      * Create the table with the following SHARD and PRIMARY keys:
      *   shardKey : [ "zipcode" ]
@@ -210,6 +248,20 @@ public final class LoadRmvTable {
                 } else {
                     usage("-nops requires an argument");
                 }
+            } else if ("-threads".equals(thisArg)) {
+                if (argc < nArgs) {
+                    nThreads = Integer.parseInt(argv[argc++]);
+                    parallelLoad = true;
+                } else {
+                    usage("-threads requires an argument");
+                }
+            } else if ("-batch".equals(thisArg)) {
+                if (argc < nArgs) {
+                    batchSize = Integer.parseInt(argv[argc++]);
+                    parallelLoad = true;
+                } else {
+                    usage("-batch requires an argument");
+                }
             } else if ("-security".equals(thisArg)) {
                 if (argc < nArgs) {
                     System.setProperty(
@@ -225,6 +277,13 @@ public final class LoadRmvTable {
             }
         }
 
+        if (nThreads < 1) {
+            usage("-threads must be at least 1");
+        }
+        if (batchSize < 1) {
+            usage("-batch must be at least 1");
+        }
+
         store = KVStoreFactory.getStore
             (new KVStoreConfig(storeName, hostName + ":" + hostPort));
 
@@ -249,6 +308,8 @@ public final class LoadRmvTable {
              "\t-host <host name>\n" +
              "\t-port <port number>\n" +
              "\t-nops <total records to create>\n" +
+             "\t[-threads <number of loader threads>] (default: 1)\n" +
+             "\t[-batch <rows written per operation>] (default: 1)\n" +
              "\t[-security <login properties file>]\n" +
              "\t-delete (default: false) [delete all existing data]\n");
         System.exit(1);
@@ -259,7 +320,11 @@ public final class LoadRmvTable {
             deleteExistingData();
         }
 
-        doLoad();
+        if (parallelLoad) {
+            doParallelLoad();
+        } else {
+            doLoad();
+        }
     }
 
     private void createTable() {
@@ -482,6 +547,288 @@ public final class LoadRmvTable {
         tableAPI.putIfAbsent(row, null, null);
     }
 
+    /*
+     * Loads the table with nThreads RowLoader threads, each writing batches
+     * of batchSize rows sharing the same shard key, and reports progress
+     * while the threads are running.
+     */
+    private void doParallelLoad() {
+
+        final AtomicLong nextRow = new AtomicLong();
+        final AtomicLong nWritten = new AtomicLong();
+        final AtomicLong nRetried = new AtomicLong();
+        final AtomicLong nSkipped = new AtomicLong();
+        final AtomicReference<RuntimeException> failure =
+            new AtomicReference<RuntimeException>();
+
+        System.out.println("loading " + nOps + " records with " + nThreads +
+                           " threads, " + batchSize + " records per batch");
+
+        /*
+         * The threads use SplittableRandom rather than the shared
+         * SecureRandom; which would serialize them on a single lock and is
+         * much slower. Splitting a generator seeded once from SecureRandom
+         * gives each thread an independent sequence.
+         */
+        final SplittableRandom seedRandom =
+            new SplittableRandom(secureRandom.nextLong());
+
+        final Thread[] threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            final RowLoader loader =
+                new RowLoader(seedRandom.split(), nextRow, nWritten,
+                              nRetried, nSkipped, failure);
+            threads[i] = new Thread(loader, "RowLoader-" + i);
+            threads[i].start();
+        }
+
+        final long startMs = System.currentTimeMillis();
+        long lastReportMs = startMs;
+        long lastWritten = 0;
+        try {
+            for (Thread thread : threads) {
+                while (thread.isAlive()) {
+                    thread.join(REPORT_INTERVAL_MS);
+                    final long nowMs = System.currentTimeMillis();
+                    if (nowMs - lastReportMs < REPORT_INTERVAL_MS) {
+                        continue;
+                    }
+                    final long written = nWritten.get();
+                    System.out.println(
+                        written + " records written, " +
+                        rate(written - lastWritten, nowMs - lastReportMs) +
+                        " records/sec (overall " +
+                        rate(written, nowMs - startMs) + " records/sec)");
+                    lastReportMs = nowMs;
+                    lastWritten = written;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure.compareAndSet(null, new RuntimeException(
+                "Interrupted while waiting for the loader threads", e));
+        }
+        final long elapsedMs = System.currentTimeMillis() - startMs;
+
+        System.out.println(nWritten.get() + " new records added in " +
+                           elapsedMs + " ms (" +
+                           rate(nWritten.get(), elapsedMs) +
+                           " records/sec)");
+        if (nRetried.get() > 0 || nSkipped.get() > 0) {
+            System.out.println(nRetried.get() + " duplicate records " +
+                               "retried with a new ssn, " + nSkipped.get() +
+                               " records skipped");
+        }
+        store.close();
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    private static long rate(long count, long elapsedMs) {
+        return (elapsedMs == 0) ? 0 : (count * 1000) / elapsedMs;
+    }
+
+    /*
+     * Generates and writes rows for the parallel load mode. Each batch of
+     * rows shares the same zipcode so it can be written with a single call
+     * to TableAPI.execute. The Row instances, along with their phoneinfo map
+     * and address record, and the buffers used to build the generated
+     * strings are created once and refilled for every batch; which is
+     * possible because execute is done with the rows when it returns.
+     */
+    private final class RowLoader implements Runnable {
+
+        private final SplittableRandom random;
+        private final AtomicLong nextRow;
+        private final AtomicLong nWritten;
+        private final AtomicLong nRetried;
+        private final AtomicLong nSkipped;
+        private final AtomicReference<RuntimeException> failure;
+
+        private final TableOperationFactory factory =
+            tableAPI.getTableOperationFactory();
+        private final Row[] rows = new Row[batchSize];
+        private final byte[][] licenses = new byte[batchSize][];
+        private final char[] zipBuf = new char[5];
+        private final char[] phoneBuf = "000-000-0000".toCharArray();
+        private List<TableOperation> ops =
+            new ArrayList<TableOperation>(batchSize);
+        private List<TableOperation> retryOps =
+            new ArrayList<TableOperation>(batchSize);
+
+        RowLoader(SplittableRandom random,
+                  AtomicLong nextRow,
+                  AtomicLong nWritten,
+                  AtomicLong nRetried,
+                  AtomicLong nSkipped,
+                  AtomicReference<RuntimeException> failure) {
+            this.random = random;
+            this.nextRow = nextRow;
+            this.nWritten = nWritten;
+            this.nRetried = nRetried;
+            this.nSkipped = nSkipped;
+            this.failure = failure;
+
+            for (int i = 0; i < batchSize; i++) {
+                rows[i] = table.createRow();
+                rows[i].putMap("phoneinfo");
+                rows[i].putRecord("address");
+                licenses[i] = new byte[9];
+                licenses[i][0] = 'S';
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (failure.get() == null) {
+                    final long first = nextRow.getAndAdd(batchSize);
+                    if (first >= nOps) {
+                        break;
+                    }
+                    loadBatch((int) Math.min(batchSize, nOps - first));
+                }
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            }
+        }
+
+        private void loadBatch(int nRows) {
+
+            /* Generate the zipcode shared by all the rows of the batch */
+            int zip = random.nextInt(100000);
+            final int zipInt = zip;
+            for (int i = zipBuf.length - 1; i >= 0; i--) {
+                zipBuf[i] = (char) ('0' + (zip % 10));
+                zip /= 10;
+            }
+            final String zipStr = new String(zipBuf);
+
+            ops.clear();
+            for (int i = 0; i < nRows; i++) {
+                fillRow(rows[i], licenses[i], zipStr, zipInt);
+                ops.add(factory.createPutIfAbsent(rows[i], null, false));
+            }
+
+            /*
+             * Rows whose primary key already exists are not written. Like
+             * the single row mode, change their ssn and try them again.
+             */
+            int retries = 0;
+            while (true) {
+                final List<TableOperationResult> results;
+                try {
+                    results = tableAPI.execute(ops, null);
+                } catch (TableOpExecutionException e) {
+                    /* Not expected, no operation aborts when it fails */
+                    throw new IllegalStateException(e);
+                }
+                retryOps.clear();
+                for (int i = 0; i < results.size(); i++) {
+                    if (results.get(i).getSuccess()) {
+                        continue;
+                    }
+                    final Row row = ops.get(i).getRow();
+                    row.put("ssn", nextSsn());
+                    retryOps.add(factory.createPutIfAbsent(row, null, false));
+                }
+                nWritten.addAndGet(ops.size() - retryOps.size());
+                if (retryOps.isEmpty()) {
+                    return;
+                }
+                if (++retries > MAX_DUPLICATE_RETRIES) {
+                    nSkipped.addAndGet(retryOps.size());
+                    return;
+                }
+                nRetried.addAndGet(retryOps.size());
+
+                final List<TableOperation> tmp = ops;
+                ops = retryOps;
+                retryOps = tmp;
+            }
+        }
+
+        private void fillRow(Row row,
+                             byte[] license,
+                             String zipStr,
+                             int zipInt) {
+
+            row.put("zipcode", zipStr);
+            row.put("ssn", nextSsn());
+            row.put("lastname",
+                    LAST_NAMES[random.nextInt(LAST_NAMES.length)]);
+
+            if (random.nextBoolean()) {
+                row.put("firstname", FIRST_NAMES_MALE[
+                            random.nextInt(FIRST_NAMES_MALE.length)]);
+                row.putEnum("gender", "male");
+            } else {
+                row.put("firstname", FIRST_NAMES_FEMALE[
+                            random.nextInt(FIRST_NAMES_FEMALE.length)]);
+                row.putEnum("gender", "female");
+            }
+
+            /* license[0] is always 'S' */
+            for (int i = 1; i < license.length; i++) {
+                license[i] = (byte) ('0' + random.nextInt(10));
+            }
+            row.putFixed("license", license);
+
+            final MapValue phoneMap = row.get("phoneinfo").asMap();
+            for (String phonetype : PHONE_TYPE) {
+                AREA_CODES[random.nextInt(AREA_CODES.length)]
+                    .getChars(0, 3, phoneBuf, 0);
+                EXCHANGES[random.nextInt(EXCHANGES.length)]
+                    .getChars(0, 3, phoneBuf, 4);
+                for (int j = 8; j < phoneBuf.length; j++) {
+                    phoneBuf[j] = (char) ('0' + random.nextInt(10));
+                }
+                phoneMap.put(phonetype, new String(phoneBuf));
+            }
+
+            final RecordValue addressRec = row.get("address").asRecord();
+            addressRec.put("number", random.nextInt(99999));
+            addressRec.put("street",
+                           STREET_NAMES[random.nextInt(STREET_NAMES.length)]);
+            addressRec.put("unit", random.nextInt(11) - 1);
+            addressRec.put("city",
+                           CITY_NAMES[random.nextInt(CITY_NAMES.length)]);
+            addressRec.put("state", STATE_ABBREVIATIONS[
+                               random.nextInt(STATE_ABBREVIATIONS.length)]);
+            addressRec.put("zip", zipInt);
+
+            /* The number of vehicles varies, so the array is recreated */
+            final ArrayValue vehicleArray = row.putArray("vehicleinfo");
+            final int nVehicles = 1 + random.nextInt(3);
+            for (int i = 0; i < nVehicles; i++) {
+                final int typeIndx = random.nextInt(TYPES.length);
+                final int makeIndx = random.nextInt(MAKES.length);
+                final String[] models = MODELS[typeIndx][makeIndx];
+                final float value = (VALUE_MULT[typeIndx] * 10371.59f) +
+                                    (float) random.nextDouble();
+
+                final RecordValue vehicleRec = vehicleArray.addRecord();
+                vehicleRec.put("type", TYPES[typeIndx]);
+                vehicleRec.put("make", MAKES[makeIndx]);
+                vehicleRec.put("model",
+                               models[random.nextInt(models.length)]);
+                vehicleRec.put("class",
+                               CLASSES[random.nextInt(CLASSES.length)]);
+                vehicleRec.put("color",
+                               COLORS[random.nextInt(COLORS.length)]);
+                vehicleRec.put("value", value);
+                vehicleRec.put("tax", (double) (TAX_RATE * value));
+                vehicleRec.put("paid", random.nextBoolean());
+            }
+        }
+
+        /* A 9 digit ssn, like the single row mode generates */
+        private long nextSsn() {
+            return random.nextLong(1000000000L);
+        }
+    }
+
     private void deleteExistingData() {
 
         /* Get an iterator over all the primary keys in the table. */
@@ -773,4 +1120,20 @@ public final class LoadRmvTable {
 
     /* For computing tax on a vehicle's value. */
     private static final float TAX_RATE = 0.0273f;
+
+    /*
+     * The models and value multiplier for each vehicle type and make, indexed
+     * like TYPES and MAKES, used by the parallel load mode instead of
+     * comparing strings for every vehicle.
+     */
+    private static final String[][][] MODELS = {
+        /* auto */
+        {MODELS_FORD_AUTO, MODELS_GM_AUTO, MODELS_CHRYSLER_AUTO},
+        /* truck */
+        {MODELS_FORD_TRUCK, MODELS_GM_TRUCK, MODELS_CHRYSLER_TRUCK},
+        /* suv */
+        {MODELS_FORD_SUV, MODELS_GM_SUV, MODELS_CHRYSLER_SUV}
+    };
+
+    private static final float[] VALUE_MULT = {2.0f, 3.0f, 4.0f};
 }
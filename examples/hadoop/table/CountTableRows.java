@@ -14,6 +14,7 @@
 package hadoop.table;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -22,6 +23,8 @@ import oracle.kv.hadoop.table.TableInputFormat;
 import oracle.kv.table.PrimaryKey;
 import oracle.kv.table.Row;
 
+import hadoop.BalancedInputFormat;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
@@ -51,6 +54,23 @@ import org.apache.hadoop.util.ToolRunner;
  * of records in the table. This MapReduce task is similar to the ubiquitous
  * Hadoop MapReduce WordCount example.
  * <p>
+ * Because every row of a table produces the same key, emitting a pair per
+ * row makes the shuffle as large as the table. The Reducer is therefore also
+ * used as the job's combiner, and the Mapper supports in-mapper combining,
+ * enabled with <code>-Dhadoop.table.CountTableRows.combine=true</code>, in
+ * which partial counts are kept in a bounded map (see
+ * <code>hadoop.table.CountTableRows.maxCombineEntries</code>) and emitted
+ * once when the task finishes; reducing the map output to a single pair per
+ * Mapper task. Per-row output of the Mapper is logged at DEBUG level for
+ * every Nth row only, as set by
+ * <code>hadoop.table.CountTableRows.logSampleInterval</code>. The number of
+ * rows mapped and pairs emitted is reported in the job counters.
+ * <p>
+ * When the job is run with <code>-Dhadoop.BalancedInputFormat.enabled=true</code>
+ * the splits generated by <code>TableInputFormat</code> are rebalanced by
+ * <code>hadoop.BalancedInputFormat</code>, which subdivides large splits,
+ * combines small ones and prints a split-balance report at submit time.
+ * <p>
  * The <code>TableInputFormat</code> and related classes are located in the
  * <code>lib/kvclient.jar</code> file, so kvclient.jar must be included in
  * the Hadoop <em>libjars</em> classpath at runtime. Additionally, this class
@@ -121,8 +141,69 @@ public class CountTableRows extends Configured implements Tool {
         private static final Log MAP_TASK_LOGGER =
                                      LogFactory.getLog(THIS_CLASS_NAME);
 
-        private Text word = new Text();
+        /*
+         * Names of the job configuration properties that control the
+         * optional behavior of the Mapper task. They can be set on the
+         * command line; for example,
+         *   -Dhadoop.table.CountTableRows.combine=true
+         */
+        static final String COMBINE_PROPERTY =
+            THIS_CLASS_NAME + ".combine";
+        static final String MAX_COMBINE_ENTRIES_PROPERTY =
+            THIS_CLASS_NAME + ".maxCombineEntries";
+        static final String LOG_SAMPLE_INTERVAL_PROPERTY =
+            THIS_CLASS_NAME + ".logSampleInterval";
+
+        private static final int DEFAULT_MAX_COMBINE_ENTRIES = 10000;
+        private static final int DEFAULT_LOG_SAMPLE_INTERVAL = 100000;
+
+        /* Counter group reporting how much data the Mapper task emits. */
+        private static final String COUNTER_GROUP = THIS_CLASS_NAME;
+        private static final String RECORDS_COUNTER = "Rows mapped";
+        private static final String EMITTED_COUNTER = "Map pairs emitted";
+
+        private final Text word = new Text();
         private static final IntWritable one = new IntWritable(1);
+        private final IntWritable count = new IntWritable();
+
+        /*
+         * Reusable buffer for building the MapReduce key. Because every
+         * row of a table has the same PrimaryKey field names, the key is
+         * only rebuilt when a PrimaryKey with a different field list is
+         * seen.
+         */
+        private final StringBuilder wordBuf = new StringBuilder();
+        private List<String> lastKeyFields;
+        private String lastWord;
+
+        /*
+         * When in-mapper combining is enabled, partial counts are kept in
+         * this map and emitted once per distinct key, rather than emitting
+         * (key, 1) for every row. The map is flushed whenever it reaches
+         * maxCombineEntries, so its memory stays bounded.
+         */
+        private boolean combine;
+        private int maxCombineEntries;
+        private final java.util.Map<String, int[]> partialCounts =
+            new HashMap<String, int[]>();
+
+        /* Per-record debug output is written for every Nth record only. */
+        private long logSampleInterval;
+        private long nRecords;
+        private long nEmitted;
+
+        @Override
+        protected void setup(Context context) {
+            final Configuration conf = context.getConfiguration();
+            combine = conf.getBoolean(COMBINE_PROPERTY, false);
+            maxCombineEntries = conf.getInt(MAX_COMBINE_ENTRIES_PROPERTY,
+                                            DEFAULT_MAX_COMBINE_ENTRIES);
+            logSampleInterval = Math.max(1, conf.getLong(
+                LOG_SAMPLE_INTERVAL_PROPERTY, DEFAULT_LOG_SAMPLE_INTERVAL));
+            MAP_TASK_LOGGER.info("in-mapper combining " +
+                                 (combine ? "enabled, max entries = " +
+                                  maxCombineEntries : "disabled"));
+        }
 
         @Override
         public void map(PrimaryKey keyArg, Row valueArg, Context context)
@@ -137,15 +218,69 @@ public class CountTableRows extends Configured implements Tool {
              * value.
              */
             final List<String> keyFieldComponents = keyArg.getFields();
-            MAP_TASK_LOGGER.info(
-                "PrimaryKey field components: " + keyFieldComponents);
-            final StringBuilder wordBuf = new StringBuilder();
-            for (String keyFieldComponent : keyFieldComponents) {
-                wordBuf.append("/" + keyFieldComponent);
+            if (!keyFieldComponents.equals(lastKeyFields)) {
+                wordBuf.setLength(0);
+                for (String keyFieldComponent : keyFieldComponents) {
+                    wordBuf.append('/').append(keyFieldComponent);
+                }
+                lastWord = wordBuf.toString();
+                word.set(lastWord);
+                lastKeyFields = keyFieldComponents;
+            }
+
+            if (nRecords++ % logSampleInterval == 0 &&
+                MAP_TASK_LOGGER.isDebugEnabled()) {
+                MAP_TASK_LOGGER.debug(
+                    "record " + nRecords + ": PrimaryKey field components: " +
+                    keyFieldComponents + ", MapReduce key: " + word);
+            }
+
+            if (!combine) {
+                context.write(word, one);
+                nEmitted++;
+                return;
+            }
+
+            int[] partial = partialCounts.get(lastWord);
+            if (partial == null) {
+                if (partialCounts.size() >= maxCombineEntries) {
+                    flush(context);
+                }
+                partial = new int[1];
+                partialCounts.put(lastWord, partial);
+            }
+            partial[0]++;
+        }
+
+        @Override
+        protected void cleanup(Context context)
+            throws IOException, InterruptedException {
+
+            flush(context);
+            context.getCounter(COUNTER_GROUP, RECORDS_COUNTER)
+                   .increment(nRecords);
+            context.getCounter(COUNTER_GROUP, EMITTED_COUNTER)
+                   .increment(nEmitted);
+            MAP_TASK_LOGGER.info("mapped " + nRecords + " rows, emitted " +
+                                 nEmitted + " pairs");
+        }
+
+        /* Emits and clears the partial counts of in-mapper combining. */
+        private void flush(Context context)
+            throws IOException, InterruptedException {
+
+            for (java.util.Map.Entry<String, int[]> entry :
+                     partialCounts.entrySet()) {
+                word.set(entry.getKey());
+                count.set(entry.getValue()[0]);
+                context.write(word, count);
+                nEmitted++;
+            }
+            partialCounts.clear();
+            /* word was overwritten, reset it to the current key */
+            if (lastWord != null) {
+                word.set(lastWord);
             }
-            word.set(wordBuf.toString());
-            MAP_TASK_LOGGER.info("MapReduce key: " + word);
-            context.write(word, one);
         }
     }
 
@@ -208,9 +343,20 @@ public class CountTableRows extends Configured implements Tool {
         job.setOutputValueClass(IntWritable.class);
 
         job.setMapperClass(Map.class);
+        /*
+         * Summing is associative, so the Reducer can also be used as the
+         * combiner to pre-aggregate the output of each Mapper task before
+         * the shuffle.
+         */
+        job.setCombinerClass(Reduce.class);
         job.setReducerClass(Reduce.class);
 
-        job.setInputFormatClass(TableInputFormat.class);
+        if (job.getConfiguration().getBoolean(
+                BalancedInputFormat.ENABLED_PROPERTY, false)) {
+            BalancedInputFormat.setInputFormat(job, TableInputFormat.class);
+        } else {
+            job.setInputFormatClass(TableInputFormat.class);
+        }
         job.setOutputFormatClass(TextOutputFormat.class);
 
         TableInputFormat.setKVStoreName(args[0]);
@@ -0,0 +1,454 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+
+/**
+ * MetricsCollector polls the MXBeans of a StorageNodeAgent at a fixed
+ * interval, and writes the values that changed to a {@link MetricsFile}. It
+ * is meant to run continuously next to a store, at a small cost to the
+ * client and to the StorageNodeAgent.
+ * <p>
+ * Unlike {@link SnaJmxClient}, which creates MXBean proxies and calls each
+ * getter through bean introspection, the collector reads the MBean info of
+ * each StorageNode, Admin and RepNode MXBean once, when it is found, and
+ * keeps the list of the attributes it samples: the numeric and boolean
+ * attributes, and the string attributes that hold a status or state. A
+ * sample of an MXBean is then a single getAttributes call, which returns
+ * all its attributes in one round trip. The MXBeans are searched for again
+ * every -rediscover samples, to pick up RepNodes and Admins that were
+ * started, and one that is not found when sampled is dropped.
+ * <p>
+ * All the sampling is done by one scheduler thread. On exit, the collector
+ * prints the number of samples and the average client CPU time spent per
+ * MXBean sample, measured with the CPU time of the scheduler thread.
+ * <p>
+ * Description of flags:
+ * <pre>
+ *  -host       -- the host where a JMX-enabled StorageNodeAgent is running
+ *  -port       -- the registry port belonging to the StorageNodeAgent
+ *  -trust      -- optional pathname to the SNA's client.trust file.
+ *                 If -trust is given, then the JMX connection is via SSL.
+ *  -file       -- the metrics file to write (default: metrics.dat)
+ *  -interval   -- the sampling interval in milliseconds (default: 10000)
+ *  -rediscover -- search for MXBeans every this many samples (default: 6)
+ *  -duration   -- stop after this many seconds (default: run until killed)
+ *  -verbose    -- print the cost of each sample
+ * </pre>
+ */
+public class MetricsCollector {
+
+    static final String DOMAIN = "Oracle NoSQL Database";
+
+    private String host;
+    private int port;
+    private String trustStore;
+    private String fileName = "metrics.dat";
+    private long intervalMs = 10000;
+    private int rediscoverSamples = 6;
+    private long durationSecs;
+    private boolean verbose;
+
+    private SnaJmxClient client;
+    private MetricsFile.Writer writer;
+    private ScheduledExecutorService scheduler;
+
+    /* Accessed only by the scheduler thread */
+    private final Map<ObjectName, BeanSampler> samplers =
+        new LinkedHashMap<ObjectName, BeanSampler>();
+    private final ThreadMXBean threadBean =
+        ManagementFactory.getThreadMXBean();
+    private long nSamples;
+    private long nBeanSamples;
+    private long totalCpuNanos;
+    private long totalWallNanos;
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /**
+     * Runs the MetricsCollector command line program.
+     */
+    public static void main(String args[]) {
+        try {
+            MetricsCollector collector = new MetricsCollector(args);
+            collector.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    MetricsCollector(String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if (thisArg.equals("-host")) {
+                if (argc < nArgs) {
+                    host = argv[argc++];
+                } else {
+                    usage("-host requires an argument");
+                }
+            } else if (thisArg.equals("-port")) {
+                if (argc < nArgs) {
+                    port = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-port requires an argument");
+                }
+            } else if (thisArg.equals("-trust")) {
+                if (argc < nArgs) {
+                    trustStore = argv[argc++];
+                } else {
+                    usage("-trust requires an argument");
+                }
+            } else if (thisArg.equals("-file")) {
+                if (argc < nArgs) {
+                    fileName = argv[argc++];
+                } else {
+                    usage("-file requires an argument");
+                }
+            } else if (thisArg.equals("-interval")) {
+                if (argc < nArgs) {
+                    intervalMs = Long.parseLong(argv[argc++]);
+                } else {
+                    usage("-interval requires an argument");
+                }
+            } else if (thisArg.equals("-rediscover")) {
+                if (argc < nArgs) {
+                    rediscoverSamples = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-rediscover requires an argument");
+                }
+            } else if (thisArg.equals("-duration")) {
+                if (argc < nArgs) {
+                    durationSecs = Long.parseLong(argv[argc++]);
+                } else {
+                    usage("-duration requires an argument");
+                }
+            } else if (thisArg.equals("-verbose")) {
+                verbose = true;
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        if (host == null || port == 0) {
+            usage("-host and -port are required");
+        }
+        if (intervalMs <= 0 || rediscoverSamples <= 0) {
+            usage("-interval and -rediscover must be positive");
+        }
+    }
+
+    private void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t-host <hostname> -port <registry port>\n" +
+             "\t[-trust <path to client.trust>]\n" +
+             "\t[-file <metrics file>] (default: metrics.dat)\n" +
+             "\t[-interval <milliseconds>] (default: 10000)\n" +
+             "\t[-rediscover <samples>] (default: 6)\n" +
+             "\t[-duration <seconds>] (default: until killed)\n" +
+             "\t[-verbose]");
+        System.exit(1);
+    }
+
+    void run() throws Exception {
+
+        /* If we will use SSL, set the trustStore property */
+        if (trustStore != null) {
+            System.getProperties().setProperty
+                ("javax.net.ssl.trustStore", trustStore);
+        }
+        client = new SnaJmxClient(host, port, trustStore != null, false);
+        writer = new MetricsFile.Writer(new FileOutputStream(fileName));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "MetricsCollector");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                close();
+            }
+        });
+
+        System.out.println("Writing samples every " + intervalMs +
+                           " ms to " + fileName);
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                sample();
+            }
+        }, 0, intervalMs, TimeUnit.MILLISECONDS);
+
+        if (durationSecs > 0) {
+            Thread.sleep(durationSecs * 1000);
+            close();
+        } else {
+            /* Run until the user hits C-c, which calls close */
+            Thread.sleep(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Stops sampling, closes the file and the connection, and prints the
+     * cost of the samples.
+     */
+    void close() {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(intervalMs + 10000,
+                                       TimeUnit.MILLISECONDS);
+            writer.close();
+            client.jmxc.close();
+        } catch (Exception e) {
+            System.err.println("Error closing the collector: " + e);
+        }
+        System.out.println(String.format(
+            "%d samples of %d MXBeans, %.1f us client CPU and %.2f ms " +
+            "elapsed per MXBean sample",
+            nSamples, nBeanSamples,
+            (nBeanSamples == 0) ? 0 : totalCpuNanos / 1e3 / nBeanSamples,
+            (nBeanSamples == 0) ? 0 : totalWallNanos / 1e6 / nBeanSamples));
+    }
+
+    /*
+     * Takes one sample of all the MXBeans. Called on the scheduler thread;
+     * it must not throw, or the scheduler would cancel the next samples.
+     */
+    private void sample() {
+        try {
+            if (nSamples % rediscoverSamples == 0) {
+                discover();
+            }
+
+            final long cpuStart = threadBean.getCurrentThreadCpuTime();
+            final long start = System.nanoTime();
+            int nBeans = 0;
+
+            writer.beginSample(System.currentTimeMillis());
+            final Iterator<BeanSampler> iter = samplers.values().iterator();
+            while (iter.hasNext()) {
+                final BeanSampler sampler = iter.next();
+                try {
+                    sampler.sample(client.mbsc, writer);
+                    nBeans++;
+                } catch (InstanceNotFoundException e) {
+                    System.err.println("MXBean " + sampler.name +
+                                       " is gone, no longer sampled");
+                    iter.remove();
+                }
+            }
+            writer.endSample();
+
+            final long cpu = threadBean.getCurrentThreadCpuTime() - cpuStart;
+            final long wall = System.nanoTime() - start;
+            nSamples++;
+            nBeanSamples += nBeans;
+            totalCpuNanos += cpu;
+            totalWallNanos += wall;
+            if (verbose) {
+                System.out.println(String.format(
+                    "Sampled %d MXBeans: %.1f us client CPU, %.2f ms elapsed",
+                    nBeans, cpu / 1e3, wall / 1e6));
+            }
+        } catch (Exception e) {
+            /*
+             * A connection problem, retried at the next sample. The partial
+             * sample is discarded, so the next one is encoded against the
+             * last values that were written.
+             */
+            writer.abortSample();
+            System.err.println("Sample failed: " + e);
+        }
+    }
+
+    /*
+     * Finds the StorageNode, Admin and RepNode MXBeans, and creates the
+     * samplers of the new ones.
+     */
+    private void discover() throws IOException, JMException {
+        final Set<ObjectName> names =
+            client.mbsc.queryNames(new ObjectName(DOMAIN + ":*"), null);
+        for (ObjectName name : names) {
+            final String type = name.getKeyProperty("type");
+            if (samplers.containsKey(name) ||
+                !("StorageNode".equals(type) ||
+                  "Admin".equals(type) ||
+                  "RepNode".equals(type))) {
+                continue;
+            }
+            final BeanSampler sampler =
+                new BeanSampler(client.mbsc, name, writer);
+            samplers.put(name, sampler);
+            System.out.println("Sampling " + sampler.attributes.length +
+                               " attributes of " + name);
+        }
+    }
+
+    /**
+     * Samples the attributes of one MXBean, chosen from its MBean info when
+     * the sampler is created.
+     */
+    static class BeanSampler {
+
+        final ObjectName name;
+        final String[] attributes;
+        private final int[] seriesIds;
+        private final int[] types;
+        private final Map<String, Integer> positions =
+            new HashMap<String, Integer>();
+
+        BeanSampler(final MBeanServerConnection mbsc,
+                    final ObjectName name,
+                    final MetricsFile.Writer writer)
+            throws IOException, JMException {
+
+            this.name = name;
+            final String beanName = name.getKeyPropertyListString();
+            final MBeanAttributeInfo[] infos =
+                mbsc.getMBeanInfo(name).getAttributes();
+            final String[] selected = new String[infos.length];
+            final int[] selectedTypes = new int[infos.length];
+            int n = 0;
+            for (MBeanAttributeInfo info : infos) {
+                if (!info.isReadable()) {
+                    continue;
+                }
+                final int type = seriesType(info);
+                if (type >= 0) {
+                    selected[n] = info.getName();
+                    selectedTypes[n] = type;
+                    n++;
+                }
+            }
+            attributes = new String[n];
+            seriesIds = new int[n];
+            types = new int[n];
+            for (int i = 0; i < n; i++) {
+                attributes[i] = selected[i];
+                types[i] = selectedTypes[i];
+                seriesIds[i] = writer.define(beanName, attributes[i], types[i]);
+                positions.put(attributes[i], i);
+            }
+        }
+
+        /*
+         * Returns the MetricsFile type of the values of an attribute, or -1
+         * if the attribute is not sampled.
+         */
+        private static int seriesType(final MBeanAttributeInfo info) {
+            final String type = info.getType();
+            if ("int".equals(type) || "long".equals(type) ||
+                "short".equals(type) || "boolean".equals(type) ||
+                "java.lang.Integer".equals(type) ||
+                "java.lang.Long".equals(type) ||
+                "java.lang.Boolean".equals(type)) {
+                return MetricsFile.TYPE_LONG;
+            }
+            if ("float".equals(type) || "double".equals(type) ||
+                "java.lang.Float".equals(type) ||
+                "java.lang.Double".equals(type)) {
+                return MetricsFile.TYPE_SCALED;
+            }
+            if ("java.lang.String".equals(type) &&
+                (info.getName().endsWith("Status") ||
+                 info.getName().endsWith("State"))) {
+                return MetricsFile.TYPE_STRING;
+            }
+            return -1;
+        }
+
+        void sample(final MBeanServerConnection mbsc,
+                    final MetricsFile.Writer writer)
+            throws IOException, InstanceNotFoundException {
+
+            final List<Attribute> values;
+            try {
+                values = mbsc.getAttributes(name, attributes).asList();
+            } catch (InstanceNotFoundException e) {
+                throw e;
+            } catch (JMException e) {
+                throw new IOException(e);
+            }
+
+            /*
+             * The attributes are returned in the order requested, less any
+             * that could not be read.
+             */
+            for (int i = 0; i < values.size(); i++) {
+                final Attribute attribute = values.get(i);
+                int pos = i;
+                if (!attributes[pos].equals(attribute.getName())) {
+                    final Integer p = positions.get(attribute.getName());
+                    if (p == null) {
+                        continue;
+                    }
+                    pos = p;
+                }
+                final Object value = attribute.getValue();
+                if (value == null) {
+                    continue;
+                }
+                switch (types[pos]) {
+                case MetricsFile.TYPE_LONG:
+                    writer.put(seriesIds[pos], (value instanceof Boolean) ?
+                               (((Boolean) value) ? 1L : 0L) :
+                               ((Number) value).longValue());
+                    break;
+                case MetricsFile.TYPE_SCALED:
+                    writer.put(seriesIds[pos],
+                               ((Number) value).doubleValue());
+                    break;
+                default:
+                    writer.put(seriesIds[pos], value.toString());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The compact time-series format written by {@link MetricsCollector}.
+ * <p>
+ * A file holds the values of a set of series, each one attribute of one
+ * MBean, sampled over time. It starts with the magic number and version,
+ * followed by records of two kinds:
+ * <ul>
+ * <li>a definition, which assigns the next series id, starting at 0, to an
+ * MBean attribute, with the type of its values;</li>
+ * <li>a sample, the time in milliseconds since the previous sample, or since
+ * the epoch for the first one, followed by the series whose value changed
+ * since the previous sample: the id of each, and the difference from its
+ * previous value for numbers, or the new value for strings.</li>
+ * </ul>
+ * Ids, times and differences are written as variable-length integers, so an
+ * unchanged counter costs nothing, and a counter that changes a little costs
+ * two or three bytes. Floating-point values are stored in thousandths.
+ * <p>
+ * To print the content of a file, run:
+ * <pre>
+ * java -cp classes jmx.MetricsFile -file metrics.dat
+ * </pre>
+ */
+public class MetricsFile {
+
+    static final int MAGIC = 0x4b564d54;
+    static final int VERSION = 1;
+
+    private static final int DEFINE = 1;
+    private static final int SAMPLE = 2;
+
+    /** An integer or boolean value. */
+    public static final int TYPE_LONG = 0;
+    /** A floating-point value, stored in thousandths. */
+    public static final int TYPE_SCALED = 1;
+    /** A string value. */
+    public static final int TYPE_STRING = 2;
+
+    static final double SCALE = 1000;
+
+    /**
+     * Prints the samples of a file as text, one line per changed value.
+     */
+    public static void main(String args[]) {
+        String fileName = null;
+        for (int i = 0; i < args.length; i++) {
+            if ("-file".equals(args[i]) && i + 1 < args.length) {
+                fileName = args[++i];
+            } else {
+                fileName = null;
+                break;
+            }
+        }
+        if (fileName == null) {
+            System.err.println("Usage: MetricsFile -file <metrics file>");
+            System.exit(1);
+        }
+
+        final SimpleDateFormat format =
+            new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        try {
+            final Reader reader =
+                new Reader(new FileInputStream(fileName));
+            try {
+                while (reader.next()) {
+                    final String time =
+                        format.format(new Date(reader.getTime()));
+                    for (int i = 0; i < reader.getChangedCount(); i++) {
+                        final int id = reader.getChangedId(i);
+                        System.out.println(time + " " +
+                                           reader.getBeanName(id) + " " +
+                                           reader.getAttribute(id) + " " +
+                                           reader.getValue(id));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a metrics file. A Writer is not thread safe: each sample is
+     * written with {@link #beginSample}, the put methods and
+     * {@link #endSample}, by one thread at a time, putting each series at
+     * most once per sample. A sample that cannot be completed is discarded
+     * with {@link #abortSample}: the values put in a sample only become the
+     * last values of their series, which the next deltas are encoded
+     * against, when the sample is written.
+     */
+    public static class Writer {
+
+        private final DataOutputStream out;
+
+        /* The sample being written, with its count of changed series */
+        private final ByteArrayOutputStream sampleBytes =
+            new ByteArrayOutputStream();
+        private final DataOutputStream sample =
+            new DataOutputStream(sampleBytes);
+        private int nChanged;
+
+        /* The series changed by the sample, and their new values */
+        private int[] changedIds = new int[64];
+        private long[] newValues = new long[64];
+        private String[] newStrings = new String[64];
+
+        private int[] types = new int[64];
+        private long[] lastValues = new long[64];
+        private String[] lastStrings = new String[64];
+        private int nSeries;
+        private long sampleTime;
+        private long lastTime;
+
+        public Writer(final OutputStream out) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+            this.out.writeInt(MAGIC);
+            this.out.writeByte(VERSION);
+        }
+
+        /**
+         * Defines a series and returns its id.
+         */
+        public int define(final String beanName,
+                          final String attribute,
+                          final int type) throws IOException {
+            if (nSeries == types.length) {
+                types = Arrays.copyOf(types, nSeries * 2);
+                lastValues = Arrays.copyOf(lastValues, nSeries * 2);
+                lastStrings = Arrays.copyOf(lastStrings, nSeries * 2);
+                newValues = Arrays.copyOf(newValues, nSeries * 2);
+                newStrings = Arrays.copyOf(newStrings, nSeries * 2);
+            }
+            final int id = nSeries++;
+            types[id] = type;
+            out.writeByte(DEFINE);
+            writeVarLong(out, id);
+            out.writeUTF(beanName);
+            out.writeUTF(attribute);
+            out.writeByte(type);
+            return id;
+        }
+
+        public void beginSample(final long timeMillis) {
+            abortSample();
+            sampleTime = timeMillis;
+        }
+
+        /**
+         * Discards the sample being written, leaving the last values of the
+         * series as they were before it began.
+         */
+        public void abortSample() {
+            sampleBytes.reset();
+            nChanged = 0;
+        }
+
+        /**
+         * Records the value of a TYPE_LONG or TYPE_SCALED series, if it
+         * changed.
+         */
+        public void put(final int id, final long value) throws IOException {
+            final long delta = value - lastValues[id];
+            if (delta != 0) {
+                newValues[id] = value;
+                addChanged(id);
+                writeVarLong(sample, id);
+                writeVarLong(sample, (delta << 1) ^ (delta >> 63));
+            }
+        }
+
+        /**
+         * Records the value of a TYPE_SCALED series, if it changed.
+         */
+        public void put(final int id, final double value) throws IOException {
+            put(id, Math.round(value * SCALE));
+        }
+
+        /**
+         * Records the value of a TYPE_STRING series, if it changed.
+         */
+        public void put(final int id, final String value) throws IOException {
+            final String s = (value == null) ? "" : value;
+            if (!s.equals(lastStrings[id])) {
+                newStrings[id] = s;
+                addChanged(id);
+                writeVarLong(sample, id);
+                sample.writeUTF(s);
+            }
+        }
+
+        /**
+         * Writes the sample and flushes the file, so that the samples
+         * written so far can be read while the file is being written.
+         */
+        public void endSample() throws IOException {
+            out.writeByte(SAMPLE);
+            writeVarLong(out, sampleTime - lastTime);
+            writeVarLong(out, nChanged);
+            sampleBytes.writeTo(out);
+            out.flush();
+            lastTime = sampleTime;
+            for (int i = 0; i < nChanged; i++) {
+                final int id = changedIds[i];
+                if (types[id] == TYPE_STRING) {
+                    lastStrings[id] = newStrings[id];
+                } else {
+                    lastValues[id] = newValues[id];
+                }
+            }
+            abortSample();
+        }
+
+        private void addChanged(final int id) {
+            if (nChanged == changedIds.length) {
+                changedIds = Arrays.copyOf(changedIds, nChanged * 2);
+            }
+            changedIds[nChanged++] = id;
+        }
+
+        public int getType(final int id) {
+            return types[id];
+        }
+
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads a metrics file one sample at a time, keeping the current value
+     * of every series.
+     */
+    public static class Reader {
+
+        private final DataInputStream in;
+
+        private final List<String> beanNames = new ArrayList<String>();
+        private final List<String> attributes = new ArrayList<String>();
+        private int[] types = new int[64];
+        private long[] values = new long[64];
+        private String[] strings = new String[64];
+
+        private int[] changed = new int[64];
+        private int nChanged;
+        private long time;
+
+        public Reader(final InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a metrics file");
+            }
+            final int version = this.in.readByte();
+            if (version != VERSION) {
+                throw new IOException(
+                    "Unsupported metrics file version: " + version);
+            }
+        }
+
+        /**
+         * Reads the next sample, and returns false at the end of the file.
+         */
+        public boolean next() throws IOException {
+            while (true) {
+                final int record = in.read();
+                if (record < 0) {
+                    return false;
+                }
+                if (record == DEFINE) {
+                    readDefine();
+                } else if (record == SAMPLE) {
+                    readSample();
+                    return true;
+                } else {
+                    throw new IOException("Invalid record type: " + record);
+                }
+            }
+        }
+
+        private void readDefine() throws IOException {
+            final int id = (int) readVarLong(in);
+            if (id != beanNames.size()) {
+                throw new IOException("Invalid series id: " + id);
+            }
+            beanNames.add(in.readUTF());
+            attributes.add(in.readUTF());
+            if (id == types.length) {
+                types = Arrays.copyOf(types, id * 2);
+                values = Arrays.copyOf(values, id * 2);
+                strings = Arrays.copyOf(strings, id * 2);
+                changed = Arrays.copyOf(changed, id * 2);
+            }
+            types[id] = in.readByte();
+        }
+
+        private void readSample() throws IOException {
+            time += readVarLong(in);
+            nChanged = (int) readVarLong(in);
+            for (int i = 0; i < nChanged; i++) {
+                final int id = (int) readVarLong(in);
+                if (id >= beanNames.size()) {
+                    throw new IOException("Undefined series id: " + id);
+                }
+                if (types[id] == TYPE_STRING) {
+                    strings[id] = in.readUTF();
+                } else {
+                    final long zigzag = readVarLong(in);
+                    values[id] += (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+                changed[i] = id;
+            }
+        }
+
+        /** Returns the time of the current sample. */
+        public long getTime() {
+            return time;
+        }
+
+        /** Returns the number of series changed by the current sample. */
+        public int getChangedCount() {
+            return nChanged;
+        }
+
+        /** Returns the id of the i-th series changed by the sample. */
+        public int getChangedId(final int i) {
+            return changed[i];
+        }
+
+        /** Returns the number of series defined so far. */
+        public int getSeriesCount() {
+            return beanNames.size();
+        }
+
+        public String getBeanName(final int id) {
+            return beanNames.get(id);
+        }
+
+        public String getAttribute(final int id) {
+            return attributes.get(id);
+        }
+
+        public int getType(final int id) {
+            return types[id];
+        }
+
+        /**
+         * Returns the current value of a series: a Long, Double or String
+         * depending on its type.
+         */
+        public Object getValue(final int id) {
+            switch (types[id]) {
+            case TYPE_STRING:
+                return strings[id];
+            case TYPE_SCALED:
+                return values[id] / SCALE;
+            default:
+                return values[id];
+            }
+        }
+
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /* Writes an unsigned LEB128 integer */
+    static void writeVarLong(final DataOutputStream out, long value)
+        throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(final DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Invalid variable-length integer");
+    }
+}
@@ -0,0 +1,438 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.management.Notification;
+import javax.management.NotificationListener;
+
+/**
+ * Processes the notifications of a StorageNodeAgent away from the JMX
+ * delivery thread, for {@link SnaJmxClient} -listen.
+ * <p>
+ * The pipeline is the NotificationListener: handleNotification only
+ * records the time the notification was received and offers it to a
+ * bounded {@link NotificationQueue}, which never blocks. If the queue is
+ * full, as may happen during a burst of state changes, the notification is
+ * dropped and counted, so that the JMX connection is never held up.
+ * <p>
+ * A single pipeline thread takes the notifications from the queue and
+ * groups them by node, the service the notification is about, such as
+ * rg1-rn2 or admin1, found in its message, and by time window. Within a
+ * window, identical notifications of a node, of the same type and message,
+ * are counted once. At the end of each window, the pipeline passes a
+ * {@link Summary} of each node that had notifications to a {@link Sink},
+ * such as a {@link PrintSink} or a {@link FileSink}, or any in-process
+ * callback implementing the interface.
+ * <p>
+ * The pipeline counts the notifications received, dropped and delivered,
+ * and measures the delivery latency, from the time a notification is
+ * received to the time its summary is passed to the sink, which includes
+ * the wait for the end of its window, and the queue latency, the part of it
+ * spent in the queue. They are returned by {@link #getStatistics}.
+ */
+public class NotificationPipeline implements NotificationListener {
+
+    /* The service ids that identify the node of a notification */
+    private static final Pattern NODE_ID =
+        Pattern.compile("\\b(rg\\d+-rn\\d+|admin\\d+|sn\\d+)\\b");
+
+    private final NotificationQueue<Received> queue;
+    private final long windowMs;
+    private final Sink sink;
+    private final Thread thread;
+    private volatile boolean waiting;
+    private volatile boolean shutdown;
+
+    /* Accessed only by the pipeline thread */
+    private final Map<String, Summary> summaries =
+        new LinkedHashMap<String, Summary>();
+    private long windowStart;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong totalDeliveryNanos = new AtomicLong();
+    private final AtomicLong maxDeliveryNanos = new AtomicLong();
+
+    /**
+     * Creates and starts a pipeline.
+     *
+     * @param capacity the maximum number of notifications waiting in the
+     * queue
+     * @param windowMs the length of the aggregation window in milliseconds
+     * @param sink the sink of the summaries
+     */
+    public NotificationPipeline(final int capacity,
+                                final long windowMs,
+                                final Sink sink) {
+        if (windowMs <= 0) {
+            throw new IllegalArgumentException(
+                "windowMs must be positive: " + windowMs);
+        }
+        queue = new NotificationQueue<Received>(capacity);
+        this.windowMs = windowMs;
+        this.sink = sink;
+        thread = new Thread("NotificationPipeline") {
+            @Override
+            public void run() {
+                process();
+            }
+        };
+        thread.setDaemon(true);
+        windowStart = System.currentTimeMillis();
+        thread.start();
+    }
+
+    /**
+     * Hands the notification off to the pipeline thread. Called on the JMX
+     * delivery thread; never blocks.
+     */
+    @Override
+    public void handleNotification(final Notification notif,
+                                   final Object handback) {
+        received.incrementAndGet();
+        if (!queue.offer(new Received(notif, System.nanoTime()))) {
+            dropped.incrementAndGet();
+            return;
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops the pipeline, after passing the summaries of the notifications
+     * received so far to the sink, and closes the sink.
+     */
+    public void close() throws InterruptedException {
+        shutdown = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics();
+    }
+
+    /*
+     * The loop of the pipeline thread: drains the queue, and flushes the
+     * summaries at the end of each window.
+     */
+    private void process() {
+        try {
+            while (true) {
+                Received r;
+                while ((r = queue.poll()) != null) {
+                    add(r);
+                }
+                final long now = System.currentTimeMillis();
+                final boolean done = shutdown;
+                if (done || now >= windowStart + windowMs) {
+                    /* Take what arrived since the queue was drained */
+                    while ((r = queue.poll()) != null) {
+                        add(r);
+                    }
+                    flush(now);
+                    if (done) {
+                        break;
+                    }
+                    windowStart = now - (now - windowStart) % windowMs;
+                    continue;
+                }
+
+                /*
+                 * Wait for a notification or the end of the window. The
+                 * queue is checked again once the flag is set, so that a
+                 * notification offered in between is not left waiting.
+                 */
+                waiting = true;
+                if (queue.size() == 0 && !shutdown) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(
+                        windowStart + windowMs - now));
+                }
+                waiting = false;
+            }
+        } finally {
+            sink.close();
+        }
+    }
+
+    private void add(final Received r) {
+        final long queueNanos = System.nanoTime() - r.receivedNanos;
+        totalQueueNanos.addAndGet(queueNanos);
+        updateMax(maxQueueNanos, queueNanos);
+
+        final Notification notif = r.notification;
+        final String message = String.valueOf(notif.getMessage());
+        final String node = nodeOf(notif, message);
+        Summary summary = summaries.get(node);
+        if (summary == null) {
+            summary = new Summary(node, windowStart);
+            summaries.put(node, summary);
+        }
+        summary.add(notif.getType() + ": " + message, r.receivedNanos);
+    }
+
+    private void flush(final long now) {
+        if (summaries.isEmpty()) {
+            return;
+        }
+        for (Summary summary : summaries.values()) {
+            summary.windowEnd = now;
+            try {
+                sink.deliver(summary);
+            } catch (RuntimeException e) {
+                System.err.println("Notification sink failed: " + e);
+            }
+            final long deliveredNanos = System.nanoTime();
+            for (int i = 0; i < summary.total; i++) {
+                final long nanos = deliveredNanos - summary.receivedNanos[i];
+                totalDeliveryNanos.addAndGet(nanos);
+                updateMax(maxDeliveryNanos, nanos);
+            }
+            delivered.addAndGet(summary.total);
+        }
+        summaries.clear();
+    }
+
+    private static String nodeOf(final Notification notif,
+                                 final String message) {
+        final Matcher m = NODE_ID.matcher(message);
+        if (m.find()) {
+            return m.group(1);
+        }
+        return String.valueOf(notif.getSource());
+    }
+
+    private static void updateMax(final AtomicLong max, final long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /* A notification and the time it was received */
+    private static class Received {
+        final Notification notification;
+        final long receivedNanos;
+
+        Received(final Notification notification, final long receivedNanos) {
+            this.notification = notification;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /**
+     * The notifications of one node in one window.
+     */
+    public static class Summary {
+
+        private final String node;
+        private final long windowStart;
+        long windowEnd;
+        private int total;
+        private final Map<String, Integer> counts =
+            new LinkedHashMap<String, Integer>();
+        private long[] receivedNanos = new long[8];
+
+        Summary(final String node, final long windowStart) {
+            this.node = node;
+            this.windowStart = windowStart;
+        }
+
+        void add(final String notification, final long nanos) {
+            final Integer count = counts.get(notification);
+            counts.put(notification, (count == null) ? 1 : count + 1);
+            if (total == receivedNanos.length) {
+                receivedNanos = Arrays.copyOf(receivedNanos, total * 2);
+            }
+            receivedNanos[total++] = nanos;
+        }
+
+        /** Returns the node the notifications are about. */
+        public String getNode() {
+            return node;
+        }
+
+        public long getWindowStart() {
+            return windowStart;
+        }
+
+        public long getWindowEnd() {
+            return windowEnd;
+        }
+
+        /** Returns the number of notifications, duplicates included. */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns the distinct notifications, as type: message, in the
+         * order received, with the number of times each was received.
+         */
+        public Map<String, Integer> getCounts() {
+            return Collections.unmodifiableMap(counts);
+        }
+
+        @Override
+        public String toString() {
+            final SimpleDateFormat format =
+                new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            final StringBuilder sb = new StringBuilder();
+            sb.append(format.format(new Date(windowStart))).append(' ')
+              .append(node).append(": ").append(total)
+              .append(" notifications, ").append(counts.size())
+              .append(" distinct");
+            for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+                sb.append("\n    ").append(entry.getKey());
+                if (entry.getValue() > 1) {
+                    sb.append(" (x").append(entry.getValue()).append(')');
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Receives the summaries of a pipeline, on the pipeline thread.
+     */
+    public interface Sink {
+
+        /**
+         * Handles the summary of the notifications of a node in a window.
+         */
+        void deliver(Summary summary);
+
+        /**
+         * Called once, when the pipeline is closed.
+         */
+        void close();
+    }
+
+    /**
+     * A sink printing the summaries to standard output.
+     */
+    public static class PrintSink implements Sink {
+
+        @Override
+        public void deliver(final Summary summary) {
+            System.out.println(summary);
+        }
+
+        @Override
+        public void close() {
+            System.out.flush();
+        }
+    }
+
+    /**
+     * A sink appending the summaries to a file.
+     */
+    public static class FileSink implements Sink {
+
+        private final PrintWriter out;
+
+        public FileSink(final String fileName) throws IOException {
+            out = new PrintWriter(new FileWriter(fileName, true));
+        }
+
+        @Override
+        public void deliver(final Summary summary) {
+            out.println(summary);
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+
+    /**
+     * The counts and latencies of a pipeline at the time it was created.
+     */
+    public class Statistics {
+
+        private final long nReceived = received.get();
+        private final long nDropped = dropped.get();
+        private final long nDelivered = delivered.get();
+        private final long queueNanos = totalQueueNanos.get();
+        private final long maxQueue = maxQueueNanos.get();
+        private final long deliveryNanos = totalDeliveryNanos.get();
+        private final long maxDelivery = maxDeliveryNanos.get();
+
+        public long getReceived() {
+            return nReceived;
+        }
+
+        public long getDropped() {
+            return nDropped;
+        }
+
+        public long getDelivered() {
+            return nDelivered;
+        }
+
+        /** Returns the average time spent in the queue, in microseconds. */
+        public double getAverageQueueMicros() {
+            final long n = nReceived - nDropped;
+            return (n == 0) ? 0 : queueNanos / 1e3 / n;
+        }
+
+        public double getMaxQueueMicros() {
+            return maxQueue / 1e3;
+        }
+
+        /**
+         * Returns the average time from receipt to delivery to the sink, in
+         * milliseconds.
+         */
+        public double getAverageDeliveryMillis() {
+            return (nDelivered == 0) ? 0 : deliveryNanos / 1e6 / nDelivered;
+        }
+
+        public double getMaxDeliveryMillis() {
+            return maxDelivery / 1e6;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d notifications received, %d dropped, %d delivered; " +
+                "queue latency average %.1f us max %.1f us, " +
+                "delivery latency average %.1f ms max %.1f ms",
+                getReceived(), getDropped(), getDelivered(),
+                getAverageQueueMicros(), getMaxQueueMicros(),
+                getAverageDeliveryMillis(), getMaxDeliveryMillis());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue, used by {@link NotificationPipeline} to hand
+ * notifications off from the JMX delivery threads to the pipeline thread.
+ * <p>
+ * The queue is a ring of slots, each with a sequence number telling whether
+ * it is free for the producer of a given position or holds the element for
+ * the consumer of that position. Producers and consumers claim positions
+ * with a compare-and-set of the tail and head counters, so no thread ever
+ * blocks: {@link #offer} returns false when the queue is full, and
+ * {@link #poll} returns null when it is empty. Any number of threads may
+ * offer and poll concurrently.
+ */
+public class NotificationQueue<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a queue holding up to capacity elements, rounded up to a
+     * power of two.
+     */
+    public NotificationQueue(final int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException(
+                "Invalid capacity: " + capacity);
+        }
+        final int n = (capacity == 1) ?
+            1 :
+            Integer.highestOneBit(capacity - 1) << 1;
+        mask = n - 1;
+        elements = new AtomicReferenceArray<E>(n);
+        sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element, unless the queue is full.
+     *
+     * @return whether the element was added
+     */
+    public boolean offer(final E element) {
+        if (element == null) {
+            throw new NullPointerException();
+        }
+        while (true) {
+            final long pos = tail.get();
+            final int slot = (int) pos & mask;
+            final long seq = sequences.get(slot);
+            if (seq == pos) {
+                /* The slot is free: claim the position */
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(slot, element);
+                    sequences.set(slot, pos + 1);
+                    return true;
+                }
+            } else if (seq < pos) {
+                /* The slot still holds the element of the previous lap */
+                return false;
+            }
+            /* Another producer claimed the position, retry */
+        }
+    }
+
+    /**
+     * Removes and returns the oldest element, or returns null if the queue
+     * is empty.
+     */
+    public E poll() {
+        while (true) {
+            final long pos = head.get();
+            final int slot = (int) pos & mask;
+            final long seq = sequences.get(slot);
+            if (seq == pos + 1) {
+                /* The slot holds the element of this position */
+                if (head.compareAndSet(pos, pos + 1)) {
+                    final E element = elements.get(slot);
+                    elements.lazySet(slot, null);
+                    sequences.set(slot, pos + mask + 1);
+                    return element;
+                }
+            } else if (seq <= pos) {
+                /* Not yet written */
+                return null;
+            }
+            /* Another consumer took the position, retry */
+        }
+    }
+
+    /**
+     * Returns the number of elements in the queue, which may be out of date
+     * by the time it is returned.
+     */
+    public int size() {
+        final long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
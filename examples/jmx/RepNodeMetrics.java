@@ -0,0 +1,378 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Derives the throughput and latency of RepNodes over time from the values
+ * of their RepNodeMXBean attributes, sampled periodically, as done by
+ * {@link RepNodeTop}.
+ * <p>
+ * The MXBean reports two kinds of statistics: cumulative ones, such as
+ * CumulativeTotalOps, which count from the start of the RepNode, and
+ * interval ones, such as IntervalLatAvg and Interval99th, which describe
+ * the last completed statistics interval of the RepNode, ending at
+ * IntervalEnd. For each RepNode, this class derives:
+ * <ul>
+ * <li>the throughput, in operations per second, from the increase of the
+ * cumulative operation count between two samples. A decrease means the
+ * RepNode restarted, and the count starts over;</li>
+ * <li>the latency over a window of the last intervals: each interval is
+ * added once, when a sample shows a new IntervalEnd. The average is the
+ * average of the intervals weighted by their operation counts. The 95th and
+ * 99th percentiles are the highest of the intervals: the percentile of a
+ * window cannot be computed from those of its intervals, and the highest is
+ * an upper bound of it.</li>
+ * </ul>
+ * The statistics of a shard combine those of its RepNodes: the sum of their
+ * throughputs, their weighted average latency and their highest
+ * percentiles.
+ * <p>
+ * A RepNode is flagged as divergent when its window average latency is more
+ * than a given factor above the median of all the RepNodes, and above a
+ * minimum, so that idle RepNodes are not flagged. Peers are all the
+ * RepNodes, not only those of the same shard, because a slow RepNode is
+ * more often caused by its host than by its data.
+ * <p>
+ * This class is not thread safe.
+ */
+public class RepNodeMetrics {
+
+    private final int windowSize;
+    private final double divergenceFactor;
+    private final double minDivergentLatencyMs;
+    private final Map<String, Node> nodes = new TreeMap<String, Node>();
+
+    /**
+     * Creates an empty set of RepNode metrics.
+     *
+     * @param windowSize the number of statistics intervals in the latency
+     * window
+     * @param divergenceFactor how many times the median latency a RepNode's
+     * latency must exceed to be divergent
+     * @param minDivergentLatencyMs the latency, in milliseconds, below which
+     * a RepNode is never divergent
+     */
+    public RepNodeMetrics(final int windowSize,
+                          final double divergenceFactor,
+                          final double minDivergentLatencyMs) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException(
+                "windowSize must be positive: " + windowSize);
+        }
+        this.windowSize = windowSize;
+        this.divergenceFactor = divergenceFactor;
+        this.minDivergentLatencyMs = minDivergentLatencyMs;
+    }
+
+    /**
+     * Adds a sample of the RepNodeMXBean of a RepNode.
+     *
+     * @param repNodeId the id of the RepNode, such as rg1-rn1
+     * @param timeMillis the time of the sample
+     * @param cumulativeTotalOps the CumulativeTotalOps attribute
+     * @param intervalEnd the IntervalEnd attribute
+     * @param intervalTotalOps the IntervalTotalOps attribute
+     * @param intervalLatAvg the IntervalLatAvg attribute, in milliseconds
+     * @param interval95th the Interval95th attribute, in milliseconds
+     * @param interval99th the Interval99th attribute, in milliseconds
+     */
+    public void update(final String repNodeId,
+                       final long timeMillis,
+                       final long cumulativeTotalOps,
+                       final long intervalEnd,
+                       final long intervalTotalOps,
+                       final double intervalLatAvg,
+                       final double interval95th,
+                       final double interval99th) {
+        Node node = nodes.get(repNodeId);
+        if (node == null) {
+            node = new Node(repNodeId, windowSize);
+            nodes.put(repNodeId, node);
+        }
+        node.update(timeMillis, cumulativeTotalOps, intervalEnd,
+                    intervalTotalOps, intervalLatAvg, interval95th,
+                    interval99th);
+    }
+
+    /**
+     * Sets the service status and replication state of a RepNode, shown by
+     * RepNodeTop. Either may be null if not known.
+     */
+    public void setState(final String repNodeId,
+                         final String serviceStatus,
+                         final String replicationState) {
+        final Node node = nodes.get(repNodeId);
+        if (node != null) {
+            node.serviceStatus = serviceStatus;
+            node.replicationState = replicationState;
+        }
+    }
+
+    /**
+     * Forgets a RepNode that is no longer sampled.
+     */
+    public void remove(final String repNodeId) {
+        nodes.remove(repNodeId);
+    }
+
+    /**
+     * Returns the RepNodes, sorted by id.
+     */
+    public Collection<Node> getNodes() {
+        return nodes.values();
+    }
+
+    /**
+     * Returns the shards of the RepNodes, sorted by id.
+     */
+    public Collection<Shard> getShards() {
+        final Map<String, Shard> shards = new TreeMap<String, Shard>();
+        for (Node node : nodes.values()) {
+            Shard shard = shards.get(node.getShardId());
+            if (shard == null) {
+                shard = new Shard(node.getShardId());
+                shards.put(shard.id, shard);
+            }
+            shard.add(node);
+        }
+        return shards.values();
+    }
+
+    /**
+     * Returns the median of the window average latencies of the RepNodes
+     * that have latency data, or 0 if none has.
+     */
+    public double getMedianLatency() {
+        final List<Double> latencies = new ArrayList<Double>();
+        for (Node node : nodes.values()) {
+            if (node.getWindowOps() > 0) {
+                latencies.add(node.getWindowAvgLatency());
+            }
+        }
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        final double[] sorted = new double[latencies.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        final int mid = sorted.length / 2;
+        return (sorted.length % 2 == 1) ?
+            sorted[mid] :
+            (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    /**
+     * Returns whether the latency of a RepNode diverges from that of its
+     * peers.
+     */
+    public boolean isDivergent(final Node node) {
+        if (node.getWindowOps() == 0 || nodes.size() < 3) {
+            return false;
+        }
+        final double latency = node.getWindowAvgLatency();
+        return latency >= minDivergentLatencyMs &&
+            latency > divergenceFactor * getMedianLatency();
+    }
+
+    /**
+     * The derived statistics of one RepNode.
+     */
+    public static class Node {
+
+        private final String id;
+        String serviceStatus;
+        String replicationState;
+
+        /* Throughput, from the cumulative operation count */
+        private long lastTime = -1;
+        private long lastTotalOps;
+        private double opsPerSec;
+
+        /* The window of intervals, a ring of the last windowSize */
+        private long lastIntervalEnd = -1;
+        private final long[] ops;
+        private final double[] latAvg;
+        private final double[] lat95th;
+        private final double[] lat99th;
+        private int nIntervals;
+        private int next;
+
+        Node(final String id, final int windowSize) {
+            this.id = id;
+            ops = new long[windowSize];
+            latAvg = new double[windowSize];
+            lat95th = new double[windowSize];
+            lat99th = new double[windowSize];
+        }
+
+        void update(final long timeMillis,
+                    final long cumulativeTotalOps,
+                    final long intervalEnd,
+                    final long intervalTotalOps,
+                    final double intervalLatAvg,
+                    final double interval95th,
+                    final double interval99th) {
+            if (lastTime >= 0 && timeMillis > lastTime) {
+                final long delta = cumulativeTotalOps - lastTotalOps;
+                opsPerSec = (delta < 0) ?
+                    0 :
+                    delta * 1000.0 / (timeMillis - lastTime);
+            }
+            lastTime = timeMillis;
+            lastTotalOps = cumulativeTotalOps;
+
+            if (intervalEnd != lastIntervalEnd) {
+                lastIntervalEnd = intervalEnd;
+                ops[next] = intervalTotalOps;
+                latAvg[next] = intervalLatAvg;
+                lat95th[next] = interval95th;
+                lat99th[next] = interval99th;
+                next = (next + 1) % ops.length;
+                nIntervals = Math.min(nIntervals + 1, ops.length);
+            }
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Returns the id of the shard of the RepNode: rg1 for rg1-rn2.
+         */
+        public String getShardId() {
+            final int dash = id.indexOf('-');
+            return (dash < 0) ? id : id.substring(0, dash);
+        }
+
+        public String getServiceStatus() {
+            return serviceStatus;
+        }
+
+        public String getReplicationState() {
+            return replicationState;
+        }
+
+        /**
+         * Returns the throughput between the last two samples.
+         */
+        public double getOpsPerSec() {
+            return opsPerSec;
+        }
+
+        /**
+         * Returns the number of operations in the window.
+         */
+        public long getWindowOps() {
+            long total = 0;
+            for (int i = 0; i < nIntervals; i++) {
+                total += ops[i];
+            }
+            return total;
+        }
+
+        /**
+         * Returns the average latency in the window, in milliseconds.
+         */
+        public double getWindowAvgLatency() {
+            double weighted = 0;
+            long total = 0;
+            for (int i = 0; i < nIntervals; i++) {
+                weighted += latAvg[i] * ops[i];
+                total += ops[i];
+            }
+            return (total == 0) ? 0 : weighted / total;
+        }
+
+        /**
+         * Returns the highest 95th percentile latency of the intervals in
+         * the window, in milliseconds.
+         */
+        public double getWindow95th() {
+            return max(lat95th);
+        }
+
+        /**
+         * Returns the highest 99th percentile latency of the intervals in
+         * the window, in milliseconds.
+         */
+        public double getWindow99th() {
+            return max(lat99th);
+        }
+
+        private double max(final double[] values) {
+            double max = 0;
+            for (int i = 0; i < nIntervals; i++) {
+                if (ops[i] > 0) {
+                    max = Math.max(max, values[i]);
+                }
+            }
+            return max;
+        }
+    }
+
+    /**
+     * The combined statistics of the RepNodes of one shard.
+     */
+    public static class Shard {
+
+        private final String id;
+        private double opsPerSec;
+        private long windowOps;
+        private double weightedLatency;
+        private double window95th;
+        private double window99th;
+
+        Shard(final String id) {
+            this.id = id;
+        }
+
+        void add(final Node node) {
+            opsPerSec += node.getOpsPerSec();
+            final long nodeOps = node.getWindowOps();
+            windowOps += nodeOps;
+            weightedLatency += node.getWindowAvgLatency() * nodeOps;
+            window95th = Math.max(window95th, node.getWindow95th());
+            window99th = Math.max(window99th, node.getWindow99th());
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public double getOpsPerSec() {
+            return opsPerSec;
+        }
+
+        public double getWindowAvgLatency() {
+            return (windowOps == 0) ? 0 : weightedLatency / windowOps;
+        }
+
+        public double getWindow95th() {
+            return window95th;
+        }
+
+        public double getWindow99th() {
+            return window99th;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package jmx;
+
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.management.Attribute;
+import javax.management.InstanceNotFoundException;
+import javax.management.ObjectName;
+
+/**
+ * RepNodeTop shows the throughput and latency of the RepNodes of a
+ * StorageNodeAgent, and of their shards, in a view refreshed in place like
+ * that of the top command. The values are derived by
+ * {@link RepNodeMetrics} from the RepNodeMXBean attributes, and RepNodes
+ * whose latency diverges from that of their peers are marked.
+ * <p>
+ * The attributes are either sampled live, over a JMX connection made as by
+ * {@link SnaJmxClient}, or read from a file written by
+ * {@link MetricsCollector}, in which case a view is printed, without
+ * clearing the terminal, every -interval milliseconds of recorded time.
+ * <p>
+ * Description of flags:
+ * <pre>
+ *  -host       -- the host where a JMX-enabled StorageNodeAgent is running
+ *  -port       -- the registry port belonging to the StorageNodeAgent
+ *  -trust      -- optional pathname to the SNA's client.trust file.
+ *                 If -trust is given, then the JMX connection is via SSL.
+ *  -file       -- read the samples from this metrics file instead
+ *  -interval   -- the refresh interval in milliseconds (default: 5000)
+ *  -window     -- the number of RepNode statistics intervals over which
+ *                 latency is computed (default: 5)
+ *  -divergence -- the factor over the median latency from which a
+ *                 RepNode is marked (default: 2)
+ * </pre>
+ */
+public class RepNodeTop {
+
+    private static final String[] ATTRIBUTES = {
+        "ServiceStatus", "ReplicationState", "CumulativeTotalOps",
+        "IntervalEnd", "IntervalTotalOps", "IntervalLatAvg",
+        "Interval95th", "Interval99th"
+    };
+
+    /* Latencies below this are never marked as divergent */
+    private static final double MIN_DIVERGENT_LATENCY_MS = 1.0;
+
+    private static final String CLEAR_SCREEN = "\033[H\033[2J";
+
+    private String host;
+    private int port;
+    private String trustStore;
+    private String fileName;
+    private long intervalMs = 5000;
+    private int windowSize = 5;
+    private double divergenceFactor = 2;
+
+    private RepNodeMetrics metrics;
+    private final SimpleDateFormat timeFormat =
+        new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Runs the RepNodeTop command line program.
+     */
+    public static void main(String args[]) {
+        try {
+            RepNodeTop top = new RepNodeTop(args);
+            top.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    RepNodeTop(String[] argv) {
+
+        final int nArgs = argv.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+
+            if (thisArg.equals("-host")) {
+                if (argc < nArgs) {
+                    host = argv[argc++];
+                } else {
+                    usage("-host requires an argument");
+                }
+            } else if (thisArg.equals("-port")) {
+                if (argc < nArgs) {
+                    port = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-port requires an argument");
+                }
+            } else if (thisArg.equals("-trust")) {
+                if (argc < nArgs) {
+                    trustStore = argv[argc++];
+                } else {
+                    usage("-trust requires an argument");
+                }
+            } else if (thisArg.equals("-file")) {
+                if (argc < nArgs) {
+                    fileName = argv[argc++];
+                } else {
+                    usage("-file requires an argument");
+                }
+            } else if (thisArg.equals("-interval")) {
+                if (argc < nArgs) {
+                    intervalMs = Long.parseLong(argv[argc++]);
+                } else {
+                    usage("-interval requires an argument");
+                }
+            } else if (thisArg.equals("-window")) {
+                if (argc < nArgs) {
+                    windowSize = Integer.parseInt(argv[argc++]);
+                } else {
+                    usage("-window requires an argument");
+                }
+            } else if (thisArg.equals("-divergence")) {
+                if (argc < nArgs) {
+                    divergenceFactor = Double.parseDouble(argv[argc++]);
+                } else {
+                    usage("-divergence requires an argument");
+                }
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        if (fileName == null && (host == null || port == 0)) {
+            usage("-host and -port, or -file, are required");
+        }
+        if (intervalMs <= 0 || windowSize <= 0) {
+            usage("-interval and -window must be positive");
+        }
+    }
+
+    private void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + getClass().getName());
+        System.out.println
+            ("\t-host <hostname> -port <registry port> " +
+             "[-trust <path to client.trust>]\n" +
+             "\t| -file <metrics file>\n" +
+             "\t[-interval <milliseconds>] (default: 5000)\n" +
+             "\t[-window <intervals>] (default: 5)\n" +
+             "\t[-divergence <factor>] (default: 2)");
+        System.exit(1);
+    }
+
+    void run() throws Exception {
+        metrics = new RepNodeMetrics(windowSize, divergenceFactor,
+                                     MIN_DIVERGENT_LATENCY_MS);
+        if (fileName != null) {
+            replay();
+        } else {
+            sampleLive();
+        }
+    }
+
+    /*
+     * Samples the RepNodeMXBeans and refreshes the view until killed.
+     */
+    private void sampleLive() throws Exception {
+
+        /* If we will use SSL, set the trustStore property */
+        if (trustStore != null) {
+            System.getProperties().setProperty
+                ("javax.net.ssl.trustStore", trustStore);
+        }
+        final SnaJmxClient client =
+            new SnaJmxClient(host, port, trustStore != null, false);
+        try {
+            while (true) {
+                final long now = System.currentTimeMillis();
+                final Set<String> sampled = new HashSet<String>();
+                for (ObjectName name : client.mbsc.queryNames(
+                         SnaJmxClient.repNodeMBeanWildcardName, null)) {
+                    final List<Attribute> values;
+                    try {
+                        values = client.mbsc.getAttributes(
+                            name, ATTRIBUTES).asList();
+                    } catch (InstanceNotFoundException e) {
+                        continue;
+                    }
+                    final Map<String, Object> attributes =
+                        new HashMap<String, Object>();
+                    for (Attribute attribute : values) {
+                        attributes.put(attribute.getName(),
+                                       attribute.getValue());
+                    }
+                    final String id = name.getKeyProperty("id");
+                    update(id, now, attributes);
+                    sampled.add(id);
+                }
+                removeUnsampled(sampled);
+                print(System.out, now, true);
+                Thread.sleep(intervalMs);
+            }
+        } finally {
+            client.jmxc.close();
+        }
+    }
+
+    /*
+     * Reads the samples of a metrics file, printing a view every interval
+     * of recorded time.
+     */
+    private void replay() throws Exception {
+        final MetricsFile.Reader reader =
+            new MetricsFile.Reader(new FileInputStream(fileName));
+        try {
+            /* The series ids of the attributes of each RepNode */
+            final Map<String, Map<String, Integer>> repNodeSeries =
+                new HashMap<String, Map<String, Integer>>();
+            int nSeries = 0;
+            long lastPrint = 0;
+            long time = 0;
+
+            while (reader.next()) {
+                for (; nSeries < reader.getSeriesCount(); nSeries++) {
+                    final ObjectName name =
+                        new ObjectName(MetricsCollector.DOMAIN + ":" +
+                                       reader.getBeanName(nSeries));
+                    if (!"RepNode".equals(name.getKeyProperty("type"))) {
+                        continue;
+                    }
+                    final String id = name.getKeyProperty("id");
+                    Map<String, Integer> series = repNodeSeries.get(id);
+                    if (series == null) {
+                        series = new HashMap<String, Integer>();
+                        repNodeSeries.put(id, series);
+                    }
+                    series.put(reader.getAttribute(nSeries), nSeries);
+                }
+
+                time = reader.getTime();
+                for (Map.Entry<String, Map<String, Integer>> entry :
+                         repNodeSeries.entrySet()) {
+                    final Map<String, Object> attributes =
+                        new HashMap<String, Object>();
+                    for (Map.Entry<String, Integer> series :
+                             entry.getValue().entrySet()) {
+                        attributes.put(series.getKey(),
+                                       reader.getValue(series.getValue()));
+                    }
+                    update(entry.getKey(), time, attributes);
+                }
+                if (time - lastPrint >= intervalMs) {
+                    print(System.out, time, false);
+                    lastPrint = time;
+                }
+            }
+            if (time != lastPrint) {
+                print(System.out, time, false);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void update(final String id,
+                        final long time,
+                        final Map<String, Object> attributes) {
+        metrics.update(id, time,
+                       toLong(attributes.get("CumulativeTotalOps")),
+                       toLong(attributes.get("IntervalEnd")),
+                       toLong(attributes.get("IntervalTotalOps")),
+                       toDouble(attributes.get("IntervalLatAvg")),
+                       toDouble(attributes.get("Interval95th")),
+                       toDouble(attributes.get("Interval99th")));
+        final Object status = attributes.get("ServiceStatus");
+        final Object state = attributes.get("ReplicationState");
+        metrics.setState(id,
+                         (status == null) ? null : status.toString(),
+                         (state == null) ? null : state.toString());
+    }
+
+    private void removeUnsampled(final Set<String> sampled) {
+        final Set<String> gone = new HashSet<String>();
+        for (RepNodeMetrics.Node node : metrics.getNodes()) {
+            if (!sampled.contains(node.getId())) {
+                gone.add(node.getId());
+            }
+        }
+        for (String id : gone) {
+            metrics.remove(id);
+        }
+    }
+
+    private static long toLong(final Object value) {
+        return (value instanceof Number) ? ((Number) value).longValue() : 0;
+    }
+
+    private static double toDouble(final Object value) {
+        return (value instanceof Number) ? ((Number) value).doubleValue() : 0;
+    }
+
+    /*
+     * Prints the view: a line per shard, followed by a line per RepNode of
+     * the shard.
+     */
+    private void print(final PrintStream out,
+                       final long time,
+                       final boolean clear) {
+        final StringBuilder sb = new StringBuilder();
+        if (clear) {
+            sb.append(CLEAR_SCREEN);
+        }
+        sb.append(String.format(
+            "RepNodeTop %s  latency window %d intervals, " +
+            "median %.2f ms%n%n",
+            timeFormat.format(new Date(time)), windowSize,
+            metrics.getMedianLatency()));
+        sb.append(String.format("%-12s %-10s %-10s %10s %8s %8s %8s%n",
+                                "SHARD/RN", "STATUS", "STATE", "OPS/S",
+                                "AVG MS", "P95 MS", "P99 MS"));
+        for (RepNodeMetrics.Shard shard : metrics.getShards()) {
+            sb.append(String.format("%-12s %-10s %-10s %10.1f %8.2f " +
+                                    "%8.1f %8.1f%n",
+                                    shard.getId(), "", "",
+                                    shard.getOpsPerSec(),
+                                    shard.getWindowAvgLatency(),
+                                    shard.getWindow95th(),
+                                    shard.getWindow99th()));
+            for (RepNodeMetrics.Node node : metrics.getNodes()) {
+                if (!node.getShardId().equals(shard.getId())) {
+                    continue;
+                }
+                sb.append(String.format("  %-10s %-10s %-10s %10.1f %8.2f " +
+                                        "%8.1f %8.1f%s%n",
+                                        node.getId(),
+                                        orEmpty(node.getServiceStatus()),
+                                        orEmpty(node.getReplicationState()),
+                                        node.getOpsPerSec(),
+                                        node.getWindowAvgLatency(),
+                                        node.getWindow95th(),
+                                        node.getWindow99th(),
+                                        metrics.isDivergent(node) ?
+                                        "  <- DIVERGENT" : ""));
+            }
+        }
+        out.print(sb);
+        out.println();
+        out.flush();
+    }
+
+    private static String orEmpty(final String s) {
+        return (s == null) ? "" : s;
+    }
+}
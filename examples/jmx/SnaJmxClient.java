@@ -52,13 +52,24 @@ import oracle.kv.mgmt.jmx.StorageNodeMXBean;
  *  -listen  -- optional flag; if present, the program listens indefinitely
  *              for events from the StorageNodeAgentMXBean.  If absent, the
  *              program exits after displaying properties.
+ *  -window  -- optional; with -listen, the milliseconds over which the
+ *              notifications of each node are aggregated (default 1000).
+ *  -queue   -- optional; with -listen, the number of notifications that
+ *              may wait to be processed before new ones are dropped
+ *              (default 4096).
+ *  -notifyFile -- optional; with -listen, append the notifications to
+ *              this file instead of printing them.
+ *
+ * The notifications are processed by a {@link NotificationPipeline}, so
+ * that a burst of them does not hold up the JMX connection.
  */
 
 public class SnaJmxClient {
 
     final static String usage =
         "Usage: SnaJmxClient -host <host> -port <port> " +
-        "[-trust <path>] [-verbose] [-listen]";
+        "[-trust <path>] [-verbose] [-listen [-window <ms>] " +
+        "[-queue <capacity>] [-notifyFile <path>]]";
 
     final static ObjectName storageNodeMBeanName;
     final static ObjectName adminMBeanName;
@@ -80,6 +91,9 @@ public class SnaJmxClient {
     final MBeanServerConnection mbsc;
     final boolean verbose;
 
+    /* Processes the notifications received by the SNAListener, if set */
+    private volatile NotificationPipeline pipeline;
+
     public static void main(String argv[]) throws Exception {
 
         String host = null;
@@ -87,6 +101,9 @@ public class SnaJmxClient {
         String trustStore = null;
         boolean verbose = false;
         boolean listen = false;
+        long windowMs = 1000;
+        int queueCapacity = 4096;
+        String notifyFile = null;
 
         for (int i = 0; i < argv.length; i++) {
             if ("-host".equals(argv[i])) {
@@ -99,6 +116,12 @@ public class SnaJmxClient {
                 verbose = true;
             } else if ("-listen".equals(argv[i])) {
                 listen = true;
+            } else if ("-window".equals(argv[i])) {
+                windowMs = Long.parseLong(argv[++i]);
+            } else if ("-queue".equals(argv[i])) {
+                queueCapacity = Integer.parseInt(argv[++i]);
+            } else if ("-notifyFile".equals(argv[i])) {
+                notifyFile = argv[++i];
             } else {
                 System.err.println(usage);
                 System.exit(1);
@@ -122,7 +145,27 @@ public class SnaJmxClient {
         client.doStatusPoll();
         if (listen) {
             System.out.println("Waiting for notifications...");
-            client.listen();
+            final NotificationPipeline pipeline =
+                new NotificationPipeline(
+                    queueCapacity, windowMs,
+                    (notifyFile == null) ?
+                    new NotificationPipeline.PrintSink() :
+                    new NotificationPipeline.FileSink(notifyFile));
+            client.listen(pipeline);
+
+            /* On C-c, deliver what was received and show the statistics */
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        pipeline.close();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    System.out.println(pipeline.getStatistics());
+                }
+            });
+
             /* The listener thread is a daemon, so we hang the main thread to
              * let the listener thread run forever, or until the user gets
              * tired and hits C-c.
@@ -226,17 +269,31 @@ public class SnaJmxClient {
      * events for a single managed service, but this is simple and does what is
      * needed for demo purposes.
      */
-    private void listen() throws Exception {
+    private void listen(NotificationPipeline notificationPipeline)
+        throws Exception {
+
+        pipeline = notificationPipeline;
         mbsc.addNotificationListener
             (storageNodeMBeanName, new SNAListener(), null, null);
     }
 
+    /*
+     * Hands the notifications off to the pipeline of the client, so that
+     * the JMX connection is not held up while they are processed, or prints
+     * them if the client has no pipeline.
+     */
     public class SNAListener implements NotificationListener {
         @Override
         public void handleNotification(Notification notif,
                                        Object handback) {
 
-            System.out.println("Notification received: " + notif.getMessage());
+            final NotificationPipeline p = pipeline;
+            if (p == null) {
+                System.out.println("Notification received: " +
+                                   notif.getMessage());
+                return;
+            }
+            p.handleNotification(notif, handback);
         }
     }
 }
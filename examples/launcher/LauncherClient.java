@@ -0,0 +1,165 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package launcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Runs an example tool in a {@link LauncherServer}, printing its output and
+ * exiting with its exit status, as if the tool ran in this JVM:
+ * <pre>
+ * java launcher.LauncherClient [-listen &lt;launcher port&gt;] [-quiet] &#92;
+ *     &lt;tool class&gt; [&lt;tool arguments&gt;]
+ * </pre>
+ * Unless -quiet is given, the client then prints to System.err the time
+ * the tool took, from the connection to the server to the exit status,
+ * the part of it the tool ran in the server, and the part of that spent
+ * getting store handles. The client authenticates with the token the
+ * server wrote to the home directory of the user. Only the client JVM is
+ * started for each tool, and it loads no store classes, so it should be
+ * kept as small as it is.
+ */
+public class LauncherClient {
+
+    public static void main(String args[]) {
+
+        int listenPort = LauncherServer.DEFAULT_PORT;
+        boolean quiet = false;
+
+        final int nArgs = args.length;
+        int argc = 0;
+
+        while (argc < nArgs && args[argc].startsWith("-")) {
+            final String thisArg = args[argc++];
+            if (thisArg.equals("-listen")) {
+                if (argc < nArgs) {
+                    listenPort = Integer.parseInt(args[argc++]);
+                } else {
+                    usage("-listen requires an argument");
+                }
+            } else if (thisArg.equals("-quiet")) {
+                quiet = true;
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        if (argc == nArgs) {
+            usage("The tool class is required");
+        }
+        final String className = args[argc++];
+        final String[] toolArgs = new String[nArgs - argc];
+        System.arraycopy(args, argc, toolArgs, 0, toolArgs.length);
+
+        int status;
+        try {
+            status = run(listenPort, className, toolArgs, quiet);
+        } catch (IOException e) {
+            System.err.println("Cannot run " + className +
+                               " in the launcher on port " + listenPort +
+                               ": " + e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    private static void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + LauncherClient.class.getName());
+        System.out.println("\t-listen <launcher port> (default: " +
+                           LauncherServer.DEFAULT_PORT + ") " +
+                           "-quiet (do not print the timings) " +
+                           "<tool class> [<tool arguments>]");
+        System.exit(1);
+    }
+
+    /*
+     * Runs the tool and returns its exit status.
+     */
+    private static int run(final int port,
+                           final String className,
+                           final String[] args,
+                           final boolean quiet)
+        throws IOException {
+
+        final File tokenFile = LauncherServer.tokenFile(port);
+        if (!tokenFile.isFile()) {
+            throw new IOException("No launcher token in " + tokenFile +
+                                  "; is the launcher running as this user?");
+        }
+        final String token = new String(
+            Files.readAllBytes(tokenFile.toPath()), StandardCharsets.UTF_8);
+
+        final long start = System.nanoTime();
+        final Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                         port);
+        try {
+            socket.setTcpNoDelay(true);
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            out.writeUTF(token);
+            out.writeUTF(className);
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            byte[] buffer = new byte[8192];
+            while (true) {
+                final int kind = in.readUnsignedByte();
+                if (kind == LauncherServer.EXIT) {
+                    break;
+                }
+                final int len = in.readInt();
+                if (len > buffer.length) {
+                    buffer = new byte[len];
+                }
+                in.readFully(buffer, 0, len);
+                final PrintStream stream =
+                    (kind == LauncherServer.STDOUT) ? System.out : System.err;
+                stream.write(buffer, 0, len);
+            }
+            final int status = in.readInt();
+            final long runNanos = in.readLong();
+            final long handleNanos = in.readLong();
+            final int sharedHandles = in.readInt();
+            final int openedHandles = in.readInt();
+            final long totalNanos = System.nanoTime() - start;
+
+            System.out.flush();
+            if (!quiet) {
+                System.err.println(String.format(
+                    "%s: %.1f ms, %.1f ms in the launcher, store handles " +
+                    "%.1f ms (%d shared, %d opened)",
+                    className, totalNanos / 1e6, runNanos / 1e6,
+                    handleNanos / 1e6, sharedHandles, openedHandles));
+            }
+            return status;
+        } finally {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package launcher;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.kv.KVStoreConfig;
+
+/**
+ * A long-lived JVM that runs the example tools for {@link LauncherClient},
+ * so that running a tool does not pay for starting a JVM, loading its
+ * classes, and opening a store handle, each time.
+ * <p>
+ * The server listens on a port of the loopback interface. For each
+ * connection, it reads the name of a class and its arguments, calls the main
+ * method of the class on a new thread, sends what the tool prints to
+ * System.out and System.err back to the client as it is printed, and then
+ * the exit status of the tool and its timings. Any tool benefits from the
+ * classes already loaded by the server; tools written for the launcher,
+ * which get their store handles from {@link StorePool} rather than from
+ * KVStoreFactory, also share the handles kept by the server: only the first
+ * tool to use a store opens a handle, and the server opens one for the
+ * store given by its own arguments when it starts.
+ * <p>
+ * A tool calling System.exit does not stop the server: the server installs
+ * a SecurityManager that turns the call into an exception, which ends the
+ * tool with the given status. On Java 18 and later, this requires running
+ * the server with -Djava.security.manager=allow; without it, the server
+ * warns that a tool calling System.exit stops it. The input of the client
+ * is not forwarded to the tools.
+ * <p>
+ * Only the user running the server may run tools with it: when it starts,
+ * the server writes a random token to the file .kvlauncher-&lt;launcher
+ * port&gt; of the home directory, readable only by that user, and runs
+ * nothing for a client that does not send the token first. The file is
+ * deleted when the server stops.
+ * <p>
+ * To start the server, and run a tool with it:
+ * <pre>
+ * java launcher.LauncherServer -store &lt;instance name&gt; &#92;
+ *                              -host  &lt;host name&gt;     &#92;
+ *                              -port  &lt;port number&gt;   &#92;
+ *                              -listen &lt;launcher port&gt; &amp;
+ * java launcher.LauncherClient [-listen &lt;launcher port&gt;] &#92;
+ *     hello.HelloBigDataWorld -store &lt;instance name&gt; ...
+ * </pre>
+ */
+public class LauncherServer {
+
+    /** The default port of the launcher. */
+    static final int DEFAULT_PORT = 5099;
+
+    /* The kinds of the frames sent to the client */
+    static final int STDOUT = 1;
+    static final int STDERR = 2;
+    static final int EXIT = 3;
+
+    /* The invocation run by the current thread and the threads it starts */
+    private static final InheritableThreadLocal<Invocation> current =
+        new InheritableThreadLocal<Invocation>();
+
+    private final ServerSocket serverSocket;
+    private final byte[] token;
+    private final PrintStream log;
+    private final AtomicLong invocations = new AtomicLong();
+
+    /**
+     * Runs the launcher until it is killed.
+     */
+    public static void main(String args[]) {
+
+        String storeName = "kvstore";
+        String hostName = "localhost";
+        String hostPort = "5000";
+        int listenPort = DEFAULT_PORT;
+
+        final int nArgs = args.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = args[argc++];
+            if (argc == nArgs) {
+                usage(thisArg + " requires an argument");
+            }
+            if (thisArg.equals("-store")) {
+                storeName = args[argc++];
+            } else if (thisArg.equals("-host")) {
+                hostName = args[argc++];
+            } else if (thisArg.equals("-port")) {
+                hostPort = args[argc++];
+            } else if (thisArg.equals("-listen")) {
+                listenPort = Integer.parseInt(args[argc++]);
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+
+        try {
+            final LauncherServer server = new LauncherServer(listenPort);
+            server.warm(new KVStoreConfig(storeName,
+                                          hostName + ":" + hostPort));
+            server.run();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + LauncherServer.class.getName());
+        System.out.println("\t-store <instance name> (default: kvstore) " +
+                           "-host <host name> (default: localhost) " +
+                           "-port <port number> (default: 5000) " +
+                           "-listen <launcher port> (default: " +
+                           DEFAULT_PORT + ")");
+        System.exit(1);
+    }
+
+    /**
+     * Creates a server listening on the given port of the loopback
+     * interface, writes the token of its clients, and redirects System.out
+     * and System.err so that the output of each tool goes to its client.
+     */
+    public LauncherServer(final int port) throws IOException {
+        serverSocket =
+            new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        log = System.out;
+        final File tokenFile = tokenFile(port);
+        token = writeToken(tokenFile.toPath());
+        System.setOut(new PrintStream(new Dispatcher(System.out, STDOUT),
+                                      true));
+        System.setErr(new PrintStream(new Dispatcher(System.err, STDERR),
+                                      true));
+        if (!trapExit()) {
+            log.println("Warning: System.exit cannot be intercepted; " +
+                        "a tool calling it stops the launcher. Run with " +
+                        "-Djava.security.manager=allow to avoid this.");
+        }
+        StorePool.enable();
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                tokenFile.delete();
+                StorePool.closeAll();
+            }
+        });
+    }
+
+    /** Returns the file holding the token of the launcher on the port. */
+    static File tokenFile(final int port) {
+        return new File(System.getProperty("user.home"),
+                        ".kvlauncher-" + port);
+    }
+
+    /*
+     * Writes a new random token to the file, readable only by the owner
+     * where the file system supports POSIX permissions, and returns it.
+     */
+    private byte[] writeToken(final Path path) throws IOException {
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : random) {
+            hex.append(String.format("%02x", b));
+        }
+        final byte[] bytes = hex.toString().getBytes(StandardCharsets.UTF_8);
+
+        Files.deleteIfExists(path);
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(
+                                 PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            log.println("Warning: cannot restrict the permissions of " +
+                        path + "; other users may be able to read the " +
+                        "token of the launcher.");
+            Files.createFile(path);
+        }
+        Files.write(path, bytes);
+        return bytes;
+    }
+
+    /**
+     * Opens the handle of a store before the first tool needs it. A
+     * failure is reported, and the tools open the handle when they need it.
+     */
+    public void warm(final KVStoreConfig config) {
+        final long start = System.nanoTime();
+        try {
+            StorePool.getStore(config);
+            log.println(String.format(
+                "Opened store %s in %.1f ms", config.getStoreName(),
+                (System.nanoTime() - start) / 1e6));
+        } catch (RuntimeException e) {
+            log.println("Could not open store " + config.getStoreName() +
+                        ": " + e);
+        }
+    }
+
+    /**
+     * Accepts connections until the server socket is closed.
+     */
+    public void run() throws IOException {
+        log.println("Launcher listening on " +
+                    serverSocket.getLocalSocketAddress());
+        while (true) {
+            final Socket socket = serverSocket.accept();
+            socket.setTcpNoDelay(true);
+            final Thread thread = new Thread(
+                "Launcher-" + invocations.incrementAndGet()) {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            };
+            thread.start();
+        }
+    }
+
+    /*
+     * Runs the tool asked for by a client, on the thread of the connection.
+     */
+    private void serve(final Socket socket) {
+        String className = null;
+        try {
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream()));
+            final byte[] clientToken =
+                in.readUTF().getBytes(StandardCharsets.UTF_8);
+            if (!MessageDigest.isEqual(token, clientToken)) {
+                log.println("Rejected a client with a wrong token");
+                final byte[] message = "The launcher token is wrong\n"
+                    .getBytes(StandardCharsets.UTF_8);
+                out.writeByte(STDERR);
+                out.writeInt(message.length);
+                out.write(message);
+                writeExit(out, 1, 0, 0, 0, 0);
+                return;
+            }
+            className = in.readUTF();
+            final String[] args = new String[in.readInt()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = in.readUTF();
+            }
+
+            final Invocation invocation = new Invocation(out);
+            final long start = System.nanoTime();
+            current.set(invocation);
+            try {
+                run(className, args);
+            } finally {
+                current.remove();
+            }
+            final long runNanos = System.nanoTime() - start;
+
+            final long handleNanos;
+            final int sharedHandles;
+            final int openedHandles;
+            synchronized (invocation) {
+                handleNanos = invocation.handleNanos;
+                sharedHandles = invocation.sharedHandles;
+                openedHandles = invocation.openedHandles;
+            }
+            log.println(String.format(
+                "%s exited with %d in %.1f ms, store handles %.1f ms",
+                className, invocation.exitStatus, runNanos / 1e6,
+                handleNanos / 1e6));
+            synchronized (out) {
+                writeExit(out, invocation.exitStatus, runNanos, handleNanos,
+                          sharedHandles, openedHandles);
+            }
+        } catch (IOException e) {
+            log.println("Invocation of " + className + " failed: " + e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                /* Ignore */
+            }
+        }
+    }
+
+    /* Sends the exit status and the timings of a tool, the last frame. */
+    private static void writeExit(final DataOutputStream out,
+                                  final int status,
+                                  final long runNanos,
+                                  final long handleNanos,
+                                  final int sharedHandles,
+                                  final int openedHandles)
+        throws IOException {
+
+        out.writeByte(EXIT);
+        out.writeInt(status);
+        out.writeLong(runNanos);
+        out.writeLong(handleNanos);
+        out.writeInt(sharedHandles);
+        out.writeInt(openedHandles);
+        out.flush();
+    }
+
+    /*
+     * Calls the main method of the class. Errors are printed to the client,
+     * and set the exit status, as they would if the tool ran on its own.
+     */
+    private static void run(final String className, final String[] args) {
+        final Invocation invocation = current.get();
+        try {
+            final Method main =
+                Class.forName(className).getMethod("main", String[].class);
+            main.invoke(null, (Object) args);
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (!(cause instanceof ExitException)) {
+                cause.printStackTrace();
+                invocation.exitStatus = 1;
+            }
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Cannot run " + className + ": " + e);
+            invocation.exitStatus = 1;
+        } catch (ExitException e) {
+            /* The status was set by the ExitTrap */
+        }
+        System.out.flush();
+        System.err.flush();
+    }
+
+    /* Records the time a tool spent getting a store handle. */
+    static void storeHandleUsed(final boolean opened, final long nanos) {
+        final Invocation invocation = current.get();
+        if (invocation == null) {
+            return;
+        }
+        synchronized (invocation) {
+            invocation.handleNanos += nanos;
+            if (opened) {
+                invocation.openedHandles++;
+            } else {
+                invocation.sharedHandles++;
+            }
+        }
+    }
+
+    @SuppressWarnings("removal")
+    private static boolean trapExit() {
+        try {
+            System.setSecurityManager(new ExitTrap());
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /* A tool run for a client */
+    private static class Invocation {
+        final OutputStream stdout;
+        final OutputStream stderr;
+        volatile int exitStatus;
+        long handleNanos;
+        int sharedHandles;
+        int openedHandles;
+
+        Invocation(final DataOutputStream out) {
+            stdout = new FrameOutputStream(out, STDOUT);
+            stderr = new FrameOutputStream(out, STDERR);
+        }
+    }
+
+    /*
+     * Sends what is written to the client, as frames of the given kind.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final int kind;
+
+        FrameOutputStream(final DataOutputStream out, final int kind) {
+            this.out = out;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            synchronized (out) {
+                out.writeByte(kind);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /*
+     * Replaces System.out or System.err: writes to the client of the tool
+     * run by the current thread, or to the original stream for the threads
+     * of the server.
+     */
+    private static class Dispatcher extends OutputStream {
+        private final PrintStream original;
+        private final int kind;
+
+        Dispatcher(final PrintStream original, final int kind) {
+            this.original = original;
+            this.kind = kind;
+        }
+
+        private OutputStream target() {
+            final Invocation invocation = current.get();
+            if (invocation == null) {
+                return original;
+            }
+            return (kind == STDOUT) ? invocation.stdout : invocation.stderr;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+            target().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+
+    /*
+     * Turns System.exit, called by a tool, into an ExitException. Allows
+     * everything else.
+     */
+    @SuppressWarnings("removal")
+    private static class ExitTrap extends SecurityManager {
+
+        @Override
+        public void checkPermission(final Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(final Permission perm,
+                                    final Object context) {
+        }
+
+        @Override
+        public void checkExit(final int status) {
+            final Invocation invocation = current.get();
+            if (invocation != null) {
+                invocation.exitStatus = status;
+                throw new ExitException(status);
+            }
+        }
+    }
+
+    /*
+     * Thrown for System.exit called by a tool. A tool catching
+     * RuntimeException may print it before returning.
+     */
+    private static class ExitException extends SecurityException {
+        private static final long serialVersionUID = 1L;
+
+        ExitException(final int status) {
+            super("System.exit(" + status + ") intercepted by the launcher");
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package launcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import security.SharedStoreHandle;
+
+/**
+ * Where the tools written for a {@link LauncherServer} get their store
+ * handles.
+ * <p>
+ * Outside a launcher, {@link #getStore} is
+ * {@link KVStoreFactory#getStore}, and each call opens a new handle, which
+ * discovers the topology of the store and connects to its nodes before the
+ * first operation. Inside a launcher, the first call for a store and its
+ * helper hosts opens a handle, which the launcher keeps, and the next calls,
+ * by the same or another tool, share it. Closing a shared handle does
+ * nothing; the handles are closed when the launcher stops.
+ * <p>
+ * A shared handle is opened with the configuration of the first call; the
+ * other settings of the configurations of the next calls are ignored.
+ */
+public final class StorePool {
+
+    private static final Map<String, KVStore> stores =
+        new HashMap<String, KVStore>();
+    private static volatile boolean enabled;
+
+    private StorePool() {
+    }
+
+    /**
+     * Returns a handle of the store of the configuration.
+     */
+    public static KVStore getStore(final KVStoreConfig config) {
+        if (!enabled) {
+            return KVStoreFactory.getStore(config);
+        }
+        final long start = System.nanoTime();
+        final String key = config.getStoreName() + "/" +
+            Arrays.toString(config.getHelperHosts());
+        boolean opened = false;
+        KVStore store;
+        synchronized (stores) {
+            store = stores.get(key);
+            if (store == null) {
+                store = KVStoreFactory.getStore(config);
+                stores.put(key, store);
+                opened = true;
+            }
+        }
+        LauncherServer.storeHandleUsed(opened, System.nanoTime() - start);
+        return SharedStoreHandle.create(store);
+    }
+
+    /* Makes getStore share the handles; called by the launcher. */
+    static void enable() {
+        enabled = true;
+    }
+
+    static int size() {
+        synchronized (stores) {
+            return stores.size();
+        }
+    }
+
+    static void closeAll() {
+        final List<KVStore> all;
+        synchronized (stores) {
+            all = new ArrayList<KVStore>(stores.values());
+            stores.clear();
+        }
+        for (KVStore store : all) {
+            store.close();
+        }
+    }
+}
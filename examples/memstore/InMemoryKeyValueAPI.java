@@ -0,0 +1,625 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package memstore;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+import oracle.kv.Consistency;
+import oracle.kv.Depth;
+import oracle.kv.Durability;
+import oracle.kv.Key;
+import oracle.kv.KeyRange;
+import oracle.kv.Operation;
+import oracle.kv.OperationExecutionException;
+import oracle.kv.OperationFactory;
+import oracle.kv.OperationResult;
+import oracle.kv.ReturnValueVersion;
+import oracle.kv.Value;
+import oracle.kv.ValueVersion;
+import oracle.kv.Version;
+
+/**
+ * The key/value methods of the KVStore handle of an {@link InMemoryStore},
+ * called through the KVStore proxy of the store, which maps each interface
+ * method to the method of the same signature here.
+ * <p>
+ * The records are kept in a concurrent map sorted by key, apart from the
+ * rows of the tables. Writes synchronize on the map, so that conditional
+ * operations and batches are atomic; reads do not.
+ */
+class InMemoryKeyValueAPI {
+
+    private final InMemoryStore store;
+    private final ConcurrentSkipListMap<Key, ValueVersion> records =
+        new ConcurrentSkipListMap<Key, ValueVersion>();
+
+    InMemoryKeyValueAPI(final InMemoryStore store) {
+        this.store = store;
+    }
+
+    public ValueVersion get(final Key key) {
+        store.beforeOperation();
+        return copy(records.get(key));
+    }
+
+    public ValueVersion get(final Key key,
+                            final Consistency consistency,
+                            final long timeout,
+                            final TimeUnit timeoutUnit) {
+        return get(key);
+    }
+
+    public SortedMap<Key, ValueVersion> multiGet(final Key parentKey,
+                                                 final KeyRange subRange,
+                                                 final Depth depth) {
+        store.beforeOperation();
+        final SortedMap<Key, ValueVersion> result =
+            new TreeMap<Key, ValueVersion>();
+        for (Map.Entry<Key, ValueVersion> entry :
+                 scan(parentKey, subRange, depth)) {
+            result.put(entry.getKey(), copy(entry.getValue()));
+        }
+        return result;
+    }
+
+    public SortedMap<Key, ValueVersion> multiGet(final Key parentKey,
+                                                 final KeyRange subRange,
+                                                 final Depth depth,
+                                                 final Consistency consistency,
+                                                 final long timeout,
+                                                 final TimeUnit timeoutUnit) {
+        return multiGet(parentKey, subRange, depth);
+    }
+
+    public SortedSet<Key> multiGetKeys(final Key parentKey,
+                                       final KeyRange subRange,
+                                       final Depth depth) {
+        store.beforeOperation();
+        final SortedSet<Key> result = new TreeSet<Key>();
+        for (Map.Entry<Key, ValueVersion> entry :
+                 scan(parentKey, subRange, depth)) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+
+    public SortedSet<Key> multiGetKeys(final Key parentKey,
+                                       final KeyRange subRange,
+                                       final Depth depth,
+                                       final Consistency consistency,
+                                       final long timeout,
+                                       final TimeUnit timeoutUnit) {
+        return multiGetKeys(parentKey, subRange, depth);
+    }
+
+    public Version put(final Key key, final Value value) {
+        return put(key, value, null, null, 0, null);
+    }
+
+    public Version put(final Key key,
+                       final Value value,
+                       final ReturnValueVersion prevValue,
+                       final Durability durability,
+                       final long timeout,
+                       final TimeUnit timeoutUnit) {
+        return newVersion(
+            write(Operation.Type.PUT, key, value, null, prevValue));
+    }
+
+    public Version putIfAbsent(final Key key, final Value value) {
+        return putIfAbsent(key, value, null, null, 0, null);
+    }
+
+    public Version putIfAbsent(final Key key,
+                               final Value value,
+                               final ReturnValueVersion prevValue,
+                               final Durability durability,
+                               final long timeout,
+                               final TimeUnit timeoutUnit) {
+        return newVersion(
+            write(Operation.Type.PUT_IF_ABSENT, key, value, null, prevValue));
+    }
+
+    public Version putIfPresent(final Key key, final Value value) {
+        return putIfPresent(key, value, null, null, 0, null);
+    }
+
+    public Version putIfPresent(final Key key,
+                                final Value value,
+                                final ReturnValueVersion prevValue,
+                                final Durability durability,
+                                final long timeout,
+                                final TimeUnit timeoutUnit) {
+        return newVersion(
+            write(Operation.Type.PUT_IF_PRESENT, key, value, null, prevValue));
+    }
+
+    public Version putIfVersion(final Key key,
+                                final Value value,
+                                final Version matchVersion) {
+        return putIfVersion(key, value, matchVersion, null, null, 0, null);
+    }
+
+    public Version putIfVersion(final Key key,
+                                final Value value,
+                                final Version matchVersion,
+                                final ReturnValueVersion prevValue,
+                                final Durability durability,
+                                final long timeout,
+                                final TimeUnit timeoutUnit) {
+        return newVersion(
+            write(Operation.Type.PUT_IF_VERSION, key, value, matchVersion,
+                  prevValue));
+    }
+
+    public boolean delete(final Key key) {
+        return delete(key, null, null, 0, null);
+    }
+
+    public boolean delete(final Key key,
+                          final ReturnValueVersion prevValue,
+                          final Durability durability,
+                          final long timeout,
+                          final TimeUnit timeoutUnit) {
+        return write(Operation.Type.DELETE, key, null, null,
+                     prevValue).success;
+    }
+
+    public boolean deleteIfVersion(final Key key, final Version matchVersion) {
+        return deleteIfVersion(key, matchVersion, null, null, 0, null);
+    }
+
+    public boolean deleteIfVersion(final Key key,
+                                   final Version matchVersion,
+                                   final ReturnValueVersion prevValue,
+                                   final Durability durability,
+                                   final long timeout,
+                                   final TimeUnit timeoutUnit) {
+        return write(Operation.Type.DELETE_IF_VERSION, key, null,
+                     matchVersion, prevValue).success;
+    }
+
+    public int multiDelete(final Key parentKey,
+                           final KeyRange subRange,
+                           final Depth depth) {
+        store.beforeOperation();
+        int count = 0;
+        synchronized (records) {
+            for (Map.Entry<Key, ValueVersion> entry :
+                     scan(parentKey, subRange, depth)) {
+                records.remove(entry.getKey());
+                count++;
+            }
+        }
+        store.afterOperation();
+        return count;
+    }
+
+    public int multiDelete(final Key parentKey,
+                           final KeyRange subRange,
+                           final Depth depth,
+                           final Durability durability,
+                           final long timeout,
+                           final TimeUnit timeoutUnit) {
+        return multiDelete(parentKey, subRange, depth);
+    }
+
+    public OperationFactory getOperationFactory() {
+        return new KVOperationFactory();
+    }
+
+    public List<OperationResult> execute(final List<Operation> operations)
+        throws OperationExecutionException {
+
+        return execute(operations, null, 0, null);
+    }
+
+    /*
+     * Executes a batch of operations on keys of the same major path, as a
+     * store does in a single transaction: the results of all the operations
+     * are computed first, and applied only if no operation that aborts when
+     * unsuccessful failed.
+     */
+    public List<OperationResult> execute(final List<Operation> operations,
+                                         final Durability durability,
+                                         final long timeout,
+                                         final TimeUnit timeoutUnit)
+        throws OperationExecutionException {
+
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException(
+                "operations must be non-null and non-empty");
+        }
+        final List<String> majorPath =
+            operations.get(0).getKey().getMajorPath();
+        for (Operation op : operations) {
+            if (!(op instanceof KVOperation)) {
+                throw new IllegalArgumentException(
+                    "Operations must be created by the OperationFactory of " +
+                    "the in-memory store");
+            }
+            if (!majorPath.equals(op.getKey().getMajorPath())) {
+                throw new IllegalArgumentException(
+                    "Two operations have different major paths");
+            }
+        }
+
+        store.beforeOperation();
+        final List<OperationResult> results =
+            new ArrayList<OperationResult>(operations.size());
+        synchronized (records) {
+
+            /* The records written so far by the batch, null when deleted */
+            final Map<Key, ValueVersion> written =
+                new TreeMap<Key, ValueVersion>();
+            for (int i = 0; i < operations.size(); i++) {
+                final KVOperation op = (KVOperation) operations.get(i);
+                final ValueVersion prev = written.containsKey(op.key) ?
+                    written.get(op.key) : records.get(op.key);
+                final Result result = op.apply(prev, written);
+                if (!result.success && op.abortIfUnsuccessful) {
+                    throw new OperationExecutionException(op, i, result);
+                }
+                results.add(result);
+            }
+            for (Map.Entry<Key, ValueVersion> entry : written.entrySet()) {
+                if (entry.getValue() == null) {
+                    records.remove(entry.getKey());
+                } else {
+                    records.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        store.afterOperation();
+        return results;
+    }
+
+    /*
+     * Applies a single write, and sets the previous value and version as
+     * asked for by the ReturnValueVersion.
+     */
+    private Result write(final Operation.Type type,
+                          final Key key,
+                          final Value value,
+                          final Version matchVersion,
+                          final ReturnValueVersion prevValue) {
+        final KVOperation op = new KVOperation(
+            type, key, value, matchVersion,
+            (prevValue == null) ? null : prevValue.getReturnChoice(), false);
+        store.beforeOperation();
+        final Result result;
+        synchronized (records) {
+            final Map<Key, ValueVersion> written =
+                new TreeMap<Key, ValueVersion>();
+            result = op.apply(records.get(key), written);
+            if (written.containsKey(key)) {
+                if (written.get(key) == null) {
+                    records.remove(key);
+                } else {
+                    records.put(key, written.get(key));
+                }
+            }
+        }
+        if (prevValue != null) {
+            prevValue.setValue(result.previousValue);
+            prevValue.setVersion(result.previousVersion);
+        }
+        store.afterOperation();
+        return result;
+    }
+
+    private static Version newVersion(final Result result) {
+        return result.success ? result.newVersion : null;
+    }
+
+    /*
+     * Returns the records under the parent key with the same major path,
+     * as selected by the sub range and depth.
+     */
+    private Iterable<Map.Entry<Key, ValueVersion>> scan(
+        final Key parentKey,
+        final KeyRange subRange,
+        final Depth depth) {
+
+        final List<String> majorPath = parentKey.getMajorPath();
+        if (majorPath.isEmpty()) {
+            throw new IllegalArgumentException(
+                "The major path of the parent key must not be empty");
+        }
+        final Depth d = (depth == null) ? Depth.PARENT_AND_DESCENDANTS : depth;
+        final int parentSize = parentKey.getFullPath().size();
+        final List<Map.Entry<Key, ValueVersion>> result =
+            new ArrayList<Map.Entry<Key, ValueVersion>>();
+        final Iterator<Map.Entry<Key, ValueVersion>> iter =
+            records.tailMap(parentKey, true).entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<Key, ValueVersion> entry = iter.next();
+            final Key key = entry.getKey();
+            if (!parentKey.isPrefix(key)) {
+                break;
+            }
+            if (!majorPath.equals(key.getMajorPath())) {
+                continue;
+            }
+            final int extra = key.getFullPath().size() - parentSize;
+            if (extra == 0) {
+                if (d == Depth.PARENT_AND_CHILDREN ||
+                    d == Depth.PARENT_AND_DESCENDANTS) {
+                    result.add(entry);
+                }
+                continue;
+            }
+            if (extra > 1 &&
+                (d == Depth.CHILDREN_ONLY || d == Depth.PARENT_AND_CHILDREN)) {
+                continue;
+            }
+            if (subRange == null || subRange.inRange(parentKey, key)) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private static ValueVersion copy(final ValueVersion stored) {
+        if (stored == null) {
+            return null;
+        }
+        return new ValueVersion(copy(stored.getValue()), stored.getVersion());
+    }
+
+    private static Value copy(final Value value) {
+        return (value == null) ? null :
+            Value.fromByteArray(value.toByteArray());
+    }
+
+    /*
+     * The operations created by the factory of the store, which keep the
+     * value, match version and return choice that the Operation interface
+     * does not expose.
+     */
+    private class KVOperationFactory implements OperationFactory {
+
+        @Override
+        public Operation createPut(final Key key, final Value value) {
+            return createPut(key, value, null, false);
+        }
+
+        @Override
+        public Operation createPut(final Key key,
+                                   final Value value,
+                                   final ReturnValueVersion.Choice choice,
+                                   final boolean abort) {
+            return new KVOperation(Operation.Type.PUT, key, value, null,
+                                   choice, abort);
+        }
+
+        @Override
+        public Operation createPutIfAbsent(final Key key, final Value value) {
+            return createPutIfAbsent(key, value, null, false);
+        }
+
+        @Override
+        public Operation createPutIfAbsent(
+            final Key key,
+            final Value value,
+            final ReturnValueVersion.Choice choice,
+            final boolean abort) {
+            return new KVOperation(Operation.Type.PUT_IF_ABSENT, key, value,
+                                   null, choice, abort);
+        }
+
+        @Override
+        public Operation createPutIfPresent(final Key key, final Value value) {
+            return createPutIfPresent(key, value, null, false);
+        }
+
+        @Override
+        public Operation createPutIfPresent(
+            final Key key,
+            final Value value,
+            final ReturnValueVersion.Choice choice,
+            final boolean abort) {
+            return new KVOperation(Operation.Type.PUT_IF_PRESENT, key, value,
+                                   null, choice, abort);
+        }
+
+        @Override
+        public Operation createPutIfVersion(final Key key,
+                                            final Value value,
+                                            final Version version) {
+            return createPutIfVersion(key, value, version, null, false);
+        }
+
+        @Override
+        public Operation createPutIfVersion(
+            final Key key,
+            final Value value,
+            final Version version,
+            final ReturnValueVersion.Choice choice,
+            final boolean abort) {
+            return new KVOperation(Operation.Type.PUT_IF_VERSION, key, value,
+                                   version, choice, abort);
+        }
+
+        @Override
+        public Operation createDelete(final Key key) {
+            return createDelete(key, null, false);
+        }
+
+        @Override
+        public Operation createDelete(final Key key,
+                                      final ReturnValueVersion.Choice choice,
+                                      final boolean abort) {
+            return new KVOperation(Operation.Type.DELETE, key, null, null,
+                                   choice, abort);
+        }
+
+        @Override
+        public Operation createDeleteIfVersion(final Key key,
+                                               final Version version) {
+            return createDeleteIfVersion(key, version, null, false);
+        }
+
+        @Override
+        public Operation createDeleteIfVersion(
+            final Key key,
+            final Version version,
+            final ReturnValueVersion.Choice choice,
+            final boolean abort) {
+            return new KVOperation(Operation.Type.DELETE_IF_VERSION, key, null,
+                                   version, choice, abort);
+        }
+    }
+
+    private class KVOperation implements Operation {
+        final Operation.Type type;
+        final Key key;
+        final Value value;
+        final Version matchVersion;
+        final ReturnValueVersion.Choice choice;
+        final boolean abortIfUnsuccessful;
+
+        KVOperation(final Operation.Type type,
+                    final Key key,
+                    final Value value,
+                    final Version matchVersion,
+                    final ReturnValueVersion.Choice choice,
+                    final boolean abortIfUnsuccessful) {
+            this.type = type;
+            this.key = key;
+            this.value = copy(value);
+            this.matchVersion = matchVersion;
+            this.choice =
+                (choice == null) ? ReturnValueVersion.Choice.NONE : choice;
+            this.abortIfUnsuccessful = abortIfUnsuccessful;
+        }
+
+        /*
+         * Computes the result of the operation on the record of its key,
+         * prev if there is one, and adds the record it writes, if any, to
+         * written. The version-matching operations only return the previous
+         * value when they fail.
+         */
+        Result apply(final ValueVersion prev,
+                     final Map<Key, ValueVersion> written) {
+            final boolean success;
+            ValueVersion returned = prev;
+            switch (type) {
+            case PUT:
+                success = true;
+                break;
+            case PUT_IF_ABSENT:
+                success = (prev == null);
+                break;
+            case PUT_IF_PRESENT:
+            case DELETE:
+                success = (prev != null);
+                break;
+            case PUT_IF_VERSION:
+            case DELETE_IF_VERSION:
+                success = (prev != null &&
+                           prev.getVersion().equals(matchVersion));
+                if (success) {
+                    returned = null;
+                }
+                break;
+            default:
+                throw new IllegalStateException("Unexpected type: " + type);
+            }
+            if (!success) {
+                return new Result(false, null, prev, choice);
+            }
+            if (value == null) {
+                written.put(key, null);
+                return new Result(true, null, returned, choice);
+            }
+            final Version version = store.nextVersion();
+            written.put(key, new ValueVersion(value, version));
+            return new Result(true, version, returned, choice);
+        }
+
+        @Override
+        public Key getKey() {
+            return key;
+        }
+
+        @Override
+        public Operation.Type getType() {
+            return type;
+        }
+
+        @Override
+        public boolean getAbortIfUnsuccessful() {
+            return abortIfUnsuccessful;
+        }
+    }
+
+    private static class Result implements OperationResult {
+        private final boolean success;
+        private final Version newVersion;
+        private final Value previousValue;
+        private final Version previousVersion;
+
+        Result(final boolean success,
+               final Version newVersion,
+               final ValueVersion prev,
+               final ReturnValueVersion.Choice choice) {
+            this.success = success;
+            this.newVersion = newVersion;
+            previousValue = (prev != null && choice.needValue()) ?
+                copy(prev.getValue()) : null;
+            previousVersion = (prev != null && choice.needVersion()) ?
+                prev.getVersion() : null;
+        }
+
+        @Override
+        public boolean getSuccess() {
+            return success;
+        }
+
+        @Override
+        public Version getNewVersion() {
+            return newVersion;
+        }
+
+        @Override
+        public Version getPreviousVersion() {
+            return previousVersion;
+        }
+
+        @Override
+        public Value getPreviousValue() {
+            return previousValue;
+        }
+
+        @Override
+        public long getNewExpirationTime() {
+            return 0;
+        }
+
+        @Override
+        public long getPreviousExpirationTime() {
+            return 0;
+        }
+    }
+}
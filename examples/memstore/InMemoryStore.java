@@ -0,0 +1,568 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package memstore;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import memstore.InMemoryTableAPI.TableData;
+
+import oracle.kv.ExecutionFuture;
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.RequestTimeoutException;
+import oracle.kv.StatementResult;
+import oracle.kv.Version;
+import oracle.kv.impl.api.table.TableImpl;
+import oracle.kv.impl.api.table.TableMetadataHelper;
+import oracle.kv.impl.query.compiler.CompilerAPI;
+import oracle.kv.impl.query.compiler.QueryControlBlock;
+import oracle.kv.impl.query.compiler.StatementFactory;
+import oracle.kv.query.ExecuteOptions;
+import oracle.kv.stats.DetailedMetrics;
+import oracle.kv.table.RecordDef;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.TableAPI;
+import oracle.kv.table.TableIterator;
+
+/**
+ * An in-memory stand-in for a store, implementing the part of the KVStore
+ * and TableAPI interfaces that the examples use, so that client code
+ * such as loaders, {@link table.WriteOperations} or
+ * {@link seqnum.SequenceNumber} can be run and measured without a store.
+ * <p>
+ * {@link #getStore} returns a KVStore whose execute and executeSync methods
+ * run CREATE TABLE and DROP TABLE statements, parsed by the query compiler
+ * of the client library, so that the tables have the same definitions as
+ * in a store. CREATE INDEX and DROP INDEX statements are accepted, but the
+ * indexes are not maintained. The TableAPI of the store supports get,
+ * multiGet, multiGetKeys, tableIterator and tableKeysIterator on primary
+ * keys, with field ranges, and put, putIfAbsent, putIfPresent, putIfVersion,
+ * delete, deleteIfVersion and multiDelete. It also executes batches of these
+ * operations on the rows of a table that share a shard key, atomically,
+ * with the execute method; operations on different shard keys are rejected
+ * with IllegalArgumentException, as a store does. The KVStore supports
+ * the same operations on key/value records, with get, multiGet,
+ * multiGetKeys, put, putIfAbsent, putIfPresent, putIfVersion, delete,
+ * deleteIfVersion, multiDelete and execute, on records kept apart from the
+ * rows of the tables. The other methods, queries, store iterators and the
+ * asynchronous API included, throw UnsupportedOperationException.
+ * <p>
+ * The rows of each table are kept in a concurrent sorted map ordered by
+ * primary key, and the key/value records in one ordered by key. Both are
+ * copied on the way in and out, as they would be serialized to and from a
+ * store. Each write creates a new {@link Version}, and the conditional
+ * operations compare versions, and return previous values and versions
+ * through a ReturnRow or ReturnValueVersion, as a store does. Consistency,
+ * durability, time to live and timeouts are ignored.
+ * <p>
+ * To measure how client code copes with a real store, each data operation
+ * can be delayed, with {@link #setLatency}, and can fail with a
+ * RequestTimeoutException, with {@link #setFailureRates}, either before or
+ * after it is applied: a failure after a write was applied is how a
+ * timeout looks to a client whose request was executed but whose response
+ * was lost, and is the case that retry logic must handle.
+ */
+public class InMemoryStore {
+
+    private final UUID repGroupUUID = UUID.randomUUID();
+    private final AtomicLong vlsn = new AtomicLong();
+
+    /* The tables, by lower case full name */
+    private final Map<String, TableData> tables =
+        new ConcurrentHashMap<String, TableData>();
+
+    private final KVStore store;
+    private final TableAPI tableAPI;
+
+    private volatile long minLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile double failureBeforeRate;
+    private volatile double failureAfterRate;
+
+    private final AtomicLong operations = new AtomicLong();
+    private final AtomicLong injectedFailures = new AtomicLong();
+
+    /**
+     * Creates an empty store.
+     */
+    public InMemoryStore() {
+        tableAPI = createProxy(TableAPI.class, new InMemoryTableAPI(this));
+        store = createProxy(KVStore.class, new StoreMethods());
+    }
+
+    /**
+     * Returns the KVStore handle of the store. Closing it has no effect.
+     */
+    public KVStore getStore() {
+        return store;
+    }
+
+    public TableAPI getTableAPI() {
+        return tableAPI;
+    }
+
+    /**
+     * Delays each data operation by a random time between min and max.
+     */
+    public void setLatency(final long min,
+                           final long max,
+                           final TimeUnit unit) {
+        if (min < 0 || max < min) {
+            throw new IllegalArgumentException(
+                "Invalid latency range: " + min + " to " + max);
+        }
+        minLatencyNanos = unit.toNanos(min);
+        maxLatencyNanos = unit.toNanos(max);
+    }
+
+    /**
+     * Makes the given fractions of the data operations fail with a
+     * RequestTimeoutException, before and after they are applied.
+     */
+    public void setFailureRates(final double before, final double after) {
+        if (before < 0 || after < 0 || before + after > 1) {
+            throw new IllegalArgumentException(
+                "Invalid failure rates: " + before + ", " + after);
+        }
+        failureBeforeRate = before;
+        failureAfterRate = after;
+    }
+
+    /** Returns the number of data operations called. */
+    public long getOperations() {
+        return operations.get();
+    }
+
+    /** Returns the number of failures injected. */
+    public long getInjectedFailures() {
+        return injectedFailures.get();
+    }
+
+    /**
+     * Runs a DDL statement.
+     *
+     * @throws IllegalArgumentException if the statement is invalid
+     * @throws UnsupportedOperationException if the statement is not a
+     * supported DDL statement
+     */
+    public synchronized StatementResult executeDdl(final String statement) {
+        final DdlStatement ddl = new DdlStatement();
+        final StatementFactory factory = (StatementFactory)
+            Proxy.newProxyInstance(StatementFactory.class.getClassLoader(),
+                                   new Class<?>[] { StatementFactory.class },
+                                   ddl);
+        final TableMetadataHelper metadata = new TableMetadataHelper() {
+            @Override
+            public TableImpl getTable(final String namespace,
+                                      final String tableName) {
+                return findTable(tableName);
+            }
+
+            @Override
+            public TableImpl getTable(final String namespace,
+                                      final String[] tablePath,
+                                      final int cost) {
+                final StringBuilder sb = new StringBuilder();
+                for (String step : tablePath) {
+                    if (sb.length() > 0) {
+                        sb.append('.');
+                    }
+                    sb.append(step);
+                }
+                return findTable(sb.toString());
+            }
+        };
+
+        final QueryControlBlock qcb = CompilerAPI.compile(
+            statement.toCharArray(), metadata, factory, null, null);
+        if (!qcb.succeeded()) {
+            if (qcb.getException() != null) {
+                throw qcb.getException();
+            }
+            throw new IllegalArgumentException(qcb.getErrorMessage());
+        }
+        if (!ddl.called) {
+            throw new UnsupportedOperationException(
+                "Only DDL statements are supported by the in-memory " +
+                "store: " + statement);
+        }
+        return new DdlResult(ddl.error);
+    }
+
+    /*
+     * Returns the table of the given full name, or null.
+     */
+    TableImpl findTable(final String fullName) {
+        final TableData data = tables.get(fullName.toLowerCase(Locale.ROOT));
+        return (data == null) ? null : data.table;
+    }
+
+    Map<String, TableData> getTables() {
+        return tables;
+    }
+
+    Version nextVersion() {
+        return new Version(repGroupUUID, vlsn.incrementAndGet());
+    }
+
+    /*
+     * Called before each data operation: waits for the injected latency,
+     * and injects the failures before the operation.
+     */
+    void beforeOperation() {
+        operations.incrementAndGet();
+        final long max = maxLatencyNanos;
+        if (max > 0) {
+            final long min = minLatencyNanos;
+            final long nanos = (max == min) ? min :
+                min + ThreadLocalRandom.current().nextLong(max - min);
+            final long end = System.nanoTime() + nanos;
+            long remaining = nanos;
+            while (remaining > 0) {
+                LockSupport.parkNanos(remaining);
+                remaining = end - System.nanoTime();
+            }
+        }
+        maybeFail(failureBeforeRate, "before");
+    }
+
+    /*
+     * Called after each write operation was applied: injects the failures
+     * after the operation.
+     */
+    void afterOperation() {
+        maybeFail(failureAfterRate, "after");
+    }
+
+    private void maybeFail(final double rate, final String when) {
+        if (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+            injectedFailures.incrementAndGet();
+            throw new RequestTimeoutException(
+                KVStoreConfig.DEFAULT_REQUEST_TIMEOUT,
+                "Injected failure " + when + " the operation", null, false);
+        }
+    }
+
+    /**
+     * Returns an implementation of the interface whose methods call the
+     * methods of the same name and parameter types of the target, and
+     * throw UnsupportedOperationException if it has none.
+     */
+    static <T> T createProxy(final Class<T> iface, final Object target) {
+        final Map<Method, Method> targetMethods =
+            new ConcurrentHashMap<Method, Method>();
+        final Object proxy = Proxy.newProxyInstance(
+            iface.getClassLoader(),
+            new Class<?>[] { iface },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(final Object p,
+                                     final Method method,
+                                     final Object[] args)
+                    throws Throwable {
+                    Method m = targetMethods.get(method);
+                    if (m == null) {
+                        try {
+                            m = target.getClass().getMethod(
+                                method.getName(),
+                                method.getParameterTypes());
+                        } catch (NoSuchMethodException e) {
+                            throw new UnsupportedOperationException(
+                                iface.getSimpleName() + "." +
+                                method.getName() + " is not supported " +
+                                "by the in-memory store");
+                        }
+                        targetMethods.put(method, m);
+                    }
+                    try {
+                        return m.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+        return iface.cast(proxy);
+    }
+
+    /*
+     * The methods of the KVStore handle, with the key/value methods it
+     * inherits.
+     */
+    class StoreMethods extends InMemoryKeyValueAPI {
+
+        StoreMethods() {
+            super(InMemoryStore.this);
+        }
+
+        public TableAPI getTableAPI() {
+            return tableAPI;
+        }
+
+        public StatementResult executeSync(final String statement) {
+            return executeDdl(statement);
+        }
+
+        public StatementResult executeSync(final String statement,
+                                           final ExecuteOptions options) {
+            return executeDdl(statement);
+        }
+
+        public ExecutionFuture execute(final String statement) {
+            return new DdlFuture(statement, executeDdl(statement));
+        }
+
+        public ExecutionFuture execute(final String statement,
+                                       final ExecuteOptions options) {
+            return new DdlFuture(statement, executeDdl(statement));
+        }
+
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "InMemoryStore[" + tables.size() + " tables]";
+        }
+    }
+
+    /*
+     * Receives the calls of the query compiler for a DDL statement, and
+     * updates the tables.
+     */
+    private class DdlStatement implements InvocationHandler {
+        boolean called;
+        String error;
+
+        @Override
+        public Object invoke(final Object proxy,
+                             final Method method,
+                             final Object[] args) {
+            final String name = method.getName();
+            called = true;
+            if ("createTable".equals(name)) {
+                final TableImpl table = (TableImpl) args[0];
+                final boolean ifNotExists = (Boolean) args[1];
+                final String key =
+                    table.getFullName().toLowerCase(Locale.ROOT);
+                if (tables.containsKey(key)) {
+                    if (!ifNotExists) {
+                        error = "Table already exists: " +
+                            table.getFullName();
+                    }
+                } else {
+                    tables.put(key, new TableData(table));
+                }
+            } else if ("dropTable".equals(name)) {
+                final String tableName = (String) args[1];
+                final boolean ifExists = (Boolean) args[3];
+                final TableImpl table = (TableImpl) args[2];
+                if (table == null) {
+                    if (!ifExists) {
+                        error = "Table does not exist: " + tableName;
+                    }
+                } else {
+                    tables.remove(
+                        table.getFullName().toLowerCase(Locale.ROOT));
+                }
+            } else if ("createIndex".equals(name) ||
+                       "dropIndex".equals(name)) {
+                /* Accepted, but indexes are not maintained */
+            } else {
+                throw new UnsupportedOperationException(
+                    "Statements calling " + name + " are not supported " +
+                    "by the in-memory store");
+            }
+            return null;
+        }
+    }
+
+    /*
+     * The result of a DDL statement, which completes synchronously.
+     */
+    private static class DdlResult implements StatementResult {
+        private final String error;
+
+        DdlResult(final String error) {
+            this.error = error;
+        }
+
+        @Override
+        public int getPlanId() {
+            return 0;
+        }
+
+        @Override
+        public String getInfo() {
+            return (error == null) ? "Statement completed" : error;
+        }
+
+        @Override
+        public String getInfoAsJson() {
+            return "{}";
+        }
+
+        @Override
+        public String getErrorMessage() {
+            return error;
+        }
+
+        @Override
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public String getResult() {
+            return null;
+        }
+
+        @Override
+        public Kind getKind() {
+            return Kind.DDL;
+        }
+
+        @Override
+        public TableIterator<RecordValue> iterator() {
+            final Iterator<RecordValue> none = Collections.emptyIterator();
+            return new ResultIterator<RecordValue>(none);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public RecordDef getResultDef() {
+            return null;
+        }
+    }
+
+    /*
+     * The future of a DDL statement, done when it is created.
+     */
+    private static class DdlFuture implements ExecutionFuture {
+        private final String statement;
+        private final StatementResult result;
+
+        DdlFuture(final String statement, final StatementResult result) {
+            this.statement = statement;
+            this.result = result;
+        }
+
+        @Override
+        public boolean cancel(final boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public StatementResult get() {
+            return result;
+        }
+
+        @Override
+        public StatementResult get(final long timeout, final TimeUnit unit) {
+            return result;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public StatementResult updateStatus() {
+            return result;
+        }
+
+        @Override
+        public StatementResult getLastStatus() {
+            return result;
+        }
+
+        @Override
+        public String getStatement() {
+            return statement;
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            throw new UnsupportedOperationException(
+                "The future of the in-memory store cannot be serialized");
+        }
+    }
+
+    /*
+     * A TableIterator over an iterator, without metrics.
+     */
+    static class ResultIterator<K> implements TableIterator<K> {
+        private final Iterator<K> iterator;
+
+        ResultIterator(final Iterator<K> iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public K next() {
+            return iterator.next();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public List<DetailedMetrics> getPartitionMetrics() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<DetailedMetrics> getShardMetrics() {
+            return Collections.emptyList();
+        }
+    }
+}
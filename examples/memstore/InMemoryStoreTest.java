@@ -0,0 +1,342 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package memstore;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oracle.kv.Depth;
+import oracle.kv.KVStore;
+import oracle.kv.Key;
+import oracle.kv.Operation;
+import oracle.kv.OperationExecutionException;
+import oracle.kv.OperationFactory;
+import oracle.kv.OperationResult;
+import oracle.kv.ReturnValueVersion;
+import oracle.kv.Value;
+import oracle.kv.Version;
+import oracle.kv.table.PrimaryKey;
+import oracle.kv.table.ReturnRow;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableAPI;
+import oracle.kv.table.TableOpExecutionException;
+import oracle.kv.table.TableOperation;
+import oracle.kv.table.TableOperationFactory;
+import oracle.kv.table.TableOperationResult;
+
+/**
+ * Checks the batches of operations of an {@link InMemoryStore}: their
+ * results, those of version-matching operations, that a batch with a
+ * failed operation that aborts changes nothing, that operations on
+ * different shard keys are rejected, and that concurrent batches are
+ * atomic, and the same operations on key/value records. Exits with status
+ * 1 if a check fails.
+ * <pre>
+ * java -cp examples:lib/kvclient.jar memstore.InMemoryStoreTest
+ * </pre>
+ */
+public class InMemoryStoreTest {
+
+    private static final int N_THREADS = 4;
+    private static final int N_BATCHES = 2000;
+
+    private final InMemoryStore store = new InMemoryStore();
+    private final TableAPI tableAPI = store.getTableAPI();
+    private final TableOperationFactory factory =
+        tableAPI.getTableOperationFactory();
+    private Table table;
+
+    public static void main(String[] args) throws Exception {
+        final InMemoryStoreTest test = new InMemoryStoreTest();
+        test.setup();
+        test.testResults();
+        test.testAbort();
+        test.testVersions();
+        test.testRejected();
+        test.testConcurrentBatches();
+        test.testKeyValue();
+        System.out.println("All checks passed");
+    }
+
+    private void setup() {
+        store.executeDdl("CREATE TABLE items (shard INTEGER, id INTEGER, " +
+                         "name STRING, PRIMARY KEY (SHARD(shard), id))");
+        table = tableAPI.getTable("items");
+    }
+
+    private void testResults() throws TableOpExecutionException {
+        final List<TableOperation> ops = new ArrayList<TableOperation>();
+        ops.add(factory.createPut(row(1, 1, "a"), null, false));
+        ops.add(factory.createPutIfAbsent(row(1, 2, "b"), null, false));
+        ops.add(factory.createPutIfPresent(row(1, 3, "c"), null, false));
+        ops.add(factory.createPutIfAbsent(row(1, 1, "d"),
+                                          ReturnRow.Choice.ALL, false));
+        List<TableOperationResult> results = tableAPI.execute(ops, null);
+        check(results.size() == 4, "four results");
+        check(results.get(0).getSuccess() &&
+              results.get(0).getNewVersion() != null, "put succeeds");
+        check(results.get(1).getSuccess(), "putIfAbsent succeeds");
+        check(!results.get(2).getSuccess(), "putIfPresent of a new row fails");
+        check(!results.get(3).getSuccess(),
+              "putIfAbsent of a row written by the batch fails");
+        check("a".equals(results.get(3).getPreviousRow().get("name")
+                         .asString().get()),
+              "the previous row is the one written by the batch");
+        check(results.get(3).getPreviousVersion().equals(
+                  results.get(0).getNewVersion()),
+              "the previous version is the one written by the batch");
+        check(count(1) == 2, "two rows written");
+
+        ops.clear();
+        ops.add(factory.createDelete(key(1, 1), ReturnRow.Choice.VALUE,
+                                     false));
+        ops.add(factory.createDelete(key(1, 3), null, false));
+        results = tableAPI.execute(ops, null);
+        check(results.get(0).getSuccess() &&
+              results.get(0).getPreviousRow() != null &&
+              results.get(0).getPreviousVersion() == null,
+              "delete succeeds and returns the previous value only");
+        check(!results.get(1).getSuccess(), "delete of a missing row fails");
+        check(tableAPI.get(key(1, 1), null) == null, "row deleted");
+        check(count(1) == 1, "one row left");
+    }
+
+    private void testAbort() {
+        final List<TableOperation> ops = Arrays.asList(
+            factory.createPut(row(2, 1, "a"), null, true),
+            factory.createDelete(key(2, 2), null, true),
+            factory.createPut(row(2, 3, "c"), null, true));
+        try {
+            tableAPI.execute(ops, null);
+            check(false, "the failed delete aborts the batch");
+        } catch (TableOpExecutionException e) {
+            check(e.getFailedOperationIndex() == 1,
+                  "the failed operation index is 1");
+            check(e.getFailedOperation() == ops.get(1),
+                  "the failed operation is the delete");
+            check(!e.getFailedOperationResult().getSuccess(),
+                  "the failed operation result is unsuccessful");
+        }
+        check(count(2) == 0, "an aborted batch writes nothing");
+    }
+
+    private void testVersions() throws TableOpExecutionException {
+        final Version v1 = tableAPI.put(row(6, 1, "a"), null, null);
+        final Version v2 = tableAPI.put(row(6, 2, "b"), null, null);
+        final List<TableOperation> ops = Arrays.asList(
+            factory.createPutIfVersion(row(6, 1, "c"), v1,
+                                       ReturnRow.Choice.ALL, false),
+            factory.createPutIfVersion(row(6, 2, "d"), v1,
+                                       ReturnRow.Choice.ALL, false),
+            factory.createDeleteIfVersion(key(6, 2), v2,
+                                          ReturnRow.Choice.ALL, false),
+            factory.createDeleteIfVersion(key(6, 1), v1,
+                                          ReturnRow.Choice.ALL, false));
+        final List<TableOperationResult> results =
+            tableAPI.execute(ops, null);
+        check(results.get(0).getSuccess() &&
+              results.get(0).getNewVersion() != null &&
+              results.get(0).getPreviousRow() == null,
+              "putIfVersion of a matching version succeeds");
+        check(!results.get(1).getSuccess() &&
+              v2.equals(results.get(1).getPreviousVersion()) &&
+              "b".equals(results.get(1).getPreviousRow().get("name")
+                         .asString().get()),
+              "putIfVersion of another version fails and returns the row");
+        check(results.get(2).getSuccess(),
+              "deleteIfVersion of a matching version succeeds");
+        check(!results.get(3).getSuccess() &&
+              results.get(0).getNewVersion().equals(
+                  results.get(3).getPreviousVersion()),
+              "deleteIfVersion of a version replaced by the batch fails");
+        final Row row = tableAPI.get(key(6, 1), null);
+        check(row != null &&
+              "c".equals(row.get("name").asString().get()) &&
+              row.getVersion().equals(results.get(0).getNewVersion()),
+              "the matched put is written");
+        check(tableAPI.get(key(6, 2), null) == null,
+              "the matched delete is applied");
+
+        try {
+            tableAPI.execute(
+                Arrays.asList(factory.createDeleteIfVersion(key(6, 1), v1,
+                                                            null, true)),
+                null);
+            check(false, "an unmatched version aborts the batch");
+        } catch (TableOpExecutionException e) {
+            check(e.getFailedOperationIndex() == 0,
+                  "the failed operation index is 0");
+        }
+        check(count(6) == 1, "an aborted batch deletes nothing");
+    }
+
+    private void testRejected() throws TableOpExecutionException {
+        tableAPI.put(row(3, 1, "a"), null, null);
+        final List<TableOperation> ops = Arrays.asList(
+            factory.createPut(row(3, 2, "b"), null, false),
+            factory.createPut(row(4, 1, "c"), null, false));
+        try {
+            tableAPI.execute(ops, null);
+            check(false, "different shard keys are rejected");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+        try {
+            tableAPI.execute(new ArrayList<TableOperation>(), null);
+            check(false, "an empty batch is rejected");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+        check(count(3) == 1 && count(4) == 0, "rejected batches write nothing");
+    }
+
+    /*
+     * Threads delete and re-insert the same rows in batches that abort if
+     * a row is missing: if batches were not atomic, a thread would see a
+     * row deleted by another batch and abort.
+     */
+    private void testConcurrentBatches() throws InterruptedException {
+        final int nRows = 10;
+        for (int i = 0; i < nRows; i++) {
+            tableAPI.put(row(5, i, "x"), null, null);
+        }
+        final AtomicReference<Exception> failure =
+            new AtomicReference<Exception>();
+        final Thread[] threads = new Thread[N_THREADS];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    final List<TableOperation> ops =
+                        new ArrayList<TableOperation>();
+                    for (int i = 0; i < nRows; i++) {
+                        ops.add(factory.createDelete(key(5, i), null, true));
+                        ops.add(factory.createPutIfAbsent(row(5, i, "x"),
+                                                          null, true));
+                    }
+                    try {
+                        for (int b = 0; b < N_BATCHES; b++) {
+                            tableAPI.execute(ops, null);
+                        }
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        check(failure.get() == null,
+              "concurrent batches are atomic: " + failure.get());
+        check(count(5) == nRows, "all rows present after the batches");
+    }
+
+    private void testKeyValue() throws OperationExecutionException {
+        final KVStore kvstore = store.getStore();
+        final Key parent = Key.createKey("user", "1");
+        final Key name = Key.createKey("user", Arrays.asList("1", "name"));
+        final Key mail = Key.createKey("user", Arrays.asList("1", "mail"));
+        final Key city = Key.createKey("user",
+                                       Arrays.asList("1", "address", "city"));
+        final Version v1 = kvstore.put(parent, value("a"));
+        check(kvstore.putIfAbsent(parent, value("b")) == null,
+              "putIfAbsent of an existing record fails");
+        check(kvstore.putIfVersion(parent, value("c"), v1) != null,
+              "putIfVersion of a matching version succeeds");
+        check(kvstore.putIfVersion(parent, value("d"), v1) == null,
+              "putIfVersion of another version fails");
+        check("c".equals(string(kvstore.get(parent).getValue())),
+              "get returns the matched put");
+        kvstore.put(name, value("n"));
+        kvstore.put(city, value("x"));
+        check(kvstore.multiGet(parent, null, null).size() == 3,
+              "multiGet returns the parent and descendants");
+        check(kvstore.multiGetKeys(parent, null, Depth.CHILDREN_ONLY)
+              .size() == 1, "multiGetKeys returns the children");
+
+        final OperationFactory factory = kvstore.getOperationFactory();
+        final List<Operation> ops = Arrays.asList(
+            factory.createPut(mail, value("m")),
+            factory.createDelete(name),
+            factory.createDeleteIfVersion(parent, v1,
+                                          ReturnValueVersion.Choice.ALL,
+                                          true));
+        try {
+            kvstore.execute(ops);
+            check(false, "an unmatched version aborts the batch");
+        } catch (OperationExecutionException e) {
+            check(e.getFailedOperationIndex() == 2 &&
+                  "c".equals(string(e.getFailedOperationResult()
+                                    .getPreviousValue())),
+                  "the failed operation returns the previous value");
+        }
+        check(kvstore.get(mail) == null && kvstore.get(name) != null,
+              "an aborted batch changes nothing");
+        final List<OperationResult> results =
+            kvstore.execute(ops.subList(0, 2));
+        check(results.get(0).getSuccess() && results.get(1).getSuccess() &&
+              kvstore.get(mail) != null && kvstore.get(name) == null,
+              "a batch is applied");
+        try {
+            kvstore.execute(Arrays.asList(
+                factory.createPut(mail, value("m")),
+                factory.createPut(Key.createKey("group", "1"), value("m"))));
+            check(false, "different major paths are rejected");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    private static Value value(final String s) {
+        return Value.createValue(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(final Value value) {
+        return new String(value.getValue(), StandardCharsets.UTF_8);
+    }
+
+    private Row row(final int shard, final int id, final String name) {
+        final Row row = table.createRow();
+        row.put("shard", shard);
+        row.put("id", id);
+        row.put("name", name);
+        return row;
+    }
+
+    private PrimaryKey key(final int shard, final int id) {
+        final PrimaryKey key = table.createPrimaryKey();
+        key.put("shard", shard);
+        key.put("id", id);
+        return key;
+    }
+
+    private int count(final int shard) {
+        final PrimaryKey key = table.createPrimaryKey();
+        key.put("shard", shard);
+        return tableAPI.multiGet(key, null, null).size();
+    }
+
+    private static void check(final boolean condition, final String what) {
+        if (!condition) {
+            System.err.println("Check failed: " + what);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,840 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package memstore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import memstore.InMemoryStore.ResultIterator;
+
+import oracle.kv.Direction;
+import oracle.kv.Version;
+import oracle.kv.impl.api.table.RowImpl;
+import oracle.kv.impl.api.table.TableImpl;
+import oracle.kv.table.FieldRange;
+import oracle.kv.table.FieldValue;
+import oracle.kv.table.MultiRowOptions;
+import oracle.kv.table.PrimaryKey;
+import oracle.kv.table.ReadOptions;
+import oracle.kv.table.ReturnRow;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableIterator;
+import oracle.kv.table.TableIteratorOptions;
+import oracle.kv.table.TableOpExecutionException;
+import oracle.kv.table.TableOperation;
+import oracle.kv.table.TableOperationFactory;
+import oracle.kv.table.TableOperationResult;
+import oracle.kv.table.WriteOptions;
+
+/**
+ * The TableAPI methods supported by an {@link InMemoryStore}, called
+ * through the TableAPI proxy of the store, which maps each interface method
+ * to the method of the same signature here.
+ */
+class InMemoryTableAPI {
+
+    private final InMemoryStore store;
+
+    InMemoryTableAPI(final InMemoryStore store) {
+        this.store = store;
+    }
+
+    public Table getTable(final String fullName) {
+        return store.findTable(fullName);
+    }
+
+    public Table getTable(final String namespace, final String fullName) {
+        return store.findTable(fullName);
+    }
+
+    public Map<String, Table> getTables() {
+        final Map<String, Table> result =
+            new TreeMap<String, Table>(String.CASE_INSENSITIVE_ORDER);
+        for (TableData data : store.getTables().values()) {
+            if (data.table.getParent() == null) {
+                result.put(data.table.getFullName(), data.table);
+            }
+        }
+        return result;
+    }
+
+    public Row get(final PrimaryKey key, final ReadOptions readOptions) {
+        final TableData data = getData(key.getTable());
+        checkComplete(data, key);
+        store.beforeOperation();
+        final Stored stored = data.rows.get(key);
+        return (stored == null) ? null : stored.copyRow();
+    }
+
+    public List<Row> multiGet(final PrimaryKey key,
+                              final MultiRowOptions options,
+                              final ReadOptions readOptions) {
+        final TableData data = getData(key.getTable());
+        checkShardKey(data, key);
+        store.beforeOperation();
+        final List<Row> rows = new ArrayList<Row>();
+        final Iterator<Stored> iter = scan(data, key, options, false);
+        while (iter.hasNext()) {
+            rows.add(iter.next().copyRow());
+        }
+        return rows;
+    }
+
+    public List<PrimaryKey> multiGetKeys(final PrimaryKey key,
+                                         final MultiRowOptions options,
+                                         final ReadOptions readOptions) {
+        final TableData data = getData(key.getTable());
+        checkShardKey(data, key);
+        store.beforeOperation();
+        final List<PrimaryKey> keys = new ArrayList<PrimaryKey>();
+        final Iterator<Stored> iter = scan(data, key, options, false);
+        while (iter.hasNext()) {
+            keys.add(iter.next().row.createPrimaryKey());
+        }
+        return keys;
+    }
+
+    public TableIterator<Row> tableIterator(
+        final PrimaryKey key,
+        final MultiRowOptions options,
+        final TableIteratorOptions iterateOptions) {
+
+        final TableData data = getData(key.getTable());
+        store.beforeOperation();
+        final Iterator<Stored> iter =
+            scan(data, key, options, isReverse(iterateOptions));
+        return new ResultIterator<Row>(new Iterator<Row>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public Row next() {
+                return iter.next().copyRow();
+            }
+        });
+    }
+
+    public TableIterator<PrimaryKey> tableKeysIterator(
+        final PrimaryKey key,
+        final MultiRowOptions options,
+        final TableIteratorOptions iterateOptions) {
+
+        final TableData data = getData(key.getTable());
+        store.beforeOperation();
+        final Iterator<Stored> iter =
+            scan(data, key, options, isReverse(iterateOptions));
+        return new ResultIterator<PrimaryKey>(new Iterator<PrimaryKey>() {
+            @Override
+            public boolean hasNext() {
+                return iter.hasNext();
+            }
+
+            @Override
+            public PrimaryKey next() {
+                return iter.next().row.createPrimaryKey();
+            }
+        });
+    }
+
+    public Version put(final Row row,
+                       final ReturnRow prevRow,
+                       final WriteOptions writeOptions) {
+        final TableData data = getData(row.getTable());
+        final Stored stored = new Stored(data, row);
+        store.beforeOperation();
+        final Stored prev;
+        synchronized (data) {
+            stored.version = store.nextVersion();
+            prev = data.rows.put(stored.key, stored);
+        }
+        setReturnRow(prevRow, prev);
+        store.afterOperation();
+        return stored.version;
+    }
+
+    public Version putIfAbsent(final Row row,
+                               final ReturnRow prevRow,
+                               final WriteOptions writeOptions) {
+        final TableData data = getData(row.getTable());
+        final Stored stored = new Stored(data, row);
+        store.beforeOperation();
+        final Stored prev;
+        synchronized (data) {
+            stored.version = store.nextVersion();
+            prev = data.rows.putIfAbsent(stored.key, stored);
+        }
+        setReturnRow(prevRow, prev);
+        store.afterOperation();
+        return (prev == null) ? stored.version : null;
+    }
+
+    public Version putIfPresent(final Row row,
+                                final ReturnRow prevRow,
+                                final WriteOptions writeOptions) {
+        final TableData data = getData(row.getTable());
+        final Stored stored = new Stored(data, row);
+        store.beforeOperation();
+        final Stored prev;
+        synchronized (data) {
+            prev = data.rows.get(stored.key);
+            if (prev != null) {
+                stored.version = store.nextVersion();
+                data.rows.put(stored.key, stored);
+            }
+        }
+        setReturnRow(prevRow, prev);
+        store.afterOperation();
+        return (prev == null) ? null : stored.version;
+    }
+
+    public Version putIfVersion(final Row row,
+                                final Version matchVersion,
+                                final ReturnRow prevRow,
+                                final WriteOptions writeOptions) {
+        final TableData data = getData(row.getTable());
+        final Stored stored = new Stored(data, row);
+        store.beforeOperation();
+        final Stored prev;
+        final boolean matched;
+        synchronized (data) {
+            prev = data.rows.get(stored.key);
+            matched = (prev != null && prev.version.equals(matchVersion));
+            if (matched) {
+                stored.version = store.nextVersion();
+                data.rows.put(stored.key, stored);
+            }
+        }
+        if (!matched) {
+            setReturnRow(prevRow, prev);
+        }
+        store.afterOperation();
+        return matched ? stored.version : null;
+    }
+
+    public boolean delete(final PrimaryKey key,
+                          final ReturnRow prevRow,
+                          final WriteOptions writeOptions) {
+        final TableData data = getData(key.getTable());
+        checkComplete(data, key);
+        store.beforeOperation();
+        final Stored prev;
+        synchronized (data) {
+            prev = data.rows.remove(key);
+        }
+        setReturnRow(prevRow, prev);
+        store.afterOperation();
+        return prev != null;
+    }
+
+    public boolean deleteIfVersion(final PrimaryKey key,
+                                   final Version matchVersion,
+                                   final ReturnRow prevRow,
+                                   final WriteOptions writeOptions) {
+        final TableData data = getData(key.getTable());
+        checkComplete(data, key);
+        store.beforeOperation();
+        final Stored prev;
+        final boolean matched;
+        synchronized (data) {
+            prev = data.rows.get(key);
+            matched = (prev != null && prev.version.equals(matchVersion));
+            if (matched) {
+                data.rows.remove(key);
+            }
+        }
+        if (!matched) {
+            setReturnRow(prevRow, prev);
+        }
+        store.afterOperation();
+        return matched;
+    }
+
+    public int multiDelete(final PrimaryKey key,
+                           final MultiRowOptions options,
+                           final WriteOptions writeOptions) {
+        final TableData data = getData(key.getTable());
+        checkShardKey(data, key);
+        store.beforeOperation();
+        int count = 0;
+        synchronized (data) {
+            final Iterator<Stored> iter = scan(data, key, options, false);
+            while (iter.hasNext()) {
+                data.rows.remove(iter.next().key);
+                count++;
+            }
+        }
+        store.afterOperation();
+        return count;
+    }
+
+    public TableOperationFactory getTableOperationFactory() {
+        return new OperationFactory();
+    }
+
+    /*
+     * Executes a batch of operations on rows of the same shard key, as a
+     * store does in a single transaction: the results of all the operations
+     * are computed first, and applied only if no operation that aborts when
+     * unsuccessful failed.
+     */
+    public List<TableOperationResult> execute(
+        final List<TableOperation> operations,
+        final WriteOptions writeOptions)
+        throws TableOpExecutionException {
+
+        if (operations == null || operations.isEmpty()) {
+            throw new IllegalArgumentException(
+                "operations must be non-null and non-empty");
+        }
+        final PrimaryKey firstKey = operations.get(0).getPrimaryKey();
+        final TableData data = getData(firstKey.getTable());
+        for (TableOperation op : operations) {
+            if (!(op instanceof Operation)) {
+                throw new IllegalArgumentException(
+                    "Operations must be created by the TableOperationFactory" +
+                    " of the in-memory store");
+            }
+            final Operation operation = (Operation) op;
+            if (getData(operation.key.getTable()) != data) {
+                throw new UnsupportedOperationException(
+                    "Operations on several tables are not supported by the " +
+                    "in-memory store");
+            }
+            checkComplete(data, operation.key);
+            if (!hasPrefix(data, operation.key, firstKey,
+                           data.table.getShardKeySize())) {
+                throw new IllegalArgumentException(
+                    "All operations must have the same shard key");
+            }
+        }
+
+        store.beforeOperation();
+        final List<TableOperationResult> results =
+            new ArrayList<TableOperationResult>(operations.size());
+        synchronized (data) {
+
+            /* The rows written so far by the batch, null when deleted */
+            final Map<PrimaryKey, Stored> written =
+                new TreeMap<PrimaryKey, Stored>(data.rows.comparator());
+            for (int i = 0; i < operations.size(); i++) {
+                final Operation op = (Operation) operations.get(i);
+                final Stored prev = written.containsKey(op.key) ?
+                    written.get(op.key) : data.rows.get(op.key);
+                final Result result = op.apply(data, prev, written);
+                if (!result.success && op.abortIfUnsuccessful) {
+                    throw new TableOpExecutionException(op, i, result, 0, 0);
+                }
+                results.add(result);
+            }
+            for (Map.Entry<PrimaryKey, Stored> entry : written.entrySet()) {
+                if (entry.getValue() == null) {
+                    data.rows.remove(entry.getKey());
+                } else {
+                    data.rows.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        store.afterOperation();
+        return results;
+    }
+
+    @Override
+    public String toString() {
+        return "InMemoryTableAPI[" + store.getTables().size() + " tables]";
+    }
+
+    private TableData getData(final Table table) {
+        final TableData data = store.getTables().get(
+            table.getFullName().toLowerCase(java.util.Locale.ROOT));
+        if (data == null) {
+            throw new IllegalArgumentException(
+                "Table does not exist: " + table.getFullName());
+        }
+        return data;
+    }
+
+    private static boolean isReverse(final TableIteratorOptions options) {
+        return options != null && options.getDirection() == Direction.REVERSE;
+    }
+
+    /*
+     * Returns the rows matching the fields set in the key, and the field
+     * range of the options, in key order or in reverse.
+     */
+    private static Iterator<Stored> scan(final TableData data,
+                                         final PrimaryKey key,
+                                         final MultiRowOptions options,
+                                         final boolean reverse) {
+        final int prefix = getPrefixLength(data, key);
+        final FieldRange range = getFieldRange(data, prefix, options);
+        final Iterator<Stored> iter = data.rows.tailMap(key, true)
+            .values().iterator();
+
+        final Iterator<Stored> matching = new Iterator<Stored>() {
+            private Stored next = advance();
+
+            private Stored advance() {
+                while (iter.hasNext()) {
+                    final Stored stored = iter.next();
+                    if (!hasPrefix(data, stored.key, key, prefix)) {
+                        return null;
+                    }
+                    if (range == null || inRange(stored.key, range)) {
+                        return stored;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Stored next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                final Stored result = next;
+                next = advance();
+                return result;
+            }
+        };
+        if (!reverse) {
+            return matching;
+        }
+        final List<Stored> all = new ArrayList<Stored>();
+        while (matching.hasNext()) {
+            all.add(matching.next());
+        }
+        Collections.reverse(all);
+        return all.iterator();
+    }
+
+    private static boolean hasPrefix(final TableData data,
+                                     final PrimaryKey key,
+                                     final PrimaryKey prefixKey,
+                                     final int prefix) {
+        for (int i = 0; i < prefix; i++) {
+            final String field = data.primaryKey.get(i);
+            if (key.get(field).compareTo(prefixKey.get(field)) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean inRange(final PrimaryKey key,
+                                   final FieldRange range) {
+        final FieldValue value = key.get(range.getFieldName());
+        if (range.getStart() != null) {
+            final int c = value.compareTo(range.getStart());
+            if (c < 0 || (c == 0 && !range.getStartInclusive())) {
+                return false;
+            }
+        }
+        if (range.getEnd() != null) {
+            final int c = value.compareTo(range.getEnd());
+            if (c > 0 || (c == 0 && !range.getEndInclusive())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Returns the number of primary key fields set in the key, which must
+     * be the first fields of the primary key.
+     */
+    private static int getPrefixLength(final TableData data,
+                                       final PrimaryKey key) {
+        int prefix = 0;
+        while (prefix < data.primaryKey.size() &&
+               key.get(data.primaryKey.get(prefix)) != null) {
+            prefix++;
+        }
+        for (int i = prefix + 1; i < data.primaryKey.size(); i++) {
+            if (key.get(data.primaryKey.get(i)) != null) {
+                throw new IllegalArgumentException(
+                    "PrimaryKey is missing fields more significant than " +
+                    "field: " + data.primaryKey.get(i));
+            }
+        }
+        return prefix;
+    }
+
+    private static FieldRange getFieldRange(final TableData data,
+                                            final int prefix,
+                                            final MultiRowOptions options) {
+        if (options == null) {
+            return null;
+        }
+        if ((options.getIncludedParentTables() != null &&
+             !options.getIncludedParentTables().isEmpty()) ||
+            (options.getIncludedChildTables() != null &&
+             !options.getIncludedChildTables().isEmpty())) {
+            throw new UnsupportedOperationException(
+                "Parent and child tables are not supported by the " +
+                "in-memory store");
+        }
+        final FieldRange range = options.getFieldRange();
+        if (range != null &&
+            (prefix == data.primaryKey.size() ||
+             !data.primaryKey.get(prefix).equalsIgnoreCase(
+                 range.getFieldName()))) {
+            throw new IllegalArgumentException(
+                "The field range must be on the first primary key field " +
+                "not set in the key: " + range.getFieldName());
+        }
+        return range;
+    }
+
+    private static void checkComplete(final TableData data,
+                                      final PrimaryKey key) {
+        if (getPrefixLength(data, key) < data.primaryKey.size()) {
+            throw new IllegalArgumentException(
+                "PrimaryKey is missing fields: " + key.toJsonString(false));
+        }
+    }
+
+    private static void checkShardKey(final TableData data,
+                                      final PrimaryKey key) {
+        if (getPrefixLength(data, key) < data.table.getShardKeySize()) {
+            throw new IllegalArgumentException(
+                "PrimaryKey is missing shard key fields: " +
+                key.toJsonString(false));
+        }
+    }
+
+    /*
+     * Sets the previous row and version, as asked for by the ReturnRow.
+     */
+    private static void setReturnRow(final ReturnRow prevRow,
+                                     final Stored prev) {
+        if (prevRow == null || prev == null) {
+            return;
+        }
+        final ReturnRow.Choice choice = prevRow.getReturnChoice();
+        if (choice.needValue()) {
+            for (String field : prev.row.getFieldNames()) {
+                final FieldValue value = prev.row.get(field);
+                if (value != null) {
+                    prevRow.put(field, value.clone());
+                }
+            }
+        }
+        if (choice.needVersion()) {
+            ((RowImpl) prevRow).setVersion(prev.version);
+        }
+    }
+
+    /**
+     * The rows of a table, by primary key. Writes synchronize on the
+     * TableData, so that conditional operations and batches are atomic;
+     * reads do not.
+     */
+    static class TableData {
+        final TableImpl table;
+        final List<String> primaryKey;
+        final ConcurrentSkipListMap<PrimaryKey, Stored> rows;
+
+        TableData(final TableImpl table) {
+            this.table = table;
+            primaryKey = table.getPrimaryKey();
+            rows = new ConcurrentSkipListMap<PrimaryKey, Stored>(
+                new KeyComparator(primaryKey));
+        }
+    }
+
+    /*
+     * A copy of a row as stored, with its version.
+     */
+    private static class Stored {
+        final RowImpl row;
+        final PrimaryKey key;
+        Version version;
+
+        Stored(final TableData data, final Row row) {
+            this.row = ((RowImpl) row).clone();
+            key = this.row.createPrimaryKey();
+            checkComplete(data, key);
+        }
+
+        Row copyRow() {
+            final RowImpl copy = row.clone();
+            copy.setVersion(version);
+            return copy;
+        }
+    }
+
+    /*
+     * The operations created by the factory of the store, which keep the
+     * return row choice that the TableOperation interface does not expose.
+     */
+    private class OperationFactory implements TableOperationFactory {
+
+        @Override
+        public TableOperation createPut(final Row row,
+                                        final ReturnRow.Choice choice,
+                                        final boolean abort) {
+            return new Operation(TableOperation.Type.PUT, row,
+                                 row.createPrimaryKey(), null, choice,
+                                 abort);
+        }
+
+        @Override
+        public TableOperation createPutIfAbsent(
+            final Row row,
+            final ReturnRow.Choice choice,
+            final boolean abort) {
+            return new Operation(TableOperation.Type.PUT_IF_ABSENT, row,
+                                 row.createPrimaryKey(), null, choice,
+                                 abort);
+        }
+
+        @Override
+        public TableOperation createPutIfPresent(
+            final Row row,
+            final ReturnRow.Choice choice,
+            final boolean abort) {
+            return new Operation(TableOperation.Type.PUT_IF_PRESENT, row,
+                                 row.createPrimaryKey(), null, choice,
+                                 abort);
+        }
+
+        @Override
+        public TableOperation createPutIfVersion(
+            final Row row,
+            final Version version,
+            final ReturnRow.Choice choice,
+            final boolean abort) {
+            return new Operation(TableOperation.Type.PUT_IF_VERSION, row,
+                                 row.createPrimaryKey(), version, choice,
+                                 abort);
+        }
+
+        @Override
+        public TableOperation createDelete(final PrimaryKey key,
+                                           final ReturnRow.Choice choice,
+                                           final boolean abort) {
+            return new Operation(TableOperation.Type.DELETE, null, key,
+                                 null, choice, abort);
+        }
+
+        @Override
+        public TableOperation createDeleteIfVersion(
+            final PrimaryKey key,
+            final Version version,
+            final ReturnRow.Choice choice,
+            final boolean abort) {
+            return new Operation(TableOperation.Type.DELETE_IF_VERSION, null,
+                                 key, version, choice, abort);
+        }
+    }
+
+    private class Operation implements TableOperation {
+        final TableOperation.Type type;
+        final Row row;
+        final PrimaryKey key;
+        final Version matchVersion;
+        final ReturnRow.Choice choice;
+        final boolean abortIfUnsuccessful;
+        private boolean updateTTL;
+
+        Operation(final TableOperation.Type type,
+                  final Row row,
+                  final PrimaryKey key,
+                  final Version matchVersion,
+                  final ReturnRow.Choice choice,
+                  final boolean abortIfUnsuccessful) {
+            this.type = type;
+            this.row = row;
+            this.key = key;
+            this.matchVersion = matchVersion;
+            this.choice = (choice == null) ? ReturnRow.Choice.NONE : choice;
+            this.abortIfUnsuccessful = abortIfUnsuccessful;
+        }
+
+        /*
+         * Computes the result of the operation on the row of its key, prev
+         * if there is one, and adds the row it writes, if any, to written.
+         * Like putIfVersion and deleteIfVersion, the version-matching
+         * operations only return the previous row when they fail.
+         */
+        Result apply(final TableData data,
+                     final Stored prev,
+                     final Map<PrimaryKey, Stored> written) {
+            final boolean success;
+            switch (type) {
+            case PUT:
+                success = true;
+                break;
+            case PUT_IF_ABSENT:
+                success = (prev == null);
+                break;
+            case PUT_IF_PRESENT:
+                success = (prev != null);
+                break;
+            case PUT_IF_VERSION:
+                success = (prev != null && prev.version.equals(matchVersion));
+                if (success) {
+                    final Stored stored = new Stored(data, row);
+                    stored.version = store.nextVersion();
+                    written.put(key, stored);
+                    return new Result(true, stored, null, choice);
+                }
+                return new Result(false, null, prev, choice);
+            case DELETE:
+                success = (prev != null);
+                if (success) {
+                    written.put(key, null);
+                }
+                return new Result(success, null, prev, choice);
+            case DELETE_IF_VERSION:
+                success = (prev != null && prev.version.equals(matchVersion));
+                if (success) {
+                    written.put(key, null);
+                    return new Result(true, null, null, choice);
+                }
+                return new Result(false, null, prev, choice);
+            default:
+                throw new IllegalStateException("Unexpected type: " + type);
+            }
+            if (!success) {
+                return new Result(false, null, prev, choice);
+            }
+            final Stored stored = new Stored(data, row);
+            stored.version = store.nextVersion();
+            written.put(key, stored);
+            return new Result(true, stored, prev, choice);
+        }
+
+        @Override
+        public Row getRow() {
+            return row;
+        }
+
+        @Override
+        public PrimaryKey getPrimaryKey() {
+            return key;
+        }
+
+        @Override
+        public TableOperation.Type getType() {
+            return type;
+        }
+
+        @Override
+        public boolean getAbortIfUnsuccessful() {
+            return abortIfUnsuccessful;
+        }
+
+        @Override
+        public void setUpdateTTL(final boolean flag) {
+            updateTTL = flag;
+        }
+
+        @Override
+        public boolean getUpdateTTL() {
+            return updateTTL;
+        }
+    }
+
+    private static class Result implements TableOperationResult {
+        private final boolean success;
+        private final Version newVersion;
+        private final Row previousRow;
+        private final Version previousVersion;
+
+        Result(final boolean success,
+               final Stored stored,
+               final Stored prev,
+               final ReturnRow.Choice choice) {
+            this.success = success;
+            newVersion = (stored == null) ? null : stored.version;
+            previousRow = (prev != null && choice.needValue()) ?
+                prev.copyRow() : null;
+            previousVersion = (prev != null && choice.needVersion()) ?
+                prev.version : null;
+        }
+
+        @Override
+        public boolean getSuccess() {
+            return success;
+        }
+
+        @Override
+        public Version getNewVersion() {
+            return newVersion;
+        }
+
+        @Override
+        public Version getPreviousVersion() {
+            return previousVersion;
+        }
+
+        @Override
+        public Row getPreviousRow() {
+            return previousRow;
+        }
+
+        @Override
+        public long getPreviousExpirationTime() {
+            return 0;
+        }
+    }
+
+    /*
+     * Orders primary keys by their fields in primary key order. A field
+     * missing from a partial key sorts before any value, so that a partial
+     * key sorts before the keys that start with its fields.
+     */
+    private static class KeyComparator implements Comparator<PrimaryKey> {
+        private final List<String> fields;
+
+        KeyComparator(final List<String> fields) {
+            this.fields = fields;
+        }
+
+        @Override
+        public int compare(final PrimaryKey key1, final PrimaryKey key2) {
+            for (String field : fields) {
+                final FieldValue value1 = key1.get(field);
+                final FieldValue value2 = key2.get(field);
+                if (value1 == null) {
+                    return (value2 == null) ? 0 : -1;
+                }
+                if (value2 == null) {
+                    return 1;
+                }
+                final int c = value1.compareTo(value2);
+                if (c != 0) {
+                    return c;
+                }
+            }
+            return 0;
+        }
+    }
+}
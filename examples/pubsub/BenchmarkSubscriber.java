@@ -0,0 +1,268 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package pubsub;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import oracle.kv.pubsub.NoSQLSubscriber;
+import oracle.kv.pubsub.NoSQLSubscription;
+import oracle.kv.pubsub.NoSQLSubscriptionConfig;
+import oracle.kv.pubsub.StreamOperation;
+import oracle.kv.pubsub.StreamPosition;
+import oracle.kv.table.FieldValue;
+
+import org.reactivestreams.Subscription;
+
+/**
+ * Subscriber used by NoSQLStreamBenchmark. It does no per-operation output,
+ * it only counts the received operations, records the latency from the time
+ * the writer issued each operation to the time it arrives in onNext, and
+ * measures how long each checkpoint takes to complete.
+ *
+ * The writer stamps the issue time of operation i into slot i of a shared
+ * array and writes the row with userID = baseId + i, so the subscriber can
+ * find the issue time of every streamed operation without any lookup
+ * structure.
+ */
+class BenchmarkSubscriber implements NoSQLSubscriber {
+
+    /* subscription configuration */
+    private final NoSQLSubscriptionConfig config;
+
+    /* number of operations to stream */
+    private final int numOps;
+
+    /* checkpoint interval in number of ops, 0 to disable */
+    private final long ckptIntv;
+
+    /* userID of the first row written by the benchmark writer */
+    private final int baseId;
+
+    /* issue time in ns of each operation, indexed by userID - baseId */
+    private final AtomicLongArray writeTimes;
+
+    /* write-to-onNext latency in ns of each operation, in arrival order */
+    private final long[] latencies;
+
+    /* number of latency samples recorded */
+    private int numLatencies;
+
+    /* number of streamed ops, read by the benchmark driver */
+    private volatile long streamOps;
+
+    /* time in ns of the first and last received operation */
+    private volatile long firstOpNs;
+    private volatile long lastOpNs;
+
+    /* checkpoint cost accounting */
+    private volatile boolean inCkpt;
+    private long ckptStartNs;
+    private volatile long numCkpts;
+    private volatile long numFailedCkpts;
+    private volatile long totalCkptNs;
+    private volatile long maxCkptNs;
+
+    private volatile NoSQLSubscription subscription;
+
+    private volatile boolean isSubscribeSucc;
+
+    private volatile Throwable causeOfFailure;
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    BenchmarkSubscriber(NoSQLSubscriptionConfig config,
+                        int numOps,
+                        long ckptIntv,
+                        int baseId,
+                        AtomicLongArray writeTimes) {
+        this.config = config;
+        this.numOps = numOps;
+        this.ckptIntv = ckptIntv;
+        this.baseId = baseId;
+        this.writeTimes = writeTimes;
+        latencies = new long[numOps];
+    }
+
+    @Override
+    public NoSQLSubscriptionConfig getSubscriptionConfig() {
+        return config;
+    }
+
+    @Override
+    public void onSubscribe(Subscription s) {
+        subscription = (NoSQLSubscription) s;
+        subscription.request(numOps);
+        isSubscribeSucc = true;
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        causeOfFailure = t;
+        logger.severe("Error: " + t.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+        /* shall be no-op */
+    }
+
+    @Override
+    public void onWarn(Throwable t) {
+        logger.warning("Warning: " + t.getMessage());
+    }
+
+    @Override
+    public void onCheckpointComplete(StreamPosition pos, Throwable cause) {
+        final long elapsedNs = System.nanoTime() - ckptStartNs;
+        if (cause == null) {
+            numCkpts++;
+            totalCkptNs += elapsedNs;
+            if (elapsedNs > maxCkptNs) {
+                maxCkptNs = elapsedNs;
+            }
+        } else {
+            numFailedCkpts++;
+            logger.warning("Fail to checkpoint at position " + pos +
+                           ", cause: " + cause.getMessage());
+        }
+        inCkpt = false;
+    }
+
+    @Override
+    public void onNext(StreamOperation t) {
+        final long now = System.nanoTime();
+        switch (t.getType()) {
+            case PUT:
+                recordLatency(t.asPut().getRow().get("userID"), now);
+                break;
+            case DELETE:
+                recordLatency(t.asDelete().getPrimaryKey().get("userID"),
+                              now);
+                break;
+            default:
+                throw new IllegalStateException("Receive unsupported stream " +
+                                                "operation from shard " +
+                                                t.getRepGroupId() +
+                                                ", seq: " + t.getSequenceId());
+        }
+
+        if (streamOps == 0) {
+            firstOpNs = now;
+        }
+        lastOpNs = now;
+        streamOps++;
+
+        doCheckpoint();
+        if (streamOps == numOps) {
+            subscription.cancel();
+            logger.fine("Subscription cancelled after receiving " +
+                        numOps + " ops.");
+        }
+    }
+
+    private void recordLatency(FieldValue userID, long now) {
+        final int slot = userID.asInteger().get() - baseId;
+        if (slot < 0 || slot >= writeTimes.length()) {
+            /* a row written by someone other than the benchmark writer */
+            return;
+        }
+        final long issued = writeTimes.get(slot);
+        if (issued != 0 && numLatencies < latencies.length) {
+            latencies[numLatencies++] = now - issued;
+        }
+    }
+
+    private void doCheckpoint() {
+        if (ckptIntv == 0 || inCkpt) {
+            return;
+        }
+
+        if (streamOps % ckptIntv == 0) {
+            inCkpt = true;
+            ckptStartNs = System.nanoTime();
+            /* checkpoint is async and returns instantly */
+            subscription.doCheckpoint(subscription.getCurrentPosition());
+        }
+    }
+
+    /**
+     * Returns the latency percentiles in microseconds for the given
+     * percentiles, which must be in ascending order. Only valid after the
+     * stream is done.
+     */
+    long[] getLatencyPercentilesUs(double... percentiles) {
+        final long[] sorted = Arrays.copyOf(latencies, numLatencies);
+        Arrays.sort(sorted);
+        final long[] result = new long[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (sorted.length == 0) {
+                continue;
+            }
+            int idx = (int) Math.ceil(percentiles[i] / 100 * sorted.length);
+            idx = Math.min(Math.max(idx - 1, 0), sorted.length - 1);
+            result[i] = sorted[idx] / 1000;
+        }
+        return result;
+    }
+
+    String getCauseOfFailure() {
+        if (causeOfFailure == null) {
+            return "success";
+        }
+        return causeOfFailure.getMessage();
+    }
+
+    boolean isSubscriptionSucc() {
+        return isSubscribeSucc;
+    }
+
+    boolean isFailed() {
+        return causeOfFailure != null;
+    }
+
+    long getStreamOps() {
+        return streamOps;
+    }
+
+    int getNumLatencies() {
+        return numLatencies;
+    }
+
+    /* elapsed time between the first and the last received operation */
+    long getStreamElapsedNs() {
+        return lastOpNs - firstOpNs;
+    }
+
+    long getNumCkpts() {
+        return numCkpts;
+    }
+
+    long getNumFailedCkpts() {
+        return numFailedCkpts;
+    }
+
+    long getAvgCkptUs() {
+        return (numCkpts == 0) ? 0 : totalCkptNs / numCkpts / 1000;
+    }
+
+    long getMaxCkptUs() {
+        return maxCkptNs / 1000;
+    }
+
+    NoSQLSubscription getSubscription() {
+        return subscription;
+    }
+}
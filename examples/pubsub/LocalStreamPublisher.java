@@ -0,0 +1,271 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package pubsub;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.kv.pubsub.NoSQLSubscriber;
+import oracle.kv.pubsub.NoSQLSubscriberId;
+import oracle.kv.pubsub.NoSQLSubscription;
+import oracle.kv.pubsub.StreamOperation;
+import oracle.kv.pubsub.StreamPosition;
+import oracle.kv.stats.SubscriptionMetrics;
+import oracle.kv.table.Row;
+
+/**
+ * An in-process stand-in for NoSQLPublisher used by NoSQLStreamBenchmark when
+ * no store is available. Rows handed to {@link #publish} are queued in a
+ * bounded buffer and delivered to a single subscriber on a dedicated thread,
+ * honoring the demand the subscriber signals through request(n), the same
+ * way the real publisher does. Checkpoints complete asynchronously on the
+ * delivery thread after a configurable simulated delay.
+ *
+ * It is meant to measure the cost of the subscriber itself, without the
+ * network and replication stream in the way, so results obtained with it are
+ * only comparable to other runs of the stand-in.
+ */
+class LocalStreamPublisher implements NoSQLSubscription {
+
+    private static final String STORE_NAME = "local";
+    private static final long STORE_ID = 0;
+    /* the stand-in pretends to stream from a single shard */
+    private static final int SHARD_ID = 1;
+    /* poll interval of the delivery thread when it has nothing to do */
+    private static final long POLL_INTERVAL_MS = 10;
+
+    private final BlockingQueue<StreamOperation> queue;
+    private final long ckptDelayMs;
+    private final NoSQLSubscriberId subscriberId;
+
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Thread deliveryThread;
+
+    private volatile NoSQLSubscriber subscriber;
+    private volatile boolean canceled;
+    private volatile StreamPosition pendingCkpt;
+    private volatile StreamPosition lastCkpt;
+
+    /**
+     * Creates a stand-in publisher.
+     *
+     * @param capacity max number of operations buffered before publish
+     * blocks the writer
+     * @param ckptDelayMs simulated time a checkpoint takes to complete
+     */
+    LocalStreamPublisher(int capacity, long ckptDelayMs) {
+        queue = new ArrayBlockingQueue<StreamOperation>(capacity);
+        this.ckptDelayMs = ckptDelayMs;
+        subscriberId = new NoSQLSubscriberId(1, 0);
+        deliveryThread = new Thread("LocalStreamPublisher") {
+            @Override
+            public void run() {
+                deliver();
+            }
+        };
+        deliveryThread.setDaemon(true);
+    }
+
+    /**
+     * Starts streaming to the given subscriber. Only one subscriber is
+     * supported.
+     */
+    void subscribe(NoSQLSubscriber s) {
+        if (subscriber != null) {
+            throw new IllegalStateException("Already subscribed");
+        }
+        subscriber = s;
+        s.onSubscribe(this);
+        deliveryThread.start();
+    }
+
+    /**
+     * Publishes a put of the given row, blocking while the buffer is full.
+     */
+    void publish(Row row) throws InterruptedException {
+        queue.put(new LocalPutEvent(row, sequence.incrementAndGet()));
+    }
+
+    /**
+     * Stops the delivery thread and waits for it to exit.
+     */
+    void close() throws InterruptedException {
+        canceled = true;
+        deliveryThread.join();
+    }
+
+    private void deliver() {
+        try {
+            while (!canceled) {
+                final StreamPosition ckpt = pendingCkpt;
+                if (ckpt != null) {
+                    completeCheckpoint(ckpt);
+                }
+
+                if (demand.get() == 0) {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                    continue;
+                }
+
+                final StreamOperation op =
+                    queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (op == null) {
+                    continue;
+                }
+                demand.decrementAndGet();
+                subscriber.onNext(op);
+            }
+        } catch (InterruptedException ie) {
+            /* exit */
+        } catch (RuntimeException re) {
+            subscriber.onError(re);
+        }
+    }
+
+    private void completeCheckpoint(StreamPosition ckpt)
+        throws InterruptedException {
+
+        if (ckptDelayMs > 0) {
+            Thread.sleep(ckptDelayMs);
+        }
+        lastCkpt = ckpt;
+        pendingCkpt = null;
+        subscriber.onCheckpointComplete(ckpt, null);
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            subscriber.onError(new IllegalArgumentException(
+                "Request must be positive: " + n));
+            return;
+        }
+        demand.addAndGet(n);
+    }
+
+    @Override
+    public void cancel() {
+        canceled = true;
+    }
+
+    @Override
+    public NoSQLSubscriberId getSubscriberId() {
+        return subscriberId;
+    }
+
+    @Override
+    public StreamPosition getCurrentPosition() {
+        return new StreamPosition(STORE_NAME, STORE_ID);
+    }
+
+    @Override
+    public StreamPosition getLastCheckpoint() {
+        return lastCkpt;
+    }
+
+    @Override
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    @Override
+    public void doCheckpoint(StreamPosition position) {
+        pendingCkpt = position;
+    }
+
+    /**
+     * The stand-in does not collect replication stream metrics.
+     */
+    @Override
+    public SubscriptionMetrics getSubscriptionMetrics() {
+        return null;
+    }
+
+    private static class LocalPutEvent implements StreamOperation.PutEvent {
+
+        private final Row row;
+        private final LocalSequenceId seqId;
+
+        LocalPutEvent(Row row, long seq) {
+            this.row = row;
+            seqId = new LocalSequenceId(seq);
+        }
+
+        @Override
+        public Row getRow() {
+            return row;
+        }
+
+        @Override
+        public SequenceId getSequenceId() {
+            return seqId;
+        }
+
+        @Override
+        public int getRepGroupId() {
+            return SHARD_ID;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.PUT;
+        }
+
+        @Override
+        public PutEvent asPut() {
+            return this;
+        }
+
+        @Override
+        public DeleteEvent asDelete() {
+            throw new IllegalArgumentException("This operation is not a " +
+                                               "delete operation");
+        }
+
+        @Override
+        public String toString() {
+            return "PUT OP [seq: " + seqId + ", shard id: " + SHARD_ID +
+                   ", row: " + row.toJsonString(false) + "]";
+        }
+    }
+
+    private static class LocalSequenceId
+        implements StreamOperation.SequenceId {
+
+        private final long seq;
+
+        LocalSequenceId(long seq) {
+            this.seq = seq;
+        }
+
+        @Override
+        public byte[] getBytes() {
+            return ByteBuffer.allocate(8).putLong(seq).array();
+        }
+
+        @Override
+        public int compareTo(StreamOperation.SequenceId other) {
+            return Long.compare(seq, ((LocalSequenceId) other).seq);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(seq);
+        }
+    }
+}
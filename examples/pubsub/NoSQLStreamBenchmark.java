@@ -0,0 +1,430 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package pubsub;
+
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.impl.api.table.TableBuilder;
+import oracle.kv.pubsub.NoSQLPublisher;
+import oracle.kv.pubsub.NoSQLPublisherConfig;
+import oracle.kv.pubsub.NoSQLStreamMode;
+import oracle.kv.pubsub.NoSQLSubscriptionConfig;
+import oracle.kv.table.Row;
+import oracle.kv.table.Table;
+import oracle.kv.table.TableAPI;
+
+/**
+ * A benchmark of the end-to-end throughput of a NoSQL Stream subscriber.
+ *
+ * The benchmark first loads a known, deterministic dataset into its own
+ * table, then subscribes to that table with {@link NoSQLStreamMode#FROM_NOW}
+ * and starts a concurrent writer that inserts new rows at a configured rate.
+ * When the subscriber has received every written operation the benchmark
+ * reports:
+ * <ul>
+ * <li>the rate the writer actually achieved,</li>
+ * <li>the sustained stream throughput in ops/sec, measured between the first
+ * and the last operation received by the subscriber,</li>
+ * <li>percentiles of the latency from the write to its arrival in
+ * onNext,</li>
+ * <li>the number and the cost of the checkpoints taken while streaming.</li>
+ * </ul>
+ *
+ * <p>
+ * The benchmark runs either against a store, typically a local KVLite:
+ *
+ * <pre>
+ * java -cp ... pubsub.NoSQLStreamBenchmark &#92;
+ *              -store &lt;store&gt; -host &lt;host&gt; -port &lt;port&gt; &#92;
+ *              -num &lt;rows to preload&gt; -ops &lt;ops to stream&gt; &#92;
+ *              -rate &lt;writer ops/sec&gt; -checkpoint &lt;interval&gt;
+ * </pre>
+ *
+ * or against an in-process stand-in publisher, which needs no store and
+ * measures the subscriber alone:
+ *
+ * <pre>
+ * java -cp ... pubsub.NoSQLStreamBenchmark -local &#92;
+ *              -ops &lt;ops to stream&gt; -rate &lt;writer ops/sec&gt; &#92;
+ *              -checkpoint &lt;interval&gt; -ckpt-delay &lt;ms&gt;
+ * </pre>
+ *
+ * Numbers are only comparable between runs that use the same mode and
+ * arguments. A rate of 0 lets the writer run as fast as it can.
+ */
+public class NoSQLStreamBenchmark {
+
+    /* shard timeout in ms */
+    private static final int PUBLISHER_SHARD_TIMEOUT_MS = 60000;
+    /* max concurrent subscriptions in publisher  */
+    private static final int PUBLISHER_MAX_SUBSCRIPTIONS = 1;
+    /* subscription time out in milliseconds */
+    private static final int SUBSCRIPTION_TIMEOUT_MS = 10000;
+    /* capacity of the stand-in publisher buffer */
+    private static final int LOCAL_QUEUE_CAPACITY = 8192;
+    /* name of checkpoint table used in benchmark */
+    private static final String CKPT_TABLE_NAME = "StreamBenchCkptTable";
+    /* reported latency percentiles */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+    /* table to subscribe, same schema as the NoSQLStreamExample table */
+    private static final String TABLE_NAME = "StreamBenchUser";
+    private static final String CREATE_TABLE_DDL =
+        "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " " +
+        "(firstName STRING, " +
+        " lastName STRING, " +
+        " state STRING, " +
+        " userID INTEGER, " +
+        " PRIMARY KEY (userID))";
+    private static final String[] STATES = {
+        "AK", "AL", "AR", "AZ", "CA", "CO", "CT", "DE", "FL", "GA",
+        "HI", "IA", "ID", "IL", "IN", "KS", "KY", "LA", "MA", "MD",
+        "ME", "MI", "MN", "MO", "MS", "MT", "NC", "ND", "NE", "NH",
+        "NJ", "NM", "NV", "NY", "OH", "OK", "OR", "PA", "RI", "SC",
+        "SD", "TN", "TX", "UT", "VA", "VT", "WA", "WI", "WV", "WY"};
+
+    private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+    private String storeName = "";
+    private String host = "";
+    private String port = "";
+    private boolean local = false;
+    /* number of rows preloaded before streaming starts */
+    private int num = 10000;
+    /* number of operations written and streamed */
+    private int ops = 100000;
+    /* writer rate in ops/sec, 0 for unthrottled */
+    private int rate = 0;
+    /* no checkpoint by default */
+    private int ckptIntv = 0;
+    /* simulated checkpoint time of the stand-in publisher */
+    private long ckptDelayMs = 0;
+    /* max time to wait for the stream to finish */
+    private long timeoutSecs = 600;
+
+    /* issue time in ns of each written op, shared with the subscriber */
+    private final AtomicLongArray writeTimes;
+
+    public static void main(final String args[]) throws Exception {
+        final NoSQLStreamBenchmark bench = new NoSQLStreamBenchmark(args);
+        bench.run();
+    }
+
+    private NoSQLStreamBenchmark(final String[] argv) {
+        parseArgs(argv);
+        if (!local &&
+            (storeName.isEmpty() || host.isEmpty() || port.isEmpty())) {
+            usage("either -local or all of -store -host -port are required");
+        }
+        if (ops <= 0) {
+            usage("-ops must be positive");
+        }
+        writeTimes = new AtomicLongArray(ops);
+    }
+
+    private static void usage(final String message) {
+        if (message != null) {
+            System.err.println("\n" + message + "\n");
+        }
+
+        System.err.println("usage: NoSQLStreamBenchmark");
+        System.err.println
+            ("\t[-store <instance name> -host <host name> " +
+             "-port <port number> | -local]\n" +
+             "\t-num <number of rows to preload, default 10000>\n" +
+             "\t-ops <number of operations to stream, default 100000>\n" +
+             "\t-rate <writer ops/sec, default 0 (unthrottled)>\n" +
+             "\t-checkpoint <checkpoint interval in number of ops>\n" +
+             "\t-ckpt-delay <simulated checkpoint time in ms, -local only>\n" +
+             "\t-timeout <max seconds to wait for the stream>\n");
+
+        System.exit(1);
+    }
+
+    private void parseArgs(String[] argv) {
+        final int nArgs = argv.length;
+        int argc = 0;
+        while (argc < nArgs) {
+            final String thisArg = argv[argc++];
+            if (thisArg.equals("-local")) {
+                local = true;
+                continue;
+            }
+            if (argc >= nArgs) {
+                usage(thisArg + " requires an argument");
+            }
+            final String value = argv[argc++];
+            switch (thisArg) {
+                case "-store":
+                    storeName = value;
+                    break;
+                case "-host":
+                    host = value;
+                    break;
+                case "-port":
+                    port = value;
+                    break;
+                case "-num":
+                    num = Integer.parseInt(value);
+                    break;
+                case "-ops":
+                    ops = Integer.parseInt(value);
+                    break;
+                case "-rate":
+                    rate = Integer.parseInt(value);
+                    break;
+                case "-checkpoint":
+                    ckptIntv = Integer.parseInt(value);
+                    break;
+                case "-ckpt-delay":
+                    ckptDelayMs = Long.parseLong(value);
+                    break;
+                case "-timeout":
+                    timeoutSecs = Long.parseLong(value);
+                    break;
+                default:
+                    usage("Unknown argument: " + thisArg);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        if (local) {
+            runLocal();
+        } else {
+            runStore();
+        }
+    }
+
+    /* Runs the benchmark against the in-process stand-in publisher */
+    private void runLocal() throws Exception {
+        final Table table = TableBuilder.createTableBuilder(TABLE_NAME)
+            .addString("firstName")
+            .addString("lastName")
+            .addString("state")
+            .addInteger("userID")
+            .primaryKey("userID")
+            .buildTable();
+
+        final LocalStreamPublisher publisher =
+            new LocalStreamPublisher(LOCAL_QUEUE_CAPACITY, ckptDelayMs);
+        final BenchmarkSubscriber subscriber = createSubscriber();
+        publisher.subscribe(subscriber);
+
+        final Writer writer = new Writer(table) {
+            @Override
+            void write(Row row) throws InterruptedException {
+                publisher.publish(row);
+            }
+        };
+        try {
+            stream(subscriber, writer);
+        } finally {
+            publisher.close();
+        }
+    }
+
+    /* Runs the benchmark against a store */
+    private void runStore() throws Exception {
+        final KVStoreConfig kvConfig =
+            new KVStoreConfig(storeName, host + ":" + port);
+        NoSQLPublisher publisher = null;
+        try (final KVStore store = KVStoreFactory.getStore(kvConfig)) {
+            final TableAPI tableAPI = store.getTableAPI();
+            store.execute(CREATE_TABLE_DDL).get();
+            final Table table = tableAPI.getTable(TABLE_NAME);
+            preload(tableAPI, table);
+
+            final NoSQLPublisherConfig publisherConfig =
+                new NoSQLPublisherConfig.Builder(kvConfig, ".")
+                    .setMaxConcurrentSubs(PUBLISHER_MAX_SUBSCRIPTIONS)
+                    .setShardTimeoutMs(PUBLISHER_SHARD_TIMEOUT_MS)
+                    .build();
+            publisher = NoSQLPublisher.get(publisherConfig, logger);
+
+            final BenchmarkSubscriber subscriber = createSubscriber();
+            publisher.subscribe(subscriber);
+            waitFor(SUBSCRIPTION_TIMEOUT_MS, subscriber, false);
+
+            final Writer writer = new Writer(table) {
+                @Override
+                void write(Row row) {
+                    tableAPI.put(row, null, null);
+                }
+            };
+            stream(subscriber, writer);
+            publisher.close(true);
+        } catch (Exception exp) {
+            logger.warning("Error: " + exp.getMessage());
+            if (publisher != null) {
+                publisher.close(exp, false);
+            }
+            throw exp;
+        }
+    }
+
+    private BenchmarkSubscriber createSubscriber() {
+        final NoSQLSubscriptionConfig config =
+            new NoSQLSubscriptionConfig.Builder(CKPT_TABLE_NAME)
+            .setSubscribedTables(TABLE_NAME)
+            .setStreamMode(NoSQLStreamMode.FROM_NOW)
+            .build();
+        return new BenchmarkSubscriber(config, ops, ckptIntv, num,
+                                       writeTimes);
+    }
+
+    /* Loads rows [0, num), the writer then inserts rows from num on */
+    private void preload(TableAPI tableAPI, Table table) {
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < num; i++) {
+            tableAPI.put(createRow(table, i), null, null);
+        }
+        logger.info("Table " + TABLE_NAME + " preloaded with " + num +
+                    " rows in " + (System.currentTimeMillis() - start) +
+                    " ms");
+    }
+
+    private static Row createRow(Table table, int id) {
+        final Row row = table.createRow();
+        row.put("userID", id);
+        row.put("firstName", "firstName-" + id);
+        row.put("lastName", "lastName-" + id);
+        row.put("state", STATES[id % STATES.length]);
+        return row;
+    }
+
+    /* Runs the writer and waits for the subscriber to see every op */
+    private void stream(BenchmarkSubscriber subscriber, Writer writer)
+        throws Exception {
+
+        writer.start();
+        try {
+            waitFor(timeoutSecs * 1000, subscriber, true);
+        } finally {
+            writer.interrupt();
+            writer.join();
+        }
+        if (writer.failure != null) {
+            throw writer.failure;
+        }
+        report(subscriber, writer);
+    }
+
+    private void waitFor(long timeoutMs,
+                         BenchmarkSubscriber subscriber,
+                         boolean streamDone)
+        throws TimeoutException {
+
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            if (subscriber.isFailed()) {
+                throw new IllegalStateException(
+                    "Subscription failed: " + subscriber.getCauseOfFailure());
+            }
+            if (streamDone ? subscriber.getStreamOps() == ops :
+                subscriber.isSubscriptionSucc()) {
+                return;
+            }
+            LockSupport.parkNanos(1000000L);
+        }
+        throw new TimeoutException("timeout in polling");
+    }
+
+    private void report(BenchmarkSubscriber subscriber, Writer writer) {
+        final long streamed = subscriber.getStreamOps();
+        final long streamNs = Math.max(1, subscriber.getStreamElapsedNs());
+        final long[] pct = subscriber.getLatencyPercentilesUs(PERCENTILES);
+        System.out.println(
+            "\n====================" +
+            "\n=    SUMMARY       =" +
+            "\n====================" +
+            "\nmode: " + (local ? "local stand-in publisher" :
+                          "store " + storeName + " at " + host + ":" +
+                          port) +
+            "\ntarget writer rate ops/sec: " +
+            (rate == 0 ? "unthrottled" : String.valueOf(rate)) +
+            "\nachieved writer rate ops/sec: " +
+            (ops * 1000000000L / Math.max(1, writer.elapsedNs)) +
+            "\ntotal # streamed ops: " + streamed +
+            "\nstream elapsed time in ms: " + (streamNs / 1000000) +
+            "\nsustained throughput ops/sec: " +
+            (streamed * 1000000000L / streamNs) +
+            "\nwrite-to-onNext latency in us (" +
+            subscriber.getNumLatencies() + " samples):" +
+            "\n  p50: " + pct[0] +
+            "\n  p90: " + pct[1] +
+            "\n  p99: " + pct[2] +
+            "\n  p99.9: " + pct[3] +
+            "\n  max: " + pct[4] +
+            "\ncheckpoints completed: " + subscriber.getNumCkpts() +
+            ", failed: " + subscriber.getNumFailedCkpts() +
+            "\ncheckpoint time in us avg: " + subscriber.getAvgCkptUs() +
+            ", max: " + subscriber.getMaxCkptUs());
+    }
+
+    /**
+     * Writer thread that inserts rows [num, num + ops) at the configured
+     * rate, stamping the issue time of each operation just before it is
+     * written. Pacing uses a fixed schedule, so a write that falls behind
+     * is issued immediately and does not shift later writes.
+     */
+    private abstract class Writer extends Thread {
+
+        private final Table table;
+        volatile long elapsedNs;
+        volatile Exception failure;
+
+        Writer(Table table) {
+            super("StreamBenchmarkWriter");
+            this.table = table;
+        }
+
+        abstract void write(Row row) throws Exception;
+
+        @Override
+        public void run() {
+            final long intervalNs = (rate == 0) ? 0 : 1000000000L / rate;
+            final long start = System.nanoTime();
+            try {
+                for (int i = 0; i < ops; i++) {
+                    final Row row = createRow(table, num + i);
+                    if (intervalNs > 0) {
+                        final long due = start + i * intervalNs;
+                        long now;
+                        while ((now = System.nanoTime()) < due) {
+                            LockSupport.parkNanos(due - now);
+                        }
+                    }
+                    if (isInterrupted()) {
+                        return;
+                    }
+                    writeTimes.set(i, System.nanoTime());
+                    write(row);
+                }
+            } catch (InterruptedException ie) {
+                return;
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                elapsedNs = System.nanoTime() - start;
+            }
+        }
+    }
+}
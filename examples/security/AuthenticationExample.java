@@ -75,6 +75,10 @@ import oracle.kv.ValueVersion;
  * practice, since it will be visible to other users on the system using
  * commands such as "ps", and that production programs should consider steps to
  * hide the password from other users.
+ *
+ * <p>
+ * An application opening several handles of the same store as the same user
+ * can share one login session between them with a {@link SessionManager}.
  */
 public class AuthenticationExample {
 
@@ -347,6 +347,11 @@ public class KerberosAuthenticationExample {
         });
     }
 
+    /*
+     * Each call logs in to the store using the keytab. To share the login
+     * between handles of the same store, get them from a SessionManager
+     * with null credentials.
+     */
     private KVStore runSecLoginExample() {
         final Properties props = generateSecProperties();
 
@@ -0,0 +1,496 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package security;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.kv.KVSecurityConstants;
+import oracle.kv.KVStore;
+import oracle.kv.KVStoreConfig;
+import oracle.kv.KVStoreFactory;
+import oracle.kv.LoginCredentials;
+import oracle.kv.PasswordCredentials;
+import oracle.kv.ReauthenticateHandler;
+
+/**
+ * Shares authenticated store handles, and so their login sessions, between
+ * the parts of an application that open the same store as the same user, in
+ * the same JVM.
+ * <p>
+ * Each call of {@link KVStoreFactory#getStore} with credentials, as in
+ * {@link AuthenticationExample}, logs in to the store, and the
+ * ReauthenticateHandler of the example logs in again whenever the session
+ * expires. A login costs round trips to the store, and for a short-lived
+ * job that opens several handles, a noticeable part of its run time. The
+ * login token of a session cannot be passed to another handle, but a
+ * KVStore handle is thread safe and may be shared, so a SessionManager
+ * keeps one handle, logged in once, per store, helper hosts, security
+ * properties and credentials. A caller only shares a session opened with
+ * the same password, or with the same credentials object for other kinds
+ * of credentials; with a different one it gets its own login, which fails
+ * if the password is wrong:
+ * <ul>
+ * <li>{@link #getStore} returns a handle sharing the cached session,
+ * creating it at the first call. Closing the returned handle does not close
+ * the session, which is kept until the SessionManager is closed.</li>
+ * <li>A background thread logs each session in again every renewal
+ * interval, which should be shorter than the session lifetime configured
+ * for the store, so that sessions are renewed before they expire rather
+ * than when an operation finds them expired. Sessions opened without
+ * credentials, such as Kerberos logins using a keytab configured in the
+ * security properties, are renewed by their login module and are not
+ * renewed here.</li>
+ * <li>Sessions that expire nevertheless are logged in again by the
+ * ReauthenticateHandler installed by the manager.</li>
+ * </ul>
+ * The number of logins of each kind, and the time they took, are returned
+ * by {@link #getStatistics}.
+ * <p>
+ * To compare opening a number of handles with and without the manager, run
+ * it with the arguments of AuthenticationExample:
+ * <pre>
+ * java security.SessionManager -store &lt;instance name&gt; &#92;
+ *                              -host  &lt;host name&gt;     &#92;
+ *                              -port  &lt;port number&gt;   &#92;
+ *                              -trust &lt;trust store&gt;   &#92;
+ *                              -user  &lt;login user&gt;    &#92;
+ *                              -pwd   &lt;password&gt;      &#92;
+ *                              -handles &lt;number of handles&gt;
+ * </pre>
+ */
+public class SessionManager {
+
+    private final long renewIntervalMs;
+    private final Map<SessionKey, Session> sessions =
+        new HashMap<SessionKey, Session>();
+
+    /* Salts the password digests that identify sessions */
+    private final byte[] salt = new byte[16];
+    private final ScheduledExecutorService renewer;
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Runs the SessionManager example.
+     */
+    public static void main(String args[]) {
+
+        String storeName = "kvstore";
+        String hostName = "localhost";
+        String hostPort = "5000";
+        String trustStore = null;
+        String user = null;
+        String password = null;
+        int nHandles = 10;
+
+        final int nArgs = args.length;
+        int argc = 0;
+
+        while (argc < nArgs) {
+            final String thisArg = args[argc++];
+            if (argc == nArgs) {
+                usage(thisArg + " requires an argument");
+            }
+            if (thisArg.equals("-store")) {
+                storeName = args[argc++];
+            } else if (thisArg.equals("-host")) {
+                hostName = args[argc++];
+            } else if (thisArg.equals("-port")) {
+                hostPort = args[argc++];
+            } else if (thisArg.equals("-trust")) {
+                trustStore = args[argc++];
+            } else if (thisArg.equals("-user")) {
+                user = args[argc++];
+            } else if (thisArg.equals("-pwd")) {
+                password = args[argc++];
+            } else if (thisArg.equals("-handles")) {
+                nHandles = Integer.parseInt(args[argc++]);
+            } else {
+                usage("Unknown argument: " + thisArg);
+            }
+        }
+        if (trustStore == null || user == null || password == null) {
+            usage("-trust, -user and -pwd are required");
+        }
+
+        final Properties securityProps = new Properties();
+        securityProps.setProperty(KVSecurityConstants.TRANSPORT_PROPERTY,
+                                  KVSecurityConstants.SSL_TRANSPORT_NAME);
+        securityProps.setProperty
+            (KVSecurityConstants.SSL_TRUSTSTORE_FILE_PROPERTY, trustStore);
+        final KVStoreConfig kvConfig =
+            new KVStoreConfig(storeName, hostName + ":" + hostPort);
+        kvConfig.setSecurityProperties(securityProps);
+        final PasswordCredentials loginCreds =
+            new PasswordCredentials(user, password.toCharArray());
+
+        /* Each handle opened with its own login */
+        long start = System.nanoTime();
+        for (int i = 0; i < nHandles; i++) {
+            KVStoreFactory.getStore(kvConfig, loginCreds, null).close();
+        }
+        System.out.println(String.format(
+            "%d handles with their own login: %.1f ms",
+            nHandles, (System.nanoTime() - start) / 1e6));
+
+        /* Each handle sharing the session of the manager */
+        final SessionManager manager = new SessionManager(60 * 60 * 1000);
+        try {
+            start = System.nanoTime();
+            for (int i = 0; i < nHandles; i++) {
+                manager.getStore(kvConfig, loginCreds).close();
+            }
+            System.out.println(String.format(
+                "%d handles sharing a session: %.1f ms",
+                nHandles, (System.nanoTime() - start) / 1e6));
+            System.out.println(manager.getStatistics());
+        } finally {
+            manager.close();
+        }
+    }
+
+    private static void usage(String message) {
+        System.out.println("\n" + message + "\n");
+        System.out.println("usage: " + SessionManager.class.getName());
+        System.out.println("\t-store <instance name> (default: kvstore) " +
+                           "-host <host name> (default: localhost) " +
+                           "-port <port number> (default: 5000) " +
+                           "-trust <trust store> (required) " +
+                           "-user <login user> (required) " +
+                           "-pwd <password> (required) " +
+                           "-handles <number of handles> (default: 10)");
+        System.exit(1);
+    }
+
+    /**
+     * Creates a manager renewing its sessions every renewIntervalMs
+     * milliseconds.
+     */
+    public SessionManager(final long renewIntervalMs) {
+        if (renewIntervalMs <= 0) {
+            throw new IllegalArgumentException(
+                "renewIntervalMs must be positive: " + renewIntervalMs);
+        }
+        this.renewIntervalMs = renewIntervalMs;
+        new SecureRandom().nextBytes(salt);
+        renewer = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "SessionRenewer");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+    }
+
+    /**
+     * Returns a handle of the store of the configuration, logged in with
+     * the given credentials, which may be null if the security properties
+     * of the configuration provide the login, as for Kerberos with a
+     * keytab. The first call for a store, its helper hosts, security
+     * properties and credentials logs in; the next ones share its session.
+     * <p>
+     * The handle may be closed, but that does not end the shared session.
+     *
+     * @throws oracle.kv.AuthenticationFailureException if the login failed
+     */
+    public KVStore getStore(final KVStoreConfig config,
+                            final LoginCredentials creds) {
+        final SessionKey key = new SessionKey(config, creds, salt);
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(key);
+            if (session == null) {
+                session = new Session(key.toString(), creds);
+                sessions.put(key, session);
+            }
+        }
+        try {
+            return session.getHandle(config);
+        } catch (RuntimeException e) {
+            /* Do not keep the sessions of failed logins */
+            synchronized (sessions) {
+                if (sessions.get(key) == session && !session.isOpen()) {
+                    sessions.remove(key);
+                }
+            }
+            throw e;
+        }
+    }
+
+    public Statistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Stops the renewals, and logs out and closes the sessions.
+     */
+    public void close() {
+        renewer.shutdownNow();
+        final List<Session> all;
+        synchronized (sessions) {
+            all = new ArrayList<Session>(sessions.values());
+            sessions.clear();
+        }
+        for (Session session : all) {
+            session.close();
+        }
+    }
+
+    /*
+     * The shared handle of one store and user.
+     */
+    private class Session implements ReauthenticateHandler {
+
+        private final String key;
+        private final LoginCredentials creds;
+        private KVStore store;
+
+        Session(final String key, final LoginCredentials creds) {
+            this.key = key;
+            this.creds = creds;
+        }
+
+        /*
+         * Opens the store at the first call; the other callers wait for it.
+         */
+        synchronized KVStore getHandle(final KVStoreConfig config) {
+            if (store == null) {
+                final long start = System.nanoTime();
+                store = (creds == null) ?
+                    KVStoreFactory.getStore(config) :
+                    KVStoreFactory.getStore(config, creds, this);
+                statistics.logins.record(System.nanoTime() - start);
+                if (creds != null) {
+                    renewer.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            renew();
+                        }
+                    }, renewIntervalMs, renewIntervalMs,
+                        TimeUnit.MILLISECONDS);
+                }
+            } else {
+                statistics.sharedHandles.incrementAndGet();
+            }
+            return SharedStoreHandle.create(store);
+        }
+
+        private void renew() {
+            final long start = System.nanoTime();
+            try {
+                store.login(creds);
+                statistics.renewals.record(System.nanoTime() - start);
+            } catch (RuntimeException e) {
+                /* The session is logged in again when it expires */
+                statistics.renewalFailures.incrementAndGet();
+                System.err.println("Renewal of session " + key +
+                                   " failed: " + e);
+            }
+        }
+
+        @Override
+        public void reauthenticate(final KVStore kvstore) {
+            final long start = System.nanoTime();
+            kvstore.login(creds);
+            statistics.reauthentications.record(System.nanoTime() - start);
+        }
+
+        synchronized boolean isOpen() {
+            return store != null;
+        }
+
+        synchronized void close() {
+            if (store != null) {
+                try {
+                    if (creds != null) {
+                        store.logout();
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Logout of session " + key +
+                                       " failed: " + e);
+                }
+                store.close();
+                store = null;
+            }
+        }
+    }
+
+    /*
+     * Identifies a session: the store, its helper hosts, the security
+     * properties, which hold the Kerberos principal or the wallet of logins
+     * without credentials, and the credentials. A password is kept as a
+     * salted digest, and other credentials by identity.
+     */
+    private static class SessionKey {
+
+        private final String storeName;
+        private final List<String> helperHosts;
+        private final Properties securityProps = new Properties();
+        private final String user;
+        private final byte[] passwordDigest;
+        private final LoginCredentials otherCreds;
+
+        SessionKey(final KVStoreConfig config,
+                   final LoginCredentials creds,
+                   final byte[] salt) {
+            storeName = config.getStoreName();
+            helperHosts = Arrays.asList(config.getHelperHosts());
+            if (config.getSecurityProperties() != null) {
+                securityProps.putAll(config.getSecurityProperties());
+            }
+            user = (creds == null) ? null : creds.getUsername();
+            if (creds instanceof PasswordCredentials) {
+                passwordDigest = digest(
+                    ((PasswordCredentials) creds).getPassword(), salt);
+                otherCreds = null;
+            } else {
+                passwordDigest = null;
+                otherCreds = creds;
+            }
+        }
+
+        private static byte[] digest(final char[] password,
+                                     final byte[] salt) {
+            try {
+                final MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(salt);
+                for (char c : password) {
+                    md.update((byte) (c >> 8));
+                    md.update((byte) c);
+                }
+                return md.digest();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof SessionKey)) {
+                return false;
+            }
+            final SessionKey other = (SessionKey) obj;
+            return storeName.equals(other.storeName) &&
+                helperHosts.equals(other.helperHosts) &&
+                securityProps.equals(other.securityProps) &&
+                ((user == null) ? other.user == null :
+                 user.equals(other.user)) &&
+                MessageDigest.isEqual(passwordDigest, other.passwordDigest) &&
+                otherCreds == other.otherCreds;
+        }
+
+        @Override
+        public int hashCode() {
+            return storeName.hashCode() * 31 + helperHosts.hashCode() +
+                ((user == null) ? 0 : user.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return storeName + "/" + helperHosts + "/" +
+                ((user == null) ? "" : user);
+        }
+    }
+
+    /**
+     * The logins made by a SessionManager.
+     */
+    public static class Statistics {
+
+        final Timer logins = new Timer();
+        final Timer renewals = new Timer();
+        final Timer reauthentications = new Timer();
+        final AtomicLong renewalFailures = new AtomicLong();
+        final AtomicLong sharedHandles = new AtomicLong();
+
+        /** Returns the number of logins made to open a session. */
+        public long getLogins() {
+            return logins.count.get();
+        }
+
+        public double getAverageLoginMillis() {
+            return logins.averageMillis();
+        }
+
+        /** Returns the number of renewals made in the background. */
+        public long getRenewals() {
+            return renewals.count.get();
+        }
+
+        public double getAverageRenewalMillis() {
+            return renewals.averageMillis();
+        }
+
+        public long getRenewalFailures() {
+            return renewalFailures.get();
+        }
+
+        /** Returns the number of logins made after a session expired. */
+        public long getReauthentications() {
+            return reauthentications.count.get();
+        }
+
+        public double getAverageReauthenticationMillis() {
+            return reauthentications.averageMillis();
+        }
+
+        /** Returns the number of handles that reused a session. */
+        public long getSharedHandles() {
+            return sharedHandles.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d logins averaging %.1f ms, %d handles sharing a session, " +
+                "%d renewals averaging %.1f ms (%d failed), " +
+                "%d reauthentications averaging %.1f ms",
+                getLogins(), getAverageLoginMillis(), getSharedHandles(),
+                getRenewals(), getAverageRenewalMillis(),
+                getRenewalFailures(), getReauthentications(),
+                getAverageReauthenticationMillis());
+        }
+    }
+
+    /* A count of events and their total time */
+    static class Timer {
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+
+        void record(final long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+        }
+
+        double averageMillis() {
+            final long n = count.get();
+            return (n == 0) ? 0 : totalNanos.get() / 1e6 / n;
+        }
+    }
+}
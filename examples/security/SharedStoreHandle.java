@@ -0,0 +1,60 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package security;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import oracle.kv.KVStore;
+
+/**
+ * Hands out a KVStore handle that several parts of an application share,
+ * as {@link SessionManager} and launcher.StorePool do: the callers may close
+ * the handles they are given as they would their own, while the owner of
+ * the shared handle decides when it is really closed.
+ */
+public final class SharedStoreHandle {
+
+    private SharedStoreHandle() {
+    }
+
+    /**
+     * Returns a handle that forwards all calls to the shared store, except
+     * close, which does nothing.
+     */
+    public static KVStore create(final KVStore store) {
+        return (KVStore) Proxy.newProxyInstance(
+            KVStore.class.getClassLoader(),
+            new Class<?>[] { KVStore.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(final Object proxy,
+                                     final Method method,
+                                     final Object[] args)
+                    throws Throwable {
+                    if ("close".equals(method.getName()) &&
+                        method.getParameterTypes().length == 0) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(store, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }
+            });
+    }
+}
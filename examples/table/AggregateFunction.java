@@ -13,7 +13,6 @@
 
 package table;
 
-import oracle.kv.KVStore;
 import oracle.kv.StatementResult;
 import oracle.kv.query.PreparedStatement;
 import oracle.kv.table.RecordValue;
@@ -53,14 +52,14 @@ public class AggregateFunction extends BaseExample {
     }
 
     private void count() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println
         ("\n  A count of all records in tables:");
 
-        /* Preparation and execution in one step. */
+        /* Preparation, cached for later calls, and execution. */
         StatementResult result =
-            store.executeSync("SELECT count(*) as Count from "
+            statements.executeSync("SELECT count(*) as Count from "
             		+ "JSONPersons.quotes jq");
 
         /* Iterate the results of the query */
@@ -74,18 +73,18 @@ public class AggregateFunction extends BaseExample {
     }
 
     private void average() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println("\n  Average of all insurnace premiums"
         		+ "for a given Person:");
 
         PreparedStatement preparedStatement =
-            store.prepare("SELECT avg(jq.quotes.charges) as Average FROM "
+            statements.prepare("SELECT avg(jq.quotes.charges) as Average FROM "
             		+ "JSONPersons.quotes jq "
             		+ "where jq.id = 1");
 
-        /* Preparation and execution in one step. */
-        StatementResult result = store.executeSync(preparedStatement);
+        /* Execution of the cached prepared statement. */
+        StatementResult result = statements.executeSync(preparedStatement);
 
         for (RecordValue record : result) {
             /* Print the full record as JSON */
@@ -96,19 +95,19 @@ public class AggregateFunction extends BaseExample {
     }
 
     private void sum() {
-    	KVStore store = getKVStore();
+    	StatementCache statements = getStatementCache();
 
         System.out.println("\n  Sum of all the charges for"
         		+ "insurance premiums to be paid by a Person:");
 
         PreparedStatement preparedStatement =
-        		store.prepare("SELECT sum(jq.quotes.charges) as Sum FROM "
+        		statements.prepare("SELECT sum(jq.quotes.charges) as Sum FROM "
         				+ "JSONPersons.quotes jq "
         				+ "where jq.id = 1");
 
 
-        /* Preparation and execution in one step. */
-        StatementResult result = store.executeSync(preparedStatement);
+        /* Execution of the cached prepared statement. */
+        StatementResult result = statements.executeSync(preparedStatement);
 
         for (RecordValue record : result) {
             /* Print the full record as JSON */
@@ -119,19 +118,19 @@ public class AggregateFunction extends BaseExample {
     }
     
     private void max() {
-    	KVStore store = getKVStore();
+    	StatementCache statements = getStatementCache();
 
         System.out.println("\n  Maximum Insurance Premium "
         		+ "paid by a Person:");
 
         PreparedStatement preparedStatement =
-        		store.prepare("SELECT max(jq.quotes.charges) as Max FROM "
+        		statements.prepare("SELECT max(jq.quotes.charges) as Max FROM "
         				+ "JSONPersons.quotes jq "
         				+ "where jq.id = 1");
 
 
-        /* Preparation and execution in one step. */
-        StatementResult result = store.executeSync(preparedStatement);
+        /* Execution of the cached prepared statement. */
+        StatementResult result = statements.executeSync(preparedStatement);
 
         for (RecordValue record : result) {
             /* Print the full record as JSON */
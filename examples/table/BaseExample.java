@@ -27,9 +27,13 @@ public abstract class BaseExample implements Example {
     /* Handles onto the store */
     private KVStore store;
 
+    /* Prepared statements of the queries of the example */
+    private StatementCache statements;
+
     @Override
     public void init(KVStore s) {
         store = s;
+        statements = new StatementCache(s);
         setup();
     }
 
@@ -55,13 +59,23 @@ public abstract class BaseExample implements Example {
     }
 
     /**
-     * Executes given DDL statement synchronously against a store.
+     * Returns the prepared statement cache of the example.
+     */
+    protected StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * Executes given DDL statement synchronously against a store, and
+     * clears the prepared statements, whose tables or indexes may have
+     * changed.
      * @param ddl a DDL statement
      */
     protected void executeDDL(String ddl) {
         System.out.println(ddl);
         try {
             store.executeSync(ddl);
+            statements.clear();
         } catch (Exception ex) {
             //ex.printStackTrace();
         }
@@ -13,7 +13,6 @@
 
 package table;
 
-import oracle.kv.KVStore;
 import oracle.kv.StatementResult;
 import oracle.kv.table.RecordValue;
 
@@ -50,14 +49,14 @@ public class GroupByExample extends BaseExample {
     }
 
     private void groupBy() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println
         ("\n  A count of all records in tables Grouped By :");
 
-        /* Preparation and execution in one step. */
+        /* Preparation, cached for later calls, and execution. */
         StatementResult result =
-            store.executeSync("SELECT count(*) as Count from "
+            statements.executeSync("SELECT count(*) as Count from "
             		+ "JSONPersons jq GROUP BY jq.person.age");
 
         /* Iterate the results of the query */
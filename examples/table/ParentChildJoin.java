@@ -13,7 +13,6 @@
 
 package table;
 
-import oracle.kv.KVStore;
 import oracle.kv.StatementResult;
 import oracle.kv.query.PreparedStatement;
 import oracle.kv.table.RecordValue;
@@ -56,38 +55,46 @@ public class ParentChildJoin extends BaseExample {
     }
 
     private void simpleJoin() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println
         ("\n  A simple select from parent and chile tables:");
 
-        /* Preparation and execution in one step. */
-        StatementResult result =
-            store.executeSync("SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
-            		+ "(JSONPersons j descendants (JSONPersons.quotes jq))");
+        /*
+         * Preparation, cached for later calls, and execution, streaming
+         * the results in pages, read ahead by a background thread.
+         */
+        QueryStream.Records records = new QueryStream(getKVStore())
+            .setFetchSize(50)
+            .setPrefetch(2)
+            .iterator(statements.prepare(
+                "SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
+                + "(JSONPersons j descendants (JSONPersons.quotes jq))"));
 
         /* Iterate the results of the query */
-        for (RecordValue record : result) {
-            /* Print the full record as JSON */
-            System.out.println(record.toJsonString(true));
+        try {
+            while (records.hasNext()) {
+                /* Print the full record as JSON */
+                System.out.println(records.next().toJsonString(true));
+            }
+        } finally {
+            /* Close the results, if not iterated to the end */
+            records.close();
         }
-
-        /* Close the result */
-        result.close();
     }
 
     private void joinOnClause() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println("\n  Parent Child Join with an On Clause:");
 
         PreparedStatement preparedStatement =
-            store.prepare("SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
+            statements.prepare("SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
             		+ "(JSONPersons j descendants (JSONPersons.quotes jq ON "
             		+ "jq.quotes.charges > 16000))");
 
-        /* Preparation and execution in one step. */
-        StatementResult result = store.executeSync(preparedStatement);
+        /* Execution of the cached prepared statement. */
+        StatementResult result = statements.executeSync(preparedStatement);
 
         for (RecordValue record : result) {
             /* Print the full record as JSON */
@@ -98,17 +105,17 @@ public class ParentChildJoin extends BaseExample {
     }
 
     private void joinWithPredicate() {
-    	KVStore store = getKVStore();
+    	StatementCache statements = getStatementCache();
 
         System.out.println("\n  Parent Child Join with predicate:");
 
         PreparedStatement preparedStatement =
-            store.prepare("SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
+            statements.prepare("SELECT j.id, j.person, jq.quotes FROM NESTED TABLES "
             		+ "(JSONPersons j descendants (JSONPersons.quotes jq))  "
             		+ "where j.person.age < 35");
 
-        /* Preparation and execution in one step. */
-        StatementResult result = store.executeSync(preparedStatement);
+        /* Execution of the cached prepared statement. */
+        StatementResult result = statements.executeSync(preparedStatement);
 
         for (RecordValue record : result) {
             /* Print the full record as JSON */
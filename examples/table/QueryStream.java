@@ -0,0 +1,365 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import oracle.kv.KVStore;
+import oracle.kv.StatementResult;
+import oracle.kv.query.ExecuteOptions;
+import oracle.kv.query.Statement;
+import oracle.kv.table.RecordValue;
+import oracle.kv.table.TableIterator;
+
+import org.reactivestreams.Publisher;
+
+/**
+ * Executes queries and streams their results in pages of a fixed number of
+ * records, so that the memory used by the client stays bounded however
+ * many records a query returns.
+ * <p>
+ * The fetch size is the number of records in a page, and is also the
+ * number of results the store returns in each batch. The prefetch depth is
+ * the number of pages read ahead by a background thread while the caller
+ * consumes the current one. The reader waits when that many pages are
+ * waiting, which is the backpressure that bounds memory to the page being
+ * consumed, the pages waiting, the page being filled and the batch of
+ * results held by the iterator of the store, at most
+ * (prefetch + 3) * fetchSize records. With a prefetch depth of 0, the
+ * records are read by the calling thread as it iterates, a page at a time,
+ * and at most 2 * fetchSize records are held.
+ * <p>
+ * Records can be consumed with {@link #iterator}, written as JSON, one
+ * record per line, with {@link #writeJson}, or subscribed to with
+ * {@link #publisher}, which uses the asynchronous query API of the store
+ * and the reactive streams protocol, where the subscriber sets the pace by
+ * requesting records.
+ */
+public class QueryStream {
+
+    /** The default number of records in a page. */
+    public static final int DEFAULT_FETCH_SIZE = 100;
+
+    /** The default number of pages read ahead. */
+    public static final int DEFAULT_PREFETCH = 2;
+
+    /* Marks the end of the results in the page queue */
+    private static final List<RecordValue> END = new ArrayList<RecordValue>();
+
+    /* How often a waiting prefetcher checks whether its records were closed */
+    private static final long CLOSED_CHECK_MS = 100;
+
+    private final KVStore store;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+    private int prefetch = DEFAULT_PREFETCH;
+    private long maxMemory;
+
+    public QueryStream(KVStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Sets the number of records in a page.
+     */
+    public QueryStream setFetchSize(int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException(
+                "Invalid fetch size: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    /**
+     * Sets the number of pages read ahead, or 0 to read on demand.
+     */
+    public QueryStream setPrefetch(int prefetch) {
+        if (prefetch < 0) {
+            throw new IllegalArgumentException(
+                "Invalid prefetch depth: " + prefetch);
+        }
+        this.prefetch = prefetch;
+        return this;
+    }
+
+    /**
+     * Sets the maximum memory the query may use in the client for sorting,
+     * grouping and duplicate elimination, in bytes, or 0 for the default.
+     */
+    public QueryStream setMaxMemory(long maxMemory) {
+        if (maxMemory < 0) {
+            throw new IllegalArgumentException(
+                "Invalid maximum memory: " + maxMemory);
+        }
+        this.maxMemory = maxMemory;
+        return this;
+    }
+
+    /**
+     * Returns the options used to execute queries.
+     */
+    public ExecuteOptions createExecuteOptions() {
+        final ExecuteOptions options = new ExecuteOptions();
+        options.setResultsBatchSize(fetchSize);
+        if (maxMemory > 0) {
+            options.setMaxMemoryConsumption(maxMemory);
+        }
+        return options;
+    }
+
+    /**
+     * Executes a query and returns an iterator over its records. The
+     * iterator must be closed if it is not iterated to the end.
+     */
+    public Records iterator(Statement statement) {
+        final Records records = new Records();
+        if (prefetch == 0) {
+            records.open(store.executeSync(statement,
+                                           createExecuteOptions()));
+        } else {
+            records.prefetcher = new Prefetcher(statement, records);
+            records.prefetcher.start();
+        }
+        return records;
+    }
+
+    /**
+     * Executes a query and writes its records to the output stream as
+     * JSON, separated by new lines, and flushes the stream after each page.
+     * The stream is not closed.
+     *
+     * @return the number of records written
+     */
+    public long writeJson(Statement statement,
+                          OutputStream out,
+                          boolean pretty)
+        throws IOException {
+
+        final Writer writer = new BufferedWriter(
+            new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long count = 0;
+        final Records records = iterator(statement);
+        try {
+            while (records.hasNext()) {
+                writer.write(records.next().toJsonString(pretty));
+                writer.write('\n');
+                if (++count % fetchSize == 0) {
+                    writer.flush();
+                }
+            }
+        } finally {
+            records.close();
+            writer.flush();
+        }
+        return count;
+    }
+
+    /**
+     * Executes a query asynchronously and returns a publisher of its
+     * records, which the store delivers as the subscriber requests them.
+     */
+    public Publisher<RecordValue> publisher(Statement statement) {
+        return store.executeAsync(statement, createExecuteOptions());
+    }
+
+    /**
+     * The records of a query, returned by {@link QueryStream#iterator}.
+     */
+    public class Records implements Iterator<RecordValue>, AutoCloseable {
+
+        private final BlockingQueue<List<RecordValue>> pages =
+            new ArrayBlockingQueue<List<RecordValue>>(Math.max(prefetch, 1));
+
+        /* Set when reading on demand */
+        private StatementResult result;
+        private TableIterator<RecordValue> resultIter;
+
+        /* Set when reading ahead */
+        private Prefetcher prefetcher;
+        private volatile Throwable error;
+        private volatile boolean closed;
+
+        private List<RecordValue> page;
+        private int position;
+        private boolean done;
+
+        private Records() {
+        }
+
+        private void open(StatementResult r) {
+            result = r;
+            resultIter = r.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (page != null && position < page.size()) {
+                return true;
+            }
+            if (done) {
+                return false;
+            }
+            page = nextPage();
+            position = 0;
+            if (page == END) {
+                done = true;
+                page = null;
+                if (error instanceof RuntimeException) {
+                    throw (RuntimeException) error;
+                }
+                if (error instanceof Error) {
+                    throw (Error) error;
+                }
+                if (error != null) {
+                    throw new IllegalStateException(
+                        "Reading the query results failed", error);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public RecordValue next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            /* Release each record as it is returned */
+            return page.set(position++, null);
+        }
+
+        private List<RecordValue> nextPage() {
+            if (prefetcher != null) {
+                try {
+                    return pages.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(
+                        "Interrupted waiting for query results", e);
+                }
+            }
+            if (!resultIter.hasNext()) {
+                result.close();
+                return END;
+            }
+            final List<RecordValue> records =
+                new ArrayList<RecordValue>(fetchSize);
+            while (records.size() < fetchSize && resultIter.hasNext()) {
+                records.add(resultIter.next());
+            }
+            return records;
+        }
+
+        /**
+         * Stops reading the query results.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            done = true;
+            page = null;
+            if (prefetcher != null) {
+                pages.clear();
+            } else {
+                result.close();
+            }
+        }
+    }
+
+    /*
+     * Reads the pages of a query ahead of its Records, until the queue of
+     * pages is full, and stops when the Records are closed.
+     */
+    private class Prefetcher extends Thread {
+
+        private final Statement statement;
+        private final Records records;
+
+        Prefetcher(final Statement statement, final Records records) {
+            super("QueryPrefetcher");
+            setDaemon(true);
+            this.statement = statement;
+            this.records = records;
+        }
+
+        @Override
+        public void run() {
+            StatementResult result = null;
+            try {
+                result = store.executeSync(statement, createExecuteOptions());
+                final TableIterator<RecordValue> iter = result.iterator();
+                List<RecordValue> page = new ArrayList<RecordValue>(fetchSize);
+                while (!records.closed && iter.hasNext()) {
+                    page.add(iter.next());
+                    if (page.size() == fetchSize) {
+                        if (!offer(page)) {
+                            return;
+                        }
+                        page = new ArrayList<RecordValue>(fetchSize);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    offer(page);
+                }
+            } catch (Throwable e) {
+                /* Rethrown by the reader, which would wait forever if not */
+                records.error = e;
+            } finally {
+                try {
+                    if (result != null) {
+                        result.close();
+                    }
+                } finally {
+                    if (records.closed) {
+                        /* Release a page added while the reader was closing */
+                        records.pages.clear();
+                    } else {
+                        offer(END);
+                    }
+                }
+            }
+        }
+
+        /*
+         * Adds a page to the queue, waiting while it is full, and returns
+         * false if the Records were closed instead.
+         */
+        private boolean offer(List<RecordValue> page) {
+            try {
+                while (!records.closed) {
+                    if (records.pages.offer(page, CLOSED_CHECK_MS,
+                                            TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                /* Not expected, the thread is not interrupted */
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
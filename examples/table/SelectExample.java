@@ -63,22 +63,29 @@ public class SelectExample extends BaseExample {
     }
 
     private void simple() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println("\n  A simple select all:");
 
-        /* Preparation and execution in one step. */
-        StatementResult result =
-            store.executeSync("SELECT * FROM simpleUsers");
+        /*
+         * Preparation, cached for later calls, and execution, streaming
+         * the results in pages of 10 records, so that memory stays bounded
+         * however many records are returned.
+         */
+        QueryStream.Records records = new QueryStream(getKVStore())
+            .setFetchSize(10)
+            .iterator(statements.prepare("SELECT * FROM simpleUsers"));
 
         /* Iterate the results of the query */
-        for (RecordValue record : result) {
-            /* Print the full record as JSON */
-            System.out.println(record.toJsonString(true));
+        try {
+            while (records.hasNext()) {
+                /* Print the full record as JSON */
+                System.out.println(records.next().toJsonString(true));
+            }
+        } finally {
+            /* Close the results, if not iterated to the end */
+            records.close();
         }
-
-        /* Close the result */
-        result.close();
     }
 
     private void multipleExecutions() {
@@ -120,24 +127,25 @@ public class SelectExample extends BaseExample {
     }
 
     private void bindVariables() {
-        KVStore store = getKVStore();
+        StatementCache statements = getStatementCache();
 
         System.out.println("\n  Single prepare with parameterized multiple " +
             "executions:");
 
-        PreparedStatement preparedStatement =
-            store.prepare("DECLARE $id INTEGER;" +
-                "SELECT * FROM simpleUsers WHERE userID = $id");
-
-        /* Create a statement that accepts values for query variables */
+        /*
+         * Get a statement that accepts values for query variables, created
+         * from the cached prepared statement, and reused by this thread on
+         * later calls.
+         */
         BoundStatement boundStatement =
-            preparedStatement.createBoundStatement();
+            statements.bind("DECLARE $id INTEGER;" +
+                "SELECT * FROM simpleUsers WHERE userID = $id");
 
         /* Bind the $id variable */
         boundStatement.setVariable("$id", 1);
 
         /* Execute with $id = 1 */
-        StatementResult result = store.executeSync(boundStatement);
+        StatementResult result = statements.executeSync(boundStatement);
 
         for (RecordValue record : result) {
             FieldValue value = record.get("firstName");
@@ -150,7 +158,7 @@ public class SelectExample extends BaseExample {
 
         /* Execute with $id = 2 */
         boundStatement.setVariable("$id", 2);
-        result = store.executeSync(boundStatement);
+        result = statements.executeSync(boundStatement);
 
         for (RecordValue record : result) {
             FieldValue value = record.get("firstName");
@@ -183,6 +191,9 @@ public class SelectExample extends BaseExample {
         store.executeSync("CREATE INDEX indx_firstName_lastName ON " +
             "simpleUsers (firstName, lastName)");
 
+        /* Cached statements may not use the new index either */
+        getStatementCache().clear();
+
         /* Re-prepare to make use of the new index */
         preparedStatement =
             store.prepare(query);
@@ -0,0 +1,252 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.kv.KVStore;
+import oracle.kv.StatementResult;
+import oracle.kv.query.BoundStatement;
+import oracle.kv.query.PreparedStatement;
+import oracle.kv.query.Statement;
+
+/**
+ * A cache of the prepared statements of a store, so that a query that is
+ * executed repeatedly is parsed and compiled once instead of on each call,
+ * as {@link SelectExample} shows with a single prepare and multiple
+ * executions.
+ * <p>
+ * Statements are cached by their text, normalized by collapsing white space
+ * outside of string literals, and the least recently used statement is
+ * evicted when the cache is full. The cache is safe to use from several
+ * threads. A statement is prepared outside of the cache lock, so that two
+ * threads missing on the same text at once may both prepare it.
+ * <p>
+ * For parameterized queries, {@link #bind} returns a BoundStatement that is
+ * reused by the calling thread each time it binds the same text: a bound
+ * statement holds the values of its variables, so it cannot be shared
+ * between threads, but creating one for each execution is not needed
+ * either, since each execution sets all of its variables again. The bound
+ * statements are kept with the cached statement, and are released with it
+ * when it is evicted or the cache is cleared.
+ * <p>
+ * The time spent preparing statements and the time spent executing them,
+ * up to the return of executeSync, are measured separately, and reported by
+ * {@link #getStatistics}. Prepared statements depend on the table and index
+ * definitions at the time they were prepared, so the cache should be
+ * cleared after DDL statements, as {@link BaseExample#executeDDL} does.
+ */
+public class StatementCache {
+
+    /** The default maximum number of cached statements. */
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private final KVStore store;
+    private final Map<String, Entry> statements;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong prepareNanos = new AtomicLong();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong executeNanos = new AtomicLong();
+
+    public StatementCache(KVStore store) {
+        this(store, DEFAULT_CAPACITY);
+    }
+
+    public StatementCache(KVStore store, final int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(
+                "Invalid statement cache capacity: " + capacity);
+        }
+        this.store = store;
+        statements = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, Entry> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the prepared statement for the given query text, preparing it
+     * if it is not cached.
+     */
+    public PreparedStatement prepare(String query) {
+        return getEntry(query).prepared;
+    }
+
+    /**
+     * Returns the bound statement of the calling thread for the given query
+     * text. The caller sets all the variables of the statement before
+     * executing it.
+     */
+    public BoundStatement bind(String query) {
+        final Entry entry = getEntry(query);
+        final Thread thread = Thread.currentThread();
+        BoundStatement statement = entry.bound.get(thread);
+        if (statement == null) {
+            statement = entry.prepared.createBoundStatement();
+            entry.bound.put(thread, statement);
+        }
+        return statement;
+    }
+
+    /**
+     * Executes the given query text, using the cached prepared statement.
+     */
+    public StatementResult executeSync(String query) {
+        return executeSync(prepare(query));
+    }
+
+    /**
+     * Executes a prepared or bound statement, measuring the execution time.
+     */
+    public StatementResult executeSync(Statement statement) {
+        final long start = System.nanoTime();
+        try {
+            return store.executeSync(statement);
+        } finally {
+            executions.incrementAndGet();
+            executeNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Removes all cached statements, after the tables or indexes they use
+     * have changed.
+     */
+    public void clear() {
+        synchronized (statements) {
+            statements.clear();
+        }
+    }
+
+    /**
+     * Returns the number of cached statements.
+     */
+    public int size() {
+        synchronized (statements) {
+            return statements.size();
+        }
+    }
+
+    /**
+     * Returns the cache hits and misses, and the preparation and execution
+     * times.
+     */
+    public String getStatistics() {
+        final long nPrepared = misses.get();
+        final long nExecuted = executions.get();
+        return String.format(
+            "statement cache: %d cached, %d hits, %d misses, %d evictions;" +
+            " prepare %d calls, avg %.3f ms; execute %d calls, avg %.3f ms",
+            size(), hits.get(), nPrepared, evictions.get(),
+            nPrepared, average(prepareNanos.get(), nPrepared),
+            nExecuted, average(executeNanos.get(), nExecuted));
+    }
+
+    /*
+     * Returns the cache entry for the given query text, preparing the
+     * statement if it is not cached.
+     */
+    private Entry getEntry(String query) {
+        final String key = normalize(query);
+        synchronized (statements) {
+            final Entry entry = statements.get(key);
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry;
+            }
+        }
+        misses.incrementAndGet();
+        final long start = System.nanoTime();
+        final Entry entry = new Entry(store.prepare(query));
+        prepareNanos.addAndGet(System.nanoTime() - start);
+        synchronized (statements) {
+            final Entry cached = statements.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            statements.put(key, entry);
+        }
+        return entry;
+    }
+
+    private static double average(final long nanos, final long count) {
+        return (count == 0) ? 0 : nanos / 1e6 / count;
+    }
+
+    /*
+     * Collapses each run of white space outside of quoted strings to a
+     * single space, and trims the text.
+     */
+    static String normalize(String query) {
+        final StringBuilder sb = new StringBuilder(query.length());
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            final char c = query.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0) {
+                sb.append(' ');
+            }
+            space = false;
+            sb.append(c);
+            if (quote == 0) {
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                }
+            } else if (c == '\\' && i + 1 < query.length()) {
+                sb.append(query.charAt(++i));
+            } else if (c == quote) {
+                quote = 0;
+            }
+        }
+        return sb.toString();
+    }
+
+    /*
+     * A cached prepared statement, and the statements bound from it by each
+     * thread. A bound statement references its prepared statement, so they
+     * are kept here rather than by the threads, and are released together
+     * when the entry is removed. Threads are weak keys, so that the bound
+     * statements of threads that have ended are released too.
+     */
+    private static class Entry {
+        final PreparedStatement prepared;
+        final Map<Thread, BoundStatement> bound =
+            Collections.synchronizedMap(
+                new WeakHashMap<Thread, BoundStatement>());
+
+        Entry(PreparedStatement prepared) {
+            this.prepared = prepared;
+        }
+    }
+}
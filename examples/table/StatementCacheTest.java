@@ -0,0 +1,182 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+import oracle.kv.KVStore;
+import oracle.kv.query.BoundStatement;
+import oracle.kv.query.PreparedStatement;
+
+/**
+ * Checks that a {@link StatementCache} reuses the bound statements of each
+ * thread, and releases a prepared statement and its bound statements when
+ * the statement is evicted or the cache is cleared. The store is a stub
+ * whose bound statements reference their prepared statement, as those of
+ * the client library do. Exits with status 1 if a check fails.
+ * <pre>
+ * java -cp examples:lib/kvclient.jar table.StatementCacheTest
+ * </pre>
+ */
+public class StatementCacheTest {
+
+    public static void main(String[] args) throws Exception {
+        testBound();
+        testEvicted();
+        testCleared();
+        System.out.println("All checks passed");
+    }
+
+    private static void testBound() throws InterruptedException {
+        final StatementCache cache = new StatementCache(createStore(), 10);
+        final BoundStatement bound = cache.bind("SELECT * FROM t");
+        check(cache.bind("SELECT  *  FROM t") == bound,
+              "a thread reuses its bound statement");
+        final AtomicReference<BoundStatement> other =
+            new AtomicReference<BoundStatement>();
+        final Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other.set(cache.bind("SELECT * FROM t"));
+            }
+        };
+        thread.start();
+        thread.join();
+        check(other.get() != null && other.get() != bound,
+              "each thread has its own bound statement");
+    }
+
+    private static void testEvicted() {
+        final StatementCache cache = new StatementCache(createStore(), 1);
+        final WeakReference<PreparedStatement> ref = bindAndRelease(cache);
+        cache.bind("SELECT * FROM u");
+        check(isCollected(ref), "an evicted statement is collected");
+    }
+
+    private static void testCleared() {
+        final StatementCache cache = new StatementCache(createStore(), 10);
+        final WeakReference<PreparedStatement> ref = bindAndRelease(cache);
+        cache.clear();
+        check(isCollected(ref), "the statements of a cleared cache are " +
+              "collected");
+    }
+
+    /*
+     * Binds a statement and returns a weak reference to the prepared
+     * statement, so that no local variable of the caller refers to it.
+     */
+    private static WeakReference<PreparedStatement> bindAndRelease(
+        StatementCache cache) {
+
+        cache.bind("SELECT * FROM t");
+        return new WeakReference<PreparedStatement>(
+            cache.prepare("SELECT * FROM t"));
+    }
+
+    private static boolean isCollected(WeakReference<?> ref) {
+        for (int i = 0; i < 50 && ref.get() != null; i++) {
+            System.gc();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return ref.get() == null;
+    }
+
+    /*
+     * Returns a store whose prepare method returns a new prepared statement,
+     * and whose other methods are not supported.
+     */
+    private static KVStore createStore() {
+        return (KVStore) Proxy.newProxyInstance(
+            KVStore.class.getClassLoader(),
+            new Class<?>[] { KVStore.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy,
+                                     Method method,
+                                     Object[] args) {
+                    if (method.getName().equals("prepare")) {
+                        return createPrepared();
+                    }
+                    throw new UnsupportedOperationException(
+                        method.getName());
+                }
+            });
+    }
+
+    private static PreparedStatement createPrepared() {
+        final PreparedStatement[] prepared = new PreparedStatement[1];
+        prepared[0] = (PreparedStatement) Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy,
+                                     Method method,
+                                     Object[] args) {
+                    if (method.getName().equals("createBoundStatement")) {
+                        return createBound(prepared[0]);
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+        return prepared[0];
+    }
+
+    private static BoundStatement createBound(
+        final PreparedStatement prepared) {
+
+        return (BoundStatement) Proxy.newProxyInstance(
+            BoundStatement.class.getClassLoader(),
+            new Class<?>[] { BoundStatement.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy,
+                                     Method method,
+                                     Object[] args) {
+                    if (method.getName().equals("getPreparedStatement")) {
+                        return prepared;
+                    }
+                    if (method.getName().equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (method.getName().equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    return null;
+                }
+            });
+    }
+
+    private static void check(boolean condition, String what) {
+        if (!condition) {
+            System.err.println("Check failed: " + what);
+            System.exit(1);
+        }
+    }
+}
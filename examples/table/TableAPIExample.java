@@ -19,6 +19,9 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.TreeMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import memstore.InMemoryStore;
 
 import oracle.kv.FaultException;
 import oracle.kv.KVStore;
@@ -40,6 +43,12 @@ import oracle.kv.KVStoreFactory;
  *                            [-store &lt;instance name&gt;] &#92;
  *                            [-host  &lt;host name&gt;]     &#92;
  *                            [-port  &lt;port number&gt;]   &#92;
+ *                            [-benchmark [-threads &lt;threads&gt;]  &#92;
+ *                                        [-warmup &lt;seconds&gt;]  &#92;
+ *                                        [-duration &lt;seconds&gt;] &#92;
+ *                                        [-rate &lt;calls per second&gt;]] &#92;
+ *                            [-inmemory [-latency &lt;microseconds&gt;] &#92;
+ *                                       [-failures &lt;fraction&gt;]] &#92;
  *                            example1 example2 ...
  *
  * </pre>
@@ -55,6 +64,24 @@ import oracle.kv.KVStoreFactory;
  * <pre>
  * java -cp .:&lt;path-to-kvclient.jar&gt; table.TableAPIExample -list
  * </pre>
+ * <p>
+ * With -benchmark, each example, once initialized, is called repeatedly by
+ * a {@link WorkloadRunner}, from the given number of threads (default 1),
+ * for a warmup period (default 5 seconds) and then a measurement period
+ * (default 30 seconds), and its throughput and latency percentiles are
+ * printed. With -rate, the calls are made at the given rate for all threads,
+ * and the latencies are also measured from the time each call was scheduled
+ * to start, which corrects for coordinated omission. Any example, including
+ * those added with the more.table.examples property, can be run as a load
+ * test this way.
+ * <p>
+ * With -inmemory, the examples run against an {@link InMemoryStore}
+ * instead of a store, for examples that only use DDL statements and primary
+ * key operations, such as SimpleReadWrite, ShardKeys and ComplexField.
+ * With -latency, each operation is delayed by up to the given number of
+ * microseconds, and with -failures, the given fraction of the operations
+ * fail with a RequestTimeoutException, half of them before and half after
+ * the operation is applied.
  * <h3>Example Cases</h3>
  * <ul>
  * <li>SimpleReadWrite: Creates a very simple table and does simple put and get
@@ -99,6 +126,7 @@ import oracle.kv.KVStoreFactory;
 public class TableAPIExample {
     private static KVStore store;
     private static Map<String, Example> examples;
+    private static WorkloadRunner runner;
 
     /**
      * statically enumerate available examples indexed by logical name.
@@ -171,7 +199,16 @@ public class TableAPIExample {
                 try {
                     log("---- Running example [" + exampleName + "] ----------");
                     example.init(store);
-                    example.call();
+                    if (runner == null) {
+                        example.call();
+                    } else {
+                        runner.run(exampleName, example);
+                        if (example instanceof BaseExample) {
+                            System.out.println("  " +
+                                ((BaseExample) example).getStatementCache()
+                                .getStatistics());
+                        }
+                    }
                 } catch (Throwable t) {
                     error(t.getMessage());
                 } finally {
@@ -204,6 +241,14 @@ public class TableAPIExample {
         String storeName = "kvstore";
         String hostName = "localhost";
         String hostPort = "5000";
+        boolean benchmark = false;
+        int nThreads = 1;
+        int warmupSecs = 5;
+        int durationSecs = 30;
+        double rate = 0;
+        boolean inMemory = false;
+        long latencyMicros = 0;
+        double failures = 0;
 
         /**
          * If no arguments are provided, initialize store with default
@@ -236,6 +281,46 @@ public class TableAPIExample {
                 } else {
                     usage("-port requires an argument", 1);
                 }
+            } else if ("-benchmark".equals(arg)) {
+                benchmark = true;
+            } else if ("-threads".equals(arg)) {
+                if (i < argv.length - 1) {
+                    nThreads = Integer.parseInt(argv[++i]);
+                } else {
+                    usage("-threads requires an argument", 1);
+                }
+            } else if ("-warmup".equals(arg)) {
+                if (i < argv.length - 1) {
+                    warmupSecs = Integer.parseInt(argv[++i]);
+                } else {
+                    usage("-warmup requires an argument", 1);
+                }
+            } else if ("-duration".equals(arg)) {
+                if (i < argv.length - 1) {
+                    durationSecs = Integer.parseInt(argv[++i]);
+                } else {
+                    usage("-duration requires an argument", 1);
+                }
+            } else if ("-rate".equals(arg)) {
+                if (i < argv.length - 1) {
+                    rate = Double.parseDouble(argv[++i]);
+                } else {
+                    usage("-rate requires an argument", 1);
+                }
+            } else if ("-inmemory".equals(arg)) {
+                inMemory = true;
+            } else if ("-latency".equals(arg)) {
+                if (i < argv.length - 1) {
+                    latencyMicros = Long.parseLong(argv[++i]);
+                } else {
+                    usage("-latency requires an argument", 1);
+                }
+            } else if ("-failures".equals(arg)) {
+                if (i < argv.length - 1) {
+                    failures = Double.parseDouble(argv[++i]);
+                } else {
+                    usage("-failures requires an argument", 1);
+                }
             } else if (arg.equals("-?") || arg.equals("-help")) {
                 usage(null, 1);
             } else if ("-list".equals(arg)) {
@@ -248,7 +333,18 @@ public class TableAPIExample {
             }
         }
 
-        store = initStore(storeName, hostName, hostPort);
+        if (benchmark) {
+            runner = new WorkloadRunner(nThreads, warmupSecs, durationSecs,
+                                        rate);
+        }
+        if (inMemory) {
+            final InMemoryStore memStore = new InMemoryStore();
+            memStore.setLatency(0, latencyMicros, TimeUnit.MICROSECONDS);
+            memStore.setFailureRates(failures / 2, failures / 2);
+            store = memStore.getStore();
+        } else {
+            store = initStore(storeName, hostName, hostPort);
+        }
 
         if (i == argv.length) {
             list("***INFO: No example specified. Running all examples",
@@ -305,6 +401,11 @@ public class TableAPIExample {
         System.err.print("\t[-store <store name>]");
         System.err.print(" [-host <host name>]");
         System.err.println(" [-port <port number>]");
+        System.err.print("\t[-benchmark [-threads <threads>]");
+        System.err.print(" [-warmup <seconds>] [-duration <seconds>]");
+        System.err.println(" [-rate <calls per second>]]");
+        System.err.print("\t[-inmemory [-latency <microseconds>]");
+        System.err.println(" [-failures <fraction>]]");
         System.err.println("\t[example1 example2 ...]");
 
         System.err.println("\nwhere");
@@ -315,6 +416,22 @@ public class TableAPIExample {
                 + "(default: localhost)");
         System.err.println("\t-port <port number>      the store's port "
                 + "(default: 5000)");
+        System.err.println("\t-benchmark               call each example "
+                + "repeatedly and report its throughput and latencies");
+        System.err.println("\t-threads <threads>       benchmark client "
+                + "threads (default: 1)");
+        System.err.println("\t-warmup <seconds>        benchmark warmup "
+                + "(default: 5)");
+        System.err.println("\t-duration <seconds>      benchmark measurement "
+                + "(default: 30)");
+        System.err.println("\t-rate <calls per second> benchmark target rate "
+                + "for all threads (default: unthrottled)");
+        System.err.println("\t-inmemory                run against an "
+                + "in-memory store instead of a store");
+        System.err.println("\t-latency <microseconds>  in-memory maximum "
+                + "operation latency (default: 0)");
+        System.err.println("\t-failures <fraction>     in-memory operation "
+                + "failure rate (default: 0)");
 
         list("\nAvailable examples are:", System.err, 0);
         System.err.println("If no example name is provided, then runs all "
@@ -44,6 +44,7 @@ public class UpdateJSON {
     private String defaulthost = "localhost:5000";
     private String helperhosts[];
     private String storeName = "kvstore";
+    private StatementCache statements;
 
 
     private static void usage() {
@@ -82,6 +83,7 @@ public class UpdateJSON {
             new KVStoreConfig(storeName,
                               helperhosts);
         KVStore kvstore = KVStoreFactory.getStore(kconfig);
+        statements = new StatementCache(kvstore);
 
         defineTable(kvstore);
         loadTable(kvstore, dataFile);
@@ -146,6 +148,7 @@ public class UpdateJSON {
 
         try {
             result = kvstore.executeSync(statement);
+            statements.clear();
             displayResult(result, statement);
             success = true;
         } catch (IllegalArgumentException e) {
@@ -287,7 +290,8 @@ public class UpdateJSON {
         String query = "select * from personContacts p ";
         query += "where p.person.address.home.city=\"Boston\"";
 
-        StatementResult result = kvstore.executeSync(query);
+        // The query is prepared once, and reused on later calls
+        StatementResult result = statements.executeSync(query);
 
         for (RecordValue rv : result) {
             Row row = myTable.createRowFromJson(rv.toString(), false);
@@ -0,0 +1,336 @@
+/*-
+ * Copyright (C) 2011, 2018 Oracle and/or its affiliates. All rights reserved.
+ *
+ * This file was distributed by Oracle as part of a version of Oracle NoSQL
+ * Database made available at:
+ *
+ * http://www.oracle.com/technetwork/database/database-technologies/nosqldb/downloads/index.html
+ *
+ * Please see the LICENSE file included in the top-level directory of the
+ * appropriate version of Oracle NoSQL Database for a copy of the license and
+ * additional information.
+ */
+
+package table;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the {@link Example#call} of an example repeatedly, as a load test,
+ * for the -benchmark mode of {@link TableAPIExample}.
+ * <p>
+ * A number of client threads call the example concurrently, first for a
+ * warmup period, whose calls are not measured, then for a measurement
+ * period. The example must be initialized. With more than one thread, the
+ * benchmark requires the call method of the example to be safe to call
+ * concurrently, which is not checked: examples whose call creates or drops
+ * tables or indexes, or changes shared rows, should be run with a single
+ * thread. What the example prints is discarded while it runs.
+ * <p>
+ * Latencies are recorded in a fixed size histogram per thread, with
+ * logarithmic buckets each divided into 128 linear ones, so that memory does
+ * not grow with the length of the run, and percentiles are accurate to
+ * within 1%. The maximum is exact. A call that throws, an Error included, is
+ * counted as an error, and its latency is not recorded.
+ * <p>
+ * Without a target rate, each thread calls the example again as soon as
+ * the previous call returns, and the latency reported is the service time
+ * of each call. With a target rate, in calls per second for all threads,
+ * each thread calls the example on a fixed schedule, and the latency of a
+ * call is measured from the time it was scheduled to start, not from the
+ * time it started. When calls take longer than their interval, the next
+ * calls start late, and the time they waited is counted in their latency,
+ * as it would be for the requests of independent users arriving at that
+ * rate. Measuring from the actual start, a stall would be recorded as one
+ * slow call while the calls it delayed were recorded as fast, which is the
+ * coordinated omission that hides stalls in percentiles. Both latencies
+ * are reported with a target rate.
+ */
+class WorkloadRunner {
+
+    /* reported latency percentiles */
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+
+    private final int nThreads;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final double targetRate;
+
+    /**
+     * Creates a runner.
+     *
+     * @param nThreads the number of client threads
+     * @param warmupSecs the length of the warmup period
+     * @param durationSecs the length of the measurement period
+     * @param targetRate the rate of calls per second, for all threads, or 0
+     * to call as fast as possible
+     */
+    WorkloadRunner(final int nThreads,
+                   final int warmupSecs,
+                   final int durationSecs,
+                   final double targetRate) {
+        if (nThreads <= 0 || warmupSecs < 0 || durationSecs <= 0 ||
+            targetRate < 0) {
+            throw new IllegalArgumentException(
+                "Invalid benchmark parameters: threads " + nThreads +
+                ", warmup " + warmupSecs + ", duration " + durationSecs +
+                ", rate " + targetRate);
+        }
+        this.nThreads = nThreads;
+        warmupNanos = TimeUnit.SECONDS.toNanos(warmupSecs);
+        durationNanos = TimeUnit.SECONDS.toNanos(durationSecs);
+        this.targetRate = targetRate;
+    }
+
+    /**
+     * Runs the example and prints its throughput and latencies.
+     */
+    void run(final String name, final Example example)
+        throws InterruptedException {
+
+        final long start = System.nanoTime();
+        final long measureStart = start + warmupNanos;
+        final long measureEnd = measureStart + durationNanos;
+
+        /* Interval between the calls of a thread, 0 if not throttled */
+        final long interval = (targetRate == 0) ? 0 :
+            (long) (nThreads * 1e9 / targetRate);
+
+        final Client[] clients = new Client[nThreads];
+        final PrintStream out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }));
+        try {
+            for (int i = 0; i < nThreads; i++) {
+                /* Stagger the schedules of the threads over an interval */
+                clients[i] = new Client(example,
+                                        start + i * interval / nThreads,
+                                        interval, measureStart, measureEnd);
+                clients[i].start();
+            }
+            for (Client client : clients) {
+                client.join();
+            }
+        } finally {
+            System.setOut(out);
+        }
+
+        report(name, clients, interval != 0);
+    }
+
+    private void report(final String name,
+                        final Client[] clients,
+                        final boolean throttled) {
+        long nErrors = 0;
+        Throwable firstError = null;
+        final Histogram service = new Histogram();
+        final Histogram response = new Histogram();
+        for (Client client : clients) {
+            nErrors += client.nErrors;
+            if (firstError == null) {
+                firstError = client.firstError;
+            }
+            service.add(client.service);
+            response.add(client.response);
+        }
+        final long nCalls = service.getCount();
+
+        System.out.println(String.format(
+            "%s: %d threads, %s, %d s measured after %d s warmup",
+            name, nThreads,
+            throttled ? String.format("target %.1f calls/s", targetRate) :
+            "unthrottled",
+            TimeUnit.NANOSECONDS.toSeconds(durationNanos),
+            TimeUnit.NANOSECONDS.toSeconds(warmupNanos)));
+        System.out.println(String.format(
+            "  throughput %.1f calls/s, %d calls, %d errors",
+            (nCalls + nErrors) * 1e9 / durationNanos, nCalls + nErrors,
+            nErrors));
+        if (throttled) {
+            System.out.println("  response time " + percentiles(response) +
+                               " (from scheduled start)");
+        }
+        System.out.println("  service time  " + percentiles(service));
+        if (firstError != null) {
+            System.out.println("  first error: " + firstError);
+        }
+    }
+
+    /* Formats the reported percentiles, in milliseconds */
+    private static String percentiles(final Histogram histogram) {
+        final StringBuilder sb = new StringBuilder();
+        for (double percent : PERCENTILES) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append((percent == 100) ? "max" : "p" + format(percent))
+              .append(' ');
+            if (histogram.getCount() == 0) {
+                sb.append('-');
+                continue;
+            }
+            sb.append(String.format("%.3f",
+                                    histogram.getPercentile(percent) / 1e6));
+        }
+        return sb.append(" ms").toString();
+    }
+
+    private static String format(final double percent) {
+        return (percent == Math.rint(percent)) ?
+            String.valueOf((long) percent) : String.valueOf(percent);
+    }
+
+    /*
+     * A client thread, calling the example on its schedule, or as fast as
+     * possible if its interval is 0.
+     */
+    private static class Client extends Thread {
+
+        private final Example example;
+        private final long firstStart;
+        private final long interval;
+        private final long measureStart;
+        private final long measureEnd;
+
+        final Histogram service = new Histogram();
+        final Histogram response = new Histogram();
+        long nErrors;
+        Throwable firstError;
+
+        Client(final Example example,
+               final long firstStart,
+               final long interval,
+               final long measureStart,
+               final long measureEnd) {
+            super("WorkloadClient");
+            this.example = example;
+            this.firstStart = firstStart;
+            this.interval = interval;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+        }
+
+        @Override
+        public void run() {
+            long scheduled = firstStart;
+            while (true) {
+                long now = System.nanoTime();
+                if (interval == 0) {
+                    scheduled = now;
+                } else {
+                    /* Wait for the scheduled start, unless already late */
+                    while (now < scheduled) {
+                        LockSupport.parkNanos(scheduled - now);
+                        now = System.nanoTime();
+                    }
+                }
+                if (scheduled >= measureEnd) {
+                    break;
+                }
+                boolean failed = false;
+                try {
+                    example.call();
+                } catch (Throwable t) {
+                    /* Errors too, so that no call goes unreported */
+                    failed = true;
+                    if (firstError == null) {
+                        firstError = t;
+                    }
+                }
+                final long end = System.nanoTime();
+                if (scheduled >= measureStart) {
+                    if (failed) {
+                        nErrors++;
+                    } else {
+                        service.record(end - now);
+                        response.record(end - scheduled);
+                    }
+                }
+                scheduled += interval;
+            }
+        }
+    }
+
+    /*
+     * A histogram of latencies in nanoseconds. Values below 256 have a
+     * bucket each; above, each power of 2 is divided into 128 buckets, so
+     * that a bucket is less than 1% of its values wide.
+     */
+    static class Histogram {
+
+        private static final int SUB_BITS = 7;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+        private final long[] counts = new long[64 * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(final long nanos) {
+            final long value = Math.max(0, nanos);
+            counts[indexOf(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(final Histogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        /*
+         * Returns the highest value of the bucket holding the value at the
+         * given percentile, or the maximum for 100.
+         */
+        long getPercentile(final double percent) {
+            if (percent >= 100) {
+                return max;
+            }
+            final long rank =
+                Math.max(1, (long) Math.ceil(percent / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int indexOf(final long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            final int shift =
+                63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+            return (shift + 1) * SUB_BUCKETS +
+                (int) (value >>> shift) - SUB_BUCKETS;
+        }
+
+        private static long highestValueOf(final int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            final int shift = index / SUB_BUCKETS - 1;
+            final long lowest =
+                (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}